@@ -1,22 +1,84 @@
 import controller.ImageController;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.List;
+import model.CachingImageModel;
+import model.ImageModel;
+import model.ParallelExecutor;
+import model.image.ImageFactory;
+import model.image.MappedImage;
+import model.image.PackedImage;
+import model.image.TiledImage;
 
 /**
  * The entrance of the program.
  */
 public class Main {
 
+  private static final String USAGE = "Usage: java Main -file <script.txt> [-mapped | -tiled] "
+      + "[-threads <n>] [-deferred | -stream | -proxy <max_edge>] [-cache <megabytes>]";
+
   /**
    * The entrance of the program.
    * @param args the arguments to use.
    */
   public static void main(String[] args) {
-    if (args.length == 0) {
-      System.out.println("Usage: java Main -file <script.txt>");
+    long threads = positiveOption(args, "-threads", Integer.MAX_VALUE);
+    long cache = positiveOption(args, "-cache", Long.MAX_VALUE >> 20);
+    long proxy = positiveOption(args, "-proxy", Integer.MAX_VALUE);
+    if (args.length == 0 || threads < 0 || cache < 0 || proxy < 0) {
+      System.out.println(USAGE);
       return;
     }
     Scanner scanner = new Scanner(System.in);
-    ImageController controller = new ImageController();
+    List<String> options = Arrays.asList(args);
+    ImageFactory factory = PackedImage::new;
+    if (options.contains("-mapped")) {
+      // keep every image in a memory-mapped temporary file instead of on the heap
+      factory = MappedImage::new;
+    } else if (options.contains("-tiled")) {
+      // keep a bounded cache of tiles in memory and spill the rest to disk
+      factory = TiledImage::new;
+    }
+    ParallelExecutor executor = new ParallelExecutor();
+    if (threads > 0) {
+      executor = new ParallelExecutor((int) threads);
+    }
+    ImageModel model = new ImageModel(factory, executor);
+    if (cache > 0) {
+      // remember results so repeated operations on identical images are not recomputed
+      model = new CachingImageModel(factory, executor, cache << 20);
+    }
+    ImageController controller = new ImageController(model, factory);
+    if (options.contains("-deferred")) {
+      // record commands and only compute the images that a save needs
+      controller.setDeferred(true);
+    }
+    if (options.contains("-stream")) {
+      // stream load, point operation and filter chains to their saves a band of rows at a time
+      controller.setStreaming(true);
+    }
+    if (proxy > 0) {
+      // edit small proxies interactively and render saves at full resolution in the background
+      controller.setProxy((int) proxy);
+    }
     controller.run(scanner);
   }
+
+  /**
+   * Return the number given after an option, 0 if the option is absent, or -1 if the number is
+   * missing, not positive or larger than max.
+   */
+  private static long positiveOption(String[] args, String option, long max) {
+    int index = Arrays.asList(args).indexOf(option);
+    if (index < 0) {
+      return 0;
+    }
+    try {
+      long value = index + 1 < args.length ? Long.parseLong(args[index + 1]) : -1;
+      return value > 0 && value <= max ? value : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
 }
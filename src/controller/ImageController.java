@@ -3,11 +3,35 @@ package controller;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import model.image.GreyImage;
+import model.image.HaarCompressedImage;
 import model.image.Image;
+import model.CachingImageModel;
 import model.ImageModel;
+import model.filter.Kernel;
+import model.filter.Pyramid;
+import model.filter.Resampler;
+import model.image.ImageFactory;
+import model.image.PackedImage;
+import model.image.Region;
+import model.image.ViewImage;
+import model.pipeline.PointOp;
+import model.pipeline.PointOpView;
+import model.stats.Histogram;
+import model.stream.RowSource;
 import utils.ImageIOHelper;
 
 /**
@@ -15,17 +39,169 @@ import utils.ImageIOHelper;
  * operations. It interacts with the ImageModel to load, save, and apply transformations to images.
  * It supports both interactive commands and the execution of a script containing multiple
  * commands.
+ *
+ * <p>Colour commands such as brighten, sepia and the component commands do not compute their
+ * result straight away. They store a view that applies the operation as the image is read, and a
+ * colour command on such a view composes with it, so a chain of them runs as a single pass over
+ * the original image when the result is saved or used by another command.
+ *
+ * <p>When a colour or convolution command names the same image as input and output, the image is
+ * updated in place instead of computing a second copy, unless it is only a view. Views of the
+ * image held under other names are materialized first so that they keep their contents.
+ *
+ * <p>Commands that keep the size of their image accept a last argument region=row,col,height,width
+ * or mask=name, which limits them to a rectangle or to the pixels selected by a mask image.
+ * Only the region and the border its kernel reads are computed, and the result shares the other
+ * pixels with the source; see ImageModel.applyToRegion.
+ *
+ * <p>The thumbnail command resizes from the mip pyramid of its source, which is kept per image
+ * name until the name is given a new image or the image is updated in place, so repeated
+ * thumbnails and previews of an image read only its small levels. An image loaded from a .haar
+ * file that has not been changed is instead shrunk by decoding only the coarse levels of its
+ * wavelet coefficients, so its full size is never decoded for a thumbnail or a proxy.
+ *
+ * <p>In deferred mode commands are not run at all. They build a graph of named images, saves are
+ * queued, and the queued saves are evaluated by a flush command, at the end of a script and on
+ * exit. Only images that a queued save depends on are computed; see ScriptGraph. Streaming
+ * mode is deferred mode in which a save that only needs point operations, blur, sharpen and
+ * convolve on a loaded file streams the file through them a band of rows at a time.
+ *
+ * <p>In proxy mode every loaded image is shrunk to a small proxy and commands run on the proxies
+ * straight away, with crop and resize arguments scaled to match. The same commands are recorded
+ * in a graph at full resolution, and each save renders its image from that graph on a background
+ * thread while the next commands run. Preview saves a proxy, and flush, the end of a script and
+ * exit wait for the renders to finish.
  */
 public class ImageController {
 
+  private static final Set<String> REGION_COMMANDS = Set.of("brighten", "blur", "convolve",
+      "sepia", "sharpen", "greyScale", "red-component", "green-component", "blue-component",
+      "value-component", "luma-component", "intensity-component", "horizontal-flip",
+      "vertical-flip", "gamma", "levels", "curves", "invert", "threshold", "auto-levels",
+      "equalize", "color-correct");
+
   private ImageModel imageModel;
+  private ImageFactory imageFactory;
   private Map<String, Image> images = new HashMap<>();
+  private Map<String, Pyramid> pyramids = new HashMap<>();
+  private ScriptGraph graph;
+  private ExecutorService renderer;
+  private int proxyEdge;
+  private Map<String, Double> proxyScales = new HashMap<>();
+  private String regionArgument;
 
   /**
    * Constructor of ImageController.
    */
   public ImageController() {
-    this.imageModel = new ImageModel();
+    this(PackedImage::new);
+  }
+
+  /**
+   * Constructor of ImageController that stores loaded images and results in images created by
+   * the given factory, for example MappedImage::new for inputs larger than the heap.
+   *
+   * @param imageFactory creates every image the controller loads or computes
+   */
+  public ImageController(ImageFactory imageFactory) {
+    this(new ImageModel(imageFactory), imageFactory);
+  }
+
+  /**
+   * Constructor of ImageController with a preconfigured model, for example one with a fixed
+   * parallelism level.
+   *
+   * @param imageModel   the model that performs the operations
+   * @param imageFactory creates the images the controller loads
+   */
+  public ImageController(ImageModel imageModel, ImageFactory imageFactory) {
+    this.imageModel = imageModel;
+    this.imageFactory = imageFactory;
+  }
+
+  /**
+   * Switch deferred mode on or off. Switching it on hands the current images to a new graph;
+   * switching it off flushes the queued saves and computes every named image.
+   *
+   * @param deferred whether commands should only be recorded until a save needs their result
+   */
+  public void setDeferred(boolean deferred) {
+    if (renderer != null) {
+      return;
+    }
+    if (deferred && graph == null) {
+      graph = new ScriptGraph(imageModel, imageFactory);
+      images.forEach(graph::put);
+      images.clear();
+    } else if (!deferred && graph != null) {
+      graph.flush();
+      for (String name : graph.names()) {
+        try {
+          putImage(name, graph.get(name));
+        } catch (IllegalArgumentException e) {
+          System.out.println("Could not compute " + name + ": " + e.getMessage());
+        }
+      }
+      graph = null;
+    }
+  }
+
+  /**
+   * Switch streaming mode on or off. Switching it on also switches deferred mode on, so saves
+   * that can stream from their files are streamed when they are flushed.
+   *
+   * @param streaming whether saves should stream their images when they can
+   */
+  public void setStreaming(boolean streaming) {
+    if (streaming) {
+      setDeferred(true);
+    }
+    if (graph != null && renderer == null) {
+      graph.setStreaming(streaming);
+    }
+  }
+
+  /**
+   * Switch proxy mode on or off. Switching it on shrinks the current images to proxies and keeps
+   * the originals for rendering; switching it off waits for the renders and computes every named
+   * image at full resolution. Deferred mode is switched off first.
+   *
+   * @param edge the longest edge of a proxy in pixels, or 0 to switch proxy mode off
+   */
+  public void setProxy(int edge) {
+    if (edge > 0 && renderer == null) {
+      setDeferred(false);
+      graph = new ScriptGraph(imageModel, imageFactory);
+      proxyEdge = edge;
+      Map<String, Image> originals = new HashMap<>(images);
+      originals.forEach(graph::put);
+      images.clear();
+      originals.forEach(this::putProxy);
+      renderer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "full-resolution renderer");
+        thread.setDaemon(true);
+        return thread;
+      });
+    } else if (edge <= 0 && renderer != null) {
+      Map<String, Image> originals = new HashMap<>();
+      ScriptGraph full = graph;
+      await(() -> {
+        for (String name : full.names()) {
+          try {
+            originals.put(name, full.get(name));
+          } catch (IllegalArgumentException e) {
+            System.out.println("Could not compute " + name + ": " + e.getMessage());
+          }
+        }
+      });
+      renderer.shutdown();
+      renderer = null;
+      graph = null;
+      images.clear();
+      images.putAll(originals);
+      proxyScales.clear();
+      pyramids.clear();
+    }
   }
 
   /**
@@ -40,6 +216,7 @@ public class ImageController {
       String command = scanner.nextLine();
 
       if (command.equalsIgnoreCase("exit")) {
+        flush();
         System.out.println("Exiting program...");
         running = false;
       } else {
@@ -60,96 +237,268 @@ public class ImageController {
     if (command.isEmpty() || command.startsWith("#")) {
       return;
     }
-    String[] tokens = command.split(" ");
+    String[] words = command.split(" ");
+    String last = words[words.length - 1];
+    regionArgument = words.length > 1 && (last.startsWith("region=") || last.startsWith("mask="))
+        ? last : null;
+    if (regionArgument != null && !REGION_COMMANDS.contains(words[0])) {
+      System.out.println(words[0] + " cannot be limited to a region");
+      return;
+    }
+    String[] tokens = regionArgument != null ? Arrays.copyOf(words, words.length - 1) : words;
     switch (tokens[0]) {
       case "load":
         if (tokens.length != 3) {
           System.out.println("Usage: load <input_file_path> <reference_name>");
         } else {
-          Image image = ImageIOHelper.loadImage(tokens[1]);
-          images.put(tokens[2], image);
+          String path = tokens[1];
+          if (renderer != null) {
+            Image image = ImageIOHelper.loadImage(path, imageFactory,
+                imageModel.getExecutor());
+            if (image != null) {
+              record(full -> full.put(tokens[2], image));
+              putProxy(tokens[2], image);
+            }
+          } else if (graph != null) {
+            graph.load(tokens[2], path);
+          } else {
+            putImage(tokens[2], ImageIOHelper.loadImage(path, imageFactory,
+                imageModel.getExecutor()));
+          }
         }
         break;
       case "save":
         if (tokens.length != 3) {
           System.out.println("Usage: save <save_path> <output_name>");
         } else {
-          ImageIOHelper.saveImage(tokens[1], images.get(tokens[2]));
+          if (graph == null) {
+            ImageIOHelper.saveImage(tokens[1], images.get(tokens[2]),
+                imageModel.getExecutor());
+          } else {
+            record(full -> full.save(tokens[1], tokens[2]));
+            if (renderer != null) {
+              record(ScriptGraph::flush);
+            }
+          }
+        }
+        break;
+      case "preview":
+        if (tokens.length != 3) {
+          System.out.println("Usage: preview <save_path> <output_name>");
+        } else if (renderer == null) {
+          System.out.println("Preview needs proxy mode; start with -proxy <max_edge>");
+        } else {
+          ImageIOHelper.saveImage(tokens[1], images.get(tokens[2]),
+              imageModel.getExecutor());
+        }
+        break;
+      case "flush":
+        flush();
+        break;
+      case "cache-stats":
+        if (imageModel instanceof CachingImageModel) {
+          CachingImageModel cache = (CachingImageModel) imageModel;
+          System.out.println("Cache: " + cache.getHits() + " hits, " + cache.getMisses()
+              + " misses, " + cache.getEvictions() + " evictions, " + cache.getBytes() + " of "
+              + cache.getBudget() + " bytes");
+        } else {
+          System.out.println("No result cache; start with -cache <megabytes>");
         }
         break;
       case "horizontal-flip":
         if (tokens.length != 3) {
           System.out.println("Usage: horizontal-flip <reference_name> <output_name>");
         } else {
-          Image img = imageModel.flipHorizontal(images.get(tokens[1]));
-          images.put(tokens[2], img);
+          applyOperation(new String[]{tokens[2]},
+              in -> new Image[]{imageModel.flipHorizontal(in[0])}, tokens[1]);
         }
         break;
       case "vertical-flip":
         if (tokens.length != 3) {
           System.out.println("Usage: horizontal-flip <reference_name> <output_name>");
         } else {
-          Image img = imageModel.flipVertical(images.get(tokens[1]));
-          images.put(tokens[2], img);
+          applyOperation(new String[]{tokens[2]},
+              in -> new Image[]{imageModel.flipVertical(in[0])}, tokens[1]);
         }
         break;
       case "brighten":
         int increment = Integer.parseInt(tokens[3]);
-        Image img = imageModel.brighten(images.get(tokens[1]), increment);
-        images.put(tokens[2], img);
+        applyPointOp(tokens[1], tokens[2], PointOp.brighten(increment));
         break;
       case "blur":
-        Image blur = imageModel.blur(images.get(tokens[1]));
-        images.put(tokens[2], blur);
+        applyFilter(tokens[1], tokens[2], 1,
+            (img, dest) -> dest != null ? imageModel.blur(img, dest) : imageModel.blur(img),
+            imageModel::blurRows);
+        break;
+      case "convolve":
+        if (tokens.length != 4) {
+          System.out.println("Usage: convolve <reference_name> <output_name> "
+              + "<box:radius | gaussian:radius | kernel_file>");
+        } else {
+          Kernel kernel = readKernel(tokens[3]);
+          if (kernel != null) {
+            int halo = Math.max(kernel.getWidth(), kernel.getHeight()) / 2;
+            applyFilter(tokens[1], tokens[2], halo, (img, dest) -> dest != null
+                ? imageModel.convolve(img, kernel, dest) : imageModel.convolve(img, kernel),
+                rows -> imageModel.convolveRows(rows, kernel));
+          }
+        }
         break;
       case "sepia":
-        Image sepia = imageModel.sepia(images.get(tokens[1]));
-        images.put(tokens[2], sepia);
+        applyPointOp(tokens[1], tokens[2], PointOp.sepia());
         break;
       case "sharpen":
-        Image sharpen = imageModel.sharpen(images.get(tokens[1]));
-        images.put(tokens[2], sharpen);
+        applyFilter(tokens[1], tokens[2], 2,
+            (img, dest) -> dest != null ? imageModel.sharpen(img, dest) : imageModel.sharpen(img),
+            imageModel::sharpenRows);
         break;
       case "greyScale":
-        Image greyScale = imageModel.toGreyscale(images.get(tokens[1]));
-        images.put(tokens[2], greyScale);
+        applyPointOp(tokens[1], tokens[2], PointOp.greyscale());
         break;
       case "rgb-split":
-        Image r = imageModel.redComponent(images.get(tokens[1]));
-        Image g = imageModel.greenComponent(images.get(tokens[1]));
-        Image b = imageModel.blueComponent(images.get(tokens[1]));
-        images.put(tokens[2], r);
-        images.put(tokens[3], g);
-        images.put(tokens[4], b);
+        if (tokens.length != 5) {
+          System.out.println("Usage: rgb-split <reference_name> <red_name> <green_name> "
+              + "<blue_name>");
+        } else {
+          applyOperation(new String[]{tokens[2], tokens[3], tokens[4]},
+              in -> imageModel.splitChannels(in[0]), tokens[1]);
+        }
         break;
       case "rgb-combine":
-        Image combined = imageModel.combineImage(images.get(tokens[2]), images.get(tokens[3]),
-            images.get(tokens[4]));
-        images.put(tokens[1], combined);
+        applyOperation(new String[]{tokens[1]},
+            in -> new Image[]{imageModel.combineImage(in[0], in[1], in[2])},
+            tokens[2], tokens[3], tokens[4]);
         break;
       case "red-component":
-        Image redComponent = imageModel.redComponent(images.get(tokens[1]));
-        images.put(tokens[2], redComponent);
+        applyPointOp(tokens[1], tokens[2], PointOp.channel(0));
         break;
       case "green-component":
-        Image greenComponent = imageModel.greenComponent(images.get(tokens[1]));
-        images.put(tokens[2], greenComponent);
+        applyPointOp(tokens[1], tokens[2], PointOp.channel(1));
         break;
       case "blue-component":
-        Image blueComponent = imageModel.blueComponent(images.get(tokens[1]));
-        images.put(tokens[2], blueComponent);
+        applyPointOp(tokens[1], tokens[2], PointOp.channel(2));
+        break;
+      case "crop":
+        if (tokens.length != 7) {
+          System.out.println("Usage: crop <reference_name> <output_name> <row> <col> <height> "
+              + "<width>");
+        } else {
+          int row = Integer.parseInt(tokens[3]);
+          int col = Integer.parseInt(tokens[4]);
+          int height = Integer.parseInt(tokens[5]);
+          int width = Integer.parseInt(tokens[6]);
+          double scale = proxyScale(tokens[1]);
+          applyOperation(new String[]{tokens[2]},
+              in -> new Image[]{imageModel.crop(in[0], row, col, height, width)},
+              in -> {
+                // Round the window to the proxy, keeping at least one pixel inside it.
+                int top = Math.min((int) Math.round(row * scale), in[0].getHeight() - 1);
+                int left = Math.min((int) Math.round(col * scale), in[0].getWidth() - 1);
+                return new Image[]{imageModel.crop(in[0], top, left,
+                    Math.max(1, Math.min(proxySize(height, scale), in[0].getHeight() - top)),
+                    Math.max(1, Math.min(proxySize(width, scale), in[0].getWidth() - left)))};
+              }, tokens[1]);
+        }
         break;
       case "value-component":
-        Image value = imageModel.value(images.get(tokens[1]));
-        images.put(tokens[2], value);
+        applyPointOp(tokens[1], tokens[2], PointOp.value());
         break;
       case "luma-component":
-        Image luma = imageModel.luma(images.get(tokens[1]));
-        images.put(tokens[2], luma);
+        applyPointOp(tokens[1], tokens[2], PointOp.luma());
         break;
       case "intensity-component":
-        Image intensity = imageModel.intensity(images.get(tokens[1]));
-        images.put(tokens[2], intensity);
+        applyPointOp(tokens[1], tokens[2], PointOp.intensity());
+        break;
+      case "gamma":
+      case "levels":
+      case "curves":
+      case "invert":
+      case "threshold":
+        PointOp tone = readToneOp(tokens);
+        if (tone != null) {
+          applyPointOp(tokens[1], tokens[2], tone);
+        }
+        break;
+      case "auto-levels":
+        if (tokens.length != 3 && tokens.length != 4) {
+          System.out.println("Usage: auto-levels <reference_name> <output_name> [clip_percent]");
+        } else {
+          double clip = tokens.length == 4 ? Double.parseDouble(tokens[3]) : 0.5;
+          applyHistogramOp(tokens[1], tokens[2], histogram -> histogram.autoLevels(clip));
+        }
+        break;
+      case "equalize":
+        applyHistogramOp(tokens[1], tokens[2], Histogram::equalize);
+        break;
+      case "color-correct":
+        applyHistogramOp(tokens[1], tokens[2], Histogram::colorCorrect);
+        break;
+      case "compress":
+        if (tokens.length != 4) {
+          System.out.println("Usage: compress <percentage> <reference_name> <output_name>");
+        } else {
+          double percent = Double.parseDouble(tokens[1]);
+          // Never written into a destination, so that the result keeps its coefficients for
+          // .haar saves.
+          applyFilter(tokens[2], tokens[3], 0, (img, dest) -> imageModel.compress(img, percent),
+              null);
+        }
+        break;
+      case "resize":
+        if (tokens.length != 5 && tokens.length != 6) {
+          System.out.println("Usage: resize <reference_name> <output_name> <width> <height> "
+              + "[area | bilinear]");
+        } else {
+          int width = Integer.parseInt(tokens[3]);
+          int height = Integer.parseInt(tokens[4]);
+          Resampler resampler = tokens.length == 6 && tokens[5].equals("bilinear")
+              ? Resampler.BILINEAR : Resampler.AREA;
+          double scale = proxyScale(tokens[1]);
+          applyOperation(new String[]{tokens[2]},
+              in -> new Image[]{imageModel.resize(in[0], width, height, resampler)},
+              in -> new Image[]{imageModel.resize(in[0], proxySize(width, scale),
+                  proxySize(height, scale), resampler)}, tokens[1]);
+        }
+        break;
+      case "thumbnail":
+        if (tokens.length != 4) {
+          System.out.println("Usage: thumbnail <reference_name> <output_name> <max_edge>");
+        } else {
+          int edge = Integer.parseInt(tokens[3]);
+          String source = tokens[1];
+          boolean keep = graph == null;
+          int previewEdge = proxySize(edge, proxyScale(source));
+          applyOperation(new String[]{tokens[2]},
+              in -> {
+                Image base = coarse(in[0], edge);
+                return new Image[]{thumbnail(base != in[0] ? imageModel.pyramid(base)
+                    : keep ? pyramid(source, in[0]) : imageModel.pyramid(in[0]), in[0], edge)};
+              },
+              in -> new Image[]{thumbnail(imageModel.pyramid(in[0]), previewEdge)}, source);
+        }
+        break;
+      case "histogram":
+        if (tokens.length != 3) {
+          System.out.println("Usage: histogram <reference_name> <output_name | csv_file>");
+        } else if (tokens[2].toLowerCase().endsWith(".csv")) {
+          String path = tokens[2];
+          useImage(tokens[1], "write " + path, img -> writeCsv(path, imageModel.histogram(img)));
+        } else {
+          applyOperation(new String[]{tokens[2]},
+              in -> new Image[]{imageModel.histogram(in[0]).toImage(imageFactory)}, tokens[1]);
+          if (renderer != null) {
+            // The graph has the same size at full resolution.
+            proxyScales.put(tokens[2], 1.0);
+          }
+        }
+        break;
+      case "stats":
+        if (tokens.length != 2) {
+          System.out.println("Usage: stats <reference_name>");
+        } else {
+          useImage(tokens[1], "measure " + tokens[1],
+              img -> System.out.print(imageModel.histogram(img)));
+        }
         break;
       case "run":
         runScript(tokens[1]);
@@ -160,6 +509,521 @@ public class ImageController {
     }
   }
 
+  /**
+   * Stores the result of a colour operation as a view of the source image. If the source is
+   * itself an unevaluated colour view, the two operations are composed onto its source. If the
+   * result replaces a source that holds its own pixels, they are transformed in place.
+   *
+   * @param source name of the image to transform
+   * @param dest   name to store the result under
+   * @param op     the operation
+   */
+  private void applyPointOp(String source, String dest, PointOp op) {
+    if (regionArgument != null) {
+      applyInRegion(source, dest, 0, img -> PointOpView.of(img, op, imageFactory));
+      return;
+    }
+    if (graph != null) {
+      record(full -> full.define(dest, op, source));
+      if (renderer == null) {
+        return;
+      }
+      inheritScale(dest, source);
+    }
+    // A grey image cannot take the result in place if the operation adds colour.
+    Image target = images.get(source) instanceof GreyImage && !op.mapsGreyToGrey() ? null
+        : inPlaceTarget(source, dest);
+    if (target != null) {
+      imageModel.apply(target, op, target);
+      pyramids.remove(dest);
+    } else {
+      putImage(dest, PointOpView.of(images.get(source), op, imageFactory));
+    }
+  }
+
+  /**
+   * Stores an image under a name. The image the name held before is closed if it is backed by a
+   * file and no name holds it or a view of it any more, so dropped intermediates do not keep
+   * their files until they are collected.
+   *
+   * @param name  the name
+   * @param image the image to store
+   */
+  private void putImage(String name, Image image) {
+    ScriptGraph.closeUnused(images.put(name, image), images.values());
+  }
+
+  /**
+   * Returns the pyramid kept for a name, building a new one if the name holds a different image.
+   *
+   * @param name  name of the image
+   * @param image the image the name holds
+   * @return the pyramid of the image
+   */
+  private Pyramid pyramid(String name, Image image) {
+    Pyramid pyramid = pyramids.get(name);
+    if (pyramid == null || pyramid.getBase() != image) {
+      pyramid = imageModel.pyramid(image);
+      pyramids.put(name, pyramid);
+    }
+    return pyramid;
+  }
+
+  /**
+   * Shrinks an image so that its longer edge is at most the given length, keeping its aspect
+   * ratio.
+   *
+   * @param pyramid the pyramid of the image
+   * @param edge    the longest edge of the result
+   * @return a new image
+   */
+  private Image thumbnail(Pyramid pyramid, int edge) {
+    return thumbnail(pyramid, pyramid.getBase(), edge);
+  }
+
+  /**
+   * Shrinks an image so that its longer edge is at most the given length, keeping its aspect
+   * ratio, resizing from the pyramid of a smaller version of it.
+   *
+   * @param pyramid the pyramid of the image or of a smaller version of it
+   * @param image   the image, which gives the size of the result
+   * @param edge    the longest edge of the result
+   * @return a new image
+   */
+  private Image thumbnail(Pyramid pyramid, Image image, int edge) {
+    if (edge < 1) {
+      throw new IllegalArgumentException("Thumbnail edge must be positive");
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int longest = Math.max(width, height);
+    if (longest > edge) {
+      width = (int) Math.max(1, Math.round((double) width * edge / longest));
+      height = (int) Math.max(1, Math.round((double) height * edge / longest));
+    }
+    return pyramid.resize(width, height);
+  }
+
+  /**
+   * Stores the result of an operation derived from the histogram of the source, such as
+   * equalize. The histogram is counted when the command runs, or in deferred mode when the
+   * result is needed, and the operation is then stored like any other colour operation.
+   *
+   * @param source name of the image to measure and transform
+   * @param dest   name to store the result under
+   * @param op     builds the operation from the histogram
+   */
+  private void applyHistogramOp(String source, String dest, Function<Histogram, PointOp> op) {
+    if (regionArgument != null) {
+      applyInRegion(source, dest, 0,
+          img -> imageModel.apply(img, op.apply(imageModel.histogram(img))));
+      return;
+    }
+    if (graph != null) {
+      applyOperation(new String[]{dest},
+          in -> new Image[]{imageModel.apply(in[0], op.apply(imageModel.histogram(in[0])))},
+          source);
+    } else {
+      applyPointOp(source, dest, op.apply(imageModel.histogram(images.get(source))));
+    }
+  }
+
+  /**
+   * Runs an action on a named image, in deferred mode once the image has been computed by a
+   * flush.
+   *
+   * @param name        name of the image
+   * @param description what the action does, for error messages
+   * @param action      the action
+   */
+  private void useImage(String name, String description, Consumer<Image> action) {
+    if (graph != null) {
+      record(full -> full.use(name, description, action));
+      if (renderer != null) {
+        record(ScriptGraph::flush);
+      }
+    } else {
+      action.accept(images.get(name));
+    }
+  }
+
+  /**
+   * Writes the counts of a histogram to a CSV file.
+   *
+   * @param path      the file to write
+   * @param histogram the histogram
+   */
+  private void writeCsv(String path, Histogram histogram) {
+    try {
+      Files.write(Paths.get(path), histogram.toCsv().getBytes());
+    } catch (IOException e) {
+      System.out.println("Error writing histogram: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stores the result of a filter such as blur, which runs in place when the result replaces a
+   * source that holds its own pixels.
+   *
+   * @param source name of the image to filter
+   * @param dest   name to store the result under
+   * @param halo   how far around a pixel the filter reads
+   * @param filter the filter
+   * @param stage  the same filter on a stream of rows for streaming mode, or null if it cannot
+   *               stream
+   */
+  private void applyFilter(String source, String dest, int halo, ScriptGraph.Filter filter,
+      UnaryOperator<RowSource> stage) {
+    if (regionArgument != null) {
+      applyInRegion(source, dest, halo, img -> filter.apply(img, null));
+      return;
+    }
+    if (graph != null) {
+      record(full -> full.define(dest, filter, stage, source));
+      if (renderer == null) {
+        return;
+      }
+      inheritScale(dest, source);
+    }
+    Image target = inPlaceTarget(source, dest);
+    putImage(dest, filter.apply(target != null ? target : images.get(source), target));
+    pyramids.remove(dest);
+  }
+
+  /**
+   * Stores the outputs of an operation on the named images.
+   *
+   * @param dests     names to store the outputs under
+   * @param operation the operation
+   * @param sources   names of the input images
+   */
+  private void applyOperation(String[] dests, ScriptGraph.Operation operation,
+      String... sources) {
+    applyOperation(dests, operation, operation, sources);
+  }
+
+  /**
+   * Stores the outputs of an operation on the named images, with a separate operation for the
+   * proxies in proxy mode, for operations whose arguments are in pixels.
+   *
+   * @param dests     names to store the outputs under
+   * @param operation the operation
+   * @param proxy     the operation on proxy images
+   * @param sources   names of the input images
+   */
+  private void applyOperation(String[] dests, ScriptGraph.Operation operation,
+      ScriptGraph.Operation proxy, String... sources) {
+    if (regionArgument != null) {
+      applyInRegion(sources[0], dests[0], 0, img -> operation.apply(new Image[]{img})[0]);
+      return;
+    }
+    ScriptGraph.Operation local = operation;
+    if (graph != null) {
+      record(full -> full.define(dests, operation, sources));
+      if (renderer == null) {
+        return;
+      }
+      local = proxy;
+      for (String dest : dests) {
+        inheritScale(dest, sources[0]);
+      }
+    }
+    Image[] inputs = new Image[sources.length];
+    for (int i = 0; i < sources.length; i++) {
+      inputs[i] = images.get(sources[i]);
+    }
+    Image[] outputs = local.apply(inputs);
+    Image[] previous = new Image[dests.length];
+    for (int i = 0; i < dests.length; i++) {
+      previous[i] = images.put(dests[i], outputs[i]);
+    }
+    for (Image image : previous) {
+      ScriptGraph.closeUnused(image, images.values());
+    }
+  }
+
+  /**
+   * Stores the result of a command limited to the region given by its last argument. The region
+   * of the source is updated in place when the result replaces a source that holds its own
+   * pixels.
+   *
+   * @param source name of the input image
+   * @param dest   name to store the result under
+   * @param halo   how far around a pixel the operation reads
+   * @param op     the operation on the whole image
+   */
+  private void applyInRegion(String source, String dest, int halo, UnaryOperator<Image> op) {
+    String argument = regionArgument;
+    regionArgument = null;
+    String mask = argument.startsWith("mask=") ? argument.substring(5) : null;
+    Region rectangle = mask == null ? readRegion(argument.substring(7)) : null;
+    if (mask == null && rectangle == null) {
+      return;
+    }
+    if (graph == null) {
+      if (mask != null && images.get(mask) == null) {
+        System.out.println("Unknown image: " + mask);
+        return;
+      }
+      Region region = mask == null ? rectangle : Region.of(images.get(mask));
+      Image img = images.get(source);
+      Image target = img instanceof GreyImage ? null : inPlaceTarget(source, dest);
+      putImage(dest, target != null ? imageModel.applyToRegion(target, region, halo, op, target)
+          : imageModel.applyToRegion(img, region, halo, op));
+      pyramids.remove(dest);
+      return;
+    }
+    double scale = proxyScale(source);
+    Region proxyRectangle = mask == null ? Region.of((int) Math.round(rectangle.getRow() * scale),
+        (int) Math.round(rectangle.getCol() * scale), proxySize(rectangle.getHeight(), scale),
+        proxySize(rectangle.getWidth(), scale)) : null;
+    String[] sources = mask == null ? new String[]{source} : new String[]{source, mask};
+    applyOperation(new String[]{dest},
+        in -> new Image[]{imageModel.applyToRegion(in[0],
+            mask == null ? rectangle : Region.of(in[1]), halo, op)},
+        in -> new Image[]{imageModel.applyToRegion(in[0],
+            mask == null ? proxyRectangle : Region.of(in[1]), halo, op)}, sources);
+  }
+
+  /**
+   * Parses the rectangle of a region argument.
+   *
+   * @param spec the rectangle, written row,col,height,width
+   * @return the region, or null if the rectangle is invalid
+   */
+  private Region readRegion(String spec) {
+    String[] values = spec.split(",");
+    try {
+      if (values.length == 4) {
+        return Region.of(Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+            Integer.parseInt(values[2]), Integer.parseInt(values[3]));
+      }
+    } catch (IllegalArgumentException e) {
+      // reported below
+    }
+    System.out.println("Usage: region=<row>,<col>,<height>,<width>");
+    return null;
+  }
+
+  /**
+   * Adds a command to the graph, reporting a command that names an image that does not exist.
+   * In proxy mode the graph belongs to the render thread, so the command is queued to it.
+   *
+   * @param command adds the command
+   */
+  private void record(Consumer<ScriptGraph> command) {
+    ScriptGraph full = graph;
+    Runnable task = () -> {
+      try {
+        command.accept(full);
+      } catch (IllegalArgumentException e) {
+        System.out.println(e.getMessage());
+      }
+    };
+    if (renderer != null) {
+      renderer.execute(task);
+    } else {
+      task.run();
+    }
+  }
+
+  /**
+   * Writes the saves queued in deferred mode, or in proxy mode waits for the queued renders.
+   */
+  private void flush() {
+    if (renderer != null) {
+      await(() -> { });
+    } else if (graph != null) {
+      graph.flush();
+    }
+  }
+
+  /**
+   * Runs a task on the render thread after the renders queued before it, and waits for it.
+   *
+   * @param task the task
+   */
+  private void await(Runnable task) {
+    try {
+      renderer.submit(task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      System.out.println("Rendering failed: " + e.getCause().getMessage());
+    }
+  }
+
+  /**
+   * Stores the proxy of a full-resolution image and the scale from one to the other.
+   *
+   * @param name  name of the image
+   * @param image the full-resolution image
+   */
+  private void putProxy(String name, Image image) {
+    Image proxy = thumbnail(imageModel.pyramid(coarse(image, proxyEdge)), image,
+        proxyEdge);
+    putImage(name, proxy);
+    proxyScales.put(name, image.getWidth() == 0 ? 1.0
+        : (double) proxy.getWidth() / image.getWidth());
+  }
+
+  /**
+   * Returns the smallest image a thumbnail with the given longest edge can be resized from: for
+   * an image that still holds its wavelet coefficients, the coarsest decode of them that is at
+   * least that large, and otherwise the image itself.
+   *
+   * @param image the image to shrink
+   * @param edge  the longest edge of the thumbnail
+   * @return the image to resize
+   */
+  private static Image coarse(Image image, int edge) {
+    if (image instanceof HaarCompressedImage && ((HaarCompressedImage) image).hasCoefficients()) {
+      HaarCompressedImage compressed = (HaarCompressedImage) image;
+      return compressed.decode(compressed.levelsFor(edge));
+    }
+    return image;
+  }
+
+  /**
+   * Gives the result of a command in proxy mode the scale of its input.
+   *
+   * @param dest   name of the result
+   * @param source name of the input
+   */
+  private void inheritScale(String dest, String source) {
+    proxyScales.put(dest, proxyScale(source));
+  }
+
+  /**
+   * Returns the ratio of the size of the proxy of an image to its full size, 1 outside proxy
+   * mode.
+   *
+   * @param name name of the image
+   * @return the scale
+   */
+  private double proxyScale(String name) {
+    return renderer == null ? 1.0 : proxyScales.getOrDefault(name, 1.0);
+  }
+
+  /**
+   * Scales a length in full-resolution pixels to the proxy, keeping at least one pixel.
+   *
+   * @param length the length
+   * @param scale  the proxy scale
+   * @return the length on the proxy
+   */
+  private static int proxySize(int length, double scale) {
+    return (int) Math.max(1, Math.round(length * scale));
+  }
+
+  /**
+   * Returns the image a command may overwrite in place: the source image, if the command stores
+   * its result under the same name and the image holds its own pixels. Views of the image held
+   * under other names are materialized so the update does not show through them.
+   *
+   * @param source name of the input image
+   * @param dest   name the result is stored under
+   * @return the image to update in place, or null to compute a new image
+   */
+  private Image inPlaceTarget(String source, String dest) {
+    Image image = images.get(source);
+    if (!source.equals(dest) || image == null
+        || image instanceof ViewImage && !((ViewImage) image).isMaterialized()) {
+      return null;
+    }
+    for (Map.Entry<String, Image> entry : images.entrySet()) {
+      Image other = entry.getValue();
+      if (entry.getKey().equals(source)) {
+        continue;
+      }
+      if (other == image) {
+        return null;
+      }
+      if (other instanceof ViewImage && ((ViewImage) other).dependsOn(image)) {
+        ((ViewImage) other).materialize();
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Builds the lookup table operation of a gamma, levels, curves, invert or threshold command.
+   *
+   * @param tokens the command and its arguments
+   * @return the operation, or null if the arguments are invalid
+   */
+  private PointOp readToneOp(String[] tokens) {
+    try {
+      switch (tokens[0]) {
+        case "gamma":
+          if (tokens.length == 4) {
+            return PointOp.gamma(Double.parseDouble(tokens[3]));
+          }
+          System.out.println("Usage: gamma <reference_name> <output_name> <gamma>");
+          return null;
+        case "levels":
+          if (tokens.length == 5 || tokens.length == 6) {
+            return PointOp.levels(Integer.parseInt(tokens[3]), Integer.parseInt(tokens[4]),
+                tokens.length == 6 ? Double.parseDouble(tokens[5]) : 1);
+          }
+          System.out.println("Usage: levels <reference_name> <output_name> <black> <white> "
+              + "[gamma]");
+          return null;
+        case "curves":
+          if (tokens.length >= 4) {
+            int[][] points = new int[tokens.length - 3][];
+            for (int i = 3; i < tokens.length; i++) {
+              String[] point = tokens[i].split(":");
+              if (point.length != 2) {
+                throw new IllegalArgumentException("Curve points must be written in:out");
+              }
+              points[i - 3] = new int[]{Integer.parseInt(point[0]), Integer.parseInt(point[1])};
+            }
+            return PointOp.curves(points);
+          }
+          System.out.println("Usage: curves <reference_name> <output_name> <in:out> ...");
+          return null;
+        case "invert":
+          if (tokens.length == 3) {
+            return PointOp.invert();
+          }
+          System.out.println("Usage: invert <reference_name> <output_name>");
+          return null;
+        default:
+          if (tokens.length == 4) {
+            return PointOp.threshold(Integer.parseInt(tokens[3]));
+          }
+          System.out.println("Usage: threshold <reference_name> <output_name> <level>");
+          return null;
+      }
+    } catch (IllegalArgumentException e) {
+      System.out.println("Invalid " + tokens[0] + " arguments: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Builds the kernel named by a convolve command: box:radius, gaussian:radius, or the path of a
+   * text file with one row of weights per line and an optional "divisor n" line.
+   *
+   * @param spec the kernel argument of the command
+   * @return the kernel, or null if it could not be read
+   */
+  private Kernel readKernel(String spec) {
+    try {
+      if (spec.startsWith("box:")) {
+        return Kernel.box(Integer.parseInt(spec.substring(4)));
+      } else if (spec.startsWith("gaussian:")) {
+        return Kernel.gaussian(Integer.parseInt(spec.substring(9)));
+      }
+      return Kernel.parse(Files.readAllLines(Paths.get(spec)));
+    } catch (IOException e) {
+      System.out.println("Error reading kernel: " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      System.out.println("Invalid kernel: " + e.getMessage());
+    }
+    return null;
+  }
 
   /**
    * Reads and executes commands from a script file. Each line of the file is treated as a separate
@@ -176,6 +1040,7 @@ public class ImageController {
         this.processCommand(line);
       }
       reader.close();
+      flush();
     } catch (IOException e) {
       System.out.println(e.getMessage());
     }
@@ -0,0 +1,513 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import model.ImageModel;
+import model.image.GreyImage;
+import model.image.Image;
+import model.image.ImageFactory;
+import model.image.ViewImage;
+import model.pipeline.PointOp;
+import model.pipeline.PointOpView;
+import model.stream.RowSource;
+import utils.ImageIOHelper;
+import utils.ScanlineReader;
+
+/**
+ * Deferred evaluation of script commands. Each command adds a node to a graph of named images
+ * instead of running, and saves are queued. Flushing evaluates only the nodes the queued saves
+ * depend on, so results that are never saved are never computed. While flushing:
+ * <ul>
+ *   <li>a chain of point operations whose intermediate results have no other consumer is
+ *   composed into one operation and applied in a single pass;</li>
+ *   <li>a result is dropped as soon as its last pending consumer has run, and a point operation
+ *   or filter whose input has no other consumer writes its result into that input;</li>
+ *   <li>loaded images are kept, and every other name keeps the recipe of its image, so a name
+ *   used again after a flush is computed again from the loaded images.</li>
+ * </ul>
+ *
+ * <p>A load reads its file when it is first needed, not when the command runs. So that it reads
+ * the same file as running the commands one by one would, a load of a file that a queued save
+ * writes flushes the queued saves first, and a save over a file that a load not yet read names
+ * reads that load first.
+ *
+ * <p>With streaming on, a save whose image is a chain of point operations and filters that can
+ * stream, with no other consumer, leading back to a load that nothing else needs, is not
+ * computed at all: the file is read, transformed and written a band of rows at a time, and the
+ * loaded image is never held.
+ */
+class ScriptGraph {
+
+  /**
+   * An operation with any number of inputs and outputs.
+   */
+  interface Operation {
+
+    /**
+     * Compute the outputs.
+     *
+     * @param inputs the input images, in the order of the command
+     * @return the output images
+     */
+    Image[] apply(Image[] inputs);
+  }
+
+  /**
+   * An operation with one input whose result has the size of the input.
+   */
+  interface Filter {
+
+    /**
+     * Compute the result.
+     *
+     * @param img  the input image
+     * @param dest the image to write the result to, possibly img itself, or null for a new image
+     * @return the result
+     */
+    Image apply(Image img, Image dest);
+  }
+
+  /**
+   * An operation in the graph, with the images it computed while they are still needed.
+   */
+  private static class Node {
+
+    Ref[] inputs;
+    PointOp op;
+    Filter filter;
+    UnaryOperator<RowSource> stage;
+    Operation operation;
+    String path;
+    Image[] values;
+    boolean pinned;
+    int pending;
+
+    Node(Ref... inputs) {
+      this.inputs = inputs;
+    }
+  }
+
+  /**
+   * One output of a node.
+   */
+  private static class Ref {
+
+    final Node node;
+    final int index;
+
+    Ref(Node node, int index) {
+      this.node = node;
+      this.index = index;
+    }
+  }
+
+  /**
+   * A queued use of an image, such as a save.
+   */
+  private static class Save {
+
+    final String description;
+    final Consumer<Image> action;
+    final String path;
+    final Ref ref;
+
+    Save(String description, Consumer<Image> action, String path, Ref ref) {
+      this.description = description;
+      this.action = action;
+      this.path = path;
+      this.ref = ref;
+    }
+  }
+
+  private final ImageModel model;
+  private final ImageFactory factory;
+  private final Map<String, Ref> names = new HashMap<>();
+  private final List<Save> saves = new ArrayList<>();
+  private final Set<Node> live = new LinkedHashSet<>();
+  private final List<Node> unread = new ArrayList<>();
+  private boolean streaming;
+
+  /**
+   * Construct an empty graph.
+   *
+   * @param model   the model that runs point operations
+   * @param factory creates loaded images and the images of point operations evaluated as they
+   *                are read
+   */
+  ScriptGraph(ImageModel model, ImageFactory factory) {
+    this.model = model;
+    this.factory = factory;
+  }
+
+  /**
+   * Switch streaming of the saves that allow it on or off.
+   */
+  void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Name an image that has already been computed. It is kept for the life of the graph.
+   */
+  void put(String name, Image image) {
+    Node node = new Node();
+    node.values = new Image[]{image};
+    node.pinned = true;
+    live.add(node);
+    names.put(name, new Ref(node, 0));
+  }
+
+  /**
+   * Name an image that is read from a file when first needed and kept from then on.
+   */
+  void load(String name, String path) {
+    for (Save save : saves) {
+      if (save.path != null && samePath(save.path, path)) {
+        flush();
+        break;
+      }
+    }
+    Node node = new Node();
+    node.path = path;
+    node.pinned = true;
+    unread.add(node);
+    names.put(name, new Ref(node, 0));
+  }
+
+  /**
+   * Name the result of a point operation.
+   */
+  void define(String dest, PointOp op, String source) {
+    Node node = new Node(ref(source));
+    node.op = op;
+    names.put(dest, new Ref(node, 0));
+  }
+
+  /**
+   * Name the result of a filter, with the same filter applied to a stream of rows if it can
+   * stream, or null.
+   */
+  void define(String dest, Filter filter, UnaryOperator<RowSource> stage, String source) {
+    Node node = new Node(ref(source));
+    node.filter = filter;
+    node.stage = stage;
+    names.put(dest, new Ref(node, 0));
+  }
+
+  /**
+   * Name the outputs of an operation.
+   */
+  void define(String[] dests, Operation operation, String... sources) {
+    Ref[] inputs = new Ref[sources.length];
+    for (int i = 0; i < sources.length; i++) {
+      inputs[i] = ref(sources[i]);
+    }
+    Node node = new Node(inputs);
+    node.operation = operation;
+    for (int i = 0; i < dests.length; i++) {
+      names.put(dests[i], new Ref(node, i));
+    }
+  }
+
+  /**
+   * Queue a save of the image currently named.
+   */
+  void save(String path, String name) {
+    unread.removeIf(node -> node.values != null);
+    for (Node node : unread) {
+      if (node.path != null && samePath(node.path, path)) {
+        try {
+          value(new Ref(node, 0));
+        } catch (IllegalArgumentException e) {
+          // The file could not be read before it is written, so the load fails when needed.
+          node.path = null;
+          node.operation = inputs -> {
+            throw e;
+          };
+        }
+      }
+    }
+    saves.add(new Save("save " + path,
+        image -> ImageIOHelper.saveImage(path, image, model.getExecutor()), path, ref(name)));
+  }
+
+  /**
+   * Queue any other use of the image currently named, which runs in order with the saves.
+   *
+   * @param name        the image
+   * @param description what the use does, for error messages
+   * @param action      the use
+   */
+  void use(String name, String description, Consumer<Image> action) {
+    saves.add(new Save(description, action, null, ref(name)));
+  }
+
+  /**
+   * Return the names that have been defined.
+   */
+  Set<String> names() {
+    return names.keySet();
+  }
+
+  /**
+   * Compute the named image and keep it for the life of the graph.
+   */
+  Image get(String name) {
+    Node node = ref(name).node;
+    count(node);
+    try {
+      Image image = value(ref(name));
+      node.pinned = true;
+      return image;
+    } finally {
+      release(node);
+    }
+  }
+
+  /**
+   * Evaluate and run every queued save, in the order they were queued.
+   */
+  void flush() {
+    List<Save> queued = new ArrayList<>(saves);
+    saves.clear();
+    for (Save save : queued) {
+      count(save.ref.node);
+    }
+    Set<Node> visited = new LinkedHashSet<>();
+    for (Save save : queued) {
+      fuse(save.ref.node, visited);
+    }
+    for (Save save : queued) {
+      if (streaming && save.path != null && streams(save.ref.node)) {
+        stream(save);
+        continue;
+      }
+      try {
+        save.action.accept(value(save.ref));
+      } catch (RuntimeException e) {
+        System.out.println("Could not " + save.description + ": " + e.getMessage());
+      } finally {
+        release(save.ref.node);
+      }
+    }
+  }
+
+  /**
+   * Return whether the image of the node can be streamed to a file: it and every node back to a
+   * load are point operations or streaming filters that have not been computed and have no
+   * other consumer.
+   */
+  private boolean streams(Node node) {
+    while (node.values == null && node.pending == 1) {
+      if (node.path != null) {
+        return true;
+      }
+      if (node.op == null && node.stage == null) {
+        return false;
+      }
+      node = node.inputs[0].node;
+    }
+    return false;
+  }
+
+  /**
+   * Run a save by reading its load a row at a time, passing the rows through the chain of
+   * operations and writing each row as it comes out.
+   */
+  private void stream(Save save) {
+    List<Node> chain = new ArrayList<>();
+    for (Node node = save.ref.node; node.path == null; node = node.inputs[0].node) {
+      chain.add(node);
+    }
+    Node load = chain.isEmpty() ? save.ref.node : chain.get(chain.size() - 1).inputs[0].node;
+    try (ScanlineReader reader = ImageIOHelper.openReader(load.path,
+        model.getExecutor())) {
+      RowSource rows = reader;
+      for (int i = chain.size() - 1; i >= 0; i--) {
+        Node node = chain.get(i);
+        rows = node.op != null ? model.applyRows(rows, node.op) : node.stage.apply(rows);
+      }
+      ImageIOHelper.saveRows(save.path, rows, model.getExecutor());
+    } catch (IOException e) {
+      System.out.println("Could not " + save.description + ": " + e.getMessage());
+    } catch (UncheckedIOException e) {
+      System.out.println("Could not " + save.description + ": " + e.getCause().getMessage());
+    } catch (RuntimeException e) {
+      System.out.println("Could not " + save.description + ": " + e.getMessage());
+    } finally {
+      load.pending = 0;
+      for (Node node : chain) {
+        node.pending = 0;
+      }
+    }
+  }
+
+  private static boolean samePath(String first, String second) {
+    try {
+      return Paths.get(first).toAbsolutePath().normalize()
+          .equals(Paths.get(second).toAbsolutePath().normalize());
+    } catch (InvalidPathException e) {
+      return first.equals(second);
+    }
+  }
+
+  private Ref ref(String name) {
+    Ref ref = names.get(name);
+    if (ref == null) {
+      throw new IllegalArgumentException("Unknown image: " + name);
+    }
+    return ref;
+  }
+
+  /**
+   * Record one more consumer of the node, and of its inputs the first time it is reached.
+   */
+  private void count(Node node) {
+    if (node.pending++ == 0 && node.values == null) {
+      for (Ref input : node.inputs) {
+        count(input.node);
+      }
+    }
+  }
+
+  /**
+   * Compose each point operation with the point operations before it that have no other
+   * consumer, so the chain runs as one pass and the skipped nodes are never computed.
+   */
+  private void fuse(Node node, Set<Node> visited) {
+    if (node.values != null || !visited.add(node)) {
+      return;
+    }
+    while (node.op != null) {
+      Node input = node.inputs[0].node;
+      if (input.op == null || input.values != null || input.pending != 1) {
+        break;
+      }
+      node.op = input.op.then(node.op);
+      node.inputs = input.inputs;
+      input.pending = 0;
+    }
+    for (Ref input : node.inputs) {
+      fuse(input.node, visited);
+    }
+  }
+
+  private Image value(Ref ref) {
+    Node node = ref.node;
+    if (node.values == null) {
+      compute(node);
+    }
+    return node.values[ref.index];
+  }
+
+  private void compute(Node node) {
+    Image[] inputs = new Image[node.inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = value(node.inputs[i]);
+    }
+    Image[] values;
+    if (node.path != null) {
+      Image image = ImageIOHelper.loadImage(node.path, factory, model.getExecutor());
+      if (image == null) {
+        throw new IllegalArgumentException("Image could not be loaded");
+      }
+      values = new Image[]{image};
+    } else if (node.op != null) {
+      Image input = inputs[0];
+      if (canOverwrite(node.inputs[0], node.op.mapsGreyToGrey())) {
+        values = new Image[]{model.apply(input, node.op, input)};
+      } else if (node.pending == 1) {
+        // A single consumer reads each pixel once, so the operation is applied as it reads.
+        values = new Image[]{PointOpView.of(input, node.op, factory)};
+      } else {
+        values = new Image[]{model.apply(input, node.op)};
+      }
+    } else if (node.filter != null) {
+      Image input = inputs[0];
+      values = new Image[]{node.filter.apply(input,
+          canOverwrite(node.inputs[0], true) ? input : null)};
+    } else {
+      values = node.operation.apply(inputs);
+    }
+    node.values = values;
+    live.add(node);
+    for (Ref input : node.inputs) {
+      release(input.node);
+    }
+  }
+
+  /**
+   * Return whether the image of the input can take the result of its only remaining consumer.
+   */
+  private boolean canOverwrite(Ref input, boolean keepsGrey) {
+    Node node = input.node;
+    Image image = node.values[input.index];
+    if (node.pinned || node.pending != 1 || node.values.length != 1
+        || image instanceof ViewImage || image instanceof GreyImage && !keepsGrey) {
+      return false;
+    }
+    for (Node other : live) {
+      for (Image value : other.values) {
+        if (value instanceof ViewImage && ((ViewImage) value).dependsOn(image)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Record that a consumer of the node has run, dropping its images after the last one.
+   */
+  private void release(Node node) {
+    if (--node.pending == 0 && !node.pinned && node.values != null) {
+      Image[] values = node.values;
+      node.values = null;
+      live.remove(node);
+      List<Image> held = new ArrayList<>();
+      for (Node other : live) {
+        held.addAll(Arrays.asList(other.values));
+      }
+      for (Image value : values) {
+        closeUnused(value, held);
+      }
+    }
+  }
+
+  /**
+   * Close an image that is backed by a file, such as a MappedImage, unless one of the held images
+   * is that image or a view that reads it. A result written in place is the image of its input,
+   * so dropping the input must not close it.
+   *
+   * @param image the image no longer needed, or null
+   * @param held  the images still in use
+   */
+  static void closeUnused(Image image, Collection<Image> held) {
+    if (!(image instanceof Closeable)) {
+      return;
+    }
+    for (Image other : held) {
+      if (other == image || other instanceof ViewImage && ((ViewImage) other).dependsOn(image)) {
+        return;
+      }
+    }
+    try {
+      ((Closeable) image).close();
+    } catch (IOException | UncheckedIOException e) {
+      System.out.println("Could not close image: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,420 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import model.filter.Kernel;
+import model.filter.Resampler;
+import model.image.GreyImage;
+import model.image.HaarCompressedImage;
+import model.image.Image;
+import model.image.ImageFactory;
+import model.image.PackedImage;
+import model.image.ViewImage;
+
+/**
+ * ImageModel that remembers the results of its operations. A result is looked up by the
+ * operation, its parameters and the size and content of its inputs, so running the same
+ * transform on an identical image, whether the same object or a reload of the same file, returns
+ * the stored result instead of computing it again.
+ *
+ * <p>Inputs are identified by a 64-bit hash of their pixels, which costs one read of each input
+ * but none of the kernel work. Stored results are never handed out directly: each caller gets a
+ * view that reads the stored pixels and is copied on its first write, so changing a returned
+ * image leaves the cache intact. Inputs that are such views are hashed from the stored result,
+ * so chains of remembered operations are not read at all.
+ *
+ * <p>The stored results are bounded by a memory budget and evicted least recently used first.
+ * Hit, miss and eviction counters are kept so the budget can be tuned. Flips, crops and channel
+ * components already return views without computing anything, and operations that write into a
+ * caller-supplied image always run, so neither is cached. Nor is apply: PointOps do not compare by
+ * value, and callers build a new one for every command, so its results could never be found again
+ * and would only cost a hash of the input and push out results that can.
+ */
+public class CachingImageModel extends ImageModel {
+
+  /**
+   * Default memory budget of the stored results, 256MB.
+   */
+  public static final long DEFAULT_BUDGET = 256L << 20;
+
+  private final ImageFactory factory;
+  private final ParallelExecutor executor;
+  private final long budget;
+  private final LinkedHashMap<List<Object>, Entry> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Stored results of one operation and, once it has been needed, the hash of each.
+   */
+  private static class Entry {
+
+    final Image[] results;
+    final long[] hashes;
+    final long bytes;
+
+    Entry(Image[] results, long bytes) {
+      this.results = results;
+      this.hashes = new long[results.length];
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * A view of a stored result, copied into an image of its own on its first write.
+   */
+  private static class CachedView extends ViewImage {
+
+    private final CachingImageModel cache;
+    private final Entry entry;
+    private final int index;
+
+    CachedView(CachingImageModel cache, Entry entry, int index) {
+      super(entry.results[index], cache.factory);
+      this.cache = cache;
+      this.entry = entry;
+      this.index = index;
+    }
+
+    @Override
+    public int getWidth() {
+      return source.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+      return source.getHeight();
+    }
+
+    @Override
+    protected void readRegion(int row, int col, int height, int width, int[] buffer,
+        int offset) {
+      source.getRegion(row, col, height, width, buffer, offset);
+    }
+  }
+
+  /**
+   * Construct a caching model that produces PackedImage results, with the default budget.
+   */
+  public CachingImageModel() {
+    this(PackedImage::new, new ParallelExecutor(), DEFAULT_BUDGET);
+  }
+
+  /**
+   * Construct a caching model.
+   *
+   * @param factory  creates the result images
+   * @param executor runs bands of rows in parallel
+   * @param budget   the most bytes of results to keep; a single result larger than this is
+   *                 computed but not kept
+   */
+  public CachingImageModel(ImageFactory factory, ParallelExecutor executor, long budget) {
+    super(factory, executor);
+    if (budget < 0) {
+      throw new IllegalArgumentException("Cache budget cannot be negative");
+    }
+    this.factory = factory;
+    this.executor = executor;
+    this.budget = budget;
+  }
+
+  /**
+   * Return how many operations were answered from the cache.
+   *
+   * @return the number of cache hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Return how many operations had to be computed.
+   *
+   * @return the number of cache misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Return how many results were dropped to stay within the budget.
+   *
+   * @return the number of evictions
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Return the estimated memory taken by the stored results.
+   *
+   * @return the number of bytes in use
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Return the memory budget of the stored results.
+   *
+   * @return the budget in bytes
+   */
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Drop every stored result. The counters are kept.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  @Override
+  public Image[] splitChannels(Image img) {
+    return cached(List.of("split"), new Image[]{img}, () -> super.splitChannels(img));
+  }
+
+  @Override
+  public Image combineImage(Image red, Image green, Image blue) {
+    return cached(List.of("combine"), new Image[]{red, green, blue},
+        () -> new Image[]{super.combineImage(red, green, blue)})[0];
+  }
+
+  @Override
+  public Image brighten(Image img, int increment) {
+    return cached(List.of("brighten", increment), img,
+        () -> super.brighten(img, increment, create(img)));
+  }
+
+  @Override
+  public Image toGreyscale(Image img) {
+    return cached(List.of("greyscale"), img, () -> super.toGreyscale(img, create(img)));
+  }
+
+  @Override
+  public Image blur(Image img) {
+    return cached(List.of("blur"), img, () -> super.blur(img, create(img)));
+  }
+
+  @Override
+  public Image sepia(Image img) {
+    return cached(List.of("sepia"), img, () -> super.sepia(img, create(img)));
+  }
+
+  @Override
+  public Image sharpen(Image img) {
+    return cached(List.of("sharpen"), img, () -> super.sharpen(img, create(img)));
+  }
+
+  @Override
+  public Image convolve(Image img, Kernel kernel) {
+    if (kernel == null) {
+      throw new IllegalArgumentException("Kernel cannot be null");
+    }
+    return cached(List.of("convolve", kernel), img,
+        () -> super.convolve(img, kernel, create(img)));
+  }
+
+  @Override
+  public Image value(Image img) {
+    return cached(List.of("value"), img, () -> super.value(img, create(img)));
+  }
+
+  @Override
+  public Image intensity(Image img) {
+    return cached(List.of("intensity"), img, () -> super.intensity(img, create(img)));
+  }
+
+  @Override
+  public Image luma(Image img) {
+    return cached(List.of("luma"), img, () -> super.luma(img, create(img)));
+  }
+
+  @Override
+  public Image resize(Image img, int width, int height, Resampler resampler) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Size must be positive");
+    }
+    if (resampler == null) {
+      throw new IllegalArgumentException("Resampler cannot be null");
+    }
+    return cached(List.of("resize", width, height, resampler), img,
+        () -> super.resize(img, resampler, factory.create(width, height)));
+  }
+
+  @Override
+  public Image autoLevels(Image img, double clip) {
+    return cached(List.of("auto-levels", clip), img,
+        () -> super.autoLevels(img, clip, create(img)));
+  }
+
+  @Override
+  public Image compress(Image img, double percent) {
+    return cached(List.of("compress", percent), img, () -> super.compress(img, percent));
+  }
+
+  @Override
+  public Image equalize(Image img) {
+    return cached(List.of("equalize"), img, () -> super.equalize(img, create(img)));
+  }
+
+  @Override
+  public Image colorCorrect(Image img) {
+    return cached(List.of("color-correct"), img, () -> super.colorCorrect(img, create(img)));
+  }
+
+  private Image cached(List<Object> operation, Image img, Supplier<Image> compute) {
+    return cached(operation, new Image[]{img}, () -> new Image[]{compute.get()})[0];
+  }
+
+  /**
+   * Return the stored results of the operation on these inputs, computing and storing them if
+   * they are not there.
+   */
+  private Image[] cached(List<Object> operation, Image[] inputs, Supplier<Image[]> compute) {
+    Object[] key = Arrays.copyOf(operation.toArray(), operation.size() + 3 * inputs.length);
+    for (int i = 0; i < inputs.length; i++) {
+      if (inputs[i] == null) {
+        throw new IllegalArgumentException("Image cannot be null");
+      }
+      key[operation.size() + 3 * i] = inputs[i].getWidth();
+      key[operation.size() + 3 * i + 1] = inputs[i].getHeight();
+      key[operation.size() + 3 * i + 2] = contentHash(inputs[i]);
+    }
+    List<Object> lookup = List.of(key);
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(lookup);
+      if (entry != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+    if (entry == null) {
+      Image[] results = compute.get();
+      long size = 0;
+      for (Image result : results) {
+        size += (long) result.getWidth() * result.getHeight()
+            * (result instanceof GreyImage ? 1 : Integer.BYTES);
+      }
+      if (size > budget) {
+        return results;
+      }
+      entry = new Entry(results, size);
+      store(lookup, entry);
+    }
+    Image[] copies = new Image[entry.results.length];
+    for (int i = 0; i < copies.length; i++) {
+      copies[i] = share(entry, i);
+    }
+    return copies;
+  }
+
+  private synchronized void store(List<Object> key, Entry entry) {
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      bytes -= previous.bytes;
+    }
+    bytes += entry.bytes;
+    Iterator<Map.Entry<List<Object>, Entry>> eldest = entries.entrySet().iterator();
+    while (bytes > budget) {
+      bytes -= eldest.next().getValue().bytes;
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Hand out a stored result. Grey results are copied, since they are cheap to copy and callers
+   * rely on them being GreyImages, and compressed results share their coefficients, so they can
+   * still be saved as .haar files and previewed from their coarse levels; others are returned as
+   * copy-on-write views.
+   */
+  private Image share(Entry entry, int index) {
+    Image result = entry.results[index];
+    if (result instanceof HaarCompressedImage) {
+      return ((HaarCompressedImage) result).share();
+    }
+    if (!(result instanceof GreyImage)) {
+      return new CachedView(this, entry, index);
+    }
+    GreyImage grey = (GreyImage) result;
+    int width = grey.getWidth();
+    GreyImage copy = new GreyImage(width, grey.getHeight());
+    byte[] line = new byte[width];
+    for (int row = 0; row < grey.getHeight(); row++) {
+      grey.getLevels(row, 0, width, line, 0);
+      copy.setLevels(row, 0, width, line, 0);
+    }
+    return copy;
+  }
+
+  /**
+   * Return a hash of the pixels of the image, reusing the hash of a stored result for a view of
+   * one that has not been written to.
+   */
+  private long contentHash(Image img) {
+    if (img instanceof CachedView) {
+      CachedView view = (CachedView) img;
+      if (view.cache == this && !view.isMaterialized()) {
+        Entry entry = view.entry;
+        synchronized (entry) {
+          if (entry.hashes[view.index] == 0) {
+            entry.hashes[view.index] = hashPixels(entry.results[view.index]);
+          }
+          return entry.hashes[view.index];
+        }
+      }
+    }
+    return hashPixels(img);
+  }
+
+  /**
+   * Hash every row in parallel, then combine the row hashes in order, so the hash does not
+   * depend on how the rows were split into bands. The hash is never zero.
+   */
+  private long hashPixels(Image img) {
+    int width = img.getWidth();
+    long[] rowHashes = new long[img.getHeight()];
+    executor.forEachBand(width, img.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        img.getRow(row, line);
+        long hash = 0xCBF29CE484222325L;
+        for (int pixel : line) {
+          hash = (hash ^ pixel) * 0x100000001B3L;
+        }
+        rowHashes[row] = hash;
+      }
+    });
+    long hash = 0x9E3779B97F4A7C15L;
+    for (long rowHash : rowHashes) {
+      hash = mix(hash ^ rowHash);
+    }
+    return hash == 0 ? 1 : hash;
+  }
+
+  private static long mix(long hash) {
+    hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+    hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  private Image create(Image img) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    return factory.create(img.getWidth(), img.getHeight());
+  }
+}
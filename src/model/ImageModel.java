@@ -1,16 +1,126 @@
 package model;
 
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+import model.filter.Convolver;
+import model.filter.Kernel;
+import model.filter.Pyramid;
+import model.filter.Resampler;
+import model.image.ChannelView;
+import model.image.CropView;
+import model.image.FlipView;
+import model.image.GreyImage;
+import model.image.HaarCompressedImage;
 import model.image.Image;
+import model.image.ImageFactory;
+import model.image.PackedImage;
+import model.image.Pixels;
+import model.image.Region;
+import model.image.RegionView;
 import model.image.RGBImage;
-import model.image.SimpleImage;
+import model.image.ViewImage;
+import model.pipeline.PointOp;
+import model.stats.Histogram;
+import model.stream.ConvolutionStage;
+import model.stream.PointStage;
+import model.stream.RowSource;
 import utils.HaarTransform;
 
 /**
  * ImageModel implemented ImgModel which provides various image manipulation methods such as
  * loading, saving, flipping, and applying filters like blur, sepia, and sharpen.
+ *
+ * <p>All operations read and write whole rows of packed pixels through the bulk accessors of
+ * Image, so the per-pixel work does not allocate. Flips, channel components and crops only remap
+ * coordinates, so they return views of their input that are copied lazily on first write.
+ *
+ * <p>Blur, sharpen and user-supplied kernels are evaluated by a Convolver. Colour operations are
+ * PointOps, and any chain of them can be applied in a single pass with apply.
+ *
+ * <p>Every operation also has a variant that writes into a caller-supplied image of the same
+ * size instead of allocating one. The destination may be the input itself, which updates the
+ * image in place: point operations and flips only touch the rows they read, and convolutions
+ * carry the original rows they still need in a small rolling buffer.
+ *
+ * <p>Any operation can be limited to a Region with applyToRegion. It runs on a crop of the
+ * region and its halo, and the result is a view that reads the untouched pixels from the input.
+ *
+ * <p>Resizing averages the covered area or interpolates bilinearly, and a Pyramid of halved
+ * levels lets repeated small versions of an image be made from its nearest level.
+ *
+ * <p>Auto-levels, equalize and colour correction read the image once to build a Histogram and
+ * once more to apply the lookup table derived from it.
+ *
+ * <p>Point and neighbourhood operations split the image into bands of rows and run them in
+ * parallel on the model's ParallelExecutor. Each pixel is computed the same way whichever band it
+ * falls in, so the output is identical to a sequential run.
  */
 public class ImageModel implements ImgModel {
 
+  private static final Convolver BLUR = new Convolver(Kernel.box(1));
+
+  private static final Convolver SHARPEN = new Convolver(Kernel.of(new double[][]{
+      {-0.125, -0.125, -0.125, -0.125, -0.125},
+      {-0.125, 0.25, 0.25, 0.25, -0.125},
+      {-0.125, 0.25, 1, 0.25, -0.125},
+      {-0.125, 0.25, 0.25, 0.25, -0.125},
+      {-0.125, -0.125, -0.125, -0.125, -0.125}
+  }));
+
+  private static final PointOp GREYSCALE = PointOp.greyscale();
+  private static final PointOp SEPIA = PointOp.sepia();
+  private static final PointOp VALUE = PointOp.value();
+  private static final PointOp INTENSITY = PointOp.intensity();
+  private static final PointOp LUMA = PointOp.luma();
+
+  private final ImageFactory factory;
+  private final ParallelExecutor executor;
+
+  /**
+   * Construct an ImageModel that produces PackedImage results.
+   */
+  public ImageModel() {
+    this(PackedImage::new);
+  }
+
+  /**
+   * Construct an ImageModel whose results are created by the given factory, for example
+   * MappedImage::new to keep results off the heap.
+   *
+   * @param factory creates the result images
+   */
+  public ImageModel(ImageFactory factory) {
+    this(factory, new ParallelExecutor());
+  }
+
+  /**
+   * Construct an ImageModel whose results are created by the given factory and whose operations
+   * run on the given executor. Use new ParallelExecutor(1) for single-threaded execution.
+   *
+   * @param factory  creates the result images
+   * @param executor runs bands of rows in parallel
+   */
+  public ImageModel(ImageFactory factory, ParallelExecutor executor) {
+    if (factory == null) {
+      throw new IllegalArgumentException("Image factory cannot be null");
+    }
+    if (executor == null) {
+      throw new IllegalArgumentException("Executor cannot be null");
+    }
+    this.factory = factory;
+    this.executor = executor;
+  }
+
+  /**
+   * Return the executor the operations run on, so that work done alongside the model, such as
+   * encoding and decoding .haar files, keeps to the same parallelism.
+   *
+   * @return the executor
+   */
+  public ParallelExecutor getExecutor() {
+    return executor;
+  }
+
   @Override
   public RGBImage splitImage(Image image) {
     if (image == null) {
@@ -19,22 +129,100 @@ public class ImageModel implements ImgModel {
     return new RGBImage(image.getWidth(), image.getHeight());
   }
 
+  @Override
+  public Image[] splitChannels(Image img) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    int width = img.getWidth();
+    int height = img.getHeight();
+    return splitChannels(img, new GreyImage(width, height), new GreyImage(width, height),
+        new GreyImage(width, height));
+  }
+
+  @Override
+  public Image[] splitChannels(Image img, Image red, Image green, Image blue) {
+    Image source = source(source(source(img, red), green), blue);
+    int width = img.getWidth();
+    executor.forEachBand(width, img.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      int[][] channels = new int[3][width];
+      byte[][] levels = new byte[3][width];
+      Image[] outputs = {red, green, blue};
+      for (int row = startRow; row < endRow; row++) {
+        source.getRow(row, line);
+        for (int c = 0; c < 3; c++) {
+          int shift = 16 - 8 * c;
+          if (outputs[c] instanceof GreyImage) {
+            byte[] level = levels[c];
+            for (int col = 0; col < width; col++) {
+              level[col] = (byte) (line[col] >> shift);
+            }
+            ((GreyImage) outputs[c]).setLevels(row, 0, width, level, 0);
+          } else {
+            int[] channel = channels[c];
+            for (int col = 0; col < width; col++) {
+              channel[col] = Pixels.grey((line[col] >> shift) & 0xFF);
+            }
+            outputs[c].setRow(row, channel);
+          }
+        }
+      }
+    });
+    return new Image[]{red, green, blue};
+  }
+
   @Override
   public Image combineImage(Image red, Image green, Image blue) {
     if (red == null || green == null || blue == null) {
       throw new IllegalArgumentException("None of the color images can be null");
     }
-    Image result = new SimpleImage(red.getWidth(), red.getHeight());
-    for (int row = 0; row < red.getHeight(); row++) {
-      for (int col = 0; col < red.getWidth(); col++) {
-        int r = red.getPixel(row, col)[0];
-        int g = green.getPixel(row, col)[1];
-        int b = blue.getPixel(row, col)[2];
-        int[] rgb = {r, g, b};
-        result.setPixel(row, col, rgb);
+    return combineImage(red, green, blue, factory.create(red.getWidth(), red.getHeight()));
+  }
+
+  @Override
+  public Image combineImage(Image red, Image green, Image blue, Image dest) {
+    if (red == null || green == null || blue == null) {
+      throw new IllegalArgumentException("None of the color images can be null");
+    }
+    Image redSource = source(red, dest);
+    Image greenSource = source(green, dest);
+    Image blueSource = source(blue, dest);
+    int width = red.getWidth();
+    executor.forEachBand(width, red.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      int[] scratch = new int[width];
+      byte[] levels = new byte[width];
+      for (int row = startRow; row < endRow; row++) {
+        Arrays.fill(line, 0);
+        mergeChannel(redSource, row, 16, line, scratch, levels);
+        mergeChannel(greenSource, row, 8, line, scratch, levels);
+        mergeChannel(blueSource, row, 0, line, scratch, levels);
+        dest.setRow(row, line);
+      }
+    });
+    return dest;
+  }
+
+  /**
+   * ORs one channel of a row of the source into line. Grey images are read as their levels, so
+   * the channel images of a split are merged without unpacking them to pixels first.
+   */
+  private static void mergeChannel(Image source, int row, int shift, int[] line, int[] scratch,
+      byte[] levels) {
+    int width = line.length;
+    if (source instanceof GreyImage) {
+      ((GreyImage) source).getLevels(row, 0, width, levels, 0);
+      for (int col = 0; col < width; col++) {
+        line[col] |= (levels[col] & 0xFF) << shift;
+      }
+    } else {
+      source.getRow(row, scratch);
+      int mask = 0xFF << shift;
+      for (int col = 0; col < width; col++) {
+        line[col] |= scratch[col] & mask;
       }
     }
-    return result;
   }
 
   @Override
@@ -42,13 +230,26 @@ public class ImageModel implements ImgModel {
     if (img == null) {
       throw new IllegalArgumentException("Image cannot be null");
     }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        result.setPixel(row, col, img.getPixel(row, img.getWidth() - 1 - col));
+    return FlipView.of(img, true, false, factory);
+  }
+
+  @Override
+  public Image flipHorizontal(Image img, Image dest) {
+    Image source = source(img, dest);
+    int width = img.getWidth();
+    executor.forEachBand(width, img.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        source.getRow(row, line);
+        for (int left = 0, right = width - 1; left < right; left++, right--) {
+          int pixel = line[left];
+          line[left] = line[right];
+          line[right] = pixel;
+        }
+        dest.setRow(row, line);
       }
-    }
-    return result;
+    });
+    return dest;
   }
 
   @Override
@@ -56,312 +257,485 @@ public class ImageModel implements ImgModel {
     if (img == null) {
       throw new IllegalArgumentException("Image cannot be null");
     }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        result.setPixel(img.getHeight() - 1 - row, col, img.getPixel(row, col));
+    return FlipView.of(img, false, true, factory);
+  }
+
+  @Override
+  public Image flipVertical(Image img, Image dest) {
+    Image source = source(img, dest);
+    int width = img.getWidth();
+    int height = img.getHeight();
+    // Each band swaps rows from the top half with their mirror rows, so it reads both rows of a
+    // pair before writing either.
+    executor.forEachBand(width, (height + 1) / 2, (startRow, endRow) -> {
+      int[] top = new int[width];
+      int[] bottom = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        source.getRow(row, top);
+        source.getRow(height - 1 - row, bottom);
+        dest.setRow(row, bottom);
+        dest.setRow(height - 1 - row, top);
       }
-    }
-    return result;
+    });
+    return dest;
   }
 
   @Override
   public Image brighten(Image img, int increment) {
-    if (img == null) {
-      throw new IllegalArgumentException("Image cannot be null");
-    }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] pixel = img.getPixel(row, col);
-        int[] newPixel = new int[3];
-        for (int i = 0; i < 3; i++) {
-          newPixel[i] = Math.min(255, Math.max(0, pixel[i] + increment));
-        }
-        result.setPixel(row, col, newPixel);
-      }
-    }
-    return result;
+    return apply(img, PointOp.brighten(increment));
+  }
+
+  @Override
+  public Image brighten(Image img, int increment, Image dest) {
+    return apply(img, PointOp.brighten(increment), dest);
   }
 
   @Override
   public Image toGreyscale(Image img) {
-    if (img == null) {
-      throw new IllegalArgumentException("Image cannot be null");
-    }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] pixel = img.getPixel(row, col);
-        int grey = (int) (pixel[0] * 0.299 + pixel[1] * 0.587 + pixel[2] * 0.114);
-        int[] newPixel = {grey, grey, grey};
-        result.setPixel(row, col, newPixel);
-      }
-    }
-    return result;
+    return apply(img, GREYSCALE);
+  }
+
+  @Override
+  public Image toGreyscale(Image img, Image dest) {
+    return apply(img, GREYSCALE, dest);
   }
 
   @Override
   public Image blur(Image img) {
-    if (img == null) {
-      throw new IllegalArgumentException("Image cannot be null");
-    }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
-    int[][] kernel = {
-        {1, 1, 1},
-        {1, 1, 1},
-        {1, 1, 1}
-    };
-    int kernelSize = 3;
-    int kernelSum = 9;
-
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] newPixel = new int[3];
-        for (int i = 0; i < 3; i++) {
-          int total = 0;
-          for (int ki = 0; ki < kernelSize; ki++) {
-            for (int kj = 0; kj < kernelSize; kj++) {
-              int pixelRow = Math.min(Math.max(row + ki - 1, 0), img.getHeight() - 1);
-              int pixelCol = Math.min(Math.max(col + kj - 1, 0), img.getWidth() - 1);
-              total += img.getPixel(pixelRow, pixelCol)[i] * kernel[ki][kj];
-            }
-          }
-          newPixel[i] = total / kernelSum;
-        }
-        result.setPixel(row, col, newPixel);
-      }
-    }
-    return result;
+    return blur(img, newImage(img));
   }
 
   @Override
-  public Image sepia(Image img) {
-    if (img == null) {
-      throw new IllegalArgumentException("Image cannot be null");
-    }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
+  public Image blur(Image img, Image dest) {
+    return BLUR.convolve(source(img, dest), dest, executor);
+  }
 
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] pixel = img.getPixel(row, col);
-        int red = pixel[0];
-        int green = pixel[1];
-        int blue = pixel[2];
+  @Override
+  public Image sepia(Image img) {
+    return apply(img, SEPIA);
+  }
 
-        // Apply sepia formula
-        int newR = (int) Math.min((0.393 * red + 0.769 * green + 0.189 * blue), 255);
-        int newG = (int) Math.min((0.349 * red + 0.686 * green + 0.168 * blue), 255);
-        int newB = (int) Math.min((0.272 * red + 0.534 * green + 0.131 * blue), 255);
-        result.setPixel(row, col, new int[]{newR, newG, newB});
-      }
-    }
-    return result;
+  @Override
+  public Image sepia(Image img, Image dest) {
+    return apply(img, SEPIA, dest);
   }
 
   @Override
   public Image sharpen(Image img) {
-    if (img == null) {
-      throw new IllegalArgumentException("Image cannot be null");
-    }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
+    return sharpen(img, newImage(img));
+  }
 
-    double[][] kernel = {
-        {-0.125, -0.125, -0.125, -0.125, -0.125},
-        {-0.125, 0.25, 0.25, 0.25, -0.125},
-        {-0.125, 0.25, 1, 0.25, -0.125},
-        {-0.125, 0.25, 0.25, 0.25, -0.125},
-        {-0.125, -0.125, -0.125, -0.125, -0.125}
-    };
+  @Override
+  public Image sharpen(Image img, Image dest) {
+    return SHARPEN.convolve(source(img, dest), dest, executor);
+  }
 
-    int kernelSize = 5;
-    int halfKernel = kernelSize / 2;
+  @Override
+  public Image convolve(Image img, Kernel kernel) {
+    return convolve(img, kernel, newImage(img));
+  }
 
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] newPixel = new int[3];
+  @Override
+  public Image convolve(Image img, Kernel kernel, Image dest) {
+    return new Convolver(kernel).convolve(source(img, dest), dest, executor);
+  }
 
-        for (int i = 0; i < 3; i++) {
-          int pixelValue = 0;
+  @Override
+  public Image value(Image img) {
+    return apply(img, VALUE);
+  }
 
-          for (int ki = 0; ki < kernelSize; ki++) {
-            for (int kj = 0; kj < kernelSize; kj++) {
-              int pixelRow = Math.min(Math.max(row + ki - halfKernel, 0), img.getHeight() - 1);
-              int pixelCol = Math.min(Math.max(col + kj - halfKernel, 0), img.getWidth() - 1);
+  @Override
+  public Image value(Image img, Image dest) {
+    return apply(img, VALUE, dest);
+  }
 
-              pixelValue += (int) (img.getPixel(pixelRow, pixelCol)[i] * kernel[ki][kj]);
-            }
-          }
+  @Override
+  public Image intensity(Image img) {
+    return apply(img, INTENSITY);
+  }
 
-          newPixel[i] = Math.min(Math.max(pixelValue, 0), 255);
-        }
+  @Override
+  public Image intensity(Image img, Image dest) {
+    return apply(img, INTENSITY, dest);
+  }
 
-        result.setPixel(row, col, newPixel);
-      }
-    }
+  @Override
+  public Image luma(Image img) {
+    return apply(img, LUMA);
+  }
 
-    return result;
+  @Override
+  public Image luma(Image img, Image dest) {
+    return apply(img, LUMA, dest);
   }
 
   @Override
-  public Image value(Image img) {
+  public Image redComponent(Image img) {
     if (img == null) {
       throw new IllegalArgumentException("Image cannot be null");
     }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
-
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] rgb = img.getPixel(row, col);
-        int value = Math.max(rgb[0], Math.max(rgb[1], rgb[2]));
+    return ChannelView.of(img, 0, factory);
+  }
 
-        int[] grayscale = {value, value, value};
-        result.setPixel(row, col, grayscale);
-      }
+  @Override
+  public Image greenComponent(Image img) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
     }
-
-    return result;
+    return ChannelView.of(img, 1, factory);
   }
 
   @Override
-  public Image intensity(Image img) {
+  public Image blueComponent(Image img) {
     if (img == null) {
       throw new IllegalArgumentException("Image cannot be null");
     }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
+    return ChannelView.of(img, 2, factory);
+  }
 
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] rgb = img.getPixel(row, col);
-        int intensity = (rgb[0] + rgb[1] + rgb[2]) / 3;
+  @Override
+  public Image redComponent(Image img, Image dest) {
+    return apply(img, PointOp.channel(0), dest);
+  }
 
-        int[] grayscale = {intensity, intensity, intensity};
-        result.setPixel(row, col, grayscale);
-      }
-    }
+  @Override
+  public Image greenComponent(Image img, Image dest) {
+    return apply(img, PointOp.channel(1), dest);
+  }
 
-    return result;
+  @Override
+  public Image blueComponent(Image img, Image dest) {
+    return apply(img, PointOp.channel(2), dest);
   }
 
   @Override
-  public Image luma(Image img) {
+  public Image crop(Image img, int row, int col, int height, int width) {
     if (img == null) {
       throw new IllegalArgumentException("Image cannot be null");
     }
-    Image result = new SimpleImage(img.getWidth(), img.getHeight());
-
-    for (int row = 0; row < img.getHeight(); row++) {
-      for (int col = 0; col < img.getWidth(); col++) {
-        int[] rgb = img.getPixel(row, col);
-        int luma = (int) (0.299 * rgb[0] + 0.587 * rgb[1] + 0.114 * rgb[2]);
+    return CropView.of(img, row, col, height, width, factory);
+  }
 
-        int[] grayscale = {luma, luma, luma};
-        result.setPixel(row, col, grayscale);
-      }
+  @Override
+  public Image crop(Image img, int row, int col, int height, int width, Image dest) {
+    Image window = crop(img, row, col, height, width);
+    if (dest == null) {
+      throw new IllegalArgumentException("Destination image cannot be null");
+    }
+    if (dest.getWidth() != width || dest.getHeight() != height) {
+      throw new IllegalArgumentException("Destination image must be " + width + "x" + height);
     }
+    return apply(window, PointOp.identity(), dest);
+  }
 
-    return result;
+  @Override
+  public Image apply(Image img, PointOp op) {
+    return apply(img, op, newImage(img));
   }
 
   @Override
-  public Image redComponent(Image img) {
-    if (img == null) {
-      throw new IllegalArgumentException("Image cannot be null");
+  public Image apply(Image img, PointOp op, Image dest) {
+    if (op == null) {
+      throw new IllegalArgumentException("Operation cannot be null");
     }
-    RGBImage rgbImage = new RGBImage(img.getWidth(), img.getHeight());
-    return rgbImage.redComponent(img);
+    Image source = source(img, dest);
+    int width = img.getWidth();
+    executor.forEachBand(width, img.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        source.getRow(row, line);
+        op.apply(line, 0, width);
+        dest.setRow(row, line);
+      }
+    });
+    return dest;
   }
 
   @Override
-  public Image greenComponent(Image img) {
+  public Image applyToRegion(Image img, Region region, int halo, UnaryOperator<Image> op) {
     if (img == null) {
       throw new IllegalArgumentException("Image cannot be null");
     }
-    RGBImage rgbImage = new RGBImage(img.getWidth(), img.getHeight());
-    return rgbImage.greenComponent(img);
+    Region clipped = clip(img, region);
+    return new RegionView(img, clipped, patch(img, clipped, halo, op), factory);
   }
 
   @Override
-  public Image blueComponent(Image img) {
+  public Image applyToRegion(Image img, Region region, int halo, UnaryOperator<Image> op,
+      Image dest) {
+    Image source = source(img, dest);
+    Region clipped = clip(img, region);
+    Image patch = patch(source, clipped, halo, op);
+    if (patch instanceof ViewImage && ((ViewImage) patch).dependsOn(dest)) {
+      // A lazy result would change under it as the region of dest is written.
+      patch = ((ViewImage) patch).materialize();
+    }
+    if (source != dest) {
+      apply(source, PointOp.identity(), dest);
+    }
+    int width = clipped.getWidth();
+    Image result = patch;
+    executor.forEachBand(width, clipped.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      int[] old = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        int destRow = clipped.getRow() + row;
+        result.getRegion(row, 0, 1, width, line, 0);
+        if (clipped.isMasked()) {
+          dest.getRegion(destRow, clipped.getCol(), 1, width, old, 0);
+          for (int col = 0; col < width; col++) {
+            if (!clipped.contains(destRow, clipped.getCol() + col)) {
+              line[col] = old[col];
+            }
+          }
+        }
+        dest.setRegion(destRow, clipped.getCol(), 1, width, line, 0);
+      }
+    });
+    return dest;
+  }
+
+  /**
+   * Run op on the rectangle of the region widened by the halo, and return the part of the result
+   * that covers the rectangle.
+   */
+  private Image patch(Image img, Region region, int halo, UnaryOperator<Image> op) {
+    if (op == null) {
+      throw new IllegalArgumentException("Operation cannot be null");
+    }
+    if (halo < 0) {
+      throw new IllegalArgumentException("Halo cannot be negative");
+    }
+    if (region.getWidth() == 0 || region.getHeight() == 0) {
+      return factory.create(region.getWidth(), region.getHeight());
+    }
+    int top = Math.max(0, region.getRow() - halo);
+    int left = Math.max(0, region.getCol() - halo);
+    int bottom = Math.min(img.getHeight(), region.getRow() + region.getHeight() + halo);
+    int right = Math.min(img.getWidth(), region.getCol() + region.getWidth() + halo);
+    Image window = CropView.of(img, top, left, bottom - top, right - left, factory);
+    Image result = op.apply(window);
+    if (result == null || result.getWidth() != window.getWidth()
+        || result.getHeight() != window.getHeight()) {
+      throw new IllegalArgumentException("Only operations that keep the size of the image can "
+          + "be limited to a region");
+    }
+    if (result.getWidth() == region.getWidth() && result.getHeight() == region.getHeight()) {
+      return result;
+    }
+    return CropView.of(result, region.getRow() - top, region.getCol() - left,
+        region.getHeight(), region.getWidth(), factory);
+  }
+
+  private static Region clip(Image img, Region region) {
+    if (region == null) {
+      throw new IllegalArgumentException("Region cannot be null");
+    }
+    return region.clip(img.getWidth(), img.getHeight());
+  }
+
+  @Override
+  public RowSource applyRows(RowSource rows, PointOp op) {
+    return new PointStage(rows, op);
+  }
+
+  @Override
+  public RowSource blurRows(RowSource rows) {
+    return new ConvolutionStage(rows, BLUR, executor);
+  }
+
+  @Override
+  public RowSource sharpenRows(RowSource rows) {
+    return new ConvolutionStage(rows, SHARPEN, executor);
+  }
+
+  @Override
+  public RowSource convolveRows(RowSource rows, Kernel kernel) {
+    return new ConvolutionStage(rows, new Convolver(kernel), executor);
+  }
+
+  @Override
+  public Image resize(Image img, int width, int height, Resampler resampler) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Size must be positive");
+    }
     if (img == null) {
       throw new IllegalArgumentException("Image cannot be null");
     }
-    RGBImage rgbImage = new RGBImage(img.getWidth(), img.getHeight());
-    return rgbImage.blueComponent(img);
+    return resize(img, resampler, factory.create(width, height));
+  }
+
+  @Override
+  public Image resize(Image img, Resampler resampler, Image dest) {
+    if (resampler == null) {
+      throw new IllegalArgumentException("Resampler cannot be null");
+    }
+    if (img != dest && img instanceof ViewImage && ((ViewImage) img).dependsOn(dest)) {
+      img = ((ViewImage) img).materialize();
+    }
+    return resampler.resize(img, dest, executor);
+  }
+
+  @Override
+  public Pyramid pyramid(Image img) {
+    return new Pyramid(img, factory, executor);
   }
 
-  // Compress the image using the Haar Wavelet Transform
-  public void compressImage(double threshold) {
-    double[][] redChannel = getChannelData(0);
-    double[][] greenChannel = getChannelData(1);
-    double[][] blueChannel = getChannelData(2);
+  @Override
+  public Histogram histogram(Image img) {
+    return Histogram.of(img, executor);
+  }
 
-    // Apply Haar Transform and threshold for lossy compression
-    redChannel = HaarTransform.haarWaveTransf2D(redChannel);
-    greenChannel = HaarTransform.haarWaveTransf2D(greenChannel);
-    blueChannel = HaarTransform.haarWaveTransf2D(blueChannel);
+  @Override
+  public Image autoLevels(Image img, double clip) {
+    return autoLevels(img, clip, newImage(img));
+  }
 
-    applyThreshold(redChannel, threshold);
-    applyThreshold(greenChannel, threshold);
-    applyThreshold(blueChannel, threshold);
+  @Override
+  public Image autoLevels(Image img, double clip, Image dest) {
+    return apply(img, histogram(img).autoLevels(clip), dest);
+  }
 
-    setChannelData(0, redChannel);
-    setChannelData(1, greenChannel);
-    setChannelData(2, blueChannel);
+  @Override
+  public Image equalize(Image img) {
+    return equalize(img, newImage(img));
   }
 
-  public void decompressImage() {
-    double[][] redChannel = getChannelData(0);
-    double[][] greenChannel = getChannelData(1);
-    double[][] blueChannel = getChannelData(2);
+  @Override
+  public Image equalize(Image img, Image dest) {
+    return apply(img, histogram(img).equalize(), dest);
+  }
 
-    redChannel = HaarTransform.invHaarWaveTransf2D(redChannel);
-    greenChannel = HaarTransform.invHaarWaveTransf2D(greenChannel);
-    blueChannel = HaarTransform.invHaarWaveTransf2D(blueChannel);
+  @Override
+  public Image colorCorrect(Image img) {
+    return colorCorrect(img, newImage(img));
+  }
 
-    setChannelData(0, redChannel);
-    setChannelData(1, blueChannel);
-    setChannelData(2, greenChannel);
+  @Override
+  public Image colorCorrect(Image img, Image dest) {
+    return apply(img, histogram(img).colorCorrect(), dest);
   }
 
-  private void applyThreshold(double[][] channel, double threshold) {
-    for (int i = 0; i < channel.length; i++) {
-      for (int j = 0; j < channel[0].length; j++) {
-        if (Math.abs(channel[i][j]) < threshold) {
-          channel[i][j] = 0;
+  @Override
+  public Image compress(Image img, double percent) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    if (img.getWidth() == 0 || img.getHeight() == 0) {
+      return compress(img, percent, newImage(img));
+    }
+    checkPercent(percent);
+    HaarTransform haar = new HaarTransform(img.getWidth(), img.getHeight());
+    double[][] channels = channels(img, haar);
+    haar.forward(channels, executor);
+    double cutoff = haar.cutoff(channels, percent, executor);
+    if (cutoff == 0) {
+      // Nothing but zeros is dropped, so the integer transform keeps the image exactly, in
+      // smaller coefficients than the orthonormal one would take.
+      return HaarCompressedImage.of(img, factory, executor);
+    }
+    return HaarCompressedImage.of(img.getWidth(), img.getHeight(), channels, cutoff, factory,
+        executor);
+  }
+
+  @Override
+  public Image compress(Image img, double percent, Image dest) {
+    checkPercent(percent);
+    Image source = source(img, dest);
+    int width = img.getWidth();
+    int height = img.getHeight();
+    if (width == 0 || height == 0) {
+      return dest;
+    }
+    HaarTransform haar = new HaarTransform(width, height);
+    int paddedWidth = haar.getPaddedWidth();
+    double[][] channels = channels(source, haar);
+    haar.forward(channels, executor);
+    double cutoff = haar.cutoff(channels, percent, executor);
+    if (cutoff > 0) {
+      // The pixels match what compress without a destination keeps, which is exact at zero.
+      HaarCompressedImage.quantize(channels, cutoff);
+    }
+    haar.inverse(channels, executor);
+    executor.forEachBand(width, height, (startRow, endRow) -> {
+      int[] line = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        int start = row * paddedWidth;
+        for (int col = 0; col < width; col++) {
+          line[col] = Pixels.pack(channelValue(channels[0][start + col]),
+              channelValue(channels[1][start + col]), channelValue(channels[2][start + col]));
         }
+        dest.setRow(row, line);
       }
-    }
+    });
+    return dest;
   }
 
-  private double[][] getChannelData(int channel) {
-    int width = image.getWidth();
-    int height = image.getHeight();
-    double[][] channelData = new double[width][height];
+  private static void checkPercent(double percent) {
+    if (!(percent >= 0 && percent <= 100)) {
+      throw new IllegalArgumentException("Compression percentage must be between 0 and 100");
+    }
+  }
 
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        int rgb = image.getRGB(x, y);
-        int color = (rgb >> (8 * (2 - channel))) & 0xFF;
-        channelData[x][y] = color;
+  /**
+   * Copy the channels of img into arrays sized for the transform and pad them.
+   */
+  private double[][] channels(Image img, HaarTransform haar) {
+    int width = img.getWidth();
+    int paddedWidth = haar.getPaddedWidth();
+    double[][] channels = new double[3][haar.getLength()];
+    executor.forEachBand(width, img.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        img.getRow(row, line);
+        int start = row * paddedWidth;
+        for (int col = 0; col < width; col++) {
+          channels[0][start + col] = Pixels.red(line[col]);
+          channels[1][start + col] = Pixels.green(line[col]);
+          channels[2][start + col] = Pixels.blue(line[col]);
+        }
       }
+    });
+    for (double[] channel : channels) {
+      haar.pad(channel);
     }
-    return channelData;
+    return channels;
   }
 
-  private void setChannelData(int channel, double[][] channelData) {
-    int width = image.getWidth();
-    int height = image.getHeight();
+  private static int channelValue(double value) {
+    return (int) Math.min(Math.max(Math.round(value), 0), 255);
+  }
 
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        int rgb = image.getRGB(x, y);
-        int color = (int) Math.min(Math.max(channelData[x][y], 0), 255);
-        int updatedRgb = (rgb & ~(0xFF << (8 * (2 - channel)))) | (color << (8 * (2 - channel)));
-        image.setRGB(x, y, updatedRgb);
-      }
+  /**
+   * Create an image of the same size as img to hold a result.
+   */
+  private Image newImage(Image img) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
     }
+    return factory.create(img.getWidth(), img.getHeight());
   }
 
-
+  /**
+   * Check that dest can receive the result of an operation on img and return the image to read
+   * from. That is img itself unless img is a view of dest, whose pixels would change under the
+   * operation as dest is written; such a view is materialized first.
+   */
+  private static Image source(Image img, Image dest) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    if (dest == null) {
+      throw new IllegalArgumentException("Destination image cannot be null");
+    }
+    if (img.getWidth() != dest.getWidth() || img.getHeight() != dest.getHeight()) {
+      throw new IllegalArgumentException("Destination image must be " + img.getWidth() + "x"
+          + img.getHeight());
+    }
+    if (img != dest && img instanceof ViewImage && ((ViewImage) img).dependsOn(dest)) {
+      return ((ViewImage) img).materialize();
+    }
+    return img;
+  }
 }
@@ -1,6 +1,14 @@
 package model;
 
+import model.filter.Kernel;
+import model.filter.Pyramid;
+import model.filter.Resampler;
+import java.util.function.UnaryOperator;
 import model.image.Image;
+import model.image.Region;
+import model.pipeline.PointOp;
+import model.stats.Histogram;
+import model.stream.RowSource;
 
 /**
  * ImgOperations interface defines the operations that can be performed on images.
@@ -15,6 +23,27 @@ public interface ImgModel {
    */
   Image splitImage(Image image);
 
+  /**
+   * Splits an image into one greyscale image per channel in a single pass over its pixels. The
+   * channel images store one byte per pixel.
+   *
+   * @param img the image to split
+   * @return the red, green and blue channel images, in that order
+   */
+  Image[] splitChannels(Image img);
+
+  /**
+   * Same as splitChannels, but writes the channels into the given images instead of creating
+   * new ones. Any of them may be img itself, which is then overwritten after it has been read.
+   *
+   * @param img   the image to split
+   * @param red   the image of the same size that receives the red channel
+   * @param green the image of the same size that receives the green channel
+   * @param blue  the image of the same size that receives the blue channel
+   * @return the red, green and blue channel images, in that order
+   */
+  Image[] splitChannels(Image img, Image red, Image green, Image blue);
+
   /**
    * Combines the red, green, and blue components of separate images into one final image.
    *
@@ -25,6 +54,18 @@ public interface ImgModel {
    */
   Image combineImage(Image red, Image green, Image blue);
 
+  /**
+   * Combines the colour images into dest instead of a new image. dest may be one of the colour
+   * images, which is then updated in place.
+   *
+   * @param red   the Image containing the red channel
+   * @param green the Image containing the green channel
+   * @param blue  the Image containing the blue channel
+   * @param dest  the image of the same size that receives the result
+   * @return dest
+   */
+  Image combineImage(Image red, Image green, Image blue, Image dest);
+
   /**
    * Flips an image horizontally (left to right).
    *
@@ -33,6 +74,16 @@ public interface ImgModel {
    */
   Image flipHorizontal(Image img);
 
+  /**
+   * Same as flipHorizontal, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the Image to be flipped
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image flipHorizontal(Image img, Image dest);
+
   /**
    * Flips the given image vertically.
    *
@@ -41,6 +92,16 @@ public interface ImgModel {
    */
   Image flipVertical(Image img);
 
+  /**
+   * Same as flipVertical, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the image to be flipped
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image flipVertical(Image img, Image dest);
+
   /**
    * Brightens the given image by a specified increment.
    *
@@ -50,6 +111,17 @@ public interface ImgModel {
    */
   Image brighten(Image img, int increment);
 
+  /**
+   * Same as brighten, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img       the image to brighten
+   * @param increment the amount to increase the brightness
+   * @param dest      the image of the same size that receives the result
+   * @return dest
+   */
+  Image brighten(Image img, int increment, Image dest);
+
   /**
    * Converts the given image to greyscale.
    *
@@ -58,6 +130,16 @@ public interface ImgModel {
    */
   Image toGreyscale(Image img);
 
+  /**
+   * Same as toGreyscale, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the image to convert
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image toGreyscale(Image img, Image dest);
+
   /**
    * Applies a blur effect to the given image.
    *
@@ -66,6 +148,16 @@ public interface ImgModel {
    */
   Image blur(Image img);
 
+  /**
+   * Same as blur, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the image to blur
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image blur(Image img, Image dest);
+
   /**
    * Applies a sepia filter to the given image.
    *
@@ -74,6 +166,16 @@ public interface ImgModel {
    */
   Image sepia(Image img);
 
+  /**
+   * Same as sepia, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the image to apply the filter on
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image sepia(Image img, Image dest);
+
   /**
    * Applies a sharpening filter to the given image.
    *
@@ -82,6 +184,37 @@ public interface ImgModel {
    */
   Image sharpen(Image img);
 
+  /**
+   * Same as sharpen, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the image to sharpen
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image sharpen(Image img, Image dest);
+
+  /**
+   * Convolves the given image with a kernel. Pixels beyond the border repeat the nearest edge
+   * pixel.
+   *
+   * @param img    the image to convolve
+   * @param kernel the kernel to apply
+   * @return a new Image object holding the convolved image
+   */
+  Image convolve(Image img, Kernel kernel);
+
+  /**
+   * Same as convolve, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img    the image to convolve
+   * @param kernel the kernel to apply
+   * @param dest   the image of the same size that receives the result
+   * @return dest
+   */
+  Image convolve(Image img, Kernel kernel, Image dest);
+
   /**
    * Converts an RGB image to a grayscale image based on the max value calculation.
    *
@@ -90,6 +223,16 @@ public interface ImgModel {
    */
   Image value(Image img);
 
+  /**
+   * Same as value, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the input RGB image to be converted
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image value(Image img, Image dest);
+
   /**
    * Converts an RGB image to a grayscale image based on the intensity calculation.
    *
@@ -98,6 +241,16 @@ public interface ImgModel {
    */
   Image intensity(Image img);
 
+  /**
+   * Same as intensity, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the input RGB image to be converted
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image intensity(Image img, Image dest);
+
   /**
    * Converts an RGB image to a grayscale image based on the luma calculation.
    *
@@ -106,6 +259,16 @@ public interface ImgModel {
    */
   Image luma(Image img);
 
+  /**
+   * Same as luma, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the input RGB image to be converted
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image luma(Image img, Image dest);
+
   /**
    * Converts an RGB image to a grayscale image based on red component.
    *
@@ -114,6 +277,16 @@ public interface ImgModel {
    */
   Image redComponent(Image img);
 
+  /**
+   * Same as redComponent, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the input RGB image to be converted
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image redComponent(Image img, Image dest);
+
   /**
    * Converts an RGB image to a grayscale image based on green component.
    *
@@ -122,6 +295,16 @@ public interface ImgModel {
    */
   Image greenComponent(Image img);
 
+  /**
+   * Same as greenComponent, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the input RGB image to be converted
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image greenComponent(Image img, Image dest);
+
   /**
    * Converts an RGB image to a grayscale image based on blue component.
    *
@@ -130,5 +313,242 @@ public interface ImgModel {
    */
   Image blueComponent(Image img);
 
+  /**
+   * Same as blueComponent, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the input RGB image to be converted
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image blueComponent(Image img, Image dest);
+
+  /**
+   * Cuts a rectangular window out of an image.
+   *
+   * @param img    the image to crop
+   * @param row    first row of the window
+   * @param col    first column of the window
+   * @param height number of rows in the window
+   * @param width  number of columns in the window
+   * @return an Image holding only the pixels of the window
+   * @throws IllegalArgumentException if the window does not lie inside the image
+   */
+  Image crop(Image img, int row, int col, int height, int width);
 
+  /**
+   * Cuts a rectangular window out of an image into dest, which must have the size of the
+   * window, instead of a new image.
+   *
+   * @param img    the image to crop
+   * @param row    first row of the window
+   * @param col    first column of the window
+   * @param height number of rows in the window
+   * @param width  number of columns in the window
+   * @param dest   the image the size of the window that receives it
+   * @return dest
+   * @throws IllegalArgumentException if the window does not lie inside the image
+   */
+  Image crop(Image img, int row, int col, int height, int width, Image dest);
+
+  /**
+   * Applies a point operation, or a chain of them composed with PointOp.then, to every pixel in a
+   * single pass.
+   *
+   * @param img the input image
+   * @param op  the operation to apply
+   * @return a new Image object holding the transformed image
+   */
+  Image apply(Image img, PointOp op);
+
+  /**
+   * Same as apply, but writes the result into dest instead of creating a new image.
+   * dest may be img itself, in which case the image is updated in place.
+   *
+   * @param img  the input image
+   * @param op   the operation to apply
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image apply(Image img, PointOp op, Image dest);
+
+  /**
+   * Applies any operation that keeps the size of its input to a region of an image only. The
+   * operation runs on the rectangle of the region widened by the halo, so its cost is
+   * proportional to the region, and the result shares every pixel outside the region with img
+   * until it is written to.
+   *
+   * @param img    the input image
+   * @param region the pixels to change; the part outside the image is ignored
+   * @param halo   how far around a pixel the operation reads, such as 1 for blur and 2 for
+   *               sharpen, so pixels at the edge of the region see their real neighbours
+   * @param op     the operation, for example img -> model.blur(img)
+   * @return the image with the region changed
+   */
+  Image applyToRegion(Image img, Region region, int halo, UnaryOperator<Image> op);
+
+  /**
+   * Same as applyToRegion, but writes the result into dest. If dest is img only the pixels of
+   * the region are written.
+   *
+   * @param img    the input image
+   * @param region the pixels to change; the part outside the image is ignored
+   * @param halo   how far around a pixel the operation reads
+   * @param op     the operation
+   * @param dest   the image of the same size that receives the result
+   * @return dest
+   */
+  Image applyToRegion(Image img, Region region, int halo, UnaryOperator<Image> op, Image dest);
+
+  /**
+   * Applies a point operation to a stream of rows as they are read.
+   *
+   * @param rows the input rows
+   * @param op   the operation to apply
+   * @return the transformed rows
+   */
+  RowSource applyRows(RowSource rows, PointOp op);
+
+  /**
+   * Blurs a stream of rows, holding only a band of rows and the rows around it at a time.
+   *
+   * @param rows the input rows
+   * @return the blurred rows
+   */
+  RowSource blurRows(RowSource rows);
+
+  /**
+   * Sharpens a stream of rows, holding only a band of rows and the rows around it at a time.
+   *
+   * @param rows the input rows
+   * @return the sharpened rows
+   */
+  RowSource sharpenRows(RowSource rows);
+
+  /**
+   * Convolves a stream of rows, holding only a band of rows and the rows around it at a time.
+   * The result is the same as convolving the whole image.
+   *
+   * @param rows   the input rows
+   * @param kernel the kernel
+   * @return the convolved rows
+   */
+  RowSource convolveRows(RowSource rows, Kernel kernel);
+
+  /**
+   * Resizes an image.
+   *
+   * @param img       the input image
+   * @param width     width of the result
+   * @param height    height of the result
+   * @param resampler AREA to shrink, BILINEAR to enlarge
+   * @return the resized image
+   */
+  Image resize(Image img, int width, int height, Resampler resampler);
+
+  /**
+   * Same as resize, but writes the result into dest, whose size is the size of the result.
+   *
+   * @param img       the input image
+   * @param resampler AREA to shrink, BILINEAR to enlarge
+   * @param dest      the image that receives the result, not img unless it has the same size
+   * @return dest
+   */
+  Image resize(Image img, Resampler resampler, Image dest);
+
+  /**
+   * Builds the mip pyramid of an image, whose levels are computed as they are first needed.
+   * Keep the pyramid to make repeated thumbnails and previews of the same image cheap.
+   *
+   * @param img the full-resolution image, which must not change while the pyramid is used
+   * @return the pyramid
+   */
+  Pyramid pyramid(Image img);
+
+  /**
+   * Counts the levels of the red, green and blue channels and the luma of an image in one
+   * parallel pass.
+   *
+   * @param img the image to measure
+   * @return the histogram, which also gives the minimum, maximum, mean and percentiles
+   */
+  Histogram histogram(Image img);
+
+  /**
+   * Stretches each colour channel so that the given percentage of its darkest and brightest
+   * pixels become 0 and 255.
+   *
+   * @param img  the input image
+   * @param clip the percentage of pixels allowed to clip at each end of each channel, 0-50
+   * @return the adjusted image
+   */
+  Image autoLevels(Image img, double clip);
+
+  /**
+   * Same as autoLevels, but writes the result into dest. dest may be img itself.
+   *
+   * @param img  the input image
+   * @param clip the percentage of pixels allowed to clip at each end of each channel, 0-50
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image autoLevels(Image img, double clip, Image dest);
+
+  /**
+   * Equalizes the histogram of each colour channel so its levels spread evenly over 0-255.
+   *
+   * @param img the input image
+   * @return the equalized image
+   */
+  Image equalize(Image img);
+
+  /**
+   * Same as equalize, but writes the result into dest. dest may be img itself.
+   *
+   * @param img  the input image
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image equalize(Image img, Image dest);
+
+  /**
+   * Removes an overall colour cast by scaling each channel to the mean of the three channels.
+   *
+   * @param img the input image
+   * @return the corrected image
+   */
+  Image colorCorrect(Image img);
+
+  /**
+   * Same as colorCorrect, but writes the result into dest. dest may be img itself.
+   *
+   * @param img  the input image
+   * @param dest the image of the same size that receives the result
+   * @return dest
+   */
+  Image colorCorrect(Image img, Image dest);
+
+  /**
+   * Compresses an image lossily with a two-dimensional Haar wavelet transform. The coefficients
+   * of the three channels are ranked by magnitude together, the given percentage of the smallest
+   * are dropped, and the image is rebuilt from the rest, rounded to multiples of half the
+   * smallest kept magnitude. The result keeps the coefficients that were not dropped, so it can
+   * be saved as a .haar file, and is only rebuilt when its pixels are first read. If only zeros
+   * are dropped it keeps those of the lossless integer transform instead.
+   *
+   * @param img     the input image
+   * @param percent the percentage of coefficients to drop, 0-100
+   * @return the compressed image
+   */
+  Image compress(Image img, double percent);
+
+  /**
+   * Same as compress, but writes the result into dest. dest may be img itself.
+   *
+   * @param img     the input image
+   * @param percent the percentage of coefficients to drop, 0-100
+   * @param dest    the image of the same size that receives the result
+   * @return dest
+   */
+  Image compress(Image img, double percent, Image dest);
 }
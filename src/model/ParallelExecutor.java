@@ -0,0 +1,148 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits work over the rows of an image into bands and runs them on a ForkJoinPool. Work below a
+ * size threshold, or on an executor with a parallelism of one, runs on the calling thread. Every
+ * band is processed by the same code as the sequential path, so results do not depend on how
+ * the rows were split.
+ */
+public class ParallelExecutor {
+
+  /**
+   * Images with fewer pixels than this are processed sequentially.
+   */
+  public static final long DEFAULT_THRESHOLD = 1 << 16;
+
+  private final ForkJoinPool pool;
+  private final int parallelism;
+  private final long threshold;
+
+  /**
+   * Work on a band of rows.
+   */
+  public interface BandTask {
+
+    /**
+     * Process the rows from startRow inclusive to endRow exclusive.
+     *
+     * @param startRow first row of the band
+     * @param endRow   row after the last row of the band
+     */
+    void run(int startRow, int endRow);
+  }
+
+  /**
+   * Construct an executor that uses the common ForkJoinPool.
+   */
+  public ParallelExecutor() {
+    this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism(), DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Construct an executor with its own pool of the given parallelism. A parallelism of one runs
+   * everything on the calling thread.
+   *
+   * @param parallelism number of worker threads
+   */
+  public ParallelExecutor(int parallelism) {
+    this(parallelism == 1 ? null : new ForkJoinPool(checkParallelism(parallelism)), parallelism,
+        DEFAULT_THRESHOLD);
+  }
+
+  private ParallelExecutor(ForkJoinPool pool, int parallelism, long threshold) {
+    this.pool = pool;
+    this.parallelism = Math.max(1, parallelism);
+    this.threshold = threshold;
+  }
+
+  /**
+   * Return a copy of this executor that processes images with fewer than threshold pixels
+   * sequentially.
+   *
+   * @param threshold minimum number of pixels worth splitting
+   * @return the new executor, sharing this executor's pool
+   */
+  public ParallelExecutor withThreshold(long threshold) {
+    return new ParallelExecutor(pool, parallelism, threshold);
+  }
+
+  /**
+   * Return the number of bands that may run at once.
+   *
+   * @return the parallelism level
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Run the task over all rows of a width by height image, in bands of a whole number of grain
+   * rows except possibly the last.
+   *
+   * @param width  width of the image, used only to decide whether to split
+   * @param height number of rows to cover
+   * @param grain  smallest band worth running on its own, and the alignment of band starts
+   * @param task   the work to run on each band
+   */
+  public void forEachBand(int width, int height, int grain, BandTask task) {
+    if (pool == null || parallelism == 1 || (long) width * height < threshold
+        || height <= grain) {
+      task.run(0, height);
+    } else {
+      pool.invoke(new BandAction(task, 0, height, Math.max(1, grain)));
+    }
+  }
+
+  /**
+   * Run the task over all rows of a width by height image, choosing a band height that gives each
+   * worker a few bands to balance uneven load.
+   *
+   * @param width  width of the image
+   * @param height number of rows to cover
+   * @param task   the work to run on each band
+   */
+  public void forEachBand(int width, int height, BandTask task) {
+    forEachBand(width, height, Math.max(16, height / (parallelism * 4)), task);
+  }
+
+  private static int checkParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    return parallelism;
+  }
+
+  /**
+   * Splits a range of rows in half, on a grain boundary, until it is one grain or less.
+   */
+  private static class BandAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BandTask task;
+    private final int start;
+    private final int end;
+    private final int grain;
+
+    BandAction(BandTask task, int start, int end, int grain) {
+      this.task = task;
+      this.start = start;
+      this.end = end;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      int grains = (end - start + grain - 1) / grain;
+      if (grains <= 1) {
+        task.run(start, end);
+        return;
+      }
+      int mid = start + grains / 2 * grain;
+      invokeAll(new BandAction(task, start, mid, grain), new BandAction(task, mid, end, grain));
+    }
+  }
+}
@@ -0,0 +1,438 @@
+package model.filter;
+
+import java.util.Arrays;
+import model.ParallelExecutor;
+import model.image.Image;
+import model.image.ImageFactory;
+import model.image.TiledImage;
+
+/**
+ * Applies a Kernel to images. The image is processed block by block: each block is read once
+ * together with a halo of edge-replicated pixels, so no tap ever has to clamp its coordinates.
+ * Tiled images are walked one tile at a time and other images in full-width bands of rows, and
+ * rows of blocks are shared out between the workers of a ParallelExecutor.
+ *
+ * <p>An image can also be convolved into itself. It is then walked in full-width blocks of rows,
+ * top to bottom within each band; the original rows a block still needs after its predecessor
+ * has been written are carried over from that block's padded input, and the rows around each
+ * band boundary are saved before any band starts, so the extra memory is a few rows per band.
+ *
+ * <p>The sum for each channel is evaluated with the cheapest strategy that gives exactly the
+ * result defined by Kernel:
+ * <ul>
+ *   <li>uniform kernels use running sums along rows and then columns, so the cost per pixel does
+ *   not depend on the kernel size;</li>
+ *   <li>integer kernels that factor into a column and a row vector run as two one-dimensional
+ *   passes;</li>
+ *   <li>square kernels with one weight per ring around the centre sum each ring from an integral
+ *   image, at a cost proportional to the radius;</li>
+ *   <li>any other kernel sums its non-zero taps directly.</li>
+ * </ul>
+ */
+public class Convolver {
+
+  // Rows per band when walking an untiled image, before allowing for the kernel size.
+  private static final int BAND_ROWS = 64;
+
+  private enum Strategy { UNIFORM, SEPARABLE, RINGS, DIRECT }
+
+  private final Kernel kernel;
+  private final int radiusX;
+  private final int radiusY;
+  private final Strategy strategy;
+  private final int[] uniformTerms;
+  private final long[] columnFactors;
+  private final long[] rowFactors;
+  private final int[][] ringTerms;
+
+  /**
+   * Prepare a convolver for the kernel, choosing how its sums will be evaluated.
+   *
+   * @param kernel the kernel to apply
+   */
+  public Convolver(Kernel kernel) {
+    if (kernel == null) {
+      throw new IllegalArgumentException("Kernel cannot be null");
+    }
+    this.kernel = kernel;
+    this.radiusX = kernel.getWidth() / 2;
+    this.radiusY = kernel.getHeight() / 2;
+    long[][] factors = kernel.integerFactors();
+    double[] rings = kernel.ringWeights();
+    int[] uniform = null;
+    int[][] ringLuts = null;
+    if (kernel.isUniform()) {
+      strategy = Strategy.UNIFORM;
+      uniform = terms(kernel.getWeight(0, 0));
+    } else if (factors != null) {
+      strategy = Strategy.SEPARABLE;
+    } else if (rings != null) {
+      strategy = Strategy.RINGS;
+      ringLuts = new int[rings.length][];
+      for (int k = 0; k < rings.length; k++) {
+        ringLuts[k] = rings[k] == 0 ? null : terms(rings[k]);
+      }
+    } else {
+      strategy = Strategy.DIRECT;
+    }
+    this.uniformTerms = uniform;
+    this.ringTerms = ringLuts;
+    this.columnFactors = factors == null ? null : factors[0];
+    this.rowFactors = factors == null ? null : factors[1];
+  }
+
+  /**
+   * Return the kernel this convolver applies.
+   *
+   * @return the kernel
+   */
+  public Kernel getKernel() {
+    return kernel;
+  }
+
+  /**
+   * Convolve the image into a new image.
+   *
+   * @param img      the image to convolve
+   * @param factory  creates the result image
+   * @param executor runs rows of blocks in parallel
+   * @return the convolved image
+   */
+  public Image convolve(Image img, ImageFactory factory, ParallelExecutor executor) {
+    return convolve(img, factory.create(img.getWidth(), img.getHeight()), executor);
+  }
+
+  /**
+   * Convolve the image into the destination, which may be the image itself. A destination other
+   * than the image must not share pixels with it.
+   *
+   * @param img      the image to convolve
+   * @param dest     the image of the same size to write the result to
+   * @param executor runs rows of blocks in parallel
+   * @return the destination
+   */
+  public Image convolve(Image img, Image dest, ParallelExecutor executor) {
+    if (img.getWidth() != dest.getWidth() || img.getHeight() != dest.getHeight()) {
+      throw new IllegalArgumentException("Destination image must be " + img.getWidth() + "x"
+          + img.getHeight());
+    }
+    if (img == dest) {
+      convolveInPlace(img, executor);
+      return dest;
+    }
+    int width = img.getWidth();
+    int height = img.getHeight();
+    int blockWidth = width;
+    int blockHeight = Math.max(BAND_ROWS, 4 * radiusY);
+    if (img instanceof TiledImage) {
+      int tileSize = ((TiledImage) img).getTileSize();
+      int tiles = 1 + 4 * Math.max(radiusX, radiusY) / tileSize;
+      blockWidth = tileSize * tiles;
+      blockHeight = blockWidth;
+    }
+    int blockCols = Math.max(1, Math.min(blockWidth, width));
+    int blockRows = Math.max(1, Math.min(blockHeight, height));
+    executor.forEachBand(width, height, blockRows, (startRow, endRow) -> {
+      Block block = new Block(blockRows, blockCols);
+      for (int row = startRow; row < endRow; row += blockRows) {
+        int rows = Math.min(blockRows, endRow - row);
+        for (int col = 0; col < width; col += blockCols) {
+          int cols = Math.min(blockCols, width - col);
+          readPadded(img, row, col, rows, cols, block.padded);
+          convolveBlock(block, rows, cols);
+          dest.setRegion(row, col, rows, cols, block.out, 0);
+        }
+      }
+    });
+    return dest;
+  }
+
+  private void convolveInPlace(Image img, ParallelExecutor executor) {
+    int width = img.getWidth();
+    int height = img.getHeight();
+    if (width == 0 || height == 0) {
+      return;
+    }
+    int paddedWidth = width + 2 * radiusX;
+    int blockRows = Math.max(1, Math.min(Math.max(BAND_ROWS, 4 * radiusY), height));
+    int bandRows = Math.max(blockRows, height / (4 * executor.getParallelism()));
+    // Bands only ever start at multiples of bandRows, so saving the original rows within the
+    // kernel radius of each of those is enough for every band to read its halo.
+    int bands = (height + bandRows - 1) / bandRows;
+    int[][] halos = new int[bands][];
+    for (int band = 1; band < bands; band++) {
+      int top = band * bandRows - radiusY;
+      int rows = Math.min(height, band * bandRows + radiusY) - top;
+      halos[band] = new int[rows * width];
+      img.getRegion(top, 0, rows, width, halos[band], 0);
+    }
+    executor.forEachBand(width, height, bandRows, (startRow, endRow) -> {
+      Block block = new Block(blockRows, width);
+      int[] carry = new int[radiusY * paddedWidth];
+      for (int row = startRow; row < endRow; row += blockRows) {
+        int rows = Math.min(blockRows, endRow - row);
+        for (int p = 0; p < rows + 2 * radiusY; p++) {
+          int r = Math.min(Math.max(row - radiusY + p, 0), height - 1);
+          int start = p * paddedWidth;
+          if (r >= row && r < endRow) {
+            img.getRegion(r, 0, 1, width, block.padded, start + radiusX);
+          } else if (r >= endRow) {
+            System.arraycopy(halos[endRow / bandRows], (r - endRow + radiusY) * width,
+                block.padded, start + radiusX, width);
+          } else if (row > startRow) {
+            // Rows above the block were written by the previous block; use its copy.
+            System.arraycopy(carry, start, block.padded, start, paddedWidth);
+            continue;
+          } else {
+            System.arraycopy(halos[startRow / bandRows], (r - startRow + radiusY) * width,
+                block.padded, start + radiusX, width);
+          }
+          Arrays.fill(block.padded, start, start + radiusX, block.padded[start + radiusX]);
+          Arrays.fill(block.padded, start + radiusX + width, start + paddedWidth,
+              block.padded[start + radiusX + width - 1]);
+        }
+        convolveBlock(block, rows, width);
+        System.arraycopy(block.padded, rows * paddedWidth, carry, 0, radiusY * paddedWidth);
+        img.setRegion(row, 0, rows, width, block.out, 0);
+      }
+    });
+  }
+
+  /**
+   * Buffers for one block, reused for every block of a band.
+   */
+  private class Block {
+
+    final int[] padded;
+    final int[] plane;
+    final long[] partial;
+    final long[] sums;
+    final int[] out;
+
+    Block(int rows, int cols) {
+      int paddedWidth = cols + 2 * radiusX;
+      int paddedHeight = rows + 2 * radiusY;
+      padded = new int[paddedWidth * paddedHeight];
+      plane = new int[paddedWidth * paddedHeight];
+      partial = new long[strategy == Strategy.RINGS
+          ? (paddedWidth + 1) * (paddedHeight + 1) : paddedHeight * cols];
+      sums = new long[rows * cols];
+      out = new int[rows * cols];
+    }
+  }
+
+  /**
+   * Reads a block of the image and a halo around it into the padded buffer, replicating the edge
+   * pixels where the halo leaves the image.
+   */
+  private void readPadded(Image img, int row, int col, int rows, int cols, int[] padded) {
+    int paddedWidth = cols + 2 * radiusX;
+    int paddedHeight = rows + 2 * radiusY;
+    int top = Math.max(row - radiusY, 0);
+    int bottom = Math.min(row + rows + radiusY, img.getHeight());
+    int left = Math.max(col - radiusX, 0);
+    int right = Math.min(col + cols + radiusX, img.getWidth());
+    int leftPad = left - (col - radiusX);
+    int rightPad = (col + cols + radiusX) - right;
+    for (int r = top; r < bottom; r++) {
+      int start = (r - (row - radiusY)) * paddedWidth;
+      img.getRegion(r, left, 1, right - left, padded, start + leftPad);
+      Arrays.fill(padded, start, start + leftPad, padded[start + leftPad]);
+      Arrays.fill(padded, start + paddedWidth - rightPad, start + paddedWidth,
+          padded[start + paddedWidth - rightPad - 1]);
+    }
+    int firstRow = top - (row - radiusY);
+    int lastRow = bottom - 1 - (row - radiusY);
+    for (int r = 0; r < firstRow; r++) {
+      System.arraycopy(padded, firstRow * paddedWidth, padded, r * paddedWidth, paddedWidth);
+    }
+    for (int r = lastRow + 1; r < paddedHeight; r++) {
+      System.arraycopy(padded, lastRow * paddedWidth, padded, r * paddedWidth, paddedWidth);
+    }
+  }
+
+  /**
+   * Convolves the padded block into block.out, one channel at a time.
+   */
+  private void convolveBlock(Block block, int rows, int cols) {
+    int paddedLength = (cols + 2 * radiusX) * (rows + 2 * radiusY);
+    int divisor = kernel.getDivisor();
+    Arrays.fill(block.out, 0, rows * cols, 0);
+    for (int shift = 16; shift >= 0; shift -= 8) {
+      for (int i = 0; i < paddedLength; i++) {
+        block.plane[i] = (block.padded[i] >> shift) & 0xFF;
+      }
+      switch (strategy) {
+        case UNIFORM:
+          sumUniform(block, rows, cols);
+          break;
+        case SEPARABLE:
+          sumSeparable(block, rows, cols);
+          break;
+        case RINGS:
+          sumRings(block, rows, cols);
+          break;
+        default:
+          sumDirect(block, rows, cols);
+          break;
+      }
+      for (int i = 0; i < rows * cols; i++) {
+        long value = block.sums[i] / divisor;
+        block.out[i] |= (int) Math.min(Math.max(value, 0), 255) << shift;
+      }
+    }
+  }
+
+  private void sumUniform(Block block, int rows, int cols) {
+    int kernelWidth = kernel.getWidth();
+    int kernelHeight = kernel.getHeight();
+    int paddedWidth = cols + 2 * radiusX;
+    int paddedHeight = rows + 2 * radiusY;
+    int[] plane = block.plane;
+    long[] partial = block.partial;
+    long[] sums = block.sums;
+    // Sliding window along each padded row.
+    for (int y = 0; y < paddedHeight; y++) {
+      int base = y * paddedWidth;
+      long sum = 0;
+      for (int j = 0; j < kernelWidth; j++) {
+        sum += uniformTerms[plane[base + j]];
+      }
+      partial[y * cols] = sum;
+      for (int x = 1; x < cols; x++) {
+        sum += uniformTerms[plane[base + x + kernelWidth - 1]] - uniformTerms[plane[base + x - 1]];
+        partial[y * cols + x] = sum;
+      }
+    }
+    // Sliding window down the columns, one output row at a time.
+    Arrays.fill(sums, 0, cols, 0);
+    for (int i = 0; i < kernelHeight; i++) {
+      for (int x = 0; x < cols; x++) {
+        sums[x] += partial[i * cols + x];
+      }
+    }
+    for (int y = 1; y < rows; y++) {
+      int added = (y + kernelHeight - 1) * cols;
+      int removed = (y - 1) * cols;
+      for (int x = 0; x < cols; x++) {
+        sums[y * cols + x] = sums[(y - 1) * cols + x] + partial[added + x] - partial[removed + x];
+      }
+    }
+  }
+
+  private void sumSeparable(Block block, int rows, int cols) {
+    int paddedWidth = cols + 2 * radiusX;
+    int paddedHeight = rows + 2 * radiusY;
+    int[] plane = block.plane;
+    long[] partial = block.partial;
+    long[] sums = block.sums;
+    Arrays.fill(partial, 0, paddedHeight * cols, 0);
+    for (int y = 0; y < paddedHeight; y++) {
+      for (int j = 0; j < rowFactors.length; j++) {
+        long factor = rowFactors[j];
+        if (factor == 0) {
+          continue;
+        }
+        int source = y * paddedWidth + j;
+        int target = y * cols;
+        for (int x = 0; x < cols; x++) {
+          partial[target + x] += factor * plane[source + x];
+        }
+      }
+    }
+    Arrays.fill(sums, 0, rows * cols, 0);
+    for (int y = 0; y < rows; y++) {
+      for (int i = 0; i < columnFactors.length; i++) {
+        long factor = columnFactors[i];
+        if (factor == 0) {
+          continue;
+        }
+        int source = (y + i) * cols;
+        int target = y * cols;
+        for (int x = 0; x < cols; x++) {
+          sums[target + x] += factor * partial[source + x];
+        }
+      }
+    }
+  }
+
+  private void sumRings(Block block, int rows, int cols) {
+    int paddedWidth = cols + 2 * radiusX;
+    int paddedHeight = rows + 2 * radiusY;
+    int stride = paddedWidth + 1;
+    int[] plane = block.plane;
+    long[] integral = block.partial;
+    long[] sums = block.sums;
+    Arrays.fill(sums, 0, rows * cols, 0);
+    Arrays.fill(integral, 0, stride, 0);
+    for (int ring = 0; ring < ringTerms.length; ring++) {
+      int[] terms = ringTerms[ring];
+      if (terms == null) {
+        continue;
+      }
+      for (int y = 0; y < paddedHeight; y++) {
+        long rowSum = 0;
+        int above = y * stride;
+        int here = (y + 1) * stride;
+        integral[here] = 0;
+        for (int x = 0; x < paddedWidth; x++) {
+          rowSum += terms[plane[y * paddedWidth + x]];
+          integral[here + x + 1] = integral[above + x + 1] + rowSum;
+        }
+      }
+      for (int y = 0; y < rows; y++) {
+        int centreRow = y + radiusY;
+        for (int x = 0; x < cols; x++) {
+          int centreCol = x + radiusX;
+          long sum = boxSum(integral, stride, centreRow, centreCol, ring);
+          if (ring > 0) {
+            sum -= boxSum(integral, stride, centreRow, centreCol, ring - 1);
+          }
+          sums[y * cols + x] += sum;
+        }
+      }
+    }
+  }
+
+  private static long boxSum(long[] integral, int stride, int row, int col, int radius) {
+    int top = (row - radius) * stride;
+    int bottom = (row + radius + 1) * stride;
+    int left = col - radius;
+    int right = col + radius + 1;
+    return integral[bottom + right] - integral[top + right] - integral[bottom + left]
+        + integral[top + left];
+  }
+
+  private void sumDirect(Block block, int rows, int cols) {
+    int paddedWidth = cols + 2 * radiusX;
+    int[] plane = block.plane;
+    long[] sums = block.sums;
+    Arrays.fill(sums, 0, rows * cols, 0);
+    for (int i = 0; i < kernel.getHeight(); i++) {
+      for (int j = 0; j < kernel.getWidth(); j++) {
+        double weight = kernel.getWeight(i, j);
+        if (weight == 0) {
+          continue;
+        }
+        for (int y = 0; y < rows; y++) {
+          int source = (y + i) * paddedWidth + j;
+          int target = y * cols;
+          for (int x = 0; x < cols; x++) {
+            sums[target + x] += (int) (plane[source + x] * weight);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the contribution (int) (value * weight) of a tap for every channel value.
+   */
+  private static int[] terms(double weight) {
+    int[] terms = new int[256];
+    for (int value = 0; value < 256; value++) {
+      terms[value] = (int) (value * weight);
+    }
+    return terms;
+  }
+}
@@ -0,0 +1,311 @@
+package model.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A convolution kernel of odd width and height with an integer divisor. Convolving an image
+ * computes, for every channel of every pixel, the sum over all taps of (int) (value * weight),
+ * divides that sum by the divisor, truncating toward zero, and clamps the result to 0-255. The
+ * edge pixels of the image are repeated wherever the kernel reaches past the border.
+ *
+ * <p>The kernel also works out which of the fast strategies of Convolver can evaluate it exactly:
+ * uniform weights, integer weights that factor into a column and a row vector, or square kernels
+ * whose weights are constant on each ring around the centre.
+ */
+public final class Kernel {
+
+  // Integer weights up to this size keep value * weight exact in a double and a long sum.
+  private static final double MAX_EXACT_WEIGHT = 1L << 40;
+
+  private final int width;
+  private final int height;
+  private final double[] weights;
+  private final int divisor;
+
+  private Kernel(int width, int height, double[] weights, int divisor) {
+    this.width = width;
+    this.height = height;
+    this.weights = weights;
+    this.divisor = divisor;
+  }
+
+  /**
+   * Create a kernel from rows of weights with a divisor of one.
+   *
+   * @param weights the weights, one array per row; all rows must have the same odd length
+   * @return the kernel
+   */
+  public static Kernel of(double[][] weights) {
+    return of(weights, 1);
+  }
+
+  /**
+   * Create a kernel from rows of weights.
+   *
+   * @param weights the weights, one array per row; all rows must have the same odd length
+   * @param divisor the positive divisor applied to each weighted sum
+   * @return the kernel
+   * @throws IllegalArgumentException if the kernel is empty, ragged, of even size or the divisor
+   *                                  is not positive
+   */
+  public static Kernel of(double[][] weights, int divisor) {
+    if (weights == null || weights.length == 0 || weights[0].length == 0) {
+      throw new IllegalArgumentException("Kernel cannot be empty");
+    }
+    int height = weights.length;
+    int width = weights[0].length;
+    if (height % 2 == 0 || width % 2 == 0) {
+      throw new IllegalArgumentException("Kernel width and height must be odd");
+    }
+    if (divisor < 1) {
+      throw new IllegalArgumentException("Kernel divisor must be positive");
+    }
+    double[] flat = new double[width * height];
+    for (int i = 0; i < height; i++) {
+      if (weights[i].length != width) {
+        throw new IllegalArgumentException("All kernel rows must have the same length");
+      }
+      for (int j = 0; j < width; j++) {
+        if (!Double.isFinite(weights[i][j])) {
+          throw new IllegalArgumentException("Kernel weights must be finite");
+        }
+      }
+      System.arraycopy(weights[i], 0, flat, i * width, width);
+    }
+    return new Kernel(width, height, flat, divisor);
+  }
+
+  /**
+   * Create a box blur kernel that averages a square of (2 * radius + 1) pixels on each side.
+   *
+   * @param radius distance from the centre to the edge of the box
+   * @return the kernel
+   */
+  public static Kernel box(int radius) {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Kernel radius cannot be negative");
+    }
+    int size = 2 * radius + 1;
+    double[] flat = new double[size * size];
+    Arrays.fill(flat, 1);
+    return new Kernel(size, size, flat, Math.multiplyExact(size, size));
+  }
+
+  /**
+   * Create a Gaussian blur kernel from binomial coefficients, which are integers and factor into
+   * a row and a column so the kernel is evaluated in two one-dimensional passes.
+   *
+   * @param radius distance from the centre to the edge of the kernel, at most 7
+   * @return the kernel
+   */
+  public static Kernel gaussian(int radius) {
+    if (radius < 0 || radius > 7) {
+      throw new IllegalArgumentException("Gaussian radius must be between 0 and 7");
+    }
+    int size = 2 * radius + 1;
+    long[] row = new long[size];
+    row[0] = 1;
+    for (int k = 1; k < size; k++) {
+      row[k] = row[k - 1] * (size - k) / k;
+    }
+    double[] flat = new double[size * size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        flat[i * size + j] = row[i] * row[j];
+      }
+    }
+    return new Kernel(size, size, flat, 1 << (4 * radius));
+  }
+
+  /**
+   * Parse a kernel from text lines. Each line holds one row of whitespace separated weights. An
+   * optional line "divisor n" sets the divisor, and blank lines and lines starting with # are
+   * ignored.
+   *
+   * @param lines the lines to parse
+   * @return the kernel
+   * @throws IllegalArgumentException if the text is not a valid kernel
+   */
+  public static Kernel parse(List<String> lines) {
+    List<double[]> rows = new ArrayList<>();
+    int divisor = 1;
+    for (String line : lines) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      String[] tokens = trimmed.split("\\s+");
+      try {
+        if (tokens[0].equalsIgnoreCase("divisor")) {
+          if (tokens.length != 2) {
+            throw new IllegalArgumentException("Expected: divisor <n>");
+          }
+          divisor = Integer.parseInt(tokens[1]);
+        } else {
+          double[] row = new double[tokens.length];
+          for (int i = 0; i < tokens.length; i++) {
+            row[i] = Double.parseDouble(tokens[i]);
+          }
+          rows.add(row);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid kernel line: " + trimmed);
+      }
+    }
+    return of(rows.toArray(new double[0][]), divisor);
+  }
+
+  /**
+   * Return the number of columns of the kernel.
+   *
+   * @return the kernel width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return the number of rows of the kernel.
+   *
+   * @return the kernel height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the weight of a tap.
+   *
+   * @param row row of the tap
+   * @param col column of the tap
+   * @return the weight
+   */
+  public double getWeight(int row, int col) {
+    return weights[row * width + col];
+  }
+
+  /**
+   * Return the divisor applied to each weighted sum.
+   *
+   * @return the divisor
+   */
+  public int getDivisor() {
+    return divisor;
+  }
+
+  /**
+   * Return whether the other object is a kernel with the same size, weights and divisor.
+   *
+   * @param other the object to compare with
+   * @return true if convolving with either kernel gives the same result
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Kernel)) {
+      return false;
+    }
+    Kernel kernel = (Kernel) other;
+    return width == kernel.width && height == kernel.height && divisor == kernel.divisor
+        && Arrays.equals(weights, kernel.weights);
+  }
+
+  @Override
+  public int hashCode() {
+    return (31 * (31 * width + height) + divisor) * 31 + Arrays.hashCode(weights);
+  }
+
+  /**
+   * Return whether every tap has the same weight.
+   */
+  boolean isUniform() {
+    for (double weight : weights) {
+      if (weight != weights[0]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return integer column and row vectors whose outer product is this kernel, as
+   * {column, row}, or null if the weights are not integers or do not factor.
+   */
+  long[][] integerFactors() {
+    for (double weight : weights) {
+      if (weight != Math.rint(weight) || Math.abs(weight) > MAX_EXACT_WEIGHT) {
+        return null;
+      }
+    }
+    int pivot = -1;
+    for (int i = 0; i < weights.length && pivot < 0; i++) {
+      if (weights[i] != 0) {
+        pivot = i;
+      }
+    }
+    if (pivot < 0) {
+      return null;
+    }
+    int pivotRow = pivot / width;
+    int pivotCol = pivot % width;
+    long[] row = new long[width];
+    long common = 0;
+    for (int j = 0; j < width; j++) {
+      row[j] = (long) weights[pivotRow * width + j];
+      common = gcd(common, Math.abs(row[j]));
+    }
+    for (int j = 0; j < width; j++) {
+      row[j] /= common;
+    }
+    long[] column = new long[height];
+    for (int i = 0; i < height; i++) {
+      long weight = (long) weights[i * width + pivotCol];
+      if (weight % row[pivotCol] != 0) {
+        return null;
+      }
+      column[i] = weight / row[pivotCol];
+      for (int j = 0; j < width; j++) {
+        if (column[i] * row[j] != (long) weights[i * width + j]) {
+          return null;
+        }
+      }
+    }
+    return new long[][]{column, row};
+  }
+
+  /**
+   * Return the weight of each square ring around the centre of a square kernel, ring 0 being the
+   * centre tap, or null if the kernel is not square or a ring has more than one weight.
+   */
+  double[] ringWeights() {
+    if (width != height) {
+      return null;
+    }
+    int radius = width / 2;
+    double[] rings = new double[radius + 1];
+    boolean[] seen = new boolean[radius + 1];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int ring = Math.max(Math.abs(i - radius), Math.abs(j - radius));
+        double weight = weights[i * width + j];
+        if (!seen[ring]) {
+          rings[ring] = weight;
+          seen[ring] = true;
+        } else if (rings[ring] != weight) {
+          return null;
+        }
+      }
+    }
+    return rings;
+  }
+
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
@@ -0,0 +1,99 @@
+package model.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import model.ParallelExecutor;
+import model.image.Image;
+import model.image.ImageFactory;
+
+/**
+ * Mip pyramid of an image: level 0 is the image itself and each further level is the previous
+ * one halved by area averaging, down to a single pixel. Levels are computed the first time they
+ * are needed and kept, so the pyramid costs at most a third more memory than the image.
+ *
+ * <p>A small version of the image is resized from the smallest level that is still at least as
+ * large, so a thumbnail reads a few thousand pixels instead of the whole image. The pyramid
+ * assumes the image does not change; build a new one after changing it.
+ */
+public final class Pyramid {
+
+  private final ImageFactory factory;
+  private final ParallelExecutor executor;
+  private final List<Image> levels = new ArrayList<>();
+
+  /**
+   * Construct the pyramid of an image. No level beyond the image itself is computed yet.
+   *
+   * @param image    the full-resolution image
+   * @param factory  creates the level and result images
+   * @param executor runs bands of rows in parallel
+   */
+  public Pyramid(Image image, ImageFactory factory, ParallelExecutor executor) {
+    if (image == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    this.factory = factory;
+    this.executor = executor;
+    levels.add(image);
+  }
+
+  /**
+   * Return the full-resolution image.
+   *
+   * @return level 0
+   */
+  public Image getBase() {
+    return levels.get(0);
+  }
+
+  /**
+   * Return the number of levels, the last of which is one pixel wide or high.
+   *
+   * @return the level count
+   */
+  public int getLevelCount() {
+    int size = Math.max(getBase().getWidth(), getBase().getHeight());
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(size));
+  }
+
+  /**
+   * Return a level of the pyramid, computing it and the levels above it if needed. The returned
+   * image belongs to the pyramid and must not be changed.
+   *
+   * @param level the level, 0 for the image itself
+   * @return the image halved level times, each dimension rounded down but at least 1
+   */
+  public synchronized Image getLevel(int level) {
+    if (level < 0 || level >= getLevelCount()) {
+      throw new IllegalArgumentException("Pyramid level must be between 0 and "
+          + (getLevelCount() - 1));
+    }
+    while (levels.size() <= level) {
+      Image previous = levels.get(levels.size() - 1);
+      Image half = factory.create(Math.max(1, previous.getWidth() / 2),
+          Math.max(1, previous.getHeight() / 2));
+      levels.add(Resampler.AREA.resize(previous, half, executor));
+    }
+    return levels.get(level);
+  }
+
+  /**
+   * Resize the image by area averaging from the smallest level at least as large as the result.
+   *
+   * @param width  width of the result
+   * @param height height of the result
+   * @return a new image
+   */
+  public Image resize(int width, int height) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Size must be positive");
+    }
+    int level = 0;
+    while (level + 1 < getLevelCount()
+        && Math.max(1, (getBase().getWidth() >> (level + 1))) >= width
+        && Math.max(1, (getBase().getHeight() >> (level + 1))) >= height) {
+      level++;
+    }
+    return Resampler.AREA.resize(getLevel(level), factory.create(width, height), executor);
+  }
+}
@@ -0,0 +1,189 @@
+package model.filter;
+
+import java.util.Arrays;
+import model.ParallelExecutor;
+import model.image.Image;
+import model.image.Pixels;
+
+/**
+ * Methods of resizing an image. Both work on whole rows of packed pixels in integer arithmetic
+ * and split the destination into bands of rows that run in parallel, so the result does not
+ * depend on the number of threads.
+ */
+public enum Resampler {
+
+  /**
+   * Area averaging: each destination pixel is the mean of the source area it covers, weighted by
+   * how much of each source pixel falls inside it, and rounded to nearest. This is the right
+   * method for shrinking, since every source pixel contributes and nothing aliases. Halving an
+   * image averages each 2x2 block.
+   */
+  AREA {
+    @Override
+    void resample(Image src, Image dest, ParallelExecutor executor) {
+      int srcWidth = src.getWidth();
+      int srcHeight = src.getHeight();
+      int width = dest.getWidth();
+      int height = dest.getHeight();
+      int[][] columns = segments(srcWidth, width);
+      int[] srcCol = columns[0];
+      int[] destCol = columns[1];
+      int[] colWeight = columns[2];
+      long total = (long) srcWidth * srcHeight;
+      executor.forEachBand(width, height, (startRow, endRow) -> {
+        int[] line = new int[srcWidth];
+        int[] out = new int[width];
+        long[] rowSums = new long[3 * width];
+        long[] sums = new long[3 * width];
+        for (int row = startRow; row < endRow; row++) {
+          Arrays.fill(sums, 0);
+          // Destination row r covers source rows [r * srcHeight, (r + 1) * srcHeight) in units
+          // of 1 / height of a source row.
+          long top = (long) row * srcHeight;
+          long bottom = top + srcHeight;
+          for (int srcRow = (int) (top / height); (long) srcRow * height < bottom; srcRow++) {
+            long rowWeight = Math.min(bottom, (long) (srcRow + 1) * height)
+                - Math.max(top, (long) srcRow * height);
+            src.getRow(srcRow, line);
+            Arrays.fill(rowSums, 0);
+            for (int s = 0; s < srcCol.length; s++) {
+              int rgb = line[srcCol[s]];
+              int index = 3 * destCol[s];
+              rowSums[index] += (long) colWeight[s] * Pixels.red(rgb);
+              rowSums[index + 1] += (long) colWeight[s] * Pixels.green(rgb);
+              rowSums[index + 2] += (long) colWeight[s] * Pixels.blue(rgb);
+            }
+            for (int i = 0; i < sums.length; i++) {
+              sums[i] += rowWeight * rowSums[i];
+            }
+          }
+          for (int col = 0; col < width; col++) {
+            out[col] = Pixels.pack((int) ((sums[3 * col] + total / 2) / total),
+                (int) ((sums[3 * col + 1] + total / 2) / total),
+                (int) ((sums[3 * col + 2] + total / 2) / total));
+          }
+          dest.setRow(row, out);
+        }
+      });
+    }
+  },
+
+  /**
+   * Bilinear interpolation between the four source pixels nearest to the centre of each
+   * destination pixel, with weights in 1/256ths. This is the right method for enlarging; when
+   * shrinking by more than half it skips source pixels.
+   */
+  BILINEAR {
+    @Override
+    void resample(Image src, Image dest, ParallelExecutor executor) {
+      int srcWidth = src.getWidth();
+      int srcHeight = src.getHeight();
+      int width = dest.getWidth();
+      int height = dest.getHeight();
+      int[] left = new int[width];
+      int[] leftWeight = new int[width];
+      for (int col = 0; col < width; col++) {
+        int position = position(col, srcWidth, width);
+        left[col] = position >> 8;
+        leftWeight[col] = 256 - (position & 0xFF);
+      }
+      executor.forEachBand(width, height, (startRow, endRow) -> {
+        int[] upper = new int[srcWidth];
+        int[] lower = new int[srcWidth];
+        int[] out = new int[width];
+        for (int row = startRow; row < endRow; row++) {
+          int position = position(row, srcHeight, height);
+          int top = position >> 8;
+          int bottomWeight = position & 0xFF;
+          src.getRow(top, upper);
+          src.getRow(Math.min(top + 1, srcHeight - 1), lower);
+          for (int col = 0; col < width; col++) {
+            int x = left[col];
+            int x1 = Math.min(x + 1, srcWidth - 1);
+            int wx = leftWeight[col];
+            int rgb = 0;
+            for (int shift = 16; shift >= 0; shift -= 8) {
+              int a = (upper[x] >> shift & 0xFF) * wx + (upper[x1] >> shift & 0xFF) * (256 - wx);
+              int b = (lower[x] >> shift & 0xFF) * wx + (lower[x1] >> shift & 0xFF) * (256 - wx);
+              rgb |= ((a * (256 - bottomWeight) + b * bottomWeight + 32768) >> 16) << shift;
+            }
+            out[col] = rgb;
+          }
+          dest.setRow(row, out);
+        }
+      });
+    }
+  };
+
+  /**
+   * Resize an image into dest, whose size gives the size of the result.
+   *
+   * @param src      the image to resize
+   * @param dest     the image that receives the result; it must not be src unless the sizes match
+   * @param executor runs bands of rows in parallel
+   * @return dest
+   */
+  public Image resize(Image src, Image dest, ParallelExecutor executor) {
+    if (src == null || dest == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    if (src.getWidth() == 0 || src.getHeight() == 0) {
+      if (dest.getWidth() != 0 && dest.getHeight() != 0) {
+        throw new IllegalArgumentException("Cannot resize an empty image");
+      }
+      return dest;
+    }
+    if (src == dest) {
+      return dest;
+    }
+    resample(src, dest, executor);
+    return dest;
+  }
+
+  /**
+   * Write the resized pixels of src into dest. Both are non-empty and distinct.
+   */
+  abstract void resample(Image src, Image dest, ParallelExecutor executor);
+
+  /**
+   * Return the source coordinate, in 1/256ths and clamped to the source, of the centre of
+   * destination pixel i.
+   */
+  private static int position(int i, int srcSize, int size) {
+    long scaled = ((2L * i + 1) * srcSize * 256 - (long) size * 256) / (2L * size);
+    return (int) Math.max(0, Math.min(scaled, (srcSize - 1) * 256L));
+  }
+
+  /**
+   * Return the overlaps of the source and destination pixels of a row as three parallel arrays
+   * of source index, destination index and overlap, in units of 1/size of a source pixel.
+   */
+  private static int[][] segments(int srcSize, int size) {
+    int count = srcSize + size - 1;
+    int[][] segments = new int[3][count];
+    int n = 0;
+    int s = 0;
+    int d = 0;
+    long position = 0;
+    while (s < srcSize && d < size) {
+      long srcEnd = (long) (s + 1) * size;
+      long destEnd = (long) (d + 1) * srcSize;
+      long end = Math.min(srcEnd, destEnd);
+      segments[0][n] = s;
+      segments[1][n] = d;
+      segments[2][n] = (int) (end - position);
+      n++;
+      position = end;
+      if (srcEnd == end) {
+        s++;
+      }
+      if (destEnd == end) {
+        d++;
+      }
+    }
+    for (int i = 0; i < 3; i++) {
+      segments[i] = Arrays.copyOf(segments[i], n);
+    }
+    return segments;
+  }
+}
@@ -0,0 +1,54 @@
+package model.image;
+
+/**
+ * A greyscale view of one channel of an image, with the channel value repeated in red, green and
+ * blue.
+ */
+public class ChannelView extends ViewImage {
+
+  private final int channel;
+
+  private ChannelView(Image source, int channel, ImageFactory factory) {
+    super(source, factory);
+    this.channel = channel;
+  }
+
+  /**
+   * Create a view of one channel of the image. Every channel of an unmaterialized channel view
+   * holds the same value, so extracting from one reuses its source and channel and follows that
+   * source directly.
+   *
+   * @param source  the image to read the channel from
+   * @param channel 0 for red, 1 for green and 2 for blue
+   * @param factory creates the image the view is copied into when materialized
+   * @return the channel view
+   */
+  public static ChannelView of(Image source, int channel, ImageFactory factory) {
+    if (channel < 0 || channel > 2) {
+      throw new IllegalArgumentException("Channel must be 0, 1 or 2");
+    }
+    if (source instanceof ChannelView && !((ChannelView) source).isMaterialized()) {
+      ChannelView view = (ChannelView) source;
+      return new ChannelView(view.source, view.channel, factory);
+    }
+    return new ChannelView(source, channel, factory);
+  }
+
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  @Override
+  protected void readRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    source.getRegion(row, col, height, width, buffer, offset);
+    for (int i = offset, end = offset + height * width; i < end; i++) {
+      buffer[i] = Pixels.grey(Pixels.channel(buffer[i], channel));
+    }
+  }
+}
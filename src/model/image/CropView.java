@@ -0,0 +1,65 @@
+package model.image;
+
+/**
+ * A view of a rectangular window of an image.
+ */
+public class CropView extends ViewImage {
+
+  private final int row;
+  private final int col;
+  private final int height;
+  private final int width;
+
+  private CropView(Image source, int row, int col, int height, int width, ImageFactory factory) {
+    super(source, factory);
+    this.row = row;
+    this.col = col;
+    this.height = height;
+    this.width = width;
+  }
+
+  /**
+   * Create a view of a window of the image. Cropping an unmaterialized crop view offsets into its
+   * source instead of stacking another view, and the result follows that source directly.
+   *
+   * @param source  the image to crop
+   * @param row     first row of the window
+   * @param col     first column of the window
+   * @param height  number of rows in the window
+   * @param width   number of columns in the window
+   * @param factory creates the image the view is copied into when materialized
+   * @return the cropped view
+   */
+  public static CropView of(Image source, int row, int col, int height, int width,
+      ImageFactory factory) {
+    if (source == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    if (row < 0 || col < 0 || height < 0 || width < 0
+        || row + height > source.getHeight() || col + width > source.getWidth()) {
+      throw new IllegalArgumentException("Crop window (" + row + ", " + col + ", " + height
+          + "x" + width + ") is outside a " + source.getWidth() + "x" + source.getHeight()
+          + " image");
+    }
+    if (source instanceof CropView && !((CropView) source).isMaterialized()) {
+      CropView crop = (CropView) source;
+      return new CropView(crop.source, crop.row + row, crop.col + col, height, width, factory);
+    }
+    return new CropView(source, row, col, height, width, factory);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  protected void readRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    source.getRegion(this.row + row, this.col + col, height, width, buffer, offset);
+  }
+}
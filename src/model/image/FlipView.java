@@ -0,0 +1,64 @@
+package model.image;
+
+/**
+ * A view of an image mirrored horizontally, vertically or both.
+ */
+public class FlipView extends ViewImage {
+
+  private final boolean horizontal;
+  private final boolean vertical;
+
+  private FlipView(Image source, boolean horizontal, boolean vertical, ImageFactory factory) {
+    super(source, factory);
+    this.horizontal = horizontal;
+    this.vertical = vertical;
+  }
+
+  /**
+   * Create a flipped view of the image. Flipping an unmaterialized flip view combines both flips
+   * into one view of the original source, so chains of flips stay one level deep. The combined
+   * view follows the original source directly.
+   *
+   * @param source     the image to flip
+   * @param horizontal whether to mirror left to right
+   * @param vertical   whether to mirror top to bottom
+   * @param factory    creates the image the view is copied into when materialized
+   * @return the flipped view
+   */
+  public static FlipView of(Image source, boolean horizontal, boolean vertical,
+      ImageFactory factory) {
+    if (source instanceof FlipView && !((FlipView) source).isMaterialized()) {
+      FlipView flip = (FlipView) source;
+      return new FlipView(flip.source, flip.horizontal != horizontal, flip.vertical != vertical,
+          factory);
+    }
+    return new FlipView(source, horizontal, vertical, factory);
+  }
+
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  @Override
+  protected void readRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    int sourceCol = horizontal ? getWidth() - col - width : col;
+    for (int i = 0; i < height; i++) {
+      int sourceRow = vertical ? getHeight() - 1 - (row + i) : row + i;
+      int start = offset + i * width;
+      source.getRegion(sourceRow, sourceCol, 1, width, buffer, start);
+      if (horizontal) {
+        for (int lo = start, hi = start + width - 1; lo < hi; lo++, hi--) {
+          int swap = buffer[lo];
+          buffer[lo] = buffer[hi];
+          buffer[hi] = swap;
+        }
+      }
+    }
+  }
+}
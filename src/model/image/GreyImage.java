@@ -0,0 +1,152 @@
+package model.image;
+
+/**
+ * Image of grey pixels, stored as one byte per pixel in row-major order. It holds a single
+ * channel in a quarter of the memory of a PackedImage and reads back as pixels whose red, green
+ * and blue values are all equal to that channel.
+ *
+ * <p>Only grey pixels can be written; writing a pixel whose channels differ throws
+ * IllegalArgumentException rather than silently dropping colour.
+ */
+public class GreyImage implements Image {
+
+  private final int width;
+  private final int height;
+  private final byte[] levels;
+
+  /**
+   * Constructor of the grey image. All pixels start out black.
+   *
+   * @param width  width of the image.
+   * @param height height of the image.
+   */
+  public GreyImage(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative");
+    }
+    this.width = width;
+    this.height = height;
+    this.levels = new byte[Math.multiplyExact(width, height)];
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int[] getPixel(int row, int col) {
+    int level = getLevel(row, col);
+    return new int[]{level, level, level};
+  }
+
+  @Override
+  public void setPixel(int row, int col, int[] rgb) {
+    if (rgb[0] != rgb[1] || rgb[0] != rgb[2]) {
+      throw new IllegalArgumentException("A grey image can only hold pixels with equal channels");
+    }
+    setLevel(row, col, rgb[0]);
+  }
+
+  /**
+   * Return the grey level of the given pixel.
+   *
+   * @param row row of the pixel
+   * @param col column of the pixel
+   * @return the level, 0-255
+   */
+  public int getLevel(int row, int col) {
+    return levels[index(row, col)] & 0xFF;
+  }
+
+  /**
+   * Set the grey level of the given pixel.
+   *
+   * @param row   row of the pixel
+   * @param col   column of the pixel
+   * @param level the level, 0-255
+   */
+  public void setLevel(int row, int col, int level) {
+    levels[index(row, col)] = (byte) level;
+  }
+
+  /**
+   * Copy a run of grey levels from one row into the buffer.
+   *
+   * @param row    row to read
+   * @param col    first column to read
+   * @param length number of pixels to read
+   * @param buffer destination buffer
+   * @param offset index in the buffer of the first level
+   */
+  public void getLevels(int row, int col, int length, byte[] buffer, int offset) {
+    checkRegion(row, col, 1, length);
+    System.arraycopy(levels, row * width + col, buffer, offset, length);
+  }
+
+  /**
+   * Copy a run of grey levels from the buffer into one row.
+   *
+   * @param row    row to write
+   * @param col    first column to write
+   * @param length number of pixels to write
+   * @param buffer source buffer
+   * @param offset index in the buffer of the first level
+   */
+  public void setLevels(int row, int col, int length, byte[] buffer, int offset) {
+    checkRegion(row, col, 1, length);
+    System.arraycopy(buffer, offset, levels, row * width + col, length);
+  }
+
+  @Override
+  public void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    for (int i = 0; i < height; i++) {
+      int start = (row + i) * this.width + col;
+      int target = offset + i * width;
+      for (int j = 0; j < width; j++) {
+        buffer[target + j] = Pixels.grey(levels[start + j] & 0xFF);
+      }
+    }
+  }
+
+  @Override
+  public void setRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    for (int i = offset, end = offset + height * width; i < end; i++) {
+      int rgb = buffer[i] & 0xFFFFFF;
+      if (rgb != Pixels.grey(rgb & 0xFF)) {
+        throw new IllegalArgumentException(
+            "A grey image can only hold pixels with equal channels");
+      }
+    }
+    for (int i = 0; i < height; i++) {
+      int start = (row + i) * this.width + col;
+      int source = offset + i * width;
+      for (int j = 0; j < width; j++) {
+        levels[start + j] = (byte) buffer[source + j];
+      }
+    }
+  }
+
+  private void checkRegion(int row, int col, int height, int width) {
+    if (row < 0 || col < 0 || height < 0 || width < 0
+        || row + height > this.height || col + width > this.width) {
+      throw new IndexOutOfBoundsException("Region (" + row + ", " + col + ", " + height + "x"
+          + width + ") is outside a " + this.width + "x" + this.height + " image");
+    }
+  }
+
+  private int index(int row, int col) {
+    if (row < 0 || row >= height || col < 0 || col >= width) {
+      throw new IndexOutOfBoundsException("Pixel (" + row + ", " + col + ") is outside a "
+          + width + "x" + height + " image");
+    }
+    return row * width + col;
+  }
+}
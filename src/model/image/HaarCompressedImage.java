@@ -0,0 +1,547 @@
+package model.image;
+
+import java.util.Arrays;
+import model.ParallelExecutor;
+import utils.HaarTransform;
+
+/**
+ * Image held as the sparse Haar wavelet coefficients of its three channels, as made by compress
+ * or read from a .haar file. Each channel keeps one bit per coefficient of the padded channel, set
+ * where the coefficient is not zero, in words of 64 bits, and the values of the set coefficients
+ * in order, so an image that compression left mostly zero takes little memory. A lossless image
+ * keeps the coefficients of the integer S transform as shorts. Any other keeps those of the
+ * orthonormal transform as ints, in whole multiples of a quantum that is never finer than
+ * QUANTUM, and coefficients that round to zero are dropped. See HaarTransform.
+ *
+ * <p>The pixels are decoded with the inverse transform the first time they are read, into an
+ * image created by the factory, and every access after that reads the decoded image. Writing a
+ * pixel drops the coefficients, which no longer describe the image.
+ */
+public class HaarCompressedImage implements Image {
+
+  /**
+   * Finest step that the orthonormal coefficients are rounded to. A pixel is the sum of at most
+   * one coefficient per level in each dimension, times basis values whose sum is below 2.5 in
+   * each dimension, so rounding moves a pixel by less than 2.5 * 2.5 * QUANTUM / 2, under half a
+   * level, and whole pixels are still rounded to themselves.
+   */
+  public static final double QUANTUM = 1.0 / 8;
+
+  private final int width;
+  private final int height;
+  private final boolean lossless;
+  private final double quantum;
+  private final ImageFactory factory;
+  private final ParallelExecutor executor;
+  private long[][] bits;
+  private short[][] samples;
+  private int[][] quanta;
+  private Image pixels;
+  private boolean sharedPixels;
+
+  /**
+   * Construct a lossless image from the sparse coefficients of the integer S transform.
+   *
+   * @param width    width of the image
+   * @param height   height of the image
+   * @param bits     for each channel, one bit per coefficient of the padded channel, in words of
+   *                 64 bits, set where the coefficient is not zero
+   * @param values   for each channel, the values of the coefficients whose bits are set, in order
+   * @param factory  creates the image the pixels are decoded into
+   * @param executor runs the inverse transform in parallel
+   * @throws IllegalArgumentException if the coefficients do not fit an image of this size
+   */
+  public HaarCompressedImage(int width, int height, long[][] bits, short[][] values,
+      ImageFactory factory, ParallelExecutor executor) {
+    this(width, height, true, 1, bits, values, null, factory, executor);
+  }
+
+  /**
+   * Construct an image from the sparse coefficients of the orthonormal transform, in multiples
+   * of a quantum.
+   *
+   * @param width    width of the image
+   * @param height   height of the image
+   * @param quantum  the step the coefficients are multiples of, at least QUANTUM
+   * @param bits     for each channel, one bit per coefficient of the padded channel, in words of
+   *                 64 bits, set where the coefficient is not zero
+   * @param values   for each channel, the values of the coefficients whose bits are set divided
+   *                 by the quantum, in order
+   * @param factory  creates the image the pixels are decoded into
+   * @param executor runs the inverse transform in parallel
+   * @throws IllegalArgumentException if the coefficients do not fit an image of this size or the
+   *                                  quantum is finer than QUANTUM
+   */
+  public HaarCompressedImage(int width, int height, double quantum, long[][] bits,
+      int[][] values, ImageFactory factory, ParallelExecutor executor) {
+    this(width, height, false, quantum, bits, null, values, factory, executor);
+  }
+
+  private HaarCompressedImage(int width, int height, boolean lossless, double quantum,
+      long[][] bits, short[][] samples, int[][] quanta, ImageFactory factory,
+      ParallelExecutor executor) {
+    if (factory == null || executor == null) {
+      throw new IllegalArgumentException("Factory and executor cannot be null");
+    }
+    if (!(quantum >= QUANTUM && quantum < Double.POSITIVE_INFINITY)) {
+      throw new IllegalArgumentException("Quantum must be at least " + QUANTUM);
+    }
+    int words = words(new HaarTransform(width, height).getLength());
+    if (bits == null || bits.length != 3 || (lossless ? samples : quanta) == null
+        || (lossless ? samples.length : quanta.length) != 3) {
+      throw new IllegalArgumentException("Coefficients must be given for three channels");
+    }
+    for (int c = 0; c < 3; c++) {
+      long count = 0;
+      for (long word : bits[c]) {
+        count += Long.bitCount(word);
+      }
+      if (bits[c].length != words
+          || (lossless ? samples[c].length : quanta[c].length) != count) {
+        throw new IllegalArgumentException("Coefficients do not fit a " + width + "x" + height
+            + " image");
+      }
+    }
+    this.width = width;
+    this.height = height;
+    this.lossless = lossless;
+    this.quantum = quantum;
+    this.bits = bits;
+    this.samples = samples;
+    this.quanta = quanta;
+    this.factory = factory;
+    this.executor = executor;
+  }
+
+  private HaarCompressedImage(HaarCompressedImage image) {
+    this.width = image.width;
+    this.height = image.height;
+    this.lossless = image.lossless;
+    this.quantum = image.quantum;
+    this.bits = image.bits;
+    this.samples = image.samples;
+    this.quanta = image.quanta;
+    this.factory = image.factory;
+    this.executor = image.executor;
+    this.pixels = image.pixels;
+    this.sharedPixels = true;
+  }
+
+  /**
+   * Keep the coefficients of the orthonormal transform whose magnitude is at least the cutoff,
+   * rounded to multiples of a quantum of half the cutoff, or QUANTUM if that is larger. Rounding
+   * then moves a coefficient by at most a quarter of the cutoff, less than dropping the ones
+   * below it did, and keeps the quanta small, so they take few bytes in a .haar file.
+   *
+   * @param width        width of the image
+   * @param height       height of the image
+   * @param coefficients the transformed, padded channels
+   * @param cutoff       the smallest magnitude kept
+   * @param factory      creates the image the pixels are decoded into
+   * @param executor     runs the inverse transform in parallel
+   * @return the image
+   */
+  public static HaarCompressedImage of(int width, int height, double[][] coefficients,
+      double cutoff, ImageFactory factory, ParallelExecutor executor) {
+    double quantum = quantum(cutoff);
+    long[][] bits = new long[3][];
+    int[][] values = new int[3][];
+    for (int c = 0; c < 3; c++) {
+      double[] channel = coefficients[c];
+      bits[c] = new long[words(channel.length)];
+      int count = 0;
+      for (int i = 0; i < channel.length; i++) {
+        if (Math.abs(channel[i]) >= cutoff && Math.round(channel[i] / quantum) != 0) {
+          bits[c][i >>> 6] |= 1L << i;
+          count++;
+        }
+      }
+      values[c] = new int[count];
+      count = 0;
+      for (int i = 0; i < channel.length; i++) {
+        if ((bits[c][i >>> 6] & 1L << i) != 0) {
+          values[c][count++] = (int) Math.round(channel[i] / quantum);
+        }
+      }
+    }
+    return new HaarCompressedImage(width, height, quantum, bits, values, factory, executor);
+  }
+
+  /**
+   * Replace the coefficients of the orthonormal transform in place with the values {@link #of}
+   * keeps for the same cutoff: zero below the cutoff and multiples of the quantum above it. Their
+   * inverse gives the pixels that image decodes to, without allocating the image.
+   *
+   * @param coefficients the transformed, padded channels
+   * @param cutoff       the smallest magnitude kept
+   */
+  public static void quantize(double[][] coefficients, double cutoff) {
+    double quantum = quantum(cutoff);
+    for (double[] channel : coefficients) {
+      for (int i = 0; i < channel.length; i++) {
+        long value = Math.abs(channel[i]) >= cutoff ? Math.round(channel[i] / quantum) : 0;
+        channel[i] = (int) value * quantum;
+      }
+    }
+  }
+
+  /**
+   * Return the quantum of the coefficients kept with the given cutoff.
+   */
+  private static double quantum(double cutoff) {
+    return cutoff < Double.POSITIVE_INFINITY ? Math.max(QUANTUM, cutoff / 2) : QUANTUM;
+  }
+
+  /**
+   * Keep every coefficient of the integer S transform that is not zero.
+   *
+   * @param width        width of the image
+   * @param height       height of the image
+   * @param coefficients the transformed, padded channels
+   * @param factory      creates the image the pixels are decoded into
+   * @param executor     runs the inverse transform in parallel
+   * @return the lossless image
+   */
+  public static HaarCompressedImage of(int width, int height, short[][] coefficients,
+      ImageFactory factory, ParallelExecutor executor) {
+    long[][] bits = new long[3][];
+    short[][] values = new short[3][];
+    for (int c = 0; c < 3; c++) {
+      short[] channel = coefficients[c];
+      bits[c] = new long[words(channel.length)];
+      int count = 0;
+      for (int i = 0; i < channel.length; i++) {
+        if (channel[i] != 0) {
+          bits[c][i >>> 6] |= 1L << i;
+          count++;
+        }
+      }
+      values[c] = new short[count];
+      count = 0;
+      for (short value : channel) {
+        if (value != 0) {
+          values[c][count++] = value;
+        }
+      }
+    }
+    return new HaarCompressedImage(width, height, bits, values, factory, executor);
+  }
+
+  /**
+   * Transform img with the integer S transform, which rebuilds it exactly, and keep every
+   * coefficient that is not zero.
+   *
+   * @param img      the image
+   * @param factory  creates the image the pixels are decoded into
+   * @param executor runs the transform in parallel
+   * @return the lossless image
+   * @throws IllegalArgumentException if img is null or empty
+   */
+  public static HaarCompressedImage of(Image img, ImageFactory factory,
+      ParallelExecutor executor) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    int width = img.getWidth();
+    int height = img.getHeight();
+    HaarTransform haar = new HaarTransform(width, height);
+    int paddedWidth = haar.getPaddedWidth();
+    short[][] channels = new short[3][haar.getLength()];
+    executor.forEachBand(width, height, (startRow, endRow) -> {
+      int[] line = new int[width];
+      for (int row = startRow; row < endRow; row++) {
+        img.getRow(row, line);
+        int start = row * paddedWidth;
+        for (int col = 0; col < width; col++) {
+          channels[0][start + col] = (short) Pixels.red(line[col]);
+          channels[1][start + col] = (short) Pixels.green(line[col]);
+          channels[2][start + col] = (short) Pixels.blue(line[col]);
+        }
+      }
+    });
+    for (short[] channel : channels) {
+      haar.pad(channel);
+    }
+    haar.forward(channels, executor);
+    return of(width, height, channels, factory, executor);
+  }
+
+  /**
+   * Return whether the coefficients are those of the lossless integer transform.
+   *
+   * @return true for the integer S transform, false for the orthonormal transform
+   */
+  public boolean isLossless() {
+    return lossless;
+  }
+
+  /**
+   * Return an image with the same coefficients, and the same decoded pixels if they have been
+   * decoded, without copying either. The coefficients are never changed, and the new image copies
+   * the pixels before its first write, so writing to either image leaves the other intact.
+   *
+   * @return the new image
+   * @throws IllegalStateException if the image has been written
+   */
+  public synchronized HaarCompressedImage share() {
+    checkCoefficients();
+    return new HaarCompressedImage(this);
+  }
+
+  /**
+   * Return the step the coefficients of an image that is not lossless are multiples of.
+   *
+   * @return the quantum, 1 for a lossless image
+   */
+  public double getQuantum() {
+    return quantum;
+  }
+
+  /**
+   * Return whether the image still holds its coefficients, which it does until it is written.
+   *
+   * @return true if getBits and getValue describe the image
+   */
+  public synchronized boolean hasCoefficients() {
+    return bits != null;
+  }
+
+  /**
+   * Return the bits of a channel that mark its coefficients that are not zero. The array is not
+   * copied and must not be changed.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue
+   * @return one bit per coefficient of the padded channel, in words of 64 bits
+   * @throws IllegalStateException if the image has been written
+   */
+  public synchronized long[] getBits(int channel) {
+    checkCoefficients();
+    return bits[channel];
+  }
+
+  /**
+   * Return the number of coefficients of a channel that are not zero.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue
+   * @return the number of bits set in getBits
+   * @throws IllegalStateException if the image has been written
+   */
+  public synchronized int getCount(int channel) {
+    checkCoefficients();
+    return lossless ? samples[channel].length : quanta[channel].length;
+  }
+
+  /**
+   * Return a coefficient of a channel that is not zero: for a lossless image the S transform
+   * coefficient, and otherwise the orthonormal coefficient divided by the quantum.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue
+   * @param index   the position of the coefficient among those whose bits are set
+   * @return the coefficient
+   * @throws IllegalStateException if the image has been written
+   */
+  public synchronized int getValue(int channel, int index) {
+    checkCoefficients();
+    return lossless ? samples[channel][index] : quanta[channel][index];
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int[] getPixel(int row, int col) {
+    return decoded().getPixel(row, col);
+  }
+
+  @Override
+  public void setPixel(int row, int col, int[] rgb) {
+    writable().setPixel(row, col, rgb);
+  }
+
+  @Override
+  public void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    decoded().getRegion(row, col, height, width, buffer, offset);
+  }
+
+  @Override
+  public void setRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    writable().setRegion(row, col, height, width, buffer, offset);
+  }
+
+  private synchronized Image writable() {
+    Image image = decoded();
+    if (sharedPixels) {
+      image = factory.create(width, height);
+      int[] line = new int[width];
+      for (int row = 0; row < height; row++) {
+        pixels.getRow(row, line);
+        image.setRow(row, line);
+      }
+      pixels = image;
+      sharedPixels = false;
+    }
+    bits = null;
+    samples = null;
+    quanta = null;
+    return image;
+  }
+
+  private void checkCoefficients() {
+    if (bits == null) {
+      throw new IllegalStateException("The image has been written since it was compressed");
+    }
+  }
+
+  /**
+   * Decode the image shrunk levels times by half straight from the coefficients, as
+   * HaarTransform.coarse describes: each pixel is the rounded average of a block of 2^levels
+   * pixels in each dimension. Only the coefficients of the top left block of each channel are read
+   * and inverted, a quarter of them for every level, so a preview of a large image costs little
+   * more than the preview itself.
+   *
+   * <p>The floors of the integer S transform do not commute with averaging the other dimension,
+   * so a lossless image reads the coefficients of the left columns at full height instead, half
+   * of them for every level. Inverting those gives each row shrunk exactly to its floored
+   * averages, and the rows are then averaged; each halving of the rows can floor a pixel by up to
+   * a half below its true average.
+   *
+   * @param levels the number of halvings, 0 for the full image
+   * @return a new image holding the smaller image
+   * @throws IllegalStateException if the image has been written
+   */
+  public synchronized Image decode(int levels) {
+    checkCoefficients();
+    HaarTransform haar = new HaarTransform(width, height);
+    HaarTransform coarse = haar.coarse(levels);
+    int across = coarse.getPaddedWidth();
+    int coarseWidth = coarse.getWidth();
+    Image image = factory.create(coarseWidth, coarse.getHeight());
+    int[] line = new int[coarseWidth];
+    if (lossless) {
+      HaarTransform strip = new HaarTransform(coarseWidth, height);
+      int tall = strip.getPaddedHeight();
+      short[][] channels = new short[3][strip.getLength()];
+      for (int c = 0; c < 3; c++) {
+        short[] block = channels[c];
+        gather(c, haar.getPaddedWidth(), across, tall, (index, value) -> block[index] =
+            (short) value);
+      }
+      strip.inverse(channels, executor);
+      int rows = tall / coarse.getPaddedHeight();
+      int[] sums = new int[3];
+      for (int row = 0; row < image.getHeight(); row++) {
+        for (int col = 0; col < coarseWidth; col++) {
+          Arrays.fill(sums, 0);
+          for (int r = row * rows; r < (row + 1) * rows; r++) {
+            for (int c = 0; c < 3; c++) {
+              sums[c] += channels[c][r * across + col];
+            }
+          }
+          line[col] = Pixels.pack(channelValue((double) sums[0] / rows),
+              channelValue((double) sums[1] / rows), channelValue((double) sums[2] / rows));
+        }
+        image.setRow(row, line);
+      }
+    } else {
+      int down = coarse.getPaddedHeight();
+      double[][] channels = new double[3][coarse.getLength()];
+      for (int c = 0; c < 3; c++) {
+        double[] block = channels[c];
+        gather(c, haar.getPaddedWidth(), across, down,
+            (index, value) -> block[index] = value * quantum);
+      }
+      coarse.inverse(channels, executor);
+      double scale = Math.sqrt((double) coarse.getLength() / haar.getLength());
+      for (int row = 0; row < image.getHeight(); row++) {
+        int start = row * across;
+        for (int col = 0; col < coarseWidth; col++) {
+          line[col] = Pixels.pack(channelValue(channels[0][start + col] * scale),
+              channelValue(channels[1][start + col] * scale),
+              channelValue(channels[2][start + col] * scale));
+        }
+        image.setRow(row, line);
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Return the most halvings that decode leaves at least the given longest edge, which makes it
+   * the smallest decode a thumbnail of that edge can be resized from.
+   *
+   * @param edge the longest edge wanted
+   * @return the number of halvings for decode
+   */
+  public int levelsFor(int edge) {
+    HaarTransform haar = new HaarTransform(width, height);
+    int levels = 0;
+    while (levels < 31) {
+      HaarTransform coarse = haar.coarse(levels + 1);
+      if (Math.max(coarse.getWidth(), coarse.getHeight()) < edge
+          || coarse.getLength() == haar.coarse(levels).getLength()) {
+        break;
+      }
+      levels++;
+    }
+    return levels;
+  }
+
+  /**
+   * Receives a coefficient of the top left block of a channel.
+   */
+  private interface BlockWriter {
+
+    void put(int index, int value);
+  }
+
+  /**
+   * Pass the coefficients that are not zero in the top left across by down block of a channel to
+   * the writer, indexed within the block. The values of each row of the block are found by
+   * counting the bits before it, which skips the values outside the block without reading them.
+   */
+  private void gather(int channel, int paddedWidth, int across, int down, BlockWriter writer) {
+    long[] bits = this.bits[channel];
+    int word = 0;
+    int before = 0;
+    for (int row = 0; row < down; row++) {
+      int start = row * paddedWidth;
+      for (; word < start >>> 6; word++) {
+        before += Long.bitCount(bits[word]);
+      }
+      int next = before + Long.bitCount(bits[word] & ((1L << start) - 1));
+      for (int col = 0; col < across; col++) {
+        int i = start + col;
+        if ((bits[i >>> 6] & 1L << i) != 0) {
+          writer.put(row * across + col,
+              lossless ? samples[channel][next++] : quanta[channel][next++]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the decoded pixels, running the inverse transform the first time.
+   */
+  private synchronized Image decoded() {
+    if (pixels == null) {
+      pixels = decode(0);
+      sharedPixels = false;
+    }
+    return pixels;
+  }
+
+  private static int channelValue(double value) {
+    return (int) Math.min(Math.max(Math.round(value), 0), 255);
+  }
+
+  private static int words(int length) {
+    return (length + 63) >>> 6;
+  }
+}
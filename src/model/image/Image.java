@@ -33,4 +33,59 @@ public interface Image {
    */
   void setPixel(int x, int y, int[] RBG);
 
+  /**
+   * Copy a rectangle of pixels into the buffer as packed 0xRRGGBB values, one row after another.
+   * @param row first row of the rectangle
+   * @param col first column of the rectangle
+   * @param height number of rows to copy
+   * @param width number of columns to copy
+   * @param buffer destination buffer of at least offset + width * height values
+   * @param offset index in the buffer of the first pixel
+   */
+  default void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int[] rgb = getPixel(row + i, col + j);
+        buffer[offset++] = Pixels.pack(rgb[0], rgb[1], rgb[2]);
+      }
+    }
+  }
+
+  /**
+   * Set a rectangle of pixels from packed 0xRRGGBB values stored one row after another.
+   * @param row first row of the rectangle
+   * @param col first column of the rectangle
+   * @param height number of rows to set
+   * @param width number of columns to set
+   * @param buffer source buffer of at least offset + width * height values
+   * @param offset index in the buffer of the first pixel
+   */
+  default void setRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int rgb = buffer[offset++];
+        setPixel(row + i, col + j,
+            new int[]{Pixels.red(rgb), Pixels.green(rgb), Pixels.blue(rgb)});
+      }
+    }
+  }
+
+  /**
+   * Copy a whole row of packed 0xRRGGBB values into the buffer.
+   * @param row the row to read
+   * @param buffer destination buffer of at least getWidth() values
+   */
+  default void getRow(int row, int[] buffer) {
+    getRegion(row, 0, 1, getWidth(), buffer, 0);
+  }
+
+  /**
+   * Set a whole row from packed 0xRRGGBB values.
+   * @param row the row to write
+   * @param buffer source buffer of at least getWidth() values
+   */
+  default void setRow(int row, int[] buffer) {
+    setRegion(row, 0, 1, getWidth(), buffer, 0);
+  }
+
 }
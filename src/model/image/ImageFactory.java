@@ -0,0 +1,17 @@
+package model.image;
+
+/**
+ * Creates blank images. ImageModel and the image handlers use a factory for every image they
+ * produce, so the storage of results can be chosen by the caller.
+ */
+public interface ImageFactory {
+
+  /**
+   * Create a new black image of the given size.
+   *
+   * @param width  width of the image
+   * @param height height of the image
+   * @return the new image
+   */
+  Image create(int width, int height);
+}
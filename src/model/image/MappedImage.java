@@ -0,0 +1,147 @@
+package model.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Image stored off-heap in a memory-mapped temporary file with 8-bit channels, three bytes per
+ * pixel in row-major order. The operating system pages pixels in and out on demand, so only the
+ * parts of the image being touched are resident and images larger than the Java heap can be
+ * processed. The temporary file is deleted when the image is closed.
+ */
+public class MappedImage implements Image, Closeable {
+
+  // A single mapping is limited to 2GB, so the file is mapped in bands of whole rows.
+  private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+  private final int width;
+  private final int height;
+  private final int rowsPerChunk;
+  private final FileChannel channel;
+  private final MappedByteBuffer[] chunks;
+
+  /**
+   * Constructor of the mapped image. All pixels start out black.
+   *
+   * @param width  width of the image.
+   * @param height height of the image.
+   * @throws UncheckedIOException if the backing file cannot be created or mapped
+   */
+  public MappedImage(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative");
+    }
+    this.width = width;
+    this.height = height;
+    long rowBytes = Math.max(1L, 3L * width);
+    this.rowsPerChunk = (int) Math.max(1, Math.min(height, MAX_CHUNK_BYTES / rowBytes));
+    try {
+      Path file = Files.createTempFile("image", ".rgb");
+      this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+          StandardOpenOption.DELETE_ON_CLOSE);
+      int chunkCount = height == 0 ? 0 : (height + rowsPerChunk - 1) / rowsPerChunk;
+      this.chunks = new MappedByteBuffer[chunkCount];
+      for (int i = 0; i < chunkCount; i++) {
+        int rows = Math.min(rowsPerChunk, height - i * rowsPerChunk);
+        chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+            (long) i * rowsPerChunk * rowBytes, (long) rows * rowBytes);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not map image file", e);
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int[] getPixel(int row, int col) {
+    checkPixel(row, col);
+    MappedByteBuffer chunk = chunks[row / rowsPerChunk];
+    int index = offset(row, col);
+    return new int[]{chunk.get(index) & 0xFF, chunk.get(index + 1) & 0xFF,
+        chunk.get(index + 2) & 0xFF};
+  }
+
+  @Override
+  public void setPixel(int row, int col, int[] rgb) {
+    checkPixel(row, col);
+    MappedByteBuffer chunk = chunks[row / rowsPerChunk];
+    int index = offset(row, col);
+    chunk.put(index, (byte) rgb[0]);
+    chunk.put(index + 1, (byte) rgb[1]);
+    chunk.put(index + 2, (byte) rgb[2]);
+  }
+
+  @Override
+  public void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    for (int i = 0; i < height; i++) {
+      MappedByteBuffer chunk = chunks[(row + i) / rowsPerChunk];
+      int index = offset(row + i, col);
+      for (int j = 0; j < width; j++, index += 3) {
+        buffer[offset++] = Pixels.pack(chunk.get(index), chunk.get(index + 1),
+            chunk.get(index + 2));
+      }
+    }
+  }
+
+  @Override
+  public void setRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    for (int i = 0; i < height; i++) {
+      MappedByteBuffer chunk = chunks[(row + i) / rowsPerChunk];
+      int index = offset(row + i, col);
+      for (int j = 0; j < width; j++, index += 3) {
+        int rgb = buffer[offset++];
+        chunk.put(index, (byte) (rgb >> 16));
+        chunk.put(index + 1, (byte) (rgb >> 8));
+        chunk.put(index + 2, (byte) rgb);
+      }
+    }
+  }
+
+  /**
+   * Close the backing file, which deletes it. The image must not be used afterwards.
+   */
+  @Override
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not close image file", e);
+    }
+  }
+
+  private int offset(int row, int col) {
+    return ((row % rowsPerChunk) * width + col) * 3;
+  }
+
+  private void checkPixel(int row, int col) {
+    if (row < 0 || row >= height || col < 0 || col >= width) {
+      throw new IndexOutOfBoundsException("Pixel (" + row + ", " + col + ") is outside a "
+          + width + "x" + height + " image");
+    }
+  }
+
+  private void checkRegion(int row, int col, int height, int width) {
+    if (row < 0 || col < 0 || height < 0 || width < 0
+        || row + height > this.height || col + width > this.width) {
+      throw new IndexOutOfBoundsException("Region (" + row + ", " + col + ", " + height + "x"
+          + width + ") is outside a " + this.width + "x" + this.height + " image");
+    }
+  }
+}
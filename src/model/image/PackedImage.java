@@ -0,0 +1,103 @@
+package model.image;
+
+/**
+ * Image backed by a single contiguous int array, one 0xRRGGBB value per pixel in row-major
+ * order. This avoids the per-pixel array objects of SimpleImage and keeps neighbouring pixels
+ * adjacent in memory.
+ */
+public class PackedImage implements Image {
+
+  protected final int width;
+  protected final int height;
+  protected final int[] pixels;
+
+  /**
+   * Constructor of the packed image. All pixels start out black.
+   *
+   * @param width  width of the image.
+   * @param height height of the image.
+   */
+  public PackedImage(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative");
+    }
+    this.width = width;
+    this.height = height;
+    this.pixels = new int[Math.multiplyExact(width, height)];
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int[] getPixel(int row, int col) {
+    int rgb = pixels[index(row, col)];
+    return new int[]{(rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF};
+  }
+
+  @Override
+  public void setPixel(int row, int col, int[] rgb) {
+    pixels[index(row, col)] = Pixels.pack(rgb[0], rgb[1], rgb[2]);
+  }
+
+  /**
+   * Return the packed 0xRRGGBB value of the given pixel.
+   *
+   * @param row row of the pixel
+   * @param col column of the pixel
+   * @return packed RGB value
+   */
+  public int getRGB(int row, int col) {
+    return pixels[index(row, col)];
+  }
+
+  /**
+   * Set the packed 0xRRGGBB value of the given pixel.
+   *
+   * @param row row of the pixel
+   * @param col column of the pixel
+   * @param rgb packed RGB value
+   */
+  public void setRGB(int row, int col, int rgb) {
+    pixels[index(row, col)] = rgb & 0xFFFFFF;
+  }
+
+  @Override
+  public void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    for (int i = 0; i < height; i++) {
+      System.arraycopy(pixels, (row + i) * this.width + col, buffer, offset + i * width, width);
+    }
+  }
+
+  @Override
+  public void setRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    for (int i = 0; i < height; i++) {
+      System.arraycopy(buffer, offset + i * width, pixels, (row + i) * this.width + col, width);
+    }
+  }
+
+  private void checkRegion(int row, int col, int height, int width) {
+    if (row < 0 || col < 0 || height < 0 || width < 0
+        || row + height > this.height || col + width > this.width) {
+      throw new IndexOutOfBoundsException("Region (" + row + ", " + col + ", " + height + "x"
+          + width + ") is outside a " + this.width + "x" + this.height + " image");
+    }
+  }
+
+  private int index(int row, int col) {
+    if (row < 0 || row >= height || col < 0 || col >= width) {
+      throw new IndexOutOfBoundsException("Pixel (" + row + ", " + col + ") is outside a "
+          + width + "x" + height + " image");
+    }
+    return row * width + col;
+  }
+}
@@ -0,0 +1,73 @@
+package model.image;
+
+/**
+ * Helpers for packing and unpacking 0xRRGGBB pixel values used by the bulk accessors of Image.
+ */
+public final class Pixels {
+
+  private Pixels() {
+  }
+
+  /**
+   * Pack three channel values into one 0xRRGGBB int. Each channel is expected to be in 0-255.
+   *
+   * @param red   red channel
+   * @param green green channel
+   * @param blue  blue channel
+   * @return packed RGB value
+   */
+  public static int pack(int red, int green, int blue) {
+    return ((red & 0xFF) << 16) | ((green & 0xFF) << 8) | (blue & 0xFF);
+  }
+
+  /**
+   * Return the red channel of a packed pixel.
+   *
+   * @param rgb packed RGB value
+   * @return red channel in 0-255
+   */
+  public static int red(int rgb) {
+    return (rgb >> 16) & 0xFF;
+  }
+
+  /**
+   * Return the green channel of a packed pixel.
+   *
+   * @param rgb packed RGB value
+   * @return green channel in 0-255
+   */
+  public static int green(int rgb) {
+    return (rgb >> 8) & 0xFF;
+  }
+
+  /**
+   * Return the blue channel of a packed pixel.
+   *
+   * @param rgb packed RGB value
+   * @return blue channel in 0-255
+   */
+  public static int blue(int rgb) {
+    return rgb & 0xFF;
+  }
+
+  /**
+   * Return a channel of a packed pixel by index, 0 for red, 1 for green and 2 for blue.
+   *
+   * @param rgb     packed RGB value
+   * @param channel channel index
+   * @return channel value in 0-255
+   */
+  public static int channel(int rgb, int channel) {
+    return (rgb >> (8 * (2 - channel))) & 0xFF;
+  }
+
+  /**
+   * Pack a grey value into all three channels.
+   *
+   * @param value grey value in 0-255
+   * @return packed RGB value
+   */
+  public static int grey(int value) {
+    return value * 0x010101;
+  }
+}
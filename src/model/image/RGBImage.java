@@ -4,7 +4,7 @@ package model.image;
  * The RGBImage class extends the Image class and provides methods to extract the red, green, and
  * blue components from an image.
  */
-public class RGBImage extends SimpleImage {
+public class RGBImage extends PackedImage {
 
   /**
    * Constructs an RGBImage object with the specified width and height.
@@ -23,15 +23,7 @@ public class RGBImage extends SimpleImage {
    * @return a new grayscale image with intensity based on the red component
    */
   public Image redComponent(Image image) {
-    Image result = new RGBImage(width, height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] pixel = image.getPixel(i, j);
-        int[] newPixel = {pixel[0], pixel[0], pixel[0]};
-        result.setPixel(i, j, newPixel);
-      }
-    }
-    return result;
+    return component(image, 0);
   }
 
   /**
@@ -41,15 +33,7 @@ public class RGBImage extends SimpleImage {
    * @return a new grayscale image with intensity based on the red component
    */
   public Image greenComponent(Image image) {
-    Image result = new RGBImage(width, height);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] pixel = image.getPixel(i, j);
-        int[] newPixel = {pixel[1], pixel[1], pixel[1]};
-        result.setPixel(i, j, newPixel);
-      }
-    }
-    return result;
+    return component(image, 1);
   }
 
   /**
@@ -59,13 +43,18 @@ public class RGBImage extends SimpleImage {
    * @return a new grayscale image with intensity based on the red component
    */
   public Image blueComponent(Image image) {
+    return component(image, 2);
+  }
+
+  private Image component(Image image, int channel) {
     Image result = new RGBImage(width, height);
+    int[] line = new int[width];
     for (int i = 0; i < height; i++) {
+      image.getRow(i, line);
       for (int j = 0; j < width; j++) {
-        int[] pixel = image.getPixel(i, j);
-        int[] newPixel = {pixel[2], pixel[2], pixel[2]};
-        result.setPixel(i, j, newPixel);
+        line[j] = Pixels.grey(Pixels.channel(line[j], channel));
       }
+      result.setRow(i, line);
     }
     return result;
   }
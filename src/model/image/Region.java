@@ -0,0 +1,168 @@
+package model.image;
+
+/**
+ * A rectangle of an image, optionally narrowed by a mask to some of its pixels. Operations
+ * limited to a region read and compute only the rectangle, plus whatever border their kernel
+ * needs, and leave every pixel outside the region as it was.
+ */
+public final class Region {
+
+  private final int row;
+  private final int col;
+  private final int height;
+  private final int width;
+  private final boolean[] selected;
+
+  private Region(int row, int col, int height, int width, boolean[] selected) {
+    this.row = row;
+    this.col = col;
+    this.height = height;
+    this.width = width;
+    this.selected = selected;
+  }
+
+  /**
+   * Create a rectangular region.
+   *
+   * @param row    first row
+   * @param col    first column
+   * @param height number of rows
+   * @param width  number of columns
+   * @return the region
+   */
+  public static Region of(int row, int col, int height, int width) {
+    if (row < 0 || col < 0 || height < 0 || width < 0) {
+      throw new IllegalArgumentException("Region cannot have negative position or size");
+    }
+    return new Region(row, col, height, width, null);
+  }
+
+  /**
+   * Create the region of the pixels of a mask whose brightest channel is at least 128, so black
+   * and white masks such as threshold results select their white pixels. The rectangle of the
+   * region is the bounding box of those pixels.
+   *
+   * @param mask the mask, the same size as the images it is used with
+   * @return the region
+   */
+  public static Region of(Image mask) {
+    if (mask == null) {
+      throw new IllegalArgumentException("Mask cannot be null");
+    }
+    int maskWidth = mask.getWidth();
+    boolean[] all = new boolean[Math.multiplyExact(maskWidth, mask.getHeight())];
+    int top = Integer.MAX_VALUE;
+    int bottom = -1;
+    int left = Integer.MAX_VALUE;
+    int right = -1;
+    int[] line = new int[maskWidth];
+    for (int r = 0; r < mask.getHeight(); r++) {
+      mask.getRow(r, line);
+      for (int c = 0; c < maskWidth; c++) {
+        int rgb = line[c];
+        if (Math.max(Pixels.red(rgb), Math.max(Pixels.green(rgb), Pixels.blue(rgb))) >= 128) {
+          all[r * maskWidth + c] = true;
+          top = Math.min(top, r);
+          bottom = r;
+          left = Math.min(left, c);
+          right = Math.max(right, c);
+        }
+      }
+    }
+    if (bottom < 0) {
+      return new Region(0, 0, 0, 0, null);
+    }
+    int height = bottom - top + 1;
+    int width = right - left + 1;
+    boolean[] selected = new boolean[height * width];
+    for (int r = 0; r < height; r++) {
+      System.arraycopy(all, (top + r) * maskWidth + left, selected, r * width, width);
+    }
+    return new Region(top, left, height, width, selected);
+  }
+
+  /**
+   * Return the first row of the rectangle.
+   *
+   * @return the row
+   */
+  public int getRow() {
+    return row;
+  }
+
+  /**
+   * Return the first column of the rectangle.
+   *
+   * @return the column
+   */
+  public int getCol() {
+    return col;
+  }
+
+  /**
+   * Return the number of rows of the rectangle.
+   *
+   * @return the height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the number of columns of the rectangle.
+   *
+   * @return the width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return whether the region selects only some pixels of its rectangle.
+   *
+   * @return true for a region made from a mask
+   */
+  public boolean isMasked() {
+    return selected != null;
+  }
+
+  /**
+   * Return whether a pixel is in the region.
+   *
+   * @param row row of the pixel
+   * @param col column of the pixel
+   * @return true if the pixel is inside the rectangle and selected by the mask, if any
+   */
+  public boolean contains(int row, int col) {
+    if (row < this.row || col < this.col || row >= this.row + height
+        || col >= this.col + width) {
+      return false;
+    }
+    return selected == null || selected[(row - this.row) * width + col - this.col];
+  }
+
+  /**
+   * Return the part of the region that lies inside an image of the given size.
+   *
+   * @param imageWidth  width of the image
+   * @param imageHeight height of the image
+   * @return the clipped region
+   */
+  public Region clip(int imageWidth, int imageHeight) {
+    int top = Math.min(row, imageHeight);
+    int left = Math.min(col, imageWidth);
+    int clippedHeight = Math.min(row + height, imageHeight) - top;
+    int clippedWidth = Math.min(col + width, imageWidth) - left;
+    if (clippedHeight == height && clippedWidth == width) {
+      return this;
+    }
+    boolean[] clipped = null;
+    if (selected != null) {
+      clipped = new boolean[clippedHeight * clippedWidth];
+      for (int r = 0; r < clippedHeight; r++) {
+        System.arraycopy(selected, r * width, clipped, r * clippedWidth, clippedWidth);
+      }
+    }
+    return new Region(top, left, clippedHeight, clippedWidth, clipped);
+  }
+}
@@ -0,0 +1,79 @@
+package model.image;
+
+/**
+ * A view of an image with the pixels of a region replaced by those of a patch, the result of an
+ * operation on that region. The pixels outside the region are read from the source and never
+ * copied until the view is written to.
+ */
+public class RegionView extends ViewImage {
+
+  private final Region region;
+  private final Image patch;
+
+  /**
+   * Construct the view.
+   *
+   * @param source  the image outside the region
+   * @param region  the region, inside the source
+   * @param patch   the pixels of the rectangle of the region
+   * @param factory creates the image the view is copied into when materialized
+   */
+  public RegionView(Image source, Region region, Image patch, ImageFactory factory) {
+    super(source, factory);
+    if (region == null || patch == null) {
+      throw new IllegalArgumentException("Region and patch cannot be null");
+    }
+    if (region.getRow() + region.getHeight() > source.getHeight()
+        || region.getCol() + region.getWidth() > source.getWidth()) {
+      throw new IllegalArgumentException("Region must lie inside the image");
+    }
+    if (patch.getWidth() != region.getWidth() || patch.getHeight() != region.getHeight()) {
+      throw new IllegalArgumentException("Patch must be " + region.getWidth() + "x"
+          + region.getHeight());
+    }
+    this.region = region;
+    this.patch = patch;
+  }
+
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  @Override
+  public boolean dependsOn(Image image) {
+    return super.dependsOn(image) || !isMaterialized() && (patch == image
+        || patch instanceof ViewImage && ((ViewImage) patch).dependsOn(image));
+  }
+
+  @Override
+  protected void readRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    source.getRegion(row, col, height, width, buffer, offset);
+    int top = Math.max(row, region.getRow());
+    int bottom = Math.min(row + height, region.getRow() + region.getHeight());
+    int left = Math.max(col, region.getCol());
+    int right = Math.min(col + width, region.getCol() + region.getWidth());
+    if (top >= bottom || left >= right) {
+      return;
+    }
+    int[] line = new int[right - left];
+    for (int r = top; r < bottom; r++) {
+      patch.getRegion(r - region.getRow(), left - region.getCol(), 1, right - left, line, 0);
+      int start = offset + (r - row) * width + left - col;
+      if (!region.isMasked()) {
+        System.arraycopy(line, 0, buffer, start, right - left);
+      } else {
+        for (int c = left; c < right; c++) {
+          if (region.contains(r, c)) {
+            buffer[start + c - left] = line[c - left];
+          }
+        }
+      }
+    }
+  }
+}
@@ -41,4 +41,15 @@ public class SimpleImage implements Image {
     pixels[row][col] = rgb;
   }
 
+  @Override
+  public void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    for (int i = 0; i < height; i++) {
+      int[][] line = pixels[row + i];
+      for (int j = 0; j < width; j++) {
+        int[] rgb = line[col + j];
+        buffer[offset++] = Pixels.pack(rgb[0], rgb[1], rgb[2]);
+      }
+    }
+  }
+
 }
@@ -0,0 +1,347 @@
+package model.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Image split into fixed-size square tiles of packed 0xRRGGBB pixels. At most a fixed number of
+ * tiles are held in memory in a least-recently-used cache; when the cache is full the coldest tile
+ * is spilled to a scratch file and read back on its next use. Peak memory is therefore bounded
+ * by the cache budget rather than by the size of the image.
+ *
+ * <p>Tiles that were never written are black and take no memory or disk space. Hit, miss and
+ * spill counters are kept so the tile size and cache budget can be tuned.
+ *
+ * <p>The image's lock is only held to look a tile up, spill it or reload it. Pixels are copied
+ * outside it, so parallel bands that touch different resident tiles run at the same time. A tile
+ * is pinned while it is copied and is never evicted then, so when more threads than the budget
+ * copy at once the cache briefly holds more tiles than the budget.
+ */
+public class TiledImage implements Image, Closeable {
+
+  /**
+   * Default edge length of a tile in pixels.
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * Default number of tiles kept in memory, 16MB with the default tile size.
+   */
+  public static final int DEFAULT_CACHE_TILES = 64;
+
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int tilesAcross;
+  private final int cacheTiles;
+  private final LinkedHashMap<Integer, Tile> cache;
+  private final boolean[] spilled;
+  private FileChannel scratch;
+  private ByteBuffer transfer;
+  private int[] recycled;
+
+  private long hits;
+  private long misses;
+  private long spills;
+  private long reloads;
+
+  /**
+   * Holds the pixels of one tile, whether they differ from the copy on disk and how many copies
+   * are using it. Both fields are guarded by the image's lock.
+   */
+  private static class Tile {
+
+    final int[] pixels;
+    boolean dirty;
+    int pins;
+
+    Tile(int[] pixels) {
+      this.pixels = pixels;
+    }
+  }
+
+  /**
+   * Constructor of the tiled image with the default tile size and cache budget.
+   *
+   * @param width  width of the image.
+   * @param height height of the image.
+   */
+  public TiledImage(int width, int height) {
+    this(width, height, DEFAULT_TILE_SIZE, DEFAULT_CACHE_TILES);
+  }
+
+  /**
+   * Constructor of the tiled image. All pixels start out black.
+   *
+   * @param width      width of the image.
+   * @param height     height of the image.
+   * @param tileSize   edge length of a tile in pixels.
+   * @param cacheTiles maximum number of tiles kept in memory.
+   */
+  public TiledImage(int width, int height, int tileSize, int cacheTiles) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative");
+    }
+    if (tileSize < 1 || cacheTiles < 1) {
+      throw new IllegalArgumentException("Tile size and cache budget must be positive");
+    }
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.cacheTiles = cacheTiles;
+    this.tilesAcross = (width + tileSize - 1) / tileSize;
+    int tilesDown = (height + tileSize - 1) / tileSize;
+    this.spilled = new boolean[Math.multiplyExact(tilesAcross, tilesDown)];
+    this.cache = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the edge length of a tile in pixels.
+   *
+   * @return the tile size
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Return how many tile lookups found the tile in memory.
+   *
+   * @return the number of cache hits
+   */
+  public synchronized long getCacheHits() {
+    return hits;
+  }
+
+  /**
+   * Return how many tile lookups had to create or reload the tile.
+   *
+   * @return the number of cache misses
+   */
+  public synchronized long getCacheMisses() {
+    return misses;
+  }
+
+  /**
+   * Return how many modified tiles were written to the scratch file on eviction.
+   *
+   * @return the number of spills
+   */
+  public synchronized long getSpills() {
+    return spills;
+  }
+
+  /**
+   * Return how many tiles were read back from the scratch file.
+   *
+   * @return the number of reloads
+   */
+  public synchronized long getReloads() {
+    return reloads;
+  }
+
+  @Override
+  public int[] getPixel(int row, int col) {
+    checkRegion(row, col, 1, 1);
+    Tile tile = pin(row / tileSize, col / tileSize);
+    int rgb = tile.pixels[(row % tileSize) * tileSize + col % tileSize];
+    unpin(tile, false);
+    return new int[]{Pixels.red(rgb), Pixels.green(rgb), Pixels.blue(rgb)};
+  }
+
+  @Override
+  public void setPixel(int row, int col, int[] rgb) {
+    checkRegion(row, col, 1, 1);
+    Tile tile = pin(row / tileSize, col / tileSize);
+    tile.pixels[(row % tileSize) * tileSize + col % tileSize] = Pixels.pack(rgb[0], rgb[1],
+        rgb[2]);
+    unpin(tile, true);
+  }
+
+  @Override
+  public void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    copyRegion(row, col, height, width, buffer, offset, false);
+  }
+
+  @Override
+  public void setRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    checkRegion(row, col, height, width);
+    copyRegion(row, col, height, width, buffer, offset, true);
+  }
+
+  /**
+   * Close the scratch file, which deletes it. The image must not be used afterwards.
+   */
+  @Override
+  public synchronized void close() {
+    cache.clear();
+    if (scratch != null) {
+      try {
+        scratch.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not close tile scratch file", e);
+      }
+    }
+  }
+
+  private void copyRegion(int row, int col, int height, int width, int[] buffer, int offset,
+      boolean write) {
+    int rowEnd = row + height;
+    int colEnd = col + width;
+    for (int tileRow = row / tileSize; tileRow * tileSize < rowEnd; tileRow++) {
+      int top = Math.max(row, tileRow * tileSize);
+      int bottom = Math.min(rowEnd, (tileRow + 1) * tileSize);
+      for (int tileCol = col / tileSize; tileCol * tileSize < colEnd; tileCol++) {
+        int left = Math.max(col, tileCol * tileSize);
+        int right = Math.min(colEnd, (tileCol + 1) * tileSize);
+        Tile tile = pin(tileRow, tileCol);
+        for (int r = top; r < bottom; r++) {
+          int tileIndex = (r - tileRow * tileSize) * tileSize + left - tileCol * tileSize;
+          int bufferIndex = offset + (r - row) * width + left - col;
+          if (write) {
+            System.arraycopy(buffer, bufferIndex, tile.pixels, tileIndex, right - left);
+          } else {
+            System.arraycopy(tile.pixels, tileIndex, buffer, bufferIndex, right - left);
+          }
+        }
+        unpin(tile, write);
+      }
+    }
+  }
+
+  /**
+   * Return the tile, loading it if it is not in memory, and pin it so it is not evicted until
+   * unpin.
+   */
+  private synchronized Tile pin(int tileRow, int tileCol) {
+    int index = tileRow * tilesAcross + tileCol;
+    Tile tile = cache.get(index);
+    if (tile != null) {
+      hits++;
+      tile.pins++;
+      return tile;
+    }
+    misses++;
+    if (cache.size() >= cacheTiles) {
+      evictEldest();
+    }
+    int[] pixels = recycled != null ? recycled : new int[tileSize * tileSize];
+    recycled = null;
+    if (spilled[index]) {
+      readTile(index, pixels);
+      reloads++;
+      tile = new Tile(pixels);
+    } else {
+      // A tile that was never stored is black; it only needs spilling once it is written.
+      Arrays.fill(pixels, 0);
+      tile = new Tile(pixels);
+    }
+    tile.pins++;
+    cache.put(index, tile);
+    return tile;
+  }
+
+  private synchronized void unpin(Tile tile, boolean written) {
+    tile.dirty |= written;
+    tile.pins--;
+  }
+
+  /**
+   * Evict the least recently used tile that is not pinned, returning false if every tile is.
+   */
+  private boolean evictEldest() {
+    Iterator<Map.Entry<Integer, Tile>> eldest = cache.entrySet().iterator();
+    while (eldest.hasNext()) {
+      Map.Entry<Integer, Tile> entry = eldest.next();
+      Tile tile = entry.getValue();
+      if (tile.pins == 0) {
+        if (tile.dirty) {
+          writeTile(entry.getKey(), tile.pixels);
+          spilled[entry.getKey()] = true;
+          spills++;
+        }
+        eldest.remove();
+        recycled = tile.pixels;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeTile(int index, int[] pixels) {
+    try {
+      ByteBuffer bytes = transferBuffer();
+      bytes.asIntBuffer().put(pixels);
+      long position = (long) index * bytes.capacity();
+      while (bytes.hasRemaining()) {
+        position += scratchFile().write(bytes, position);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not spill tile to disk", e);
+    }
+  }
+
+  private void readTile(int index, int[] pixels) {
+    try {
+      ByteBuffer bytes = transferBuffer();
+      long position = (long) index * bytes.capacity();
+      while (bytes.hasRemaining()) {
+        int read = scratchFile().read(bytes, position);
+        if (read < 0) {
+          throw new IOException("Tile scratch file is truncated");
+        }
+        position += read;
+      }
+      bytes.flip();
+      bytes.asIntBuffer().get(pixels);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not reload tile from disk", e);
+    }
+  }
+
+  private ByteBuffer transferBuffer() {
+    if (transfer == null) {
+      transfer = ByteBuffer.allocateDirect(tileSize * tileSize * Integer.BYTES);
+    }
+    transfer.clear();
+    return transfer;
+  }
+
+  private FileChannel scratchFile() throws IOException {
+    if (scratch == null) {
+      Path file = Files.createTempFile("tiles", ".bin");
+      scratch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+          StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    return scratch;
+  }
+
+  private void checkRegion(int row, int col, int height, int width) {
+    if (row < 0 || col < 0 || height < 0 || width < 0
+        || row + height > this.height || col + width > this.width) {
+      throw new IndexOutOfBoundsException("Region (" + row + ", " + col + ", " + height + "x"
+          + width + ") is outside a " + this.width + "x" + this.height + " image");
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package model.image;
+
+/**
+ * Base class for images that present their source image through a coordinate or channel mapping
+ * without copying it. Reads are forwarded to the source until the view is written to or
+ * explicitly materialized, at which point the mapped pixels are copied into an image of its own
+ * and the view stops following the source.
+ *
+ * <p>Until it is materialized a view reflects any later change to its source.
+ */
+public abstract class ViewImage implements Image {
+
+  protected final Image source;
+  private final ImageFactory factory;
+  private volatile Image materialized;
+
+  /**
+   * Constructor of the view.
+   *
+   * @param source  the image the view reads from
+   * @param factory creates the image the view is copied into when materialized
+   */
+  protected ViewImage(Image source, ImageFactory factory) {
+    if (source == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    this.source = source;
+    this.factory = factory;
+  }
+
+  /**
+   * Return the image this view reads from.
+   *
+   * @return the source image
+   */
+  public Image getSource() {
+    return source;
+  }
+
+  /**
+   * Return whether the view has been copied into an image of its own.
+   *
+   * @return true once the view is materialized
+   */
+  public boolean isMaterialized() {
+    return materialized != null;
+  }
+
+  /**
+   * Return whether reading this view still reads the given image, directly or through other
+   * views.
+   *
+   * @param image the image to look for
+   * @return true if a change to the image would show through this view
+   */
+  public boolean dependsOn(Image image) {
+    if (materialized != null) {
+      return false;
+    }
+    return source == image
+        || source instanceof ViewImage && ((ViewImage) source).dependsOn(image);
+  }
+
+  /**
+   * Copy the mapped pixels into an image of their own, if that has not happened yet. Later reads
+   * and writes use the copy.
+   *
+   * @return the materialized image
+   */
+  public Image materialize() {
+    Image result = materialized;
+    if (result == null) {
+      synchronized (this) {
+        result = materialized;
+        if (result == null) {
+          result = factory.create(getWidth(), getHeight());
+          int[] line = new int[getWidth()];
+          for (int row = 0; row < getHeight(); row++) {
+            readRegion(row, 0, 1, getWidth(), line, 0);
+            result.setRow(row, line);
+          }
+          materialized = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public int[] getPixel(int row, int col) {
+    Image result = materialized;
+    if (result != null) {
+      return result.getPixel(row, col);
+    }
+    int[] rgb = new int[1];
+    getRegion(row, col, 1, 1, rgb, 0);
+    return new int[]{Pixels.red(rgb[0]), Pixels.green(rgb[0]), Pixels.blue(rgb[0])};
+  }
+
+  @Override
+  public void setPixel(int row, int col, int[] rgb) {
+    materialize().setPixel(row, col, rgb);
+  }
+
+  @Override
+  public void getRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    Image result = materialized;
+    if (result != null) {
+      result.getRegion(row, col, height, width, buffer, offset);
+      return;
+    }
+    if (row < 0 || col < 0 || height < 0 || width < 0
+        || row + height > getHeight() || col + width > getWidth()) {
+      throw new IndexOutOfBoundsException("Region (" + row + ", " + col + ", " + height + "x"
+          + width + ") is outside a " + getWidth() + "x" + getHeight() + " image");
+    }
+    readRegion(row, col, height, width, buffer, offset);
+  }
+
+  @Override
+  public void setRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    materialize().setRegion(row, col, height, width, buffer, offset);
+  }
+
+  /**
+   * Read a rectangle of mapped pixels from the source. The rectangle has already been checked to
+   * lie inside the view.
+   *
+   * @param row    first row of the rectangle
+   * @param col    first column of the rectangle
+   * @param height number of rows to read
+   * @param width  number of columns to read
+   * @param buffer destination buffer of packed 0xRRGGBB values
+   * @param offset index in the buffer of the first pixel
+   */
+  protected abstract void readRegion(int row, int col, int height, int width, int[] buffer,
+      int offset);
+}
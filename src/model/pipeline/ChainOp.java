@@ -0,0 +1,78 @@
+package model.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Applies operations that could not be merged one after another.
+ */
+final class ChainOp extends PointOp {
+
+  private static final int CHUNK = 4096;
+
+  private final PointOp[] ops;
+
+  ChainOp(PointOp first, PointOp second) {
+    List<PointOp> list = new ArrayList<>(ops(first));
+    list.addAll(ops(second));
+    this.ops = list.toArray(new PointOp[0]);
+  }
+
+  private ChainOp(PointOp[] ops) {
+    this.ops = ops;
+  }
+
+  List<PointOp> ops() {
+    return Collections.unmodifiableList(java.util.Arrays.asList(ops));
+  }
+
+  private static List<PointOp> ops(PointOp op) {
+    return op instanceof ChainOp ? ((ChainOp) op).ops() : Collections.singletonList(op);
+  }
+
+  @Override
+  public int apply(int rgb) {
+    for (PointOp op : ops) {
+      rgb = op.apply(rgb);
+    }
+    return rgb;
+  }
+
+  @Override
+  public void apply(int[] pixels, int offset, int length) {
+    // Run each operation over a cache-sized chunk in turn, so every one uses its bulk loop.
+    for (int start = offset, end = offset + length; start < end; start += CHUNK) {
+      int count = Math.min(CHUNK, end - start);
+      for (PointOp op : ops) {
+        op.apply(pixels, start, count);
+      }
+    }
+  }
+
+  @Override
+  PointOp fuse(PointOp next) {
+    PointOp last = ops[ops.length - 1];
+    PointOp fused = last.then(next);
+    if (fused instanceof ChainOp) {
+      return null;
+    }
+    PointOp[] merged = ops.clone();
+    merged[merged.length - 1] = fused;
+    return merged.length == 1 ? fused : new ChainOp(merged);
+  }
+
+  @Override
+  public boolean mapsGreyToGrey() {
+    boolean grey = true;
+    for (PointOp op : ops) {
+      grey = op.producesGrey() || grey && op.mapsGreyToGrey();
+    }
+    return grey;
+  }
+
+  @Override
+  boolean producesGrey() {
+    return ops[ops.length - 1].producesGrey();
+  }
+}
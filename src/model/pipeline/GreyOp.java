@@ -0,0 +1,65 @@
+package model.pipeline;
+
+import model.image.Pixels;
+
+/**
+ * Replaces each pixel by a grey level derived from its channels: one channel, the largest
+ * channel, or the average of the channels.
+ */
+final class GreyOp extends PointOp {
+
+  static final int VALUE = 3;
+  static final int INTENSITY = 4;
+
+  private final int kind;
+
+  /**
+   * @param kind 0, 1 or 2 for a channel, or VALUE or INTENSITY
+   */
+  GreyOp(int kind) {
+    this.kind = kind;
+  }
+
+  int kind() {
+    return kind;
+  }
+
+  boolean isChannel() {
+    return kind < 3;
+  }
+
+  @Override
+  public int apply(int rgb) {
+    switch (kind) {
+      case VALUE:
+        return Pixels.grey(Math.max(Pixels.red(rgb), Math.max(Pixels.green(rgb),
+            Pixels.blue(rgb))));
+      case INTENSITY:
+        return Pixels.grey((Pixels.red(rgb) + Pixels.green(rgb) + Pixels.blue(rgb)) / 3);
+      default:
+        return Pixels.grey(Pixels.channel(rgb, kind));
+    }
+  }
+
+  @Override
+  public void apply(int[] pixels, int offset, int length) {
+    PixelKernels kernels = PixelKernels.INSTANCE;
+    if (kernels != null && kind == VALUE) {
+      kernels.value(pixels, offset, length);
+    } else if (kernels != null && kind == INTENSITY) {
+      kernels.intensity(pixels, offset, length);
+    } else {
+      super.apply(pixels, offset, length);
+    }
+  }
+
+  @Override
+  boolean producesGrey() {
+    return true;
+  }
+
+  @Override
+  boolean preservesGrey() {
+    return true;
+  }
+}
@@ -0,0 +1,40 @@
+package model.pipeline;
+
+/**
+ * Leaves every pixel unchanged.
+ */
+final class IdentityOp extends PointOp {
+
+  static final IdentityOp INSTANCE = new IdentityOp();
+
+  private IdentityOp() {
+  }
+
+  @Override
+  public int apply(int rgb) {
+    return rgb;
+  }
+
+  @Override
+  public void apply(int[] pixels, int offset, int length) {
+    // nothing to do
+  }
+
+  @Override
+  public PointOp then(PointOp next) {
+    if (next == null) {
+      throw new IllegalArgumentException("Operation cannot be null");
+    }
+    return next;
+  }
+
+  @Override
+  public boolean mapsGreyToGrey() {
+    return true;
+  }
+
+  @Override
+  boolean preservesGrey() {
+    return true;
+  }
+}
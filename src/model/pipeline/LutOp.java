@@ -0,0 +1,83 @@
+package model.pipeline;
+
+/**
+ * Maps each channel through its own 256-entry lookup table. The tables are stored already shifted
+ * into their channel position, so a pixel is transformed with three lookups and two ORs. Any
+ * sequence of lookup table operations composes into a single table per channel.
+ */
+final class LutOp extends PointOp {
+
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+
+  /**
+   * Create the operation from per-channel tables of output values 0-255.
+   */
+  LutOp(int[] red, int[] green, int[] blue) {
+    this.red = shifted(red, 16);
+    this.green = shifted(green, 8);
+    this.blue = shifted(blue, 0);
+  }
+
+  private LutOp(int[][] shifted) {
+    this.red = shifted[0];
+    this.green = shifted[1];
+    this.blue = shifted[2];
+  }
+
+  private static int[] shifted(int[] table, int shift) {
+    if (table == null || table.length != 256) {
+      throw new IllegalArgumentException("Lookup tables must have 256 entries");
+    }
+    int[] result = new int[256];
+    for (int v = 0; v < 256; v++) {
+      if (table[v] < 0 || table[v] > 255) {
+        throw new IllegalArgumentException("Lookup table values must be between 0 and 255");
+      }
+      result[v] = table[v] << shift;
+    }
+    return result;
+  }
+
+  @Override
+  public int apply(int rgb) {
+    return red[(rgb >> 16) & 0xFF] | green[(rgb >> 8) & 0xFF] | blue[rgb & 0xFF];
+  }
+
+  @Override
+  public void apply(int[] pixels, int offset, int length) {
+    int[] red = this.red;
+    int[] green = this.green;
+    int[] blue = this.blue;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      int rgb = pixels[i];
+      pixels[i] = red[(rgb >> 16) & 0xFF] | green[(rgb >> 8) & 0xFF] | blue[rgb & 0xFF];
+    }
+  }
+
+  @Override
+  public boolean mapsGreyToGrey() {
+    for (int v = 0; v < 256; v++) {
+      if (red[v] >>> 16 != blue[v] || green[v] >>> 8 != blue[v]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  PointOp fuse(PointOp next) {
+    if (next instanceof LutOp) {
+      LutOp other = (LutOp) next;
+      int[][] composed = new int[3][256];
+      for (int v = 0; v < 256; v++) {
+        composed[0][v] = other.red[red[v] >>> 16];
+        composed[1][v] = other.green[green[v] >>> 8];
+        composed[2][v] = other.blue[blue[v]];
+      }
+      return new LutOp(composed);
+    }
+    return super.fuse(next);
+  }
+}
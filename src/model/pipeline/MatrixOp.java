@@ -0,0 +1,112 @@
+package model.pipeline;
+
+import java.util.Arrays;
+import model.image.Pixels;
+
+/**
+ * Multiplies each pixel by a 3x3 colour matrix. Each output channel is computed as
+ * m[c][0] * red + m[c][1] * green + m[c][2] * blue in double precision, then clamped to 0-255 and
+ * truncated. A matrix whose rows are all equal computes its sum once and produces grey pixels.
+ *
+ * <p>When every weight is a decimal with at most four places, the weights are also kept as
+ * integers over a power of ten and runs of pixels are handed to the vector kernels. The integer
+ * sum is exact, and while it is not a multiple of the scale the true weighted sum is at least one
+ * scale unit away from an integer, far more than the rounding error of the double sum, so both
+ * truncate to the same value. Sums that land exactly on a multiple are recomputed in double
+ * precision, because there the double sum may fall just below the integer.
+ */
+final class MatrixOp extends PointOp {
+
+  private final double[][] matrix;
+  private final boolean broadcast;
+  private final int[][] fixedWeights;
+  private final int fixedScale;
+
+  MatrixOp(double[][] matrix) {
+    if (matrix == null || matrix.length != 3) {
+      throw new IllegalArgumentException("Colour matrix must have 3 rows");
+    }
+    this.matrix = new double[3][];
+    for (int c = 0; c < 3; c++) {
+      if (matrix[c] == null || matrix[c].length != 3) {
+        throw new IllegalArgumentException("Colour matrix must have 3 columns");
+      }
+      this.matrix[c] = matrix[c].clone();
+    }
+    this.broadcast = Arrays.equals(this.matrix[0], this.matrix[1])
+        && Arrays.equals(this.matrix[0], this.matrix[2]);
+    int[][] fixed = null;
+    int scale = 1;
+    for (int places = 0; places <= 4; places++, scale *= 10) {
+      fixed = fixedWeights(scale);
+      if (fixed != null) {
+        break;
+      }
+    }
+    this.fixedWeights = fixed;
+    this.fixedScale = scale;
+  }
+
+  /**
+   * Return the weights as integers over the scale, or null if some weight is not the double
+   * nearest to such a fraction or the integer sums could reach 2^22.
+   */
+  private int[][] fixedWeights(int scale) {
+    int[][] result = new int[broadcast ? 1 : 3][3];
+    for (int c = 0; c < result.length; c++) {
+      long total = 0;
+      for (int k = 0; k < 3; k++) {
+        double scaled = Math.rint(matrix[c][k] * scale);
+        if (Math.abs(scaled) > 1 << 16 || scaled / scale != matrix[c][k]) {
+          return null;
+        }
+        result[c][k] = (int) scaled;
+        total += Math.abs(result[c][k]);
+      }
+      if (total * 255 >= 1 << 22) {
+        return null;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public int apply(int rgb) {
+    int red = Pixels.red(rgb);
+    int green = Pixels.green(rgb);
+    int blue = Pixels.blue(rgb);
+    if (broadcast) {
+      return Pixels.grey(channel(matrix[0], red, green, blue));
+    }
+    return Pixels.pack(channel(matrix[0], red, green, blue), channel(matrix[1], red, green, blue),
+        channel(matrix[2], red, green, blue));
+  }
+
+  @Override
+  public void apply(int[] pixels, int offset, int length) {
+    if (fixedWeights != null && PixelKernels.INSTANCE != null) {
+      PixelKernels.INSTANCE.matrix(fixedWeights, fixedScale, pixels, offset, length, this::apply);
+    } else {
+      super.apply(pixels, offset, length);
+    }
+  }
+
+  private static int channel(double[] row, int red, int green, int blue) {
+    return (int) Math.min(Math.max(row[0] * red + row[1] * green + row[2] * blue, 0), 255);
+  }
+
+  @Override
+  boolean producesGrey() {
+    return broadcast;
+  }
+
+  @Override
+  PointOp fuse(PointOp next) {
+    // Keeping one output channel only needs that row of the matrix.
+    if (next instanceof GreyOp && ((GreyOp) next).isChannel() && !broadcast) {
+      double[] row = matrix[((GreyOp) next).kind()];
+      return new MatrixOp(new double[][]{row, row, row});
+    }
+    return super.fuse(next);
+  }
+}
@@ -0,0 +1,59 @@
+package model.pipeline;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Bulk colour kernels over runs of packed 0xRRGGBB pixels. An implementation backed by the
+ * jdk.incubator.vector module is loaded when it was compiled from the vector source root and the
+ * module is available; otherwise the operations fall back to their scalar loops.
+ */
+interface PixelKernels {
+
+  /**
+   * The loaded kernels, or null when the vector module is unavailable or disabled with
+   * -Dimage.vector=false.
+   */
+  PixelKernels INSTANCE = load();
+
+  /**
+   * Replace each pixel by its colour matrix product. The weights are integers over a common
+   * scale, so that every output channel is floor(sum / scale) clamped to 0-255 whenever the sum
+   * is not a multiple of the scale. Pixels whose sum is a multiple of the scale are passed to the
+   * exact operation instead, as are any pixels left over after the last full vector.
+   *
+   * @param weights one row of three weights per output channel, or a single row whose result is
+   *                written to all three channels
+   * @param scale   the common denominator of the weights; weighted sums must stay below 2^22 in
+   *                magnitude
+   * @param pixels  the pixels
+   * @param offset  index of the first pixel
+   * @param length  number of pixels
+   * @param exact   the scalar operation used for the pixels the integer form cannot decide
+   */
+  void matrix(int[][] weights, int scale, int[] pixels, int offset, int length,
+      IntUnaryOperator exact);
+
+  /**
+   * Replace each pixel by the grey level of its largest channel.
+   */
+  void value(int[] pixels, int offset, int length);
+
+  /**
+   * Replace each pixel by the grey level of the truncated average of its channels.
+   */
+  void intensity(int[] pixels, int offset, int length);
+
+  private static PixelKernels load() {
+    if (!Boolean.parseBoolean(System.getProperty("image.vector", "true"))) {
+      return null;
+    }
+    try {
+      return (PixelKernels) Class.forName("model.pipeline.VectorKernels")
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // the vector source root was not compiled, or the module was not added with
+      // --add-modules jdk.incubator.vector
+      return null;
+    }
+  }
+}
@@ -0,0 +1,341 @@
+package model.pipeline;
+
+/**
+ * A per-pixel colour transform on packed 0xRRGGBB values. Point operations compose with then();
+ * adjacent operations are merged into one whenever the merged operation gives exactly the same
+ * result, and the remaining ones are applied one after another to each pixel, so a chain of any
+ * length runs in a single pass without intermediate images.
+ *
+ * <p>Operations that transform each channel on its own, such as brighten, gamma, levels, curves,
+ * invert and threshold, are 256-entry lookup tables, and any run of them collapses into one table.
+ */
+public abstract class PointOp {
+
+  /**
+   * Transform one packed pixel.
+   *
+   * @param rgb packed 0xRRGGBB input
+   * @return packed 0xRRGGBB output
+   */
+  public abstract int apply(int rgb);
+
+  /**
+   * Transform a run of packed pixels in place.
+   *
+   * @param pixels the pixels
+   * @param offset index of the first pixel
+   * @param length number of pixels
+   */
+  public void apply(int[] pixels, int offset, int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      pixels[i] = apply(pixels[i]);
+    }
+  }
+
+  /**
+   * Return the operation that applies this operation and then the next one.
+   *
+   * @param next the operation to apply afterwards
+   * @return the composed operation
+   */
+  public PointOp then(PointOp next) {
+    if (next == null) {
+      throw new IllegalArgumentException("Operation cannot be null");
+    }
+    if (next instanceof IdentityOp) {
+      return this;
+    }
+    if (next instanceof ChainOp) {
+      PointOp result = this;
+      for (PointOp op : ((ChainOp) next).ops()) {
+        result = result.then(op);
+      }
+      return result;
+    }
+    PointOp fused = fuse(next);
+    return fused != null ? fused : new ChainOp(this, next);
+  }
+
+  /**
+   * Return whether a pixel with equal channels is always mapped to a pixel with equal channels,
+   * so that the operation can write its result back into a GreyImage.
+   *
+   * @return true if grey pixels stay grey
+   */
+  public boolean mapsGreyToGrey() {
+    return producesGrey();
+  }
+
+  /**
+   * Return a single operation equivalent to this one followed by next, or null if there is none.
+   */
+  PointOp fuse(PointOp next) {
+    if (producesGrey() && next.preservesGrey()) {
+      return this;
+    }
+    return null;
+  }
+
+  /**
+   * Return whether every output pixel has equal red, green and blue channels.
+   */
+  boolean producesGrey() {
+    return false;
+  }
+
+  /**
+   * Return whether the operation leaves pixels with equal channels unchanged.
+   */
+  boolean preservesGrey() {
+    return false;
+  }
+
+  /**
+   * Return whether runs of pixels are transformed by the Vector API kernels. That needs the
+   * vector source root compiled and the JVM option --add-modules jdk.incubator.vector; without
+   * them, and with -Dimage.vector=false, the scalar loops are used. Both give identical results.
+   *
+   * @return true if the vector kernels are in use
+   */
+  public static boolean isVectorized() {
+    return PixelKernels.INSTANCE != null;
+  }
+
+  /**
+   * Return the operation that leaves every pixel unchanged.
+   *
+   * @return the identity operation
+   */
+  public static PointOp identity() {
+    return IdentityOp.INSTANCE;
+  }
+
+  /**
+   * Return the operation that adds the increment to every channel, clamped to 0-255.
+   *
+   * @param increment the amount to add, may be negative
+   * @return the brighten operation
+   */
+  public static PointOp brighten(int increment) {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = (int) Math.min(255, Math.max(0, (long) v + increment));
+    }
+    return lut(table);
+  }
+
+  /**
+   * Return the operation that maps every channel through the same lookup table.
+   *
+   * @param table 256 output values between 0 and 255, indexed by input value
+   * @return the lookup table operation
+   */
+  public static PointOp lut(int[] table) {
+    return new LutOp(table, table, table);
+  }
+
+  /**
+   * Return the operation that maps each channel through its own lookup table.
+   *
+   * @param red   256 output values for the red channel
+   * @param green 256 output values for the green channel
+   * @param blue  256 output values for the blue channel
+   * @return the lookup table operation
+   */
+  public static PointOp lut(int[] red, int[] green, int[] blue) {
+    return new LutOp(red, green, blue);
+  }
+
+  /**
+   * Return the gamma correction 255 * (v / 255) ^ (1 / gamma), rounded. A gamma above one
+   * brightens the mid-tones and a gamma below one darkens them.
+   *
+   * @param gamma the positive gamma
+   * @return the gamma operation
+   */
+  public static PointOp gamma(double gamma) {
+    return levels(0, 255, gamma);
+  }
+
+  /**
+   * Return the levels adjustment that maps black and below to 0, white and above to 255, and
+   * the values in between through the gamma curve.
+   *
+   * @param black the input value mapped to 0
+   * @param white the input value mapped to 255, greater than black
+   * @param gamma the positive gamma applied between the two
+   * @return the levels operation
+   */
+  public static PointOp levels(int black, int white, double gamma) {
+    if (black < 0 || white > 255 || black >= white) {
+      throw new IllegalArgumentException("Levels need 0 <= black < white <= 255");
+    }
+    if (!(gamma > 0) || Double.isInfinite(gamma)) {
+      throw new IllegalArgumentException("Gamma must be positive");
+    }
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      double t = Math.min(1, Math.max(0, (v - black) / (double) (white - black)));
+      table[v] = (int) Math.round(255 * Math.pow(t, 1 / gamma));
+    }
+    return lut(table);
+  }
+
+  /**
+   * Return the tone curve through the given control points, interpolated linearly between them
+   * and held flat before the first and after the last.
+   *
+   * @param points pairs {input, output} with strictly increasing inputs, all between 0 and 255
+   * @return the curves operation
+   */
+  public static PointOp curves(int[][] points) {
+    if (points == null || points.length == 0) {
+      throw new IllegalArgumentException("Curves need at least one point");
+    }
+    for (int i = 0; i < points.length; i++) {
+      if (points[i].length != 2 || points[i][0] < 0 || points[i][0] > 255
+          || points[i][1] < 0 || points[i][1] > 255) {
+        throw new IllegalArgumentException("Curve points must be pairs of values 0-255");
+      }
+      if (i > 0 && points[i][0] <= points[i - 1][0]) {
+        throw new IllegalArgumentException("Curve point inputs must be increasing");
+      }
+    }
+    int[] table = new int[256];
+    int next = 0;
+    for (int v = 0; v < 256; v++) {
+      while (next < points.length && points[next][0] < v) {
+        next++;
+      }
+      if (next == 0) {
+        table[v] = points[0][1];
+      } else if (next == points.length) {
+        table[v] = points[points.length - 1][1];
+      } else {
+        int[] a = points[next - 1];
+        int[] b = points[next];
+        table[v] = (int) Math.round(a[1] + (b[1] - a[1]) * (v - a[0]) / (double) (b[0] - a[0]));
+      }
+    }
+    return lut(table);
+  }
+
+  /**
+   * Return the operation that replaces every channel value v by 255 - v.
+   *
+   * @return the invert operation
+   */
+  public static PointOp invert() {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = 255 - v;
+    }
+    return lut(table);
+  }
+
+  /**
+   * Return the operation that sets every channel to 255 if it is at least the level and to 0
+   * otherwise.
+   *
+   * @param level the smallest value mapped to 255
+   * @return the threshold operation
+   */
+  public static PointOp threshold(int level) {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = v >= level ? 255 : 0;
+    }
+    return lut(table);
+  }
+
+  /**
+   * Return the sepia tone operation.
+   *
+   * @return the sepia operation
+   */
+  public static PointOp sepia() {
+    return new MatrixOp(new double[][]{
+        {0.393, 0.769, 0.189},
+        {0.349, 0.686, 0.168},
+        {0.272, 0.534, 0.131}
+    });
+  }
+
+  /**
+   * Return the greyscale conversion using the luma weights.
+   *
+   * @return the greyscale operation
+   */
+  public static PointOp greyscale() {
+    return luma();
+  }
+
+  /**
+   * Return the operation that replaces each pixel by its luma, 0.299 R + 0.587 G + 0.114 B.
+   *
+   * @return the luma operation
+   */
+  public static PointOp luma() {
+    return new MatrixOp(new double[][]{
+        {0.299, 0.587, 0.114},
+        {0.299, 0.587, 0.114},
+        {0.299, 0.587, 0.114}
+    });
+  }
+
+  /**
+   * Return the operation that replaces each pixel by its largest channel.
+   *
+   * @return the value operation
+   */
+  public static PointOp value() {
+    return new GreyOp(GreyOp.VALUE);
+  }
+
+  /**
+   * Return the operation that replaces each pixel by the average of its channels.
+   *
+   * @return the intensity operation
+   */
+  public static PointOp intensity() {
+    return new GreyOp(GreyOp.INTENSITY);
+  }
+
+  /**
+   * Return the operation that replaces each pixel by one of its channels.
+   *
+   * @param channel 0 for red, 1 for green and 2 for blue
+   * @return the channel operation
+   */
+  public static PointOp channel(int channel) {
+    if (channel < 0 || channel > 2) {
+      throw new IllegalArgumentException("Channel must be 0, 1 or 2");
+    }
+    return new GreyOp(channel);
+  }
+
+  /**
+   * Return the operation that multiplies each pixel by a 3x3 colour matrix. Each output channel
+   * is the weighted sum of the input channels, truncated and clamped to 0-255.
+   *
+   * @param matrix the matrix, one row per output channel
+   * @return the matrix operation
+   */
+  public static PointOp matrix(double[][] matrix) {
+    return new MatrixOp(matrix);
+  }
+
+  /**
+   * Compose the operations in order.
+   *
+   * @param ops the operations, applied first to last
+   * @return the composed operation
+   */
+  public static PointOp chain(PointOp... ops) {
+    PointOp result = identity();
+    for (PointOp op : ops) {
+      result = result.then(op);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,65 @@
+package model.pipeline;
+
+import model.image.Image;
+import model.image.ImageFactory;
+import model.image.ViewImage;
+
+/**
+ * A view that applies a point operation to every pixel of its source as it is read. Stacking
+ * a point operation on an unmaterialized view of this kind composes the two operations and reads
+ * the original source, so a chain of point operations is evaluated in one pass over the source
+ * with no intermediate images.
+ */
+public class PointOpView extends ViewImage {
+
+  private final PointOp op;
+
+  private PointOpView(Image source, PointOp op, ImageFactory factory) {
+    super(source, factory);
+    this.op = op;
+  }
+
+  /**
+   * Create a view of the image with the operation applied.
+   *
+   * @param source  the image to transform
+   * @param op      the operation to apply to each pixel
+   * @param factory creates the image the view is copied into when materialized
+   * @return the view
+   */
+  public static PointOpView of(Image source, PointOp op, ImageFactory factory) {
+    if (op == null) {
+      throw new IllegalArgumentException("Operation cannot be null");
+    }
+    if (source instanceof PointOpView && !((PointOpView) source).isMaterialized()) {
+      PointOpView view = (PointOpView) source;
+      return new PointOpView(view.source, view.op.then(op), factory);
+    }
+    return new PointOpView(source, op, factory);
+  }
+
+  /**
+   * Return the operation applied to the source, with any stacked operations composed into it.
+   *
+   * @return the operation
+   */
+  public PointOp getOp() {
+    return op;
+  }
+
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  @Override
+  protected void readRegion(int row, int col, int height, int width, int[] buffer, int offset) {
+    source.getRegion(row, col, height, width, buffer, offset);
+    op.apply(buffer, offset, height * width);
+  }
+}
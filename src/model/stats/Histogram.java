@@ -0,0 +1,322 @@
+package model.stats;
+
+import java.util.Arrays;
+import model.ParallelExecutor;
+import model.image.Image;
+import model.image.ImageFactory;
+import model.image.Pixels;
+import model.pipeline.PointOp;
+
+/**
+ * Counts of the 256 levels of the red, green and blue channels and of the luma of an image, with
+ * the statistics derived from them and the point operations that adjust an image by them.
+ *
+ * <p>The counts are collected in one pass over the image. Each band of rows counts into its own
+ * partial histogram, and the partial histograms are added up when the bands are done, so the
+ * bands never contend for the same counters. The derived operations are lookup tables, so
+ * correcting an image takes one more pass.
+ */
+public final class Histogram {
+
+  /**
+   * Index of the red channel.
+   */
+  public static final int RED = 0;
+
+  /**
+   * Index of the green channel.
+   */
+  public static final int GREEN = 1;
+
+  /**
+   * Index of the blue channel.
+   */
+  public static final int BLUE = 2;
+
+  /**
+   * Index of the luma, as computed by the luma-component operation.
+   */
+  public static final int LUMA = 3;
+
+  private static final PointOp LUMA_OP = PointOp.luma();
+  private static final String[] NAMES = {"red", "green", "blue", "luma"};
+
+  private final long[][] counts;
+  private final long total;
+
+  private Histogram(long[][] counts) {
+    this.counts = counts;
+    this.total = Arrays.stream(counts[RED]).sum();
+  }
+
+  /**
+   * Count the levels of an image.
+   *
+   * @param img      the image
+   * @param executor runs bands of rows in parallel
+   * @return the histogram
+   */
+  public static Histogram of(Image img, ParallelExecutor executor) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    int width = img.getWidth();
+    long[][] counts = new long[4][256];
+    executor.forEachBand(width, img.getHeight(), (startRow, endRow) -> {
+      int[] line = new int[width];
+      int[] luma = new int[width];
+      long[][] partial = new long[4][256];
+      long[] red = partial[RED];
+      long[] green = partial[GREEN];
+      long[] blue = partial[BLUE];
+      long[] grey = partial[LUMA];
+      for (int row = startRow; row < endRow; row++) {
+        img.getRow(row, line);
+        System.arraycopy(line, 0, luma, 0, width);
+        LUMA_OP.apply(luma, 0, width);
+        for (int col = 0; col < width; col++) {
+          int rgb = line[col];
+          red[Pixels.red(rgb)]++;
+          green[Pixels.green(rgb)]++;
+          blue[Pixels.blue(rgb)]++;
+          grey[luma[col] & 0xFF]++;
+        }
+      }
+      synchronized (counts) {
+        for (int c = 0; c < 4; c++) {
+          for (int level = 0; level < 256; level++) {
+            counts[c][level] += partial[c][level];
+          }
+        }
+      }
+    });
+    return new Histogram(counts);
+  }
+
+  /**
+   * Return the number of pixels counted.
+   *
+   * @return the pixel count
+   */
+  public long getTotal() {
+    return total;
+  }
+
+  /**
+   * Return how many pixels have the given level in a channel.
+   *
+   * @param channel RED, GREEN, BLUE or LUMA
+   * @param level   the level, 0-255
+   * @return the number of pixels
+   */
+  public long getCount(int channel, int level) {
+    return counts[check(channel)][level];
+  }
+
+  /**
+   * Return the lowest level that occurs in a channel, or 0 for an empty image.
+   *
+   * @param channel RED, GREEN, BLUE or LUMA
+   * @return the minimum level
+   */
+  public int getMin(int channel) {
+    long[] count = counts[check(channel)];
+    for (int level = 0; level < 256; level++) {
+      if (count[level] > 0) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Return the highest level that occurs in a channel, or 0 for an empty image.
+   *
+   * @param channel RED, GREEN, BLUE or LUMA
+   * @return the maximum level
+   */
+  public int getMax(int channel) {
+    long[] count = counts[check(channel)];
+    for (int level = 255; level >= 0; level--) {
+      if (count[level] > 0) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Return the mean level of a channel, or 0 for an empty image.
+   *
+   * @param channel RED, GREEN, BLUE or LUMA
+   * @return the mean level
+   */
+  public double getMean(int channel) {
+    long[] count = counts[check(channel)];
+    double sum = 0;
+    for (int level = 0; level < 256; level++) {
+      sum += (double) level * count[level];
+    }
+    return total == 0 ? 0 : sum / total;
+  }
+
+  /**
+   * Return the lowest level of a channel that at least the given percentage of the pixels are at
+   * or below, or 0 for an empty image. The 50th percentile is the median.
+   *
+   * @param channel RED, GREEN, BLUE or LUMA
+   * @param percent the percentage, 0-100
+   * @return the level
+   */
+  public int getPercentile(int channel, double percent) {
+    if (!(percent >= 0 && percent <= 100)) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    long[] count = counts[check(channel)];
+    double needed = Math.max(1, Math.ceil(total * percent / 100));
+    long seen = 0;
+    for (int level = 0; level < 256; level++) {
+      seen += count[level];
+      if (seen >= needed) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Return an operation that stretches each colour channel so that its given low and high
+   * percentiles become 0 and 255. Channels with a single level are left unchanged.
+   *
+   * @param clip the percentage of pixels allowed to clip at each end of each channel, 0-50
+   * @return the lookup table operation
+   */
+  public PointOp autoLevels(double clip) {
+    if (!(clip >= 0 && clip <= 50)) {
+      throw new IllegalArgumentException("Clip percentage must be between 0 and 50");
+    }
+    int[][] tables = new int[3][256];
+    for (int c = RED; c <= BLUE; c++) {
+      int black = getPercentile(c, clip);
+      int white = getPercentile(c, 100 - clip);
+      for (int v = 0; v < 256; v++) {
+        tables[c][v] = white <= black ? v : (int) Math.round(
+            255 * Math.min(1, Math.max(0, (v - black) / (double) (white - black))));
+      }
+    }
+    return PointOp.lut(tables[RED], tables[GREEN], tables[BLUE]);
+  }
+
+  /**
+   * Return an operation that equalizes each colour channel, mapping every level to its share of
+   * the cumulative count so the levels of the result are spread evenly over 0-255.
+   *
+   * @return the lookup table operation
+   */
+  public PointOp equalize() {
+    int[][] tables = new int[3][256];
+    for (int c = RED; c <= BLUE; c++) {
+      long[] count = counts[c];
+      long first = count[getMin(c)];
+      long seen = 0;
+      for (int v = 0; v < 256; v++) {
+        seen += count[v];
+        tables[c][v] = total == first ? v
+            : (int) Math.round(255.0 * Math.max(0, seen - first) / (total - first));
+      }
+    }
+    return PointOp.lut(tables[RED], tables[GREEN], tables[BLUE]);
+  }
+
+  /**
+   * Return an operation that balances the colour of the image by scaling each channel so that
+   * its mean becomes the mean of all three channels, which turns an overall cast to grey.
+   *
+   * @return the lookup table operation
+   */
+  public PointOp colorCorrect() {
+    double grey = (getMean(RED) + getMean(GREEN) + getMean(BLUE)) / 3;
+    int[][] tables = new int[3][256];
+    for (int c = RED; c <= BLUE; c++) {
+      double mean = getMean(c);
+      for (int v = 0; v < 256; v++) {
+        tables[c][v] = mean == 0 ? v : (int) Math.min(255, Math.round(v * grey / mean));
+      }
+    }
+    return PointOp.lut(tables[RED], tables[GREEN], tables[BLUE]);
+  }
+
+  /**
+   * Draw the histogram as a 256 by 256 line graph on white, with one column per level and the
+   * red, green, blue and luma counts in their own colours, scaled to the largest count.
+   *
+   * @param factory creates the image
+   * @return the graph
+   */
+  public Image toImage(ImageFactory factory) {
+    int size = 256;
+    int[] colours = {0xFF0000, 0x00FF00, 0x0000FF, 0x000000};
+    long peak = 1;
+    for (long[] count : counts) {
+      for (long value : count) {
+        peak = Math.max(peak, value);
+      }
+    }
+    int[] pixels = new int[size * size];
+    Arrays.fill(pixels, 0xFFFFFF);
+    for (int c = 0; c < 4; c++) {
+      int previous = -1;
+      for (int level = 0; level < size; level++) {
+        int y = size - 1 - (int) (counts[c][level] * (size - 1) / peak);
+        int from = previous < 0 ? y : Math.min(previous, y);
+        int to = previous < 0 ? y : Math.max(previous, y);
+        for (int row = from; row <= to; row++) {
+          pixels[row * size + level] = colours[c];
+        }
+        previous = y;
+      }
+    }
+    Image image = factory.create(size, size);
+    image.setRegion(0, 0, size, size, pixels, 0);
+    return image;
+  }
+
+  /**
+   * Write the counts as CSV, with a header line and one line per level.
+   *
+   * @return the CSV text
+   */
+  public String toCsv() {
+    StringBuilder csv = new StringBuilder("level," + String.join(",", NAMES) + "\n");
+    for (int level = 0; level < 256; level++) {
+      csv.append(level);
+      for (long[] count : counts) {
+        csv.append(',').append(count[level]);
+      }
+      csv.append('\n');
+    }
+    return csv.toString();
+  }
+
+  /**
+   * Summarize the minimum, maximum, mean and median of each channel, one channel per line.
+   *
+   * @return the summary
+   */
+  @Override
+  public String toString() {
+    StringBuilder summary = new StringBuilder();
+    for (int c = 0; c < 4; c++) {
+      summary.append(String.format("%-5s min %3d max %3d mean %7.3f median %3d%n", NAMES[c],
+          getMin(c), getMax(c), getMean(c), getPercentile(c, 50)));
+    }
+    return summary.toString();
+  }
+
+  private static int check(int channel) {
+    if (channel < RED || channel > LUMA) {
+      throw new IllegalArgumentException("Channel must be RED, GREEN, BLUE or LUMA");
+    }
+    return channel;
+  }
+}
@@ -0,0 +1,126 @@
+package model.stream;
+
+import model.ParallelExecutor;
+import model.filter.Convolver;
+import model.image.PackedImage;
+
+/**
+ * A stage of a streaming pipeline that convolves the rows passing through it. Rows are gathered
+ * into bands, and each band is convolved together with the halo rows its kernel reaches above
+ * and below. The halo rows at the bottom of one band are the top of the next, so they are
+ * carried over instead of read again, and rows outside the image repeat its first or last row,
+ * exactly as when the whole image is convolved. Only one band and its halo are held at a time.
+ */
+public final class ConvolutionStage implements RowSource {
+
+  /**
+   * Default number of rows convolved at once.
+   */
+  public static final int DEFAULT_BAND_ROWS = 64;
+
+  private final RowSource source;
+  private final Convolver convolver;
+  private final ParallelExecutor executor;
+  private final int radius;
+  private final int bandRows;
+  private final int[] line;
+
+  private PackedImage window;
+  private PackedImage result;
+  private int sourceRows;
+  private int bandStart;
+  private int bandHeight;
+  private int next;
+
+  /**
+   * Construct the stage with the default band height.
+   *
+   * @param source    the rows to convolve
+   * @param convolver the convolution
+   * @param executor  runs the blocks of each band in parallel
+   */
+  public ConvolutionStage(RowSource source, Convolver convolver, ParallelExecutor executor) {
+    this(source, convolver, executor, DEFAULT_BAND_ROWS);
+  }
+
+  /**
+   * Construct the stage.
+   *
+   * @param source    the rows to convolve
+   * @param convolver the convolution
+   * @param executor  runs the blocks of each band in parallel
+   * @param bandRows  number of rows convolved at once
+   */
+  public ConvolutionStage(RowSource source, Convolver convolver, ParallelExecutor executor,
+      int bandRows) {
+    if (source == null || convolver == null || executor == null) {
+      throw new IllegalArgumentException("Source, convolver and executor cannot be null");
+    }
+    if (bandRows < 1) {
+      throw new IllegalArgumentException("Band rows must be positive");
+    }
+    this.source = source;
+    this.convolver = convolver;
+    this.executor = executor;
+    this.radius = convolver.getKernel().getHeight() / 2;
+    this.bandRows = bandRows;
+    this.line = new int[source.getWidth()];
+  }
+
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  @Override
+  public void readRow(int[] row) {
+    if (next >= getHeight()) {
+      throw new IllegalStateException("Every row has been read");
+    }
+    if (next == bandStart + bandHeight) {
+      convolveBand();
+    }
+    result.getRow(radius + next - bandStart, row);
+    next++;
+  }
+
+  /**
+   * Fill the window with the rows from radius above the next band to radius below it, and
+   * convolve it.
+   */
+  private void convolveBand() {
+    int previousHeight = bandHeight;
+    bandStart = next;
+    bandHeight = Math.min(bandRows, getHeight() - bandStart);
+    int rows = bandHeight + 2 * radius;
+    PackedImage previous = window;
+    if (window == null || window.getHeight() != rows) {
+      window = new PackedImage(getWidth(), rows);
+      result = new PackedImage(getWidth(), rows);
+    }
+    int carried = 0;
+    if (previous != null) {
+      // The last 2 * radius rows of the previous window start this one.
+      int[] carry = new int[getWidth()];
+      for (; carried < 2 * radius; carried++) {
+        previous.getRow(previousHeight + carried, carry);
+        window.setRow(carried, carry);
+      }
+    }
+    for (int i = carried; i < rows; i++) {
+      int row = Math.min(Math.max(bandStart - radius + i, 0), getHeight() - 1);
+      // Rows are read in order, so line still holds the row when the window repeats an edge.
+      while (sourceRows <= row) {
+        source.readRow(line);
+        sourceRows++;
+      }
+      window.setRow(i, line);
+    }
+    convolver.convolve(window, result, executor);
+  }
+}
@@ -0,0 +1,42 @@
+package model.stream;
+
+import model.pipeline.PointOp;
+
+/**
+ * A stage of a streaming pipeline that applies a point operation to each row as it passes.
+ */
+public final class PointStage implements RowSource {
+
+  private final RowSource source;
+  private final PointOp op;
+
+  /**
+   * Construct the stage.
+   *
+   * @param source the rows to transform
+   * @param op     the operation
+   */
+  public PointStage(RowSource source, PointOp op) {
+    if (source == null || op == null) {
+      throw new IllegalArgumentException("Source and operation cannot be null");
+    }
+    this.source = source;
+    this.op = op;
+  }
+
+  @Override
+  public int getWidth() {
+    return source.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return source.getHeight();
+  }
+
+  @Override
+  public void readRow(int[] row) {
+    source.readRow(row);
+    op.apply(row, 0, getWidth());
+  }
+}
@@ -0,0 +1,66 @@
+package model.stream;
+
+import model.image.Image;
+
+/**
+ * A stream of the rows of an image, read once each from top to bottom. Decoders and the stages
+ * of a streaming pipeline produce rows this way, so a chain from a file through operations to
+ * another file holds only a few rows at a time, whatever the size of the image.
+ */
+public interface RowSource {
+
+  /**
+   * Return the width of the image.
+   *
+   * @return the number of pixels in a row
+   */
+  int getWidth();
+
+  /**
+   * Return the height of the image.
+   *
+   * @return the number of rows
+   */
+  int getHeight();
+
+  /**
+   * Read the next row as packed 0xRRGGBB values.
+   *
+   * @param row the buffer of at least getWidth() values that receives the row
+   * @throws IllegalStateException if every row has been read
+   */
+  void readRow(int[] row);
+
+  /**
+   * Return a stream of the rows of an image.
+   *
+   * @param img the image
+   * @return the stream
+   */
+  static RowSource of(Image img) {
+    if (img == null) {
+      throw new IllegalArgumentException("Image cannot be null");
+    }
+    return new RowSource() {
+      private int next;
+
+      @Override
+      public int getWidth() {
+        return img.getWidth();
+      }
+
+      @Override
+      public int getHeight() {
+        return img.getHeight();
+      }
+
+      @Override
+      public void readRow(int[] row) {
+        if (next >= img.getHeight()) {
+          throw new IllegalStateException("Every row has been read");
+        }
+        img.getRow(next++, row);
+      }
+    };
+  }
+}
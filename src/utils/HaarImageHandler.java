@@ -0,0 +1,315 @@
+package utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import model.ParallelExecutor;
+import model.image.HaarCompressedImage;
+import model.image.Image;
+import model.image.ImageFactory;
+import model.image.PackedImage;
+
+/**
+ * HaarImageHandler reads and writes .haar files, which hold the Haar wavelet coefficients of an
+ * image and keep only those that are not zero. Saving the result of compress stores the
+ * coefficients compress kept; any other image is stored losslessly with the integer S transform.
+ * Loading returns a HaarCompressedImage, which is only decoded when its pixels are first read.
+ *
+ * <p>The file is big-endian. It starts with the bytes "HAAR", a version byte, a mode byte that is
+ * 0 for the coefficients of the integer S transform and 1 for those of the orthonormal transform
+ * in multiples of a quantum, the width, height, padded width and padded height as ints, the number
+ * of channels as a byte and, in mode 1, the quantum as a double. Each channel follows as an int
+ * count of its non-zero coefficients and a layout byte. In the bitmap layout, every group of 64
+ * coefficients is a long bitmap of those that are not zero followed by their values; in the run
+ * layout, every non-zero coefficient is the number of zeros before it followed by its value. Each
+ * channel uses whichever layout is smaller, bitmaps where coefficients are dense and runs where
+ * they are sparse. Counts of zeros are unsigned varints and values are zigzag varints, seven bits
+ * to a byte, so the small coefficients that make up most of an image take a byte each. Both
+ * directions go through a FileChannel with one small buffer.
+ */
+public class HaarImageHandler implements ImageHandler {
+
+  private static final byte[] MAGIC = {'H', 'A', 'A', 'R'};
+  private static final byte VERSION = 2;
+  private static final byte INTEGER = 0;
+  private static final byte ORTHONORMAL = 1;
+  private static final byte BITMAP = 0;
+  private static final byte RUNS = 1;
+  private static final int CHANNELS = 3;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_VARINT_BYTES = 5;
+
+  private final ParallelExecutor executor;
+
+  /**
+   * Construct a handler whose transforms run on the common ForkJoinPool.
+   */
+  public HaarImageHandler() {
+    this(new ParallelExecutor());
+  }
+
+  /**
+   * Construct a handler whose transforms run on the given executor.
+   *
+   * @param executor runs the transforms and is given to the images loaded
+   */
+  public HaarImageHandler(ParallelExecutor executor) {
+    if (executor == null) {
+      throw new IllegalArgumentException("Executor cannot be null");
+    }
+    this.executor = executor;
+  }
+
+  @Override
+  public Image loadImage(String filePath, ImageFactory factory) {
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.flip();
+      need(channel, buffer, MAGIC.length + 2 + 4 * Integer.BYTES + 1);
+      for (byte b : MAGIC) {
+        if (buffer.get() != b) {
+          throw new IOException("Not a .haar file");
+        }
+      }
+      byte version = buffer.get();
+      byte mode = buffer.get();
+      if (version != VERSION || (mode != INTEGER && mode != ORTHONORMAL)) {
+        throw new IOException("Unsupported .haar version " + version + " mode " + mode);
+      }
+      int width = buffer.getInt();
+      int height = buffer.getInt();
+      int paddedWidth = buffer.getInt();
+      int paddedHeight = buffer.getInt();
+      int channels = buffer.get();
+      if (width < 1 || height < 1) {
+        throw new IOException("Invalid .haar dimensions " + width + "x" + height);
+      }
+      HaarTransform haar = new HaarTransform(width, height);
+      if (paddedWidth != haar.getPaddedWidth() || paddedHeight != haar.getPaddedHeight()
+          || channels != CHANNELS) {
+        throw new IOException("Invalid .haar padding or channel count");
+      }
+      double quantum = 1;
+      if (mode == ORTHONORMAL) {
+        need(channel, buffer, Double.BYTES);
+        quantum = buffer.getDouble();
+      }
+      int length = haar.getLength();
+      long[][] bits = new long[CHANNELS][(length + 63) >>> 6];
+      short[][] samples = new short[CHANNELS][];
+      int[][] quanta = new int[CHANNELS][];
+      for (int c = 0; c < CHANNELS; c++) {
+        need(channel, buffer, Integer.BYTES + 1);
+        int count = buffer.getInt();
+        byte layout = buffer.get();
+        if (count < 0 || count > length || (layout != BITMAP && layout != RUNS)) {
+          throw new IOException("Invalid .haar channel with " + count + " coefficients");
+        }
+        int[] values = new int[count];
+        if (layout == BITMAP) {
+          readBitmaps(channel, buffer, bits[c], values);
+        } else {
+          readRuns(channel, buffer, length, bits[c], values);
+        }
+        if (mode == INTEGER) {
+          samples[c] = new short[count];
+          for (int i = 0; i < count; i++) {
+            if (values[i] != (short) values[i]) {
+              throw new IOException("Invalid .haar coefficient " + values[i]);
+            }
+            samples[c][i] = (short) values[i];
+          }
+        } else {
+          quanta[c] = values;
+        }
+      }
+      return mode == INTEGER
+          ? new HaarCompressedImage(width, height, bits, samples, factory, executor)
+          : new HaarCompressedImage(width, height, quantum, bits, quanta, factory, executor);
+    } catch (IOException | IllegalArgumentException e) {
+      System.out.println("Error loading image: " + e.getMessage());
+      return null;
+    }
+  }
+
+  @Override
+  public void saveImage(String filePath, Image img) {
+    HaarCompressedImage coefficients = img instanceof HaarCompressedImage
+        && ((HaarCompressedImage) img).hasCoefficients() ? (HaarCompressedImage) img
+        : HaarCompressedImage.of(img, PackedImage::new, executor);
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      HaarTransform haar = new HaarTransform(img.getWidth(), img.getHeight());
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.put(MAGIC).put(VERSION).put(coefficients.isLossless() ? INTEGER : ORTHONORMAL)
+          .putInt(img.getWidth()).putInt(img.getHeight())
+          .putInt(haar.getPaddedWidth()).putInt(haar.getPaddedHeight()).put((byte) CHANNELS);
+      if (!coefficients.isLossless()) {
+        buffer.putDouble(coefficients.getQuantum());
+      }
+      for (int c = 0; c < CHANNELS; c++) {
+        long[] bits = coefficients.getBits(c);
+        boolean runs = runBytes(bits) < (long) bits.length * Long.BYTES;
+        ensure(channel, buffer, Integer.BYTES + 1);
+        buffer.putInt(coefficients.getCount(c)).put(runs ? RUNS : BITMAP);
+        if (runs) {
+          writeRuns(channel, buffer, coefficients, c);
+        } else {
+          writeBitmaps(channel, buffer, coefficients, c);
+        }
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      System.out.println("Error saving image: " + e.getMessage());
+    }
+  }
+
+  private static void readBitmaps(FileChannel channel, ByteBuffer buffer, long[] bits,
+      int[] values) throws IOException {
+    int next = 0;
+    for (int w = 0; w < bits.length; w++) {
+      need(channel, buffer, Long.BYTES);
+      long word = buffer.getLong();
+      int set = Long.bitCount(word);
+      if (set > values.length - next) {
+        throw new IOException("More .haar coefficients than counted");
+      }
+      for (int i = 0; i < set; i++) {
+        values[next++] = zigzag(readVarint(channel, buffer));
+      }
+      bits[w] = word;
+    }
+    if (next != values.length) {
+      throw new IOException("Fewer .haar coefficients than counted");
+    }
+  }
+
+  private static void readRuns(FileChannel channel, ByteBuffer buffer, int length, long[] bits,
+      int[] values) throws IOException {
+    long position = -1;
+    for (int next = 0; next < values.length; next++) {
+      position += Integer.toUnsignedLong(readVarint(channel, buffer)) + 1;
+      if (position >= length) {
+        throw new IOException("Coefficient past the end of a .haar channel");
+      }
+      bits[(int) position >>> 6] |= 1L << position;
+      values[next] = zigzag(readVarint(channel, buffer));
+    }
+  }
+
+  /**
+   * Return the bytes the counts of zeros of the run layout take.
+   */
+  private static long runBytes(long[] bits) {
+    long bytes = 0;
+    int previous = -1;
+    for (int w = 0; w < bits.length; w++) {
+      for (long word = bits[w]; word != 0; word &= word - 1) {
+        int position = w << 6 | Long.numberOfTrailingZeros(word);
+        bytes += varintBytes(position - previous - 1);
+        previous = position;
+      }
+    }
+    return bytes;
+  }
+
+  private static void writeBitmaps(FileChannel channel, ByteBuffer buffer,
+      HaarCompressedImage coefficients, int c) throws IOException {
+    long[] bits = coefficients.getBits(c);
+    int next = 0;
+    for (long word : bits) {
+      int set = Long.bitCount(word);
+      ensure(channel, buffer, Long.BYTES + set * MAX_VARINT_BYTES);
+      buffer.putLong(word);
+      for (int i = 0; i < set; i++) {
+        writeVarint(buffer, unzigzag(coefficients.getValue(c, next++)));
+      }
+    }
+  }
+
+  private static void writeRuns(FileChannel channel, ByteBuffer buffer,
+      HaarCompressedImage coefficients, int c) throws IOException {
+    long[] bits = coefficients.getBits(c);
+    int previous = -1;
+    int next = 0;
+    for (int w = 0; w < bits.length; w++) {
+      for (long word = bits[w]; word != 0; word &= word - 1) {
+        int position = w << 6 | Long.numberOfTrailingZeros(word);
+        ensure(channel, buffer, 2 * MAX_VARINT_BYTES);
+        writeVarint(buffer, position - previous - 1);
+        writeVarint(buffer, unzigzag(coefficients.getValue(c, next++)));
+        previous = position;
+      }
+    }
+  }
+
+  private static int zigzag(int encoded) {
+    return (encoded >>> 1) ^ -(encoded & 1);
+  }
+
+  private static int unzigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int varintBytes(int value) {
+    return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+  }
+
+  private static void writeVarint(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) (value & 0x7F | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static int readVarint(FileChannel channel, ByteBuffer buffer) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+      need(channel, buffer, 1);
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid varint in .haar file");
+  }
+
+  /**
+   * Write out the buffer if it has less than the given number of bytes left.
+   */
+  private static void ensure(FileChannel channel, ByteBuffer buffer, int bytes)
+      throws IOException {
+    if (buffer.remaining() < bytes) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Read from the channel until the buffer holds at least the given number of bytes.
+   */
+  private static void need(FileChannel channel, ByteBuffer buffer, int bytes)
+      throws IOException {
+    if (buffer.remaining() >= bytes) {
+      return;
+    }
+    buffer.compact();
+    while (buffer.position() < bytes) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Truncated .haar file");
+      }
+    }
+    buffer.flip();
+  }
+}
@@ -1,83 +1,550 @@
 package utils;
 
 import java.util.Arrays;
+import model.ParallelExecutor;
 
+/**
+ * Two-dimensional Haar wavelet transform of one channel of an image, held as a flat row-major
+ * array of doubles. The image is padded to a width and a height that are powers of two by
+ * repeating its last column and row, every row is transformed down to a single average, and then
+ * every column is. The transform is orthonormal, so the inverse restores the padded channel up to
+ * rounding and small coefficients carry little of the image.
+ *
+ * <p>A transform is sized for one image and keeps its own scratch space, so transforming any
+ * number of channels of that size one at a time allocates nothing; those methods are not safe to
+ * call from several threads at once. The methods that take an executor transform several
+ * channels together in parallel bands of rows and of column blocks. Each block of columns is
+ * copied into a transposed tile, transformed there and copied back, so the column pass reads
+ * memory with unit stride as the row pass does. Both give the same result to the last bit.
+ *
+ * <p>For lossless use the transform also has an integer mode on channels of shorts, the S
+ * transform built by lifting: each pair a, b becomes the difference d = a - b and the floored
+ * average s = b + (d >> 1), which b = s - (d >> 1), a = d + b undoes exactly. Averages stay in
+ * the range of the samples and differences within twice it, so channels of 0-255 samples keep
+ * every coefficient within -510 to 510 and take a quarter of the memory of doubles.
+ *
+ * <p>The coefficients hold the image at every scale that halves it. After levels halvings of each
+ * dimension, the block of padded width / 2^levels by padded height / 2^levels coefficients at the
+ * top left is itself the transform of the image shrunk by averaging blocks of 2^levels pixels, so
+ * inverting that block alone with the transform returned by coarse decodes a smaller image. In
+ * the orthonormal mode the coefficients of the block are those of the shrunk image times the
+ * square root of the ratio of the lengths. In the integer mode the block of the left columns at
+ * full height is the transform of the image whose rows alone are shrunk to floored averages.
+ */
 public class HaarTransform {
 
-  public static double[] haarWaveletTransform(double[] sequence) {
-    int reqlen = sequence.length;
-    double[] net_res = Arrays.copyOf(sequence, reqlen);
+  private static final double SCALE = 1 / Math.sqrt(2);
 
-    while (reqlen > 1) {
-      double[] avgDiff = new double[reqlen];
-      for (int i = 0; i < reqlen; i += 2) {
-        avgDiff[i / 2] = (net_res[i] + net_res[i + 1]) / Math.sqrt(2);
-        avgDiff[reqlen / 2 + i / 2] = (net_res[i] - net_res[i + 1]) / Math.sqrt(2);
+  // Columns copied into a tile at a time; 16 doubles of a row are two cache lines.
+  private static final int BLOCK = 16;
+
+  private final int width;
+  private final int height;
+  private final int paddedWidth;
+  private final int paddedHeight;
+  private final int length;
+  private final double[] scratch;
+  private final short[] integerScratch;
+
+  /**
+   * Construct a transform for channels of an image of the given size.
+   *
+   * @param width  width of the image
+   * @param height height of the image
+   */
+  public HaarTransform(int width, int height) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Image dimensions must be positive");
+    }
+    this.width = width;
+    this.height = height;
+    this.paddedWidth = powerOfTwo(width);
+    this.paddedHeight = powerOfTwo(height);
+    this.length = Math.multiplyExact(paddedWidth, paddedHeight);
+    this.scratch = new double[Math.max(paddedWidth, paddedHeight)];
+    this.integerScratch = new short[scratch.length];
+  }
+
+  /**
+   * Return the width of the image the transform is sized for.
+   *
+   * @return the image width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Return the height of the image the transform is sized for.
+   *
+   * @return the image height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Return the width of the padded channel, the smallest power of two at least the image width.
+   *
+   * @return the padded width
+   */
+  public int getPaddedWidth() {
+    return paddedWidth;
+  }
+
+  /**
+   * Return the height of the padded channel, the smallest power of two at least the image
+   * height.
+   *
+   * @return the padded height
+   */
+  public int getPaddedHeight() {
+    return paddedHeight;
+  }
+
+  /**
+   * Return the length of the arrays the transform works on.
+   *
+   * @return the padded width times the padded height
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Return the transform of the image shrunk levels times by half, whose padded channel is the
+   * top left block of this one. A dimension that is already down to one pixel is not halved
+   * further, and partly covered blocks at the right and bottom edges count as whole pixels.
+   *
+   * @param levels the number of halvings, 0 for this size
+   * @return the transform of the smaller image
+   */
+  public HaarTransform coarse(int levels) {
+    if (levels < 0) {
+      throw new IllegalArgumentException("Levels cannot be negative");
+    }
+    int across = paddedWidth >> Math.min(levels, Integer.numberOfTrailingZeros(paddedWidth));
+    int down = paddedHeight >> Math.min(levels, Integer.numberOfTrailingZeros(paddedHeight));
+    int columnFactor = paddedWidth / across;
+    int rowFactor = paddedHeight / down;
+    return new HaarTransform((width + columnFactor - 1) / columnFactor,
+        (height + rowFactor - 1) / rowFactor);
+  }
+
+  /**
+   * Fill the padding of a channel whose image pixels are already in place, at row * padded width
+   * + column, by repeating the last column of each row and then the last row.
+   *
+   * @param data the channel, of getLength() values
+   */
+  public void pad(double[] data) {
+    for (int row = 0; row < height; row++) {
+      int start = row * paddedWidth;
+      Arrays.fill(data, start + width, start + paddedWidth, data[start + width - 1]);
+    }
+    int last = (height - 1) * paddedWidth;
+    for (int row = height; row < paddedHeight; row++) {
+      System.arraycopy(data, last, data, row * paddedWidth, paddedWidth);
+    }
+  }
+
+  /**
+   * Same as pad, for a channel of integer samples.
+   *
+   * @param data the channel, of getLength() values
+   */
+  public void pad(short[] data) {
+    for (int row = 0; row < height; row++) {
+      int start = row * paddedWidth;
+      Arrays.fill(data, start + width, start + paddedWidth, data[start + width - 1]);
+    }
+    int last = (height - 1) * paddedWidth;
+    for (int row = height; row < paddedHeight; row++) {
+      System.arraycopy(data, last, data, row * paddedWidth, paddedWidth);
+    }
+  }
+
+  /**
+   * Transform a padded channel in place.
+   *
+   * @param data the channel, of getLength() values
+   */
+  public void forward(double[] data) {
+    checkLength(data);
+    for (int row = 0; row < paddedHeight; row++) {
+      forward(data, row * paddedWidth, 1, paddedWidth, scratch);
+    }
+    for (int col = 0; col < paddedWidth; col++) {
+      forward(data, col, paddedWidth, paddedHeight, scratch);
+    }
+  }
+
+  /**
+   * Transform padded channels in place, in parallel.
+   *
+   * @param channels the channels, each of getLength() values
+   * @param executor runs bands of rows and column blocks in parallel
+   */
+  public void forward(double[][] channels, ParallelExecutor executor) {
+    rows(channels, executor, true);
+    columns(channels, executor, true, 0);
+  }
+
+  /**
+   * Undo forward in place.
+   *
+   * @param data the transformed channel, of getLength() values
+   */
+  public void inverse(double[] data) {
+    checkLength(data);
+    for (int col = 0; col < paddedWidth; col++) {
+      inverse(data, col, paddedWidth, paddedHeight, scratch);
+    }
+    for (int row = 0; row < paddedHeight; row++) {
+      inverse(data, row * paddedWidth, 1, paddedWidth, scratch);
+    }
+  }
+
+  /**
+   * Undo forward in place, in parallel.
+   *
+   * @param channels the transformed channels, each of getLength() values
+   * @param executor runs bands of rows and column blocks in parallel
+   */
+  public void inverse(double[][] channels, ParallelExecutor executor) {
+    inverse(channels, 0, executor);
+  }
+
+  /**
+   * Undo forward in place, in parallel, after dropping every coefficient whose magnitude is
+   * below the cutoff. Coefficients are dropped as the column pass reads them, which costs no
+   * extra pass over the channels.
+   *
+   * @param channels the transformed channels, each of getLength() values
+   * @param cutoff   the smallest magnitude kept, for example from cutoff
+   * @param executor runs bands of rows and column blocks in parallel
+   */
+  public void inverse(double[][] channels, double cutoff, ParallelExecutor executor) {
+    columns(channels, executor, false, cutoff);
+    rows(channels, executor, false);
+  }
+
+  /**
+   * Return the magnitude below which the given percentage of the coefficients of all the
+   * channels together fall, or infinity to drop every coefficient. The magnitude is selected in
+   * linear time without sorting: the bits of a non-negative double order it like an unsigned
+   * integer, so four passes over the channels each count the next 16 bits of the coefficients
+   * that match the bits chosen so far and choose the bucket that holds the wanted rank. The
+   * passes count bands of rows in parallel.
+   *
+   * @param channels the transformed channels, each of getLength() values
+   * @param percent  the percentage of coefficients to drop, 0-100
+   * @param executor counts bands of rows in parallel
+   * @return the smallest magnitude kept
+   */
+  public double cutoff(double[][] channels, double percent, ParallelExecutor executor) {
+    if (!(percent >= 0 && percent <= 100)) {
+      throw new IllegalArgumentException("Compression percentage must be between 0 and 100");
+    }
+    for (double[] data : channels) {
+      checkLength(data);
+    }
+    long total = (long) channels.length * length;
+    long rank = (long) (total * percent / 100);
+    if (rank >= total) {
+      return Double.POSITIVE_INFINITY;
+    }
+    long prefix = 0;
+    for (int shift = 48; shift >= 0; shift -= 16) {
+      long mask = shift == 48 ? 0 : -1L << (shift + 16);
+      long chosen = prefix;
+      int digit = shift;
+      long[] counts = new long[1 << 16];
+      executor.forEachBand(paddedWidth, channels.length * paddedHeight, (startRow, endRow) -> {
+        int[] local = new int[1 << 16];
+        for (int row = startRow; row < endRow; row++) {
+          double[] data = channels[row / paddedHeight];
+          int start = row % paddedHeight * paddedWidth;
+          for (int i = start; i < start + paddedWidth; i++) {
+            long bits = Double.doubleToRawLongBits(Math.abs(data[i]));
+            if ((bits & mask) == chosen) {
+              local[(int) (bits >>> digit) & 0xFFFF]++;
+            }
+          }
+        }
+        synchronized (counts) {
+          for (int bucket = 0; bucket < local.length; bucket++) {
+            counts[bucket] += local[bucket];
+          }
+        }
+      });
+      int bucket = 0;
+      while (rank >= counts[bucket]) {
+        rank -= counts[bucket++];
       }
-      System.arraycopy(avgDiff, 0, net_res, 0, reqlen);
-      reqlen /= 2;
+      prefix |= (long) bucket << shift;
     }
-    return net_res;
+    return Double.longBitsToDouble(prefix);
   }
 
-  public static double[] invHaarWaveTransf(double[] transformedSequence) {
-    int length = transformedSequence.length;
-    double[] result = Arrays.copyOf(transformedSequence, length);
-    int m = 2;
+  /**
+   * Transform a padded channel of integer samples in place with the S transform.
+   *
+   * @param data the channel, of getLength() samples from 0 to 255
+   */
+  public void forward(short[] data) {
+    checkLength(data);
+    for (int row = 0; row < paddedHeight; row++) {
+      forward(data, row * paddedWidth, 1, paddedWidth, integerScratch);
+    }
+    for (int col = 0; col < paddedWidth; col++) {
+      forward(data, col, paddedWidth, paddedHeight, integerScratch);
+    }
+  }
 
-    while (m <= length) {
-      double[] originalSeq = new double[m];
-      for (int i = 0; i < m / 2; i++) {
-        double avg = result[i];
-        double diff = result[m / 2 + i];
-        originalSeq[2 * i] = (avg + diff) / Math.sqrt(2);
-        originalSeq[2 * i + 1] = (avg - diff) / Math.sqrt(2);
+  /**
+   * Undo the S transform in place, restoring the channel exactly.
+   *
+   * @param data the transformed channel, of getLength() values
+   */
+  public void inverse(short[] data) {
+    checkLength(data);
+    for (int col = 0; col < paddedWidth; col++) {
+      inverse(data, col, paddedWidth, paddedHeight, integerScratch);
+    }
+    for (int row = 0; row < paddedHeight; row++) {
+      inverse(data, row * paddedWidth, 1, paddedWidth, integerScratch);
+    }
+  }
+
+  /**
+   * Transform padded channels of integer samples in place with the S transform, in parallel.
+   *
+   * @param channels the channels, each of getLength() samples from 0 to 255
+   * @param executor runs bands of rows and column blocks in parallel
+   */
+  public void forward(short[][] channels, ParallelExecutor executor) {
+    rows(channels, executor, true);
+    columns(channels, executor, true);
+  }
+
+  /**
+   * Undo the S transform in place, in parallel.
+   *
+   * @param channels the transformed channels, each of getLength() values
+   * @param executor runs bands of rows and column blocks in parallel
+   */
+  public void inverse(short[][] channels, ParallelExecutor executor) {
+    columns(channels, executor, false);
+    rows(channels, executor, false);
+  }
+
+  /**
+   * Transform every row of every channel, numbering the rows of all channels one after another
+   * so the bands can span channels.
+   */
+  private void rows(double[][] channels, ParallelExecutor executor, boolean forward) {
+    for (double[] data : channels) {
+      checkLength(data);
+    }
+    executor.forEachBand(paddedWidth, channels.length * paddedHeight, (startRow, endRow) -> {
+      double[] line = new double[paddedWidth];
+      for (int row = startRow; row < endRow; row++) {
+        double[] data = channels[row / paddedHeight];
+        int offset = row % paddedHeight * paddedWidth;
+        if (forward) {
+          forward(data, offset, 1, paddedWidth, line);
+        } else {
+          inverse(data, offset, 1, paddedWidth, line);
+        }
       }
-      System.arraycopy(originalSeq, 0, result, 0, m);
-      m *= 2;
+    });
+  }
+
+  /**
+   * Transform every column of every channel, a block of columns at a time: the block is copied
+   * into a tile with one column per row, dropping coefficients below the cutoff, the rows of the
+   * tile are transformed and the tile is copied back.
+   */
+  private void columns(double[][] channels, ParallelExecutor executor, boolean forward,
+      double cutoff) {
+    for (double[] data : channels) {
+      checkLength(data);
     }
-    return result;
+    int blocks = (paddedWidth + BLOCK - 1) / BLOCK;
+    executor.forEachBand(BLOCK * paddedHeight, channels.length * blocks, (start, end) -> {
+      double[] tile = new double[BLOCK * paddedHeight];
+      double[] line = new double[paddedHeight];
+      for (int block = start; block < end; block++) {
+        double[] data = channels[block / blocks];
+        int col = block % blocks * BLOCK;
+        int cols = Math.min(BLOCK, paddedWidth - col);
+        for (int row = 0; row < paddedHeight; row++) {
+          int index = row * paddedWidth + col;
+          for (int k = 0; k < cols; k++) {
+            double value = data[index + k];
+            tile[k * paddedHeight + row] = Math.abs(value) < cutoff ? 0 : value;
+          }
+        }
+        for (int k = 0; k < cols; k++) {
+          if (forward) {
+            forward(tile, k * paddedHeight, 1, paddedHeight, line);
+          } else {
+            inverse(tile, k * paddedHeight, 1, paddedHeight, line);
+          }
+        }
+        for (int row = 0; row < paddedHeight; row++) {
+          int index = row * paddedWidth + col;
+          for (int k = 0; k < cols; k++) {
+            data[index + k] = tile[k * paddedHeight + row];
+          }
+        }
+      }
+    });
   }
 
-  public static double[][] haarWaveTransf2D(double[][] res_matrix) {
-    int size = res_matrix.length;
+  private void rows(short[][] channels, ParallelExecutor executor, boolean forward) {
+    for (short[] data : channels) {
+      checkLength(data);
+    }
+    executor.forEachBand(paddedWidth, channels.length * paddedHeight, (startRow, endRow) -> {
+      short[] line = new short[paddedWidth];
+      for (int row = startRow; row < endRow; row++) {
+        short[] data = channels[row / paddedHeight];
+        int offset = row % paddedHeight * paddedWidth;
+        if (forward) {
+          forward(data, offset, 1, paddedWidth, line);
+        } else {
+          inverse(data, offset, 1, paddedWidth, line);
+        }
+      }
+    });
+  }
 
-    for (int i = 0; i < size; i++) {
-      res_matrix[i] = haarWaveletTransform(res_matrix[i]);
+  private void columns(short[][] channels, ParallelExecutor executor, boolean forward) {
+    for (short[] data : channels) {
+      checkLength(data);
     }
+    int blocks = (paddedWidth + BLOCK - 1) / BLOCK;
+    executor.forEachBand(BLOCK * paddedHeight, channels.length * blocks, (start, end) -> {
+      short[] tile = new short[BLOCK * paddedHeight];
+      short[] line = new short[paddedHeight];
+      for (int block = start; block < end; block++) {
+        short[] data = channels[block / blocks];
+        int col = block % blocks * BLOCK;
+        int cols = Math.min(BLOCK, paddedWidth - col);
+        for (int row = 0; row < paddedHeight; row++) {
+          int index = row * paddedWidth + col;
+          for (int k = 0; k < cols; k++) {
+            tile[k * paddedHeight + row] = data[index + k];
+          }
+        }
+        for (int k = 0; k < cols; k++) {
+          if (forward) {
+            forward(tile, k * paddedHeight, 1, paddedHeight, line);
+          } else {
+            inverse(tile, k * paddedHeight, 1, paddedHeight, line);
+          }
+        }
+        for (int row = 0; row < paddedHeight; row++) {
+          int index = row * paddedWidth + col;
+          for (int k = 0; k < cols; k++) {
+            data[index + k] = tile[k * paddedHeight + row];
+          }
+        }
+      }
+    });
+  }
 
-    for (int j = 0; j < size; j++) {
-      double[] column = new double[size];
-      for (int i = 0; i < size; i++) {
-        column[i] = res_matrix[i][j];
+  /**
+   * Transform length values that start at offset and are stride apart. Each level replaces the
+   * first n values by n / 2 scaled sums followed by n / 2 scaled differences of neighbouring
+   * pairs, then continues on the sums.
+   */
+  private static void forward(double[] data, int offset, int stride, int length,
+      double[] scratch) {
+    for (int n = length; n > 1; n /= 2) {
+      int half = n / 2;
+      for (int i = 0; i < half; i++) {
+        double a = data[offset + 2 * i * stride];
+        double b = data[offset + (2 * i + 1) * stride];
+        scratch[i] = (a + b) * SCALE;
+        scratch[half + i] = (a - b) * SCALE;
       }
-      column = haarWaveletTransform(column);
-      for (int i = 0; i < size; i++) {
-        res_matrix[i][j] = column[i];
+      for (int i = 0; i < n; i++) {
+        data[offset + i * stride] = scratch[i];
       }
     }
+  }
 
-    return res_matrix;
+  private static void inverse(double[] data, int offset, int stride, int length,
+      double[] scratch) {
+    for (int n = 2; n <= length; n *= 2) {
+      int half = n / 2;
+      for (int i = 0; i < half; i++) {
+        double sum = data[offset + i * stride];
+        double difference = data[offset + (half + i) * stride];
+        scratch[2 * i] = (sum + difference) * SCALE;
+        scratch[2 * i + 1] = (sum - difference) * SCALE;
+      }
+      for (int i = 0; i < n; i++) {
+        data[offset + i * stride] = scratch[i];
+      }
+    }
   }
 
-  public static double[][] invHaarWaveTransf2D(double[][] res_matrix) {
-    int size = res_matrix.length;
+  /**
+   * Apply the S transform to length values that start at offset and are stride apart, with the
+   * floored averages of each level first and the differences after them, as forward does.
+   */
+  private static void forward(short[] data, int offset, int stride, int length,
+      short[] scratch) {
+    for (int n = length; n > 1; n /= 2) {
+      int half = n / 2;
+      for (int i = 0; i < half; i++) {
+        int a = data[offset + 2 * i * stride];
+        int b = data[offset + (2 * i + 1) * stride];
+        int difference = a - b;
+        scratch[i] = (short) (b + (difference >> 1));
+        scratch[half + i] = (short) difference;
+      }
+      for (int i = 0; i < n; i++) {
+        data[offset + i * stride] = scratch[i];
+      }
+    }
+  }
 
-    for (int j = 0; j < size; j++) {
-      double[] column = new double[size];
-      for (int i = 0; i < size; i++) {
-        column[i] = res_matrix[i][j];
+  private static void inverse(short[] data, int offset, int stride, int length,
+      short[] scratch) {
+    for (int n = 2; n <= length; n *= 2) {
+      int half = n / 2;
+      for (int i = 0; i < half; i++) {
+        int average = data[offset + i * stride];
+        int difference = data[offset + (half + i) * stride];
+        int b = average - (difference >> 1);
+        scratch[2 * i] = (short) (difference + b);
+        scratch[2 * i + 1] = (short) b;
       }
-      column = invHaarWaveTransf(column);
-      for (int i = 0; i < size; i++) {
-        res_matrix[i][j] = column[i];
+      for (int i = 0; i < n; i++) {
+        data[offset + i * stride] = scratch[i];
       }
     }
+  }
 
-    for (int i = 0; i < size; i++) {
-      res_matrix[i] = invHaarWaveTransf(res_matrix[i]);
+  private void checkLength(short[] data) {
+    if (data == null || data.length != length) {
+      throw new IllegalArgumentException("Channel must hold " + length + " values");
     }
+  }
+
+  private void checkLength(double[] data) {
+    if (data == null || data.length != length) {
+      throw new IllegalArgumentException("Channel must hold " + length + " values");
+    }
+  }
 
-    return res_matrix;
+  private static int powerOfTwo(int size) {
+    int power = Integer.highestOneBit(size);
+    return power == size ? size : Math.multiplyExact(power, 2);
   }
 }
@@ -1,6 +1,9 @@
 package utils;
 
+import java.io.IOException;
 import model.image.Image;
+import model.image.ImageFactory;
+import model.image.PackedImage;
 
 
 /**
@@ -14,7 +17,18 @@ public interface ImageHandler {
    * @param filePath the path of the image file to be loaded
    * @return the loaded Image object
    */
-  Image loadImage(String filePath);
+  default Image loadImage(String filePath) {
+    return loadImage(filePath, PackedImage::new);
+  }
+
+  /**
+   * Loads an image from the specified file path into an image created by the given factory.
+   *
+   * @param filePath the path of the image file to be loaded
+   * @param factory  creates the image the pixels are loaded into
+   * @return the loaded Image object
+   */
+  Image loadImage(String filePath, ImageFactory factory);
 
   /**
    * Saves the specified image to the given file path.
@@ -23,4 +37,47 @@ public interface ImageHandler {
    * @param img      the Image object to be saved
    */
   void saveImage(String filePath, Image img);
+
+  /**
+   * Opens an image file to be read one row at a time. Formats that cannot be decoded row by row
+   * load the whole image and read its rows.
+   *
+   * @param filePath the path of the image file to be read
+   * @return the reader, to be closed after use
+   * @throws IOException if the file could not be opened or decoded
+   */
+  default ScanlineReader openReader(String filePath) throws IOException {
+    Image img = loadImage(filePath);
+    if (img == null) {
+      throw new IOException("Could not load " + filePath);
+    }
+    return ScanlineReader.of(img);
+  }
+
+  /**
+   * Opens an image file to be written one row at a time. Formats that cannot be encoded row by
+   * row collect the rows in an image and save it when the writer is closed.
+   *
+   * @param filePath the path of the image file to be written
+   * @param width    width of the image
+   * @param height   height of the image
+   * @return the writer, to be closed after the last row
+   * @throws IOException if the file could not be created
+   */
+  default ScanlineWriter openWriter(String filePath, int width, int height) throws IOException {
+    Image img = new PackedImage(width, height);
+    return new ScanlineWriter() {
+      private int next;
+
+      @Override
+      public void writeRow(int[] row) {
+        img.setRow(next++, row);
+      }
+
+      @Override
+      public void close() {
+        saveImage(filePath, img);
+      }
+    };
+  }
 }
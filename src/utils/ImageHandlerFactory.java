@@ -1,5 +1,7 @@
 package utils;
 
+import model.ParallelExecutor;
+
 /**
  * ImageHandlerFactory is a factory class that provides methods for creating instances of
  * ImageHandler based on the file extension of a given file path.
@@ -14,14 +16,30 @@ public class ImageHandlerFactory {
    * @throws UnsupportedOperationException if the file format is unsupported
    */
   public static ImageHandler getHandler(String filePath) {
+    return getHandler(filePath, new ParallelExecutor());
+  }
+
+  /**
+   * Gets an appropriate ImageHandler instance based on the file extension, whose transforms run
+   * on the given executor.
+   *
+   * @param filePath the path of the file for which an ImageHandler is required
+   * @param executor runs the transforms of formats that store wavelet coefficients
+   * @return an instance of ImageHandler suitable for the file format
+   * @throws UnsupportedOperationException if the file format is unsupported
+   */
+  public static ImageHandler getHandler(String filePath, ParallelExecutor executor) {
     String extension = getFileExtension(filePath);
 
     switch (extension.toLowerCase()) {
       case "jpg":
-      case "png":
         return new StandardImageHandler();
+      case "png":
+        return new PNGImageHandler();
       case "ppm":
         return new PPMImageHandler();
+      case "haar":
+        return new HaarImageHandler(executor);
       default:
         throw new UnsupportedOperationException("Unsupported file format: " + extension);
     }
@@ -1,6 +1,10 @@
 package utils;
 
+import java.io.IOException;
+import model.ParallelExecutor;
 import model.image.Image;
+import model.image.ImageFactory;
+import model.stream.RowSource;
 
 /**
  * ImageIOHelper is helper class to help ImageModel to load or save image.
@@ -18,6 +22,33 @@ public class ImageIOHelper {
     return handler.loadImage(filePath);
   }
 
+  /**
+   * Loads an image from the specified file path into an image created by the given factory.
+   *
+   * @param filePath the file path of the image to be loaded
+   * @param factory  creates the image the pixels are loaded into
+   * @return the loaded Image object
+   */
+  public static Image loadImage(String filePath, ImageFactory factory) {
+    ImageHandler handler = ImageHandlerFactory.getHandler(filePath);
+    return handler.loadImage(filePath, factory);
+  }
+
+  /**
+   * Loads an image from the specified file path into an image created by the given factory,
+   * running any transform the format needs on the given executor.
+   *
+   * @param filePath the file path of the image to be loaded
+   * @param factory  creates the image the pixels are loaded into
+   * @param executor runs the transforms of formats that store wavelet coefficients
+   * @return the loaded Image object
+   */
+  public static Image loadImage(String filePath, ImageFactory factory,
+      ParallelExecutor executor) {
+    ImageHandler handler = ImageHandlerFactory.getHandler(filePath, executor);
+    return handler.loadImage(filePath, factory);
+  }
+
   /**
    * Saves an image to the specified file path.
    *
@@ -28,4 +59,76 @@ public class ImageIOHelper {
     ImageHandler handler = ImageHandlerFactory.getHandler(filePath);
     handler.saveImage(filePath, img);
   }
+
+  /**
+   * Saves an image to the specified file path, running any transform the format needs on the
+   * given executor.
+   *
+   * @param filePath the destination file path where the image will be saved
+   * @param img      the Image object to be saved
+   * @param executor runs the transforms of formats that store wavelet coefficients
+   */
+  public static void saveImage(String filePath, Image img, ParallelExecutor executor) {
+    ImageHandler handler = ImageHandlerFactory.getHandler(filePath, executor);
+    handler.saveImage(filePath, img);
+  }
+
+  /**
+   * Opens an image file to be read one row at a time.
+   *
+   * @param filePath the file path of the image to be read
+   * @return the reader, to be closed after use
+   * @throws IOException if the file could not be opened
+   */
+  public static ScanlineReader openReader(String filePath) throws IOException {
+    return openReader(filePath, new ParallelExecutor());
+  }
+
+  /**
+   * Opens an image file to be read one row at a time, running any transform the format needs on
+   * the given executor.
+   *
+   * @param filePath the file path of the image to be read
+   * @param executor runs the transforms of formats that store wavelet coefficients
+   * @return the reader, to be closed after use
+   * @throws IOException if the file could not be opened
+   */
+  public static ScanlineReader openReader(String filePath, ParallelExecutor executor)
+      throws IOException {
+    ImageHandler handler = ImageHandlerFactory.getHandler(filePath, executor);
+    return handler.openReader(filePath);
+  }
+
+  /**
+   * Writes every row of a stream to an image file as it is read, so the image is never held
+   * whole unless its format needs it.
+   *
+   * @param filePath the destination file path
+   * @param rows     the rows to write
+   * @throws IOException if the file could not be written
+   */
+  public static void saveRows(String filePath, RowSource rows) throws IOException {
+    saveRows(filePath, rows, new ParallelExecutor());
+  }
+
+  /**
+   * Same as saveRows, running any transform the format needs on the given executor.
+   *
+   * @param filePath the destination file path
+   * @param rows     the rows to write
+   * @param executor runs the transforms of formats that store wavelet coefficients
+   * @throws IOException if the file could not be written
+   */
+  public static void saveRows(String filePath, RowSource rows, ParallelExecutor executor)
+      throws IOException {
+    ImageHandler handler = ImageHandlerFactory.getHandler(filePath, executor);
+    try (ScanlineWriter writer = handler.openWriter(filePath, rows.getWidth(),
+        rows.getHeight())) {
+      int[] row = new int[rows.getWidth()];
+      for (int i = 0; i < rows.getHeight(); i++) {
+        rows.readRow(row);
+        writer.writeRow(row);
+      }
+    }
+  }
 }
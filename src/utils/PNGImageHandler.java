@@ -0,0 +1,547 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import model.image.Image;
+import model.image.ImageFactory;
+import model.image.PackedImage;
+import model.image.Pixels;
+
+/**
+ * PNGImageHandler reads and writes PNG images one row at a time. The compressed pixel data is
+ * inflated and unfiltered as each row is read, and each written row is filtered and deflated
+ * straight into the file, so neither direction holds more than two rows of the image.
+ *
+ * <p>Rows are decoded for 8-bit greyscale, RGB, palette, grey with alpha and RGB with alpha
+ * images that are not interlaced; alpha is dropped, and grey samples are taken as stored rather
+ * than converted from a linear grey space as ImageIO does. Other PNG images are read whole
+ * through ImageIO. Images are written as 8-bit RGB, with the filter of each row chosen by the
+ * usual minimum sum of absolute differences heuristic.
+ */
+public class PNGImageHandler extends StandardImageHandler {
+
+  private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+  // Size of the IDAT chunks written, and of the buffers on either side of the compression.
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  @Override
+  public Image loadImage(String filePath, ImageFactory factory) {
+    try (Decoder decoder = Decoder.open(filePath)) {
+      if (decoder == null) {
+        return super.loadImage(filePath, factory);
+      }
+      Image img = factory.create(decoder.getWidth(), decoder.getHeight());
+      int[] row = new int[decoder.getWidth()];
+      for (int i = 0; i < decoder.getHeight(); i++) {
+        decoder.readRow(row);
+        img.setRow(i, row);
+      }
+      return img;
+    } catch (IOException e) {
+      System.out.println("Error loading image: " + e.getMessage());
+      return null;
+    } catch (UncheckedIOException e) {
+      System.out.println("Error loading image: " + e.getCause().getMessage());
+      return null;
+    }
+  }
+
+  @Override
+  public void saveImage(String filePath, Image img) {
+    try (ScanlineWriter writer = openWriter(filePath, img.getWidth(), img.getHeight())) {
+      int[] row = new int[img.getWidth()];
+      for (int i = 0; i < img.getHeight(); i++) {
+        img.getRow(i, row);
+        writer.writeRow(row);
+      }
+    } catch (IOException e) {
+      System.out.println("Error saving image: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public ScanlineReader openReader(String filePath) throws IOException {
+    Decoder decoder = Decoder.open(filePath);
+    if (decoder != null) {
+      return decoder;
+    }
+    Image img = super.loadImage(filePath, PackedImage::new);
+    if (img == null) {
+      throw new IOException("Could not load " + filePath);
+    }
+    return ScanlineReader.of(img);
+  }
+
+  @Override
+  public ScanlineWriter openWriter(String filePath, int width, int height) throws IOException {
+    if (width < 1 || height < 1) {
+      throw new IOException("A PNG image must be at least one pixel wide and high");
+    }
+    return new Encoder(filePath, width, height);
+  }
+
+  /**
+   * Reads the rows of a PNG file from the inflated IDAT chunks.
+   */
+  private static class Decoder implements ScanlineReader {
+
+    private final DataInputStream file;
+    private final Inflater inflater = new Inflater();
+    private final InputStream data;
+    private final int width;
+    private final int height;
+    private final int colorType;
+    private final int channels;
+    private final byte[] palette;
+    private byte[] previous;
+    private byte[] current;
+    private int next;
+
+    private Decoder(DataInputStream file, int width, int height, int colorType, byte[] palette,
+        int idatLength) {
+      this.file = file;
+      this.width = width;
+      this.height = height;
+      this.colorType = colorType;
+      this.channels = colorType == 2 ? 3 : colorType == 4 ? 2 : colorType == 6 ? 4 : 1;
+      this.palette = palette;
+      this.previous = new byte[Math.multiplyExact(width, channels)];
+      this.current = new byte[previous.length];
+      this.data = new InflaterInputStream(new IdatStream(file, idatLength), inflater,
+          CHUNK_SIZE);
+    }
+
+    /**
+     * Open a PNG file and read up to its pixel data, or return null if its rows cannot be
+     * decoded here. A file without the PNG signature also gives null, so ImageIO can read files
+     * whose name does not match their content, such as a JPEG named .png.
+     */
+    static Decoder open(String filePath) throws IOException {
+      DataInputStream file = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(filePath), CHUNK_SIZE));
+      try {
+        byte[] signature = file.readNBytes(SIGNATURE.length);
+        if (!Arrays.equals(signature, SIGNATURE)) {
+          file.close();
+          return null;
+        }
+        int width = 0;
+        int height = 0;
+        int colorType = -1;
+        byte[] palette = null;
+        while (true) {
+          int length = file.readInt();
+          String type = readType(file);
+          if (type.equals("IHDR")) {
+            width = file.readInt();
+            height = file.readInt();
+            int bitDepth = file.readUnsignedByte();
+            colorType = file.readUnsignedByte();
+            skipFully(file, 2);
+            int interlace = file.readUnsignedByte();
+            if (bitDepth != 8 || interlace != 0 || colorType == 1 || colorType == 5
+                || colorType > 6 || width < 1 || height < 1) {
+              file.close();
+              return null;
+            }
+            skipFully(file, length - 13 + 4L);
+          } else if (type.equals("PLTE")) {
+            palette = new byte[length];
+            file.readFully(palette);
+            skipFully(file, 4);
+          } else if (type.equals("IDAT")) {
+            if (colorType < 0) {
+              throw new IOException("PNG pixel data before the header");
+            }
+            if (colorType == 3 && palette == null) {
+              throw new IOException("PNG palette image without a palette");
+            }
+            return new Decoder(file, width, height, colorType, palette, length);
+          } else if (type.equals("IEND")) {
+            throw new IOException("PNG file has no pixel data");
+          } else {
+            skipFully(file, length + 4L);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        file.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public void readRow(int[] row) {
+      if (next >= height) {
+        throw new IllegalStateException("Every row has been read");
+      }
+      byte[] swap = previous;
+      previous = current;
+      current = swap;
+      try {
+        int filter = data.read();
+        if (filter < 0) {
+          throw new EOFException("PNG pixel data ends early");
+        }
+        readFully(data, current);
+        unfilter(filter, current, previous, channels);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (int j = 0; j < width; j++) {
+        int i = j * channels;
+        switch (colorType) {
+          case 0:
+          case 4:
+            row[j] = (current[i] & 0xFF) * 0x010101;
+            break;
+          case 3:
+            int entry = (current[i] & 0xFF) * 3;
+            if (entry + 2 >= palette.length) {
+              throw new UncheckedIOException(new IOException("PNG palette index out of range"));
+            }
+            row[j] = Pixels.pack(palette[entry] & 0xFF, palette[entry + 1] & 0xFF,
+                palette[entry + 2] & 0xFF);
+            break;
+          default:
+            row[j] = Pixels.pack(current[i] & 0xFF, current[i + 1] & 0xFF,
+                current[i + 2] & 0xFF);
+            break;
+        }
+      }
+      next++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      inflater.end();
+      file.close();
+    }
+  }
+
+  /**
+   * The concatenated payloads of consecutive IDAT chunks, which together hold the compressed
+   * pixel data.
+   */
+  private static class IdatStream extends InputStream {
+
+    private final DataInputStream file;
+    private int remaining;
+    private boolean ended;
+
+    IdatStream(DataInputStream file, int length) {
+      this.file = file;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      while (remaining == 0 && !ended) {
+        skipFully(file, 4);
+        int next = file.readInt();
+        if (readType(file).equals("IDAT")) {
+          remaining = next;
+        } else {
+          ended = true;
+        }
+      }
+      if (ended) {
+        return -1;
+      }
+      int read = file.read(buffer, offset, Math.min(length, remaining));
+      if (read < 0) {
+        throw new EOFException("PNG file ends inside its pixel data");
+      }
+      remaining -= read;
+      return read;
+    }
+  }
+
+  /**
+   * Writes the rows of an 8-bit RGB PNG file, deflating them into IDAT chunks as they come.
+   */
+  private static class Encoder implements ScanlineWriter {
+
+    private final DataOutputStream file;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final DeflaterOutputStream data;
+    private final int width;
+    private final int height;
+    private final byte[][] filtered = new byte[5][];
+    private byte[] previous;
+    private byte[] current;
+    private int rows;
+
+    Encoder(String filePath, int width, int height) throws IOException {
+      this.width = width;
+      this.height = height;
+      this.file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath),
+          CHUNK_SIZE));
+      try {
+        file.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = 2;
+        writeChunk(file, "IHDR", header, 0, header.length);
+      } catch (IOException e) {
+        file.close();
+        deflater.end();
+        throw e;
+      }
+      this.data = new DeflaterOutputStream(new IdatOutputStream(file), deflater, CHUNK_SIZE);
+      this.previous = new byte[Math.multiplyExact(width, 3)];
+      this.current = new byte[previous.length];
+      for (int f = 0; f < filtered.length; f++) {
+        filtered[f] = new byte[previous.length + 1];
+        filtered[f][0] = (byte) f;
+      }
+    }
+
+    @Override
+    public void writeRow(int[] row) throws IOException {
+      if (rows >= height) {
+        throw new IOException("Every row has been written");
+      }
+      byte[] swap = previous;
+      previous = current;
+      current = swap;
+      for (int j = 0; j < width; j++) {
+        current[3 * j] = (byte) Pixels.red(row[j]);
+        current[3 * j + 1] = (byte) Pixels.green(row[j]);
+        current[3 * j + 2] = (byte) Pixels.blue(row[j]);
+      }
+      byte[] best = null;
+      long bestCost = Long.MAX_VALUE;
+      for (int f = 0; f < filtered.length; f++) {
+        long cost = filter(f, current, previous, 3, filtered[f]);
+        if (cost < bestCost) {
+          bestCost = cost;
+          best = filtered[f];
+        }
+      }
+      data.write(best);
+      rows++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (rows != height) {
+          throw new IOException("Only " + rows + " of " + height + " rows were written");
+        }
+        data.finish();
+        data.flush();
+        writeChunk(file, "IEND", new byte[0], 0, 0);
+      } finally {
+        deflater.end();
+        file.close();
+      }
+    }
+  }
+
+  /**
+   * Collects compressed pixel data and writes it as IDAT chunks of at most CHUNK_SIZE bytes.
+   */
+  private static class IdatOutputStream extends OutputStream {
+
+    private final DataOutputStream file;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int length;
+
+    IdatOutputStream(DataOutputStream file) {
+      this.file = file;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+      while (count > 0) {
+        int n = Math.min(count, buffer.length - length);
+        System.arraycopy(bytes, offset, buffer, length, n);
+        length += n;
+        offset += n;
+        count -= n;
+        if (length == buffer.length) {
+          flush();
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (length > 0) {
+        writeChunk(file, "IDAT", buffer, 0, length);
+        length = 0;
+      }
+    }
+  }
+
+  /**
+   * Undo the filter of a row in place, given the unfiltered previous row.
+   */
+  private static void unfilter(int filter, byte[] row, byte[] previous, int bpp)
+      throws IOException {
+    switch (filter) {
+      case 0:
+        break;
+      case 1:
+        for (int i = bpp; i < row.length; i++) {
+          row[i] += row[i - bpp];
+        }
+        break;
+      case 2:
+        for (int i = 0; i < row.length; i++) {
+          row[i] += previous[i];
+        }
+        break;
+      case 3:
+        for (int i = 0; i < row.length; i++) {
+          int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+          row[i] += (left + (previous[i] & 0xFF)) >>> 1;
+        }
+        break;
+      case 4:
+        for (int i = 0; i < row.length; i++) {
+          int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+          int upperLeft = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+          row[i] += paeth(left, previous[i] & 0xFF, upperLeft);
+        }
+        break;
+      default:
+        throw new IOException("Unknown PNG filter type: " + filter);
+    }
+  }
+
+  /**
+   * Filter a row into out after its filter type byte, and return the sum of the absolute values
+   * of the filtered bytes taken as signed, the usual estimate of how well the row compresses.
+   */
+  private static long filter(int filter, byte[] row, byte[] previous, int bpp, byte[] out) {
+    long cost = 0;
+    for (int i = 0; i < row.length; i++) {
+      int value = row[i] & 0xFF;
+      int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+      int up = previous[i] & 0xFF;
+      int predicted;
+      switch (filter) {
+        case 1:
+          predicted = left;
+          break;
+        case 2:
+          predicted = up;
+          break;
+        case 3:
+          predicted = (left + up) >>> 1;
+          break;
+        case 4:
+          predicted = paeth(left, up, i >= bpp ? previous[i - bpp] & 0xFF : 0);
+          break;
+        default:
+          predicted = 0;
+          break;
+      }
+      byte b = (byte) (value - predicted);
+      out[i + 1] = b;
+      cost += Math.abs(b);
+    }
+    return cost;
+  }
+
+  private static int paeth(int left, int up, int upperLeft) {
+    int p = left + up - upperLeft;
+    int pa = Math.abs(p - left);
+    int pb = Math.abs(p - up);
+    int pc = Math.abs(p - upperLeft);
+    if (pa <= pb && pa <= pc) {
+      return left;
+    }
+    return pb <= pc ? up : upperLeft;
+  }
+
+  private static String readType(DataInputStream file) throws IOException {
+    byte[] type = new byte[4];
+    file.readFully(type);
+    return new String(type, StandardCharsets.ISO_8859_1);
+  }
+
+  private static void writeChunk(DataOutputStream file, String type, byte[] data, int offset,
+      int length) throws IOException {
+    byte[] name = type.getBytes(StandardCharsets.ISO_8859_1);
+    CRC32 crc = new CRC32();
+    crc.update(name);
+    crc.update(data, offset, length);
+    file.writeInt(length);
+    file.write(name);
+    file.write(data, offset, length);
+    file.writeInt((int) crc.getValue());
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  private static void readFully(InputStream in, byte[] buffer) throws IOException {
+    int read = 0;
+    while (read < buffer.length) {
+      int n = in.read(buffer, read, buffer.length - read);
+      if (n < 0) {
+        throw new EOFException("PNG pixel data ends early");
+      }
+      read += n;
+    }
+  }
+
+  private static void skipFully(DataInputStream file, long count) throws IOException {
+    while (count > 0) {
+      long skipped = file.skip(count);
+      if (skipped <= 0) {
+        if (file.read() < 0) {
+          throw new EOFException("PNG file ends inside a chunk");
+        }
+        skipped = 1;
+      }
+      count -= skipped;
+    }
+  }
+}
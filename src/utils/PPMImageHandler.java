@@ -4,24 +4,60 @@ import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import model.image.Image;
 
 import java.io.BufferedReader;
-import model.image.SimpleImage;
+import model.image.ImageFactory;
+import model.image.Pixels;
 
 /**
  * PPMImageHandler is a concrete implementation of the ImageHandler interface
- * specifically for handling PPM (Portable Pixmap) images in P3 format.
+ * specifically for handling PPM (Portable Pixmap) images in P3 format. Pixels are read and written
+ * one row at a time, so the reader and writer also serve streaming pipelines.
  */
 public class PPMImageHandler implements ImageHandler {
 
   @Override
-  public Image loadImage(String filePath) {
-    try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+  public Image loadImage(String filePath, ImageFactory factory) {
+    try (ScanlineReader reader = openReader(filePath)) {
+      Image img = factory.create(reader.getWidth(), reader.getHeight());
+      int[] row = new int[reader.getWidth()];
+      for (int i = 0; i < reader.getHeight(); i++) {
+        reader.readRow(row);
+        img.setRow(i, row);
+      }
+      return img;
+    } catch (IOException e) {
+      System.out.println("Error loading PPM image: " + e.getMessage());
+      return null;
+    } catch (UncheckedIOException e) {
+      System.out.println("Error loading PPM image: " + e.getCause().getMessage());
+      return null;
+    }
+  }
+
+  @Override
+  public void saveImage(String filePath, Image img) {
+    try (ScanlineWriter writer = openWriter(filePath, img.getWidth(), img.getHeight())) {
+      int[] row = new int[img.getWidth()];
+      for (int i = 0; i < img.getHeight(); i++) {
+        img.getRow(i, row);
+        writer.writeRow(row);
+      }
+    } catch (IOException e) {
+      System.out.println("Error saving PPM image: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public ScanlineReader openReader(String filePath) throws IOException {
+    BufferedReader reader = new BufferedReader(new FileReader(filePath));
+    try {
       String header = reader.readLine();
-      if (!header.equals("P3")) {
-        System.out.println("Unsupported PPM format: " + header);
-        return null;
+      if (!"P3".equals(header)) {
+        throw new IOException("Unsupported PPM format: " + header);
       }
       String line;
       while ((line = reader.readLine()) != null) {
@@ -30,42 +66,134 @@ public class PPMImageHandler implements ImageHandler {
           break;
         }
       }
-
+      if (line == null) {
+        throw new IOException("Missing PPM dimensions");
+      }
       String[] dimensions = line.split(" ");
       int width = Integer.parseInt(dimensions[0]);
       int height = Integer.parseInt(dimensions[1]);
       reader.readLine(); // Skip maxVal (assuming 255)
-
-      Image img = new SimpleImage(width, height);
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int r = Integer.parseInt(reader.readLine());
-          int g = Integer.parseInt(reader.readLine());
-          int b = Integer.parseInt(reader.readLine());
-          img.setPixel(i, j, new int[]{r, g, b});
-        }
-      }
-      return img;
-    } catch (IOException e) {
-      System.out.println("Error loading PPM image: " + e.getMessage());
-      return null;
+      return new Rows(reader, width, height);
+    } catch (IOException | RuntimeException e) {
+      reader.close();
+      throw e;
     }
   }
 
   @Override
-  public void saveImage(String filePath, Image img) {
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
+  public ScanlineWriter openWriter(String filePath, int width, int height) throws IOException {
+    BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
+    try {
       writer.write("P3\n");
-      writer.write(img.getWidth() + " " + img.getHeight() + "\n");
+      writer.write(width + " " + height + "\n");
       writer.write("255\n");
-      for (int i = 0; i < img.getHeight(); i++) {
-        for (int j = 0; j < img.getWidth(); j++) {
-          int[] pixel = img.getPixel(i, j);
-          writer.write( pixel[0] + "\n" + pixel[1] + "\n" + pixel[2] + "\n");
+    } catch (IOException e) {
+      writer.close();
+      throw e;
+    }
+    // Up to three digits and a newline for each of the three channels.
+    char[] text = new char[width * 12];
+    return new ScanlineWriter() {
+      @Override
+      public void writeRow(int[] row) throws IOException {
+        int length = 0;
+        for (int j = 0; j < width; j++) {
+          length = writeChannel(text, length, Pixels.red(row[j]));
+          length = writeChannel(text, length, Pixels.green(row[j]));
+          length = writeChannel(text, length, Pixels.blue(row[j]));
         }
+        writer.write(text, 0, length);
       }
-    } catch (IOException e) {
-      System.out.println("Error saving PPM image: " + e.getMessage());
+
+      @Override
+      public void close() throws IOException {
+        writer.close();
+      }
+    };
+  }
+
+  /**
+   * The pixel data of an open P3 file, read a row at a time.
+   */
+  private static class Rows implements ScanlineReader {
+
+    private final Reader reader;
+    private final int width;
+    private final int height;
+    private int next;
+
+    Rows(Reader reader, int width, int height) {
+      this.reader = reader;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public void readRow(int[] row) {
+      if (next >= height) {
+        throw new IllegalStateException("Every row has been read");
+      }
+      try {
+        for (int j = 0; j < width; j++) {
+          int r = readInt(reader);
+          int g = readInt(reader);
+          int b = readInt(reader);
+          row[j] = Pixels.pack(r, g, b);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      next++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the next whitespace separated non-negative integer without allocating a String.
+   */
+  private static int readInt(Reader reader) throws IOException {
+    int c = reader.read();
+    while (c != -1 && Character.isWhitespace(c)) {
+      c = reader.read();
+    }
+    if (c < '0' || c > '9') {
+      throw new IOException("Unexpected character in pixel data: "
+          + (c == -1 ? "end of file" : String.valueOf((char) c)));
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      c = reader.read();
+    }
+    return value;
+  }
+
+  /**
+   * Writes a 0-255 channel value followed by a newline into the buffer and returns the new length.
+   */
+  private static int writeChannel(char[] text, int length, int value) {
+    if (value >= 100) {
+      text[length++] = (char) ('0' + value / 100);
+    }
+    if (value >= 10) {
+      text[length++] = (char) ('0' + value / 10 % 10);
     }
+    text[length++] = (char) ('0' + value % 10);
+    text[length++] = '\n';
+    return length;
   }
 }
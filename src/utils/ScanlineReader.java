@@ -0,0 +1,43 @@
+package utils;
+
+import java.io.Closeable;
+import model.image.Image;
+import model.stream.RowSource;
+
+/**
+ * Reads the rows of an image file one at a time, so an image can be processed without holding
+ * all of it. Errors while reading a row are thrown as UncheckedIOException.
+ */
+public interface ScanlineReader extends RowSource, Closeable {
+
+  /**
+   * Return a reader over the rows of an image already in memory.
+   *
+   * @param img the image
+   * @return the reader
+   */
+  static ScanlineReader of(Image img) {
+    RowSource rows = RowSource.of(img);
+    return new ScanlineReader() {
+      @Override
+      public int getWidth() {
+        return rows.getWidth();
+      }
+
+      @Override
+      public int getHeight() {
+        return rows.getHeight();
+      }
+
+      @Override
+      public void readRow(int[] row) {
+        rows.readRow(row);
+      }
+
+      @Override
+      public void close() {
+        // Nothing is held open.
+      }
+    };
+  }
+}
@@ -0,0 +1,19 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the rows of an image file one at a time, from top to bottom. Closing the writer after
+ * the last row completes the file.
+ */
+public interface ScanlineWriter extends Closeable {
+
+  /**
+   * Write the next row.
+   *
+   * @param row the packed 0xRRGGBB values of the row, at least as many as the image is wide
+   * @throws IOException if the row could not be written
+   */
+  void writeRow(int[] row) throws IOException;
+}
@@ -5,7 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import javax.imageio.ImageIO;
 import model.image.Image;
-import model.image.SimpleImage;
+import model.image.ImageFactory;
 
 /**
  * StandardImageHandler is a concrete implementation of the ImageHandler interface specifically for
@@ -14,18 +14,19 @@ import model.image.SimpleImage;
 public class StandardImageHandler implements ImageHandler {
 
   @Override
-  public Image loadImage(String filePath) {
+  public Image loadImage(String filePath, ImageFactory factory) {
     try {
       BufferedImage bufferedImage = ImageIO.read(new File(filePath));
       int width = bufferedImage.getWidth();
       int height = bufferedImage.getHeight();
-      Image img = new SimpleImage(width, height);
+      Image img = factory.create(width, height);
+      int[] row = new int[width];
       for (int i = 0; i < height; i++) {
+        bufferedImage.getRGB(0, i, width, 1, row, 0, width);
         for (int j = 0; j < width; j++) {
-          int rgb = bufferedImage.getRGB(j, i);
-          int[] pixel = {(rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF};
-          img.setPixel(i, j, pixel);
+          row[j] &= 0xFFFFFF;
         }
+        img.setRow(i, row);
       }
       return img;
     } catch (IOException e) {
@@ -39,12 +40,10 @@ public class StandardImageHandler implements ImageHandler {
     try {
       BufferedImage bufferedImage = new BufferedImage(img.getWidth(), img.getHeight(),
           BufferedImage.TYPE_INT_RGB);
+      int[] row = new int[img.getWidth()];
       for (int i = 0; i < img.getHeight(); i++) {
-        for (int j = 0; j < img.getWidth(); j++) {
-          int[] pixel = img.getPixel(i, j);
-          int rgb = (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
-          bufferedImage.setRGB(j, i, rgb);
-        }
+        img.getRow(i, row);
+        bufferedImage.setRGB(0, i, img.getWidth(), 1, row, 0, img.getWidth());
       }
       String extension = getFileExtension(filePath);
       ImageIO.write(bufferedImage, extension, new File(filePath));
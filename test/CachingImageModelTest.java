@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import model.CachingImageModel;
+import model.ImageModel;
+import model.ParallelExecutor;
+import model.filter.Kernel;
+import model.image.GreyImage;
+import model.image.HaarCompressedImage;
+import model.image.Image;
+import model.image.PackedImage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * CachingImageModel test. Remembered results must be exactly what the plain model computes, and
+ * must not change when a returned image is written to.
+ */
+public class CachingImageModelTest {
+
+  private ImageModel model;
+  private PackedImage image;
+
+  /**
+   * Setup method run before each test.
+   */
+  @BeforeEach
+  public void setUp() {
+    model = new ImageModel();
+    image = TestImages.random(23, 17, 3);
+  }
+
+  @Test
+  public void testRepeatedOperationOnIdenticalImageHits() {
+    CachingImageModel cache = new CachingImageModel();
+    Image first = cache.blur(image);
+    Image second = cache.blur(TestImages.random(23, 17, 3));
+
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertSameContent(model.blur(image), first);
+    assertSameContent(model.blur(image), second);
+    cache.blur(TestImages.random(23, 17, 4));
+    cache.convolve(image, Kernel.box(1));
+    cache.convolve(image, Kernel.box(1));
+    cache.brighten(image, 10);
+    cache.brighten(image, 20);
+    assertEquals(2, cache.getHits());
+    assertEquals(5, cache.getMisses());
+  }
+
+  @Test
+  public void testWritingResultLeavesCacheIntact() {
+    CachingImageModel cache = new CachingImageModel();
+    Image first = cache.sepia(image);
+    first.setRow(0, new int[23]);
+    model.blur(first, first);
+
+    assertSameContent(model.sepia(image), cache.sepia(image));
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testChainedResultsAreFoundAgain() {
+    CachingImageModel cache = new CachingImageModel();
+    Image sharpened = cache.sharpen(cache.blur(image));
+    Image again = cache.sharpen(cache.blur(image));
+
+    assertEquals(2, cache.getHits());
+    assertSameContent(model.sharpen(model.blur(image)), sharpened);
+    assertSameContent(sharpened, again);
+  }
+
+  @Test
+  public void testSplitAndCombine() {
+    CachingImageModel cache = new CachingImageModel();
+    Image[] channels = cache.splitChannels(image);
+    Image[] again = cache.splitChannels(image);
+
+    assertTrue(again[0] instanceof GreyImage);
+    ((GreyImage) channels[1]).setLevel(0, 0, 7);
+    assertSameContent(model.splitChannels(image)[1], cache.splitChannels(image)[1]);
+    assertSameContent(image, cache.combineImage(again[0], again[1], again[2]));
+    assertEquals(2, cache.getHits());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedResultIsEvicted() {
+    long size = 23 * 17 * Integer.BYTES;
+    CachingImageModel cache = new CachingImageModel(PackedImage::new, new ParallelExecutor(1),
+        2 * size);
+    cache.blur(image);
+    cache.sepia(image);
+    cache.blur(image);
+    cache.sharpen(image);
+
+    assertEquals(1, cache.getEvictions());
+    assertEquals(2 * size, cache.getBytes());
+    cache.blur(image);
+    cache.sepia(image);
+    assertEquals(2, cache.getHits());
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  public void testResultLargerThanBudgetIsNotKept() {
+    CachingImageModel cache = new CachingImageModel(PackedImage::new, new ParallelExecutor(),
+        100);
+    assertSameContent(model.blur(image), cache.blur(image));
+    assertSameContent(model.blur(image), cache.blur(image));
+
+    assertEquals(0, cache.getHits());
+    assertEquals(0, cache.getBytes());
+  }
+
+  @Test
+  public void testCompressedResultKeepsCoefficients() {
+    CachingImageModel cache = new CachingImageModel();
+    Image first = cache.compress(image, 80);
+    Image second = cache.compress(TestImages.random(23, 17, 3), 80);
+
+    assertEquals(1, cache.getHits());
+    assertTrue(first instanceof HaarCompressedImage);
+    assertTrue(((HaarCompressedImage) second).hasCoefficients());
+    assertSameContent(model.compress(image, 80), first);
+    first.setRow(0, new int[23]);
+    assertFalse(((HaarCompressedImage) first).hasCoefficients());
+    assertSameContent(model.compress(image, 80), second);
+    assertSameContent(model.compress(image, 80), cache.compress(image, 80));
+  }
+
+  private static void assertSameContent(Image expected, Image actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    int[] want = new int[expected.getWidth()];
+    int[] got = new int[expected.getWidth()];
+    for (int row = 0; row < expected.getHeight(); row++) {
+      expected.getRow(row, want);
+      actual.getRow(row, got);
+      assertArrayEquals(want, got, "row " + row);
+    }
+  }
+}
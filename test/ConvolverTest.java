@@ -0,0 +1,126 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import model.ParallelExecutor;
+import model.filter.Convolver;
+import model.filter.Kernel;
+import model.image.Image;
+import model.image.PackedImage;
+import model.image.TiledImage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Convolver test. Every evaluation strategy is checked against a direct per-tap reference.
+ */
+public class ConvolverTest {
+
+  private PackedImage image;
+
+  /**
+   * Setup method run before each test.
+   */
+  @BeforeEach
+  public void setUp() {
+    image = TestImages.random(23, 17, 11);
+  }
+
+  @Test
+  public void testUniformKernel() {
+    assertMatchesReference(Kernel.box(3));
+    assertMatchesReference(Kernel.of(new double[][]{{0.3, 0.3, 0.3}, {0.3, 0.3, 0.3},
+        {0.3, 0.3, 0.3}, {0.3, 0.3, 0.3}, {0.3, 0.3, 0.3}}, 2));
+  }
+
+  @Test
+  public void testSeparableKernel() {
+    assertMatchesReference(Kernel.gaussian(2));
+    assertMatchesReference(Kernel.of(new double[][]{{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}}));
+  }
+
+  @Test
+  public void testRingKernel() {
+    assertMatchesReference(Kernel.of(new double[][]{
+        {-0.125, -0.125, -0.125, -0.125, -0.125},
+        {-0.125, 0.25, 0.25, 0.25, -0.125},
+        {-0.125, 0.25, 1, 0.25, -0.125},
+        {-0.125, 0.25, 0.25, 0.25, -0.125},
+        {-0.125, -0.125, -0.125, -0.125, -0.125}
+    }));
+  }
+
+  @Test
+  public void testDirectKernel() {
+    assertMatchesReference(Kernel.of(new double[][]{{0.5, -1.5, 2.25}, {0, 1.1, 0},
+        {-0.3, 0.7, 0.1}}));
+  }
+
+  @Test
+  public void testKernelLargerThanImage() {
+    assertMatchesReference(Kernel.box(30));
+  }
+
+  @Test
+  public void testTiledImageMatchesPacked() {
+    TiledImage tiled = new TiledImage(23, 17, 4, 4);
+    int[] pixels = new int[23 * 17];
+    image.getRegion(0, 0, 17, 23, pixels, 0);
+    tiled.setRegion(0, 0, 17, 23, pixels, 0);
+    Convolver convolver = new Convolver(Kernel.gaussian(1));
+    int[] expected = pixels(convolver.convolve(image, PackedImage::new, new ParallelExecutor(1)));
+    int[] actual = pixels(convolver.convolve(tiled, PackedImage::new, new ParallelExecutor(1)));
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void testParseKernel() {
+    Kernel kernel = Kernel.parse(Arrays.asList("# emboss", "divisor 2", "-2 -1 0", "-1 1 1",
+        "0 1 2"));
+    assertMatchesReference(kernel);
+  }
+
+  @Test
+  public void testEvenKernelRejected() {
+    assertThrows(IllegalArgumentException.class, () -> {
+      Kernel.of(new double[][]{{1, 1}, {1, 1}});
+    });
+  }
+
+  private void assertMatchesReference(Kernel kernel) {
+    Image result = new Convolver(kernel).convolve(image, PackedImage::new,
+        new ParallelExecutor(1));
+    assertArrayEquals(reference(kernel), pixels(result));
+  }
+
+  private int[] reference(Kernel kernel) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] expected = new int[width * height];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        int rgb = 0;
+        for (int channel = 0; channel < 3; channel++) {
+          long sum = 0;
+          for (int ki = 0; ki < kernel.getHeight(); ki++) {
+            for (int kj = 0; kj < kernel.getWidth(); kj++) {
+              int r = Math.min(Math.max(row + ki - kernel.getHeight() / 2, 0), height - 1);
+              int c = Math.min(Math.max(col + kj - kernel.getWidth() / 2, 0), width - 1);
+              sum += (int) (image.getPixel(r, c)[channel] * kernel.getWeight(ki, kj));
+            }
+          }
+          long value = Math.min(Math.max(sum / kernel.getDivisor(), 0), 255);
+          rgb = (rgb << 8) | (int) value;
+        }
+        expected[row * width + col] = rgb;
+      }
+    }
+    return expected;
+  }
+
+  private static int[] pixels(Image img) {
+    int[] pixels = new int[img.getWidth() * img.getHeight()];
+    img.getRegion(0, 0, img.getHeight(), img.getWidth(), pixels, 0);
+    return pixels;
+  }
+}
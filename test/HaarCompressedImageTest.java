@@ -0,0 +1,211 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import model.ImageModel;
+import model.ParallelExecutor;
+import model.image.HaarCompressedImage;
+import model.image.Image;
+import model.image.PackedImage;
+import org.junit.jupiter.api.Test;
+import utils.HaarTransform;
+import utils.ImageHandler;
+import utils.ImageHandlerFactory;
+
+/**
+ * HaarCompressedImage and .haar file test.
+ */
+public class HaarCompressedImageTest {
+
+  private final ImageModel model = new ImageModel(PackedImage::new,
+      new ParallelExecutor(3).withThreshold(0));
+
+  private static int[] pixels(Image img) {
+    int[] pixels = new int[img.getWidth() * img.getHeight()];
+    img.getRegion(0, 0, img.getHeight(), img.getWidth(), pixels, 0);
+    return pixels;
+  }
+
+  /**
+   * Keep every coefficient of the orthonormal transform of img, in multiples of QUANTUM.
+   */
+  private HaarCompressedImage orthonormal(Image img) {
+    HaarTransform haar = new HaarTransform(img.getWidth(), img.getHeight());
+    double[][] channels = new double[3][haar.getLength()];
+    for (int row = 0; row < img.getHeight(); row++) {
+      for (int col = 0; col < img.getWidth(); col++) {
+        for (int c = 0; c < 3; c++) {
+          channels[c][row * haar.getPaddedWidth() + col] = img.getPixel(row, col)[c];
+        }
+      }
+    }
+    for (double[] channel : channels) {
+      haar.pad(channel);
+    }
+    ParallelExecutor executor = new ParallelExecutor();
+    haar.forward(channels, executor);
+    return HaarCompressedImage.of(img.getWidth(), img.getHeight(), channels, 0,
+        PackedImage::new, executor);
+  }
+
+  private static File tempFile() throws IOException {
+    File file = File.createTempFile("compressed", ".haar");
+    file.deleteOnExit();
+    return file;
+  }
+
+  @Test
+  public void testLosslessFileRestoresImageExactly() throws IOException {
+    Image img = TestImages.random(13, 7, 1);
+    File file = tempFile();
+    ImageHandler handler = ImageHandlerFactory.getHandler(file.getPath());
+    handler.saveImage(file.getPath(), img);
+    Image loaded = handler.loadImage(file.getPath());
+    assertTrue(loaded instanceof HaarCompressedImage);
+    assertTrue(((HaarCompressedImage) loaded).isLossless());
+    assertEquals(13, loaded.getWidth());
+    assertEquals(7, loaded.getHeight());
+    assertArrayEquals(pixels(img), pixels(loaded));
+  }
+
+  @Test
+  public void testCompressedFileKeepsCompressedCoefficients() throws IOException {
+    Image compressed = model.compress(TestImages.random(20, 12, 2), 90);
+    assertTrue(compressed instanceof HaarCompressedImage);
+    File file = tempFile();
+    ImageHandler handler = ImageHandlerFactory.getHandler(file.getPath());
+    handler.saveImage(file.getPath(), compressed);
+    HaarCompressedImage loaded = (HaarCompressedImage) handler.loadImage(file.getPath());
+    assertFalse(loaded.isLossless());
+    for (int c = 0; c < 3; c++) {
+      HaarCompressedImage kept = (HaarCompressedImage) compressed;
+      assertArrayEquals(kept.getBits(c), loaded.getBits(c));
+      assertEquals(kept.getCount(c), loaded.getCount(c));
+      for (int i = 0; i < kept.getCount(c); i++) {
+        assertEquals(kept.getValue(c, i), loaded.getValue(c, i));
+      }
+    }
+    assertArrayEquals(pixels(compressed), pixels(loaded));
+    assertArrayEquals(pixels(model.compress(TestImages.random(20, 12, 2), 90,
+        new PackedImage(20, 12))), pixels(loaded));
+  }
+
+  @Test
+  public void testFlatImageTakesLittleSpace() throws IOException {
+    Image img = new PackedImage(64, 64);
+    int[] row = new int[64];
+    Arrays.fill(row, 0x336699);
+    for (int i = 0; i < 64; i++) {
+      img.setRow(i, row);
+    }
+    File file = tempFile();
+    ImageHandlerFactory.getHandler(file.getPath()).saveImage(file.getPath(), img);
+    // Header, then per channel a count, a layout byte, a run of no zeros and the average, whose
+    // zigzag varint takes one byte for 0x33 and two for 0x66 and 0x99.
+    assertEquals(23 + 3 * (4 + 1 + 1) + 1 + 2 + 2, file.length());
+    assertArrayEquals(pixels(img),
+        pixels(ImageHandlerFactory.getHandler(file.getPath()).loadImage(file.getPath())));
+  }
+
+  @Test
+  public void testTruncatedFileDoesNotLoad() throws IOException {
+    File file = tempFile();
+    ImageHandler handler = ImageHandlerFactory.getHandler(file.getPath());
+    handler.saveImage(file.getPath(), TestImages.random(9, 9, 3));
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+    assertNull(handler.loadImage(file.getPath()));
+  }
+
+  @Test
+  public void testWritingPixelDropsCoefficients() {
+    Image img = TestImages.random(6, 5, 4);
+    HaarCompressedImage compressed = (HaarCompressedImage) model.compress(img, 0);
+    assertTrue(compressed.hasCoefficients());
+    assertArrayEquals(pixels(img), pixels(compressed));
+    compressed.setPixel(2, 3, new int[]{1, 2, 3});
+    assertFalse(compressed.hasCoefficients());
+    assertArrayEquals(new int[]{1, 2, 3}, compressed.getPixel(2, 3));
+  }
+
+  @Test
+  public void testCompressRoundsToHalfTheCutoff() {
+    Image img = TestImages.random(20, 12, 2);
+    assertTrue(((HaarCompressedImage) model.compress(img, 0)).isLossless());
+    HaarCompressedImage compressed = (HaarCompressedImage) model.compress(img, 90);
+    assertFalse(compressed.isLossless());
+    assertTrue(compressed.getQuantum() > HaarCompressedImage.QUANTUM);
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < compressed.getCount(c); i++) {
+        assertTrue(Math.abs(compressed.getValue(c, i)) >= 2);
+      }
+    }
+    assertEquals(HaarCompressedImage.QUANTUM, orthonormal(img).getQuantum());
+    assertArrayEquals(pixels(img), pixels(orthonormal(img)));
+  }
+
+  @Test
+  public void testDecodeLevelsAveragesBlocks() {
+    Image img = TestImages.random(5, 6, 5);
+    HaarCompressedImage compressed = orthonormal(img);
+    Image half = compressed.decode(1);
+    assertEquals(3, half.getWidth());
+    assertEquals(3, half.getHeight());
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        for (int c = 0; c < 3; c++) {
+          double sum = 0;
+          for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+              sum += img.getPixel(Math.min(2 * row + i, 5), Math.min(2 * col + j, 4))[c];
+            }
+          }
+          assertEquals(sum / 4, half.getPixel(row, col)[c], 0.5 + 1e-9);
+        }
+      }
+    }
+    assertArrayEquals(pixels(img), pixels(compressed.decode(0)));
+  }
+
+  @Test
+  public void testLosslessDecodeLevelsIsCloseToAverages() throws IOException {
+    Image img = TestImages.random(16, 8, 6);
+    File file = tempFile();
+    ImageHandler handler = ImageHandlerFactory.getHandler(file.getPath());
+    handler.saveImage(file.getPath(), img);
+    Image quarter = ((HaarCompressedImage) handler.loadImage(file.getPath())).decode(2);
+    assertEquals(4, quarter.getWidth());
+    assertEquals(2, quarter.getHeight());
+    for (int row = 0; row < 2; row++) {
+      for (int col = 0; col < 4; col++) {
+        for (int c = 0; c < 3; c++) {
+          double sum = 0;
+          for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+              sum += img.getPixel(4 * row + i, 4 * col + j)[c];
+            }
+          }
+          assertEquals(sum / 16, quarter.getPixel(row, col)[c], 1.5);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLevelsForKeepsEdge() {
+    HaarCompressedImage compressed =
+        (HaarCompressedImage) model.compress(TestImages.random(100, 40, 7), 50);
+    assertEquals(0, compressed.levelsFor(100));
+    assertEquals(1, compressed.levelsFor(50));
+    assertEquals(1, compressed.levelsFor(26));
+    assertEquals(2, compressed.levelsFor(25));
+    assertEquals(7, compressed.levelsFor(1));
+    assertEquals(25, compressed.decode(compressed.levelsFor(25)).getWidth());
+  }
+}
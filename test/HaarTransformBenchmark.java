@@ -0,0 +1,190 @@
+import java.util.Arrays;
+import java.util.Random;
+import model.ParallelExecutor;
+import utils.HaarTransform;
+
+/**
+ * Times the two-dimensional Haar transform of the three channels of an image, forward and
+ * inverse, four ways: the original implementation on one array per row, which allocated a new
+ * array for every level and every column; the single-threaded flat transform, whose column pass
+ * walks memory with a stride of a whole row; the parallel transform with blocked columns; and
+ * the lossless integer transform on shorts, also parallel and blocked.
+ * Run it with the test classes on the class path, for example
+ * {@code java -Xmx5g -cp out HaarTransformBenchmark [-threads n] [width height]...}; without
+ * sizes it times a 4K (3840x2160) and an 8K (7680x4320) image, and without -threads the parallel
+ * transforms use every core.
+ *
+ * <p>Forward plus inverse of three channels, best of three runs, on a machine with one core and
+ * -Xmx4500m:
+ * <pre>
+ *                                  4K, 1 thread  4K, 4 threads  8K, 1 thread  8K, 4 threads
+ *   original, one array per row       5713 ms        6191 ms      27098 ms       28631 ms
+ *   flat, single-threaded             5673 ms        6416 ms      25357 ms       26601 ms
+ *   flat, parallel and blocked        1446 ms        2926 ms       8100 ms       10470 ms
+ *   integer, parallel and blocked     1006 ms        1446 ms       4459 ms        5919 ms
+ * </pre>
+ * The blocked column pass alone is three to four times faster. With one core, four threads can
+ * only add the cost of splitting the work, and the speedup on several cores was not measured.
+ */
+public class HaarTransformBenchmark {
+
+  private static final int RUNS = 3;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args optionally -threads and a thread count, then pairs of image width and height
+   */
+  public static void main(String[] args) {
+    boolean threads = args.length >= 2 && args[0].equals("-threads");
+    ParallelExecutor executor = threads ? new ParallelExecutor(Integer.parseInt(args[1]))
+        : new ParallelExecutor();
+    String[] dimensions = threads ? Arrays.copyOfRange(args, 2, args.length) : args;
+    int[] sizes = dimensions.length >= 2
+        ? Arrays.stream(dimensions).mapToInt(Integer::parseInt).toArray()
+        : new int[]{3840, 2160, 7680, 4320};
+    System.out.println("Parallelism " + executor.getParallelism() + ", best of " + RUNS
+        + " runs of forward and inverse on three channels");
+    for (int i = 0; i + 1 < sizes.length; i += 2) {
+      int width = sizes[i];
+      int height = sizes[i + 1];
+      HaarTransform haar = new HaarTransform(width, height);
+      double[][] channels = new double[3][haar.getLength()];
+      Random random = new Random(1);
+      for (double[] channel : channels) {
+        for (int j = 0; j < channel.length; j++) {
+          channel[j] = random.nextInt(256);
+        }
+      }
+      System.out.println(width + "x" + height + " padded to " + haar.getPaddedWidth() + "x"
+          + haar.getPaddedHeight() + ":");
+      if (haar.getPaddedWidth() == haar.getPaddedHeight()) {
+        report("original, one array per row", time(() -> {
+          for (double[] channel : channels) {
+            double[][] matrix = toMatrix(channel, haar.getPaddedWidth());
+            fromMatrix(invOriginal2D(original2D(matrix)), channel);
+          }
+        }));
+      } else {
+        System.out.println("  original, one array per row: square images only");
+      }
+      report("flat, single-threaded", time(() -> {
+        for (double[] channel : channels) {
+          haar.forward(channel);
+          haar.inverse(channel);
+        }
+      }));
+      report("flat, parallel and blocked", time(() -> {
+        haar.forward(channels, executor);
+        haar.inverse(channels, executor);
+      }));
+      short[][] samples = new short[3][haar.getLength()];
+      for (int c = 0; c < 3; c++) {
+        for (int j = 0; j < samples[c].length; j++) {
+          samples[c][j] = (short) channels[c][j];
+        }
+      }
+      report("integer, parallel and blocked", time(() -> {
+        haar.forward(samples, executor);
+        haar.inverse(samples, executor);
+      }));
+    }
+  }
+
+  private static long time(Runnable run) {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long start = System.nanoTime();
+      run.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  private static void report(String name, long nanos) {
+    System.out.printf("  %-30s %8.1f ms%n", name + ":", nanos / 1e6);
+  }
+
+  private static double[][] toMatrix(double[] channel, int size) {
+    double[][] matrix = new double[size][];
+    for (int i = 0; i < size; i++) {
+      matrix[i] = Arrays.copyOfRange(channel, i * size, (i + 1) * size);
+    }
+    return matrix;
+  }
+
+  private static void fromMatrix(double[][] matrix, double[] channel) {
+    for (int i = 0; i < matrix.length; i++) {
+      System.arraycopy(matrix[i], 0, channel, i * matrix.length, matrix.length);
+    }
+  }
+
+  // The original implementation, kept here as the baseline.
+
+  private static double[] original(double[] sequence) {
+    int reqlen = sequence.length;
+    double[] netRes = Arrays.copyOf(sequence, reqlen);
+    while (reqlen > 1) {
+      double[] avgDiff = new double[reqlen];
+      for (int i = 0; i < reqlen; i += 2) {
+        avgDiff[i / 2] = (netRes[i] + netRes[i + 1]) / Math.sqrt(2);
+        avgDiff[reqlen / 2 + i / 2] = (netRes[i] - netRes[i + 1]) / Math.sqrt(2);
+      }
+      System.arraycopy(avgDiff, 0, netRes, 0, reqlen);
+      reqlen /= 2;
+    }
+    return netRes;
+  }
+
+  private static double[] invOriginal(double[] transformed) {
+    int length = transformed.length;
+    double[] result = Arrays.copyOf(transformed, length);
+    for (int m = 2; m <= length; m *= 2) {
+      double[] originalSeq = new double[m];
+      for (int i = 0; i < m / 2; i++) {
+        double avg = result[i];
+        double diff = result[m / 2 + i];
+        originalSeq[2 * i] = (avg + diff) / Math.sqrt(2);
+        originalSeq[2 * i + 1] = (avg - diff) / Math.sqrt(2);
+      }
+      System.arraycopy(originalSeq, 0, result, 0, m);
+    }
+    return result;
+  }
+
+  private static double[][] original2D(double[][] matrix) {
+    int size = matrix.length;
+    for (int i = 0; i < size; i++) {
+      matrix[i] = original(matrix[i]);
+    }
+    for (int j = 0; j < size; j++) {
+      double[] column = new double[size];
+      for (int i = 0; i < size; i++) {
+        column[i] = matrix[i][j];
+      }
+      column = original(column);
+      for (int i = 0; i < size; i++) {
+        matrix[i][j] = column[i];
+      }
+    }
+    return matrix;
+  }
+
+  private static double[][] invOriginal2D(double[][] matrix) {
+    int size = matrix.length;
+    for (int j = 0; j < size; j++) {
+      double[] column = new double[size];
+      for (int i = 0; i < size; i++) {
+        column[i] = matrix[i][j];
+      }
+      column = invOriginal(column);
+      for (int i = 0; i < size; i++) {
+        matrix[i][j] = column[i];
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      matrix[i] = invOriginal(matrix[i]);
+    }
+    return matrix;
+  }
+}
@@ -0,0 +1,244 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import model.ParallelExecutor;
+import org.junit.jupiter.api.Test;
+import utils.HaarTransform;
+
+/**
+ * HaarTransform test.
+ */
+public class HaarTransformTest {
+
+  @Test
+  public void testPaddedSizes() {
+    HaarTransform haar = new HaarTransform(5, 8);
+    assertEquals(8, haar.getPaddedWidth());
+    assertEquals(8, haar.getPaddedHeight());
+    assertEquals(64, haar.getLength());
+    haar = new HaarTransform(1, 17);
+    assertEquals(1, haar.getPaddedWidth());
+    assertEquals(32, haar.getPaddedHeight());
+  }
+
+  @Test
+  public void testForwardOfOneRow() {
+    HaarTransform haar = new HaarTransform(4, 1);
+    double[] data = {9, 7, 3, 5};
+    haar.forward(data);
+    assertArrayEquals(new double[]{12, 4, Math.sqrt(2), -Math.sqrt(2)}, data, 1e-9);
+  }
+
+  @Test
+  public void testPadRepeatsLastColumnAndRow() {
+    HaarTransform haar = new HaarTransform(3, 3);
+    double[] data = new double[16];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        data[row * 4 + col] = row * 3 + col;
+      }
+    }
+    haar.pad(data);
+    assertArrayEquals(new double[]{0, 1, 2, 2, 3, 4, 5, 5, 6, 7, 8, 8, 6, 7, 8, 8}, data);
+  }
+
+  @Test
+  public void testInverseRestoresChannelAndKeepsEnergy() {
+    HaarTransform haar = new HaarTransform(13, 6);
+    Random random = new Random(4);
+    double[] data = new double[haar.getLength()];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = random.nextInt(256);
+    }
+    double[] original = data.clone();
+    haar.forward(data);
+    assertEquals(energy(original), energy(data), 1e-6 * energy(original));
+    haar.inverse(data);
+    assertArrayEquals(original, data, 1e-9);
+  }
+
+  @Test
+  public void testWrongLengthIsRejected() {
+    HaarTransform haar = new HaarTransform(3, 3);
+    assertThrows(IllegalArgumentException.class, () -> haar.forward(new double[9]));
+    assertThrows(IllegalArgumentException.class, () -> new HaarTransform(0, 3));
+  }
+
+  private static double energy(double[] data) {
+    double sum = 0;
+    for (double value : data) {
+      sum += value * value;
+    }
+    return sum;
+  }
+
+  @Test
+  public void testParallelMatchesSequential() {
+    ParallelExecutor executor = new ParallelExecutor(3).withThreshold(0);
+    int[][] sizes = {{37, 21}, {5, 40}, {64, 1}};
+    for (int[] size : sizes) {
+      HaarTransform haar = new HaarTransform(size[0], size[1]);
+      Random random = new Random(size[0]);
+      double[][] channels = new double[3][haar.getLength()];
+      double[][] expected = new double[3][];
+      for (int c = 0; c < 3; c++) {
+        for (int i = 0; i < haar.getLength(); i++) {
+          channels[c][i] = random.nextInt(256);
+        }
+        expected[c] = channels[c].clone();
+        haar.forward(expected[c]);
+      }
+      haar.forward(channels, executor);
+      for (int c = 0; c < 3; c++) {
+        assertArrayEquals(expected[c], channels[c]);
+        haar.inverse(expected[c]);
+      }
+      haar.inverse(channels, executor);
+      for (int c = 0; c < 3; c++) {
+        assertArrayEquals(expected[c], channels[c]);
+      }
+    }
+  }
+
+  @Test
+  public void testIntegerForwardOfOneRow() {
+    HaarTransform haar = new HaarTransform(4, 1);
+    short[] data = {9, 7, 3, 5};
+    haar.forward(data);
+    assertArrayEquals(new short[]{6, 4, 2, -2}, data);
+    haar.inverse(data);
+    assertArrayEquals(new short[]{9, 7, 3, 5}, data);
+  }
+
+  @Test
+  public void testIntegerTransformIsExactlyInvertible() {
+    ParallelExecutor executor = new ParallelExecutor(3).withThreshold(0);
+    int[][] sizes = {{37, 21}, {5, 40}, {64, 64}};
+    for (int[] size : sizes) {
+      HaarTransform haar = new HaarTransform(size[0], size[1]);
+      Random random = new Random(size[1]);
+      short[][] channels = new short[3][haar.getLength()];
+      for (short[] channel : channels) {
+        for (int row = 0; row < size[1]; row++) {
+          for (int col = 0; col < size[0]; col++) {
+            // Extremes next to each other give the largest differences.
+            channel[row * haar.getPaddedWidth() + col] = (short) (random.nextBoolean() ? 255 : 0);
+          }
+        }
+        haar.pad(channel);
+      }
+      short[][] original = new short[3][];
+      short[][] sequential = new short[3][];
+      for (int c = 0; c < 3; c++) {
+        original[c] = channels[c].clone();
+        sequential[c] = channels[c].clone();
+        haar.forward(sequential[c]);
+      }
+      haar.forward(channels, executor);
+      for (int c = 0; c < 3; c++) {
+        assertArrayEquals(sequential[c], channels[c]);
+        for (short value : channels[c]) {
+          assertTrue(value >= -510 && value <= 510);
+        }
+      }
+      haar.inverse(channels, executor);
+      for (int c = 0; c < 3; c++) {
+        assertArrayEquals(original[c], channels[c]);
+        haar.inverse(sequential[c]);
+        assertArrayEquals(original[c], sequential[c]);
+      }
+    }
+  }
+
+  @Test
+  public void testCutoffMatchesSortedMagnitudes() {
+    ParallelExecutor executor = new ParallelExecutor(3).withThreshold(0);
+    HaarTransform haar = new HaarTransform(30, 17);
+    Random random = new Random(6);
+    double[][] channels = new double[3][haar.getLength()];
+    for (double[] channel : channels) {
+      for (int i = 0; i < channel.length; i++) {
+        // Repeated values, zeros of both signs and tiny magnitudes all have to rank correctly.
+        int kind = random.nextInt(4);
+        channel[i] = kind == 0 ? (random.nextBoolean() ? 0.0 : -0.0)
+            : kind == 1 ? random.nextInt(5) - 2 : kind == 2 ? random.nextGaussian() * 1e-7
+            : random.nextGaussian() * 300;
+      }
+    }
+    double[] magnitudes = new double[3 * haar.getLength()];
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < haar.getLength(); i++) {
+        magnitudes[c * haar.getLength() + i] = Math.abs(channels[c][i]);
+      }
+    }
+    Arrays.sort(magnitudes);
+    double[] percents = {0, 12.5, 25, 50, 61.3, 97, 99.99};
+    for (double percent : percents) {
+      double expected = magnitudes[(int) (magnitudes.length * percent / 100)];
+      assertEquals(expected, haar.cutoff(channels, percent, executor), "at " + percent + "%");
+    }
+    assertEquals(Double.POSITIVE_INFINITY, haar.cutoff(channels, 100, executor));
+    assertThrows(IllegalArgumentException.class, () -> haar.cutoff(channels, -1, executor));
+  }
+
+  @Test
+  public void testInverseWithCutoffDropsSmallCoefficients() {
+    ParallelExecutor executor = new ParallelExecutor(2).withThreshold(0);
+    HaarTransform haar = new HaarTransform(20, 9);
+    Random random = new Random(2);
+    double[][] channels = new double[2][haar.getLength()];
+    for (double[] channel : channels) {
+      for (int i = 0; i < channel.length; i++) {
+        channel[i] = random.nextGaussian() * 10;
+      }
+    }
+    double[][] expected = {channels[0].clone(), channels[1].clone()};
+    for (double[] channel : expected) {
+      for (int i = 0; i < channel.length; i++) {
+        if (Math.abs(channel[i]) < 8) {
+          channel[i] = 0;
+        }
+      }
+      haar.inverse(channel);
+    }
+    haar.inverse(channels, 8, executor);
+    assertArrayEquals(expected[0], channels[0]);
+    assertArrayEquals(expected[1], channels[1]);
+  }
+
+  @Test
+  public void testCoarseHalvesEachDimensionDownToOne() {
+    HaarTransform coarse = new HaarTransform(13, 3).coarse(2);
+    assertEquals(4, coarse.getWidth());
+    assertEquals(1, coarse.getHeight());
+    assertEquals(4, coarse.getPaddedWidth());
+    assertEquals(1, coarse.getPaddedHeight());
+    coarse = new HaarTransform(13, 3).coarse(10);
+    assertEquals(1, coarse.getWidth());
+    assertEquals(1, coarse.getHeight());
+  }
+
+  @Test
+  public void testTopLeftBlockIsTransformOfAverages() {
+    HaarTransform haar = new HaarTransform(4, 4);
+    double[] data = new double[16];
+    for (int i = 0; i < 16; i++) {
+      data[i] = i * i % 11;
+    }
+    double[] averages = new double[4];
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 4; col++) {
+        averages[row / 2 * 2 + col / 2] += data[row * 4 + col] / 4;
+      }
+    }
+    haar.forward(data);
+    HaarTransform coarse = haar.coarse(1);
+    coarse.forward(averages);
+    assertArrayEquals(new double[]{averages[0] * 2, averages[1] * 2, averages[2] * 2,
+        averages[3] * 2}, new double[]{data[0], data[1], data[4], data[5]}, 1e-9);
+  }
+}
@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import model.ImageModel;
+import model.ParallelExecutor;
+import model.image.Image;
+import model.image.PackedImage;
+import model.stats.Histogram;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Histogram test. Parallel counts must match a plain count of every pixel, and the derived
+ * operations must follow their formulas.
+ */
+public class HistogramTest {
+
+  private ImageModel model;
+  private PackedImage image;
+
+  /**
+   * Setup method run before each test.
+   */
+  @BeforeEach
+  public void setUp() {
+    model = new ImageModel();
+    image = TestImages.random(57, 41, 11);
+  }
+
+  @Test
+  public void testParallelCountsMatchEveryPixel() {
+    Histogram histogram = Histogram.of(image, new ParallelExecutor(4).withThreshold(0));
+    long[][] expected = new long[4][256];
+    Image luma = model.luma(image);
+    for (int row = 0; row < 41; row++) {
+      for (int col = 0; col < 57; col++) {
+        int[] rgb = image.getPixel(row, col);
+        for (int c = 0; c < 3; c++) {
+          expected[c][rgb[c]]++;
+        }
+        expected[Histogram.LUMA][luma.getPixel(row, col)[0]]++;
+      }
+    }
+
+    assertEquals(57 * 41, histogram.getTotal());
+    for (int c = 0; c < 4; c++) {
+      long[] actual = new long[256];
+      for (int level = 0; level < 256; level++) {
+        actual[level] = histogram.getCount(c, level);
+      }
+      assertArrayEquals(expected[c], actual);
+    }
+  }
+
+  @Test
+  public void testStatistics() {
+    PackedImage small = new PackedImage(4, 1);
+    small.setRow(0, new int[]{0x0A0000, 0x140000, 0x1E0000, 0xC80000});
+    Histogram histogram = model.histogram(small);
+
+    assertEquals(10, histogram.getMin(Histogram.RED));
+    assertEquals(200, histogram.getMax(Histogram.RED));
+    assertEquals(65.0, histogram.getMean(Histogram.RED), 1e-9);
+    assertEquals(20, histogram.getPercentile(Histogram.RED, 50));
+    assertEquals(10, histogram.getPercentile(Histogram.RED, 0));
+    assertEquals(200, histogram.getPercentile(Histogram.RED, 100));
+    assertEquals(0, histogram.getMax(Histogram.GREEN));
+    assertThrows(IllegalArgumentException.class, () -> histogram.getCount(4, 0));
+    assertThrows(IllegalArgumentException.class,
+        () -> histogram.getPercentile(Histogram.RED, 101));
+  }
+
+  @Test
+  public void testAutoLevelsStretchesEachChannel() {
+    PackedImage small = new PackedImage(3, 1);
+    small.setRow(0, new int[]{0x326420, 0x4B6440, 0x646460});
+    Image result = model.autoLevels(small, 0);
+
+    assertArrayEquals(new int[]{0, 100, 0}, result.getPixel(0, 0));
+    assertArrayEquals(new int[]{128, 100, 128}, result.getPixel(0, 1));
+    assertArrayEquals(new int[]{255, 100, 255}, result.getPixel(0, 2));
+  }
+
+  @Test
+  public void testEqualizeSpreadsLevels() {
+    PackedImage small = new PackedImage(4, 1);
+    small.setRow(0, new int[]{0x101010, 0x111111, 0x121212, 0x131313});
+    Image result = model.equalize(small);
+
+    assertArrayEquals(new int[]{0, 0, 0}, result.getPixel(0, 0));
+    assertArrayEquals(new int[]{85, 85, 85}, result.getPixel(0, 1));
+    assertArrayEquals(new int[]{170, 170, 170}, result.getPixel(0, 2));
+    assertArrayEquals(new int[]{255, 255, 255}, result.getPixel(0, 3));
+  }
+
+  @Test
+  public void testColorCorrectRemovesCast() {
+    PackedImage small = new PackedImage(2, 1);
+    small.setRow(0, new int[]{0x604020, 0xC08040});
+    Image result = model.colorCorrect(small, small);
+
+    assertArrayEquals(new int[]{64, 64, 64}, result.getPixel(0, 0));
+    assertArrayEquals(new int[]{128, 128, 128}, result.getPixel(0, 1));
+  }
+
+  @Test
+  public void testCsvAndImage() {
+    Histogram histogram = model.histogram(image);
+    String[] lines = histogram.toCsv().split("\n");
+    Image graph = histogram.toImage(PackedImage::new);
+
+    assertEquals(257, lines.length);
+    assertEquals("level,red,green,blue,luma", lines[0]);
+    assertEquals("0," + histogram.getCount(0, 0) + "," + histogram.getCount(1, 0) + ","
+        + histogram.getCount(2, 0) + "," + histogram.getCount(3, 0), lines[1]);
+    assertEquals(256, graph.getWidth());
+    assertEquals(256, graph.getHeight());
+    assertTrue(histogram.toString().startsWith("red"));
+  }
+}
@@ -5,11 +5,16 @@ import static org.junit.Assert.assertTrue;
 
 import controller.ImageController;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import model.image.Image;
 import model.ImageModel;
+import model.image.PackedImage;
 import org.junit.Before;
 import org.junit.Test;
 import utils.ImageIOHelper;
@@ -61,4 +66,363 @@ public class ImageControllerTest {
     assertTrue("Output should give a prompt related to load'",output.contains("Usage: load <input_file_path> <reference_name>"));
 
   }
+
+  @Test
+  public void testInPlaceCommandKeepsViewsOfImage() throws Exception {
+    File input = File.createTempFile("inplace", ".ppm");
+    File flipped = File.createTempFile("flipped", ".ppm");
+    File brightened = File.createTempFile("brightened", ".ppm");
+    try {
+      PackedImage image = new PackedImage(2, 1);
+      image.setRGB(0, 0, 0x102030);
+      image.setRGB(0, 1, 0x405060);
+      ImageIOHelper.saveImage(input.getPath(), image);
+
+      controller.processCommand("load " + input.getPath() + " a");
+      controller.processCommand("horizontal-flip a b");
+      controller.processCommand("blur a a");
+      controller.processCommand("brighten a a 10");
+      controller.processCommand("save " + flipped.getPath() + " b");
+      controller.processCommand("save " + brightened.getPath() + " a");
+
+      Image view = ImageIOHelper.loadImage(flipped.getPath());
+      assertArrayEquals(new int[]{0x40, 0x50, 0x60}, view.getPixel(0, 0));
+      assertArrayEquals(new int[]{0x10, 0x20, 0x30}, view.getPixel(0, 1));
+      Image expected = model.brighten(model.blur(image), 10);
+      Image actual = ImageIOHelper.loadImage(brightened.getPath());
+      assertArrayEquals(expected.getPixel(0, 0), actual.getPixel(0, 0));
+      assertArrayEquals(expected.getPixel(0, 1), actual.getPixel(0, 1));
+    } finally {
+      input.delete();
+      flipped.delete();
+      brightened.delete();
+    }
+  }
+
+  @Test
+  public void testDeferredSavesMatchImmediateCommands() throws Exception {
+    File input = File.createTempFile("deferred", ".ppm");
+    File eager = File.createTempFile("eager", ".ppm");
+    File deferred = File.createTempFile("deferred", ".ppm");
+    try {
+      PackedImage image = new PackedImage(3, 2);
+      for (int i = 0; i < 6; i++) {
+        image.setRGB(i / 3, i % 3, 0x2A1E0F * (i + 1));
+      }
+      ImageIOHelper.saveImage(input.getPath(), image);
+      String[] script = {"load " + input.getPath() + " a", "load missing.ppm dead",
+          "brighten a b 10", "sepia b c", "invert c c", "blur c c", "rgb-split c r g x",
+          "rgb-combine d r g r", "greyScale a unused", "vertical-flip d e"};
+
+      for (String command : script) {
+        controller.processCommand(command);
+      }
+      controller.processCommand("save " + eager.getPath() + " e");
+      ImageController lazy = new ImageController();
+      lazy.setDeferred(true);
+      for (String command : script) {
+        lazy.processCommand(command);
+      }
+      lazy.processCommand("save " + deferred.getPath() + " e");
+      assertEquals(0, deferred.length());
+      outputStream.reset();
+      lazy.processCommand("flush");
+
+      assertTrue("The unused load should never be read", outputStream.toString().isEmpty());
+      Image expected = ImageIOHelper.loadImage(eager.getPath());
+      Image actual = ImageIOHelper.loadImage(deferred.getPath());
+      for (int i = 0; i < 6; i++) {
+        assertArrayEquals(expected.getPixel(i / 3, i % 3), actual.getPixel(i / 3, i % 3));
+      }
+    } finally {
+      input.delete();
+      eager.delete();
+      deferred.delete();
+    }
+  }
+
+  @Test
+  public void testDeferredLoadReadsFileAsOfItsCommand() throws Exception {
+    File input = File.createTempFile("deferred", ".ppm");
+    File output = File.createTempFile("output", ".ppm");
+    File reloaded = File.createTempFile("reloaded", ".ppm");
+    File old = File.createTempFile("old", ".ppm");
+    try {
+      PackedImage image = new PackedImage(3, 2);
+      PackedImage other = new PackedImage(3, 2);
+      for (int i = 0; i < 6; i++) {
+        image.setRGB(i / 3, i % 3, 0x102030 * (i + 1));
+        other.setRGB(i / 3, i % 3, 0x0A0B0C * (i + 2));
+      }
+      ImageIOHelper.saveImage(input.getPath(), image);
+      ImageIOHelper.saveImage(output.getPath(), other);
+      ImageController lazy = new ImageController();
+      lazy.setDeferred(true);
+      for (String command : new String[]{"load " + input.getPath() + " a",
+          "load " + output.getPath() + " previous", "brighten a b 50",
+          "save " + output.getPath() + " b", "load " + output.getPath() + " c",
+          "save " + reloaded.getPath() + " c", "save " + old.getPath() + " previous"}) {
+        lazy.processCommand(command);
+      }
+      lazy.processCommand("flush");
+
+      Image brightened = model.brighten(image, 50);
+      Image actual = ImageIOHelper.loadImage(reloaded.getPath());
+      Image previous = ImageIOHelper.loadImage(old.getPath());
+      for (int i = 0; i < 6; i++) {
+        assertArrayEquals(brightened.getPixel(i / 3, i % 3), actual.getPixel(i / 3, i % 3));
+        assertArrayEquals(other.getPixel(i / 3, i % 3), previous.getPixel(i / 3, i % 3));
+      }
+    } finally {
+      input.delete();
+      output.delete();
+      reloaded.delete();
+      old.delete();
+    }
+  }
+
+  /**
+   * Image that records whether it was closed.
+   */
+  private static class ClosingImage extends PackedImage implements Closeable {
+
+    boolean closed;
+
+    ClosingImage(int width, int height) {
+      super(width, height);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testOverwrittenImagesAreClosed() throws Exception {
+    File input = File.createTempFile("closed", ".ppm");
+    try {
+      ImageIOHelper.saveImage(input.getPath(), new PackedImage(4, 3));
+      List<ClosingImage> created = new ArrayList<>();
+      ImageController closing = new ImageController((width, height) -> {
+        ClosingImage image = new ClosingImage(width, height);
+        created.add(image);
+        return image;
+      });
+      closing.processCommand("load " + input.getPath() + " a");
+      closing.processCommand("blur a b");
+      closing.processCommand("horizontal-flip b c");
+      closing.processCommand("blur a b");
+      closing.processCommand("blur a d");
+      closing.processCommand("blur d d");
+      closing.processCommand("blur a d");
+
+      assertEquals(5, created.size());
+      assertTrue("The old d is not used any more", created.get(3).closed);
+      for (int i : new int[]{0, 1, 2, 4}) {
+        assertTrue("Image " + i + " is still used", !created.get(i).closed);
+      }
+
+      created.clear();
+      closing.setDeferred(true);
+      closing.processCommand("load " + input.getPath() + " e");
+      closing.processCommand("blur e f");
+      closing.processCommand("sharpen f g");
+      closing.processCommand("save " + input.getPath() + " g");
+      closing.processCommand("flush");
+      assertTrue("The loaded image is kept", !created.get(0).closed);
+      for (int i = 1; i < created.size(); i++) {
+        assertTrue("Intermediate " + i + " is released", created.get(i).closed);
+      }
+    } finally {
+      input.delete();
+    }
+  }
+
+  @Test
+  public void testDeferredCommandWithUnknownImage() {
+    controller.setDeferred(true);
+    controller.processCommand("sepia nothing b");
+
+    assertTrue(outputStream.toString().contains("Unknown image: nothing"));
+  }
+
+  @Test
+  public void testProxyModeRendersSavesAtFullResolution() throws Exception {
+    File input = File.createTempFile("proxy", ".ppm");
+    File preview = File.createTempFile("preview", ".ppm");
+    File eager = File.createTempFile("eager", ".ppm");
+    File rendered = File.createTempFile("rendered", ".ppm");
+    try {
+      PackedImage image = new PackedImage(40, 20);
+      for (int i = 0; i < 800; i++) {
+        image.setRGB(i / 40, i % 40, 0x0F1E2D * (i % 97));
+      }
+      ImageIOHelper.saveImage(input.getPath(), image);
+      String[] script = {"load " + input.getPath() + " a", "blur a a", "sepia a b",
+          "crop b c 4 8 10 20", "sharpen c c"};
+
+      for (String command : script) {
+        controller.processCommand(command);
+      }
+      controller.processCommand("save " + eager.getPath() + " c");
+      ImageController proxy = new ImageController();
+      proxy.setProxy(10);
+      for (String command : script) {
+        proxy.processCommand(command);
+      }
+      proxy.processCommand("preview " + preview.getPath() + " c");
+      proxy.processCommand("save " + rendered.getPath() + " c");
+      proxy.processCommand("flush");
+
+      Image small = ImageIOHelper.loadImage(preview.getPath());
+      assertEquals(5, small.getWidth());
+      assertEquals(3, small.getHeight());
+      Image expected = ImageIOHelper.loadImage(eager.getPath());
+      Image actual = ImageIOHelper.loadImage(rendered.getPath());
+      assertEquals(20, actual.getWidth());
+      assertEquals(10, actual.getHeight());
+      for (int i = 0; i < 200; i++) {
+        assertArrayEquals(expected.getPixel(i / 20, i % 20), actual.getPixel(i / 20, i % 20));
+      }
+    } finally {
+      input.delete();
+      preview.delete();
+      eager.delete();
+      rendered.delete();
+    }
+  }
+
+  @Test
+  public void testRegionArgument() throws Exception {
+    File input = File.createTempFile("region", ".ppm");
+    File eager = File.createTempFile("eager", ".ppm");
+    File deferred = File.createTempFile("deferred", ".ppm");
+    try {
+      PackedImage image = new PackedImage(12, 9);
+      for (int i = 0; i < 108; i++) {
+        image.setRGB(i / 12, i % 12, 0x0B1621 * (i % 23));
+      }
+      ImageIOHelper.saveImage(input.getPath(), image);
+      String[] script = {"load " + input.getPath() + " a", "threshold a m 100",
+          "blur a a region=2,3,4,5", "sepia a b mask=m", "horizontal-flip b b region=0,0,9,6"};
+
+      for (String command : script) {
+        controller.processCommand(command);
+      }
+      controller.processCommand("save " + eager.getPath() + " b");
+      ImageController lazy = new ImageController();
+      lazy.setDeferred(true);
+      for (String command : script) {
+        lazy.processCommand(command);
+      }
+      lazy.processCommand("save " + deferred.getPath() + " b");
+      lazy.processCommand("flush");
+      controller.processCommand("crop a c 0 0 2 2 region=0,0,1,1");
+
+      assertTrue(outputStream.toString().contains("crop cannot be limited to a region"));
+      Image expected = ImageIOHelper.loadImage(eager.getPath());
+      Image actual = ImageIOHelper.loadImage(deferred.getPath());
+      for (int i = 0; i < 108; i++) {
+        assertArrayEquals(expected.getPixel(i / 12, i % 12), actual.getPixel(i / 12, i % 12));
+      }
+      // Outside the blurred and flipped rectangles, only the pixels of the mask are sepia.
+      for (int i = 0; i < 108; i++) {
+        int row = i / 12;
+        int col = i % 12;
+        int[] rgb = image.getPixel(row, col);
+        if (col >= 6 && (row < 2 || row >= 6 || col >= 8)) {
+          boolean selected = Math.max(rgb[0], Math.max(rgb[1], rgb[2])) >= 100;
+          assertArrayEquals(selected ? model.sepia(image).getPixel(row, col) : rgb,
+              expected.getPixel(row, col));
+        }
+      }
+    } finally {
+      input.delete();
+      eager.delete();
+      deferred.delete();
+    }
+  }
+
+  @Test
+  public void testStreamedSavesMatchImmediateCommands() throws Exception {
+    File input = File.createTempFile("stream", ".ppm");
+    File eager = File.createTempFile("eager", ".png");
+    File streamed = File.createTempFile("streamed", ".png");
+    try {
+      PackedImage image = new PackedImage(5, 4);
+      for (int i = 0; i < 20; i++) {
+        image.setRGB(i / 5, i % 5, 0x2A1E0F * (i + 1));
+      }
+      ImageIOHelper.saveImage(input.getPath(), image);
+      String[] script = {"load " + input.getPath() + " a", "brighten a b 10", "blur b c",
+          "sepia c d", "sharpen d e", "convolve e f gaussian:1"};
+
+      for (String command : script) {
+        controller.processCommand(command);
+      }
+      controller.processCommand("save " + eager.getPath() + " f");
+      ImageController streaming = new ImageController();
+      streaming.setStreaming(true);
+      for (String command : script) {
+        streaming.processCommand(command);
+      }
+      streaming.processCommand("save " + streamed.getPath() + " f");
+      streaming.processCommand("flush");
+
+      Image expected = ImageIOHelper.loadImage(eager.getPath());
+      Image actual = ImageIOHelper.loadImage(streamed.getPath());
+      for (int i = 0; i < 20; i++) {
+        assertArrayEquals(expected.getPixel(i / 5, i % 5), actual.getPixel(i / 5, i % 5));
+      }
+    } finally {
+      input.delete();
+      eager.delete();
+      streamed.delete();
+    }
+  }
+
+  @Test
+  public void testCompressedSavesMatchInEveryMode() throws Exception {
+    File input = File.createTempFile("compress", ".ppm");
+    File[] outputs = new File[4];
+    try {
+      ImageIOHelper.saveImage(input.getPath(), TestImages.random(29, 19, 3));
+      for (int i = 0; i < outputs.length; i++) {
+        outputs[i] = File.createTempFile("compressed", ".haar");
+      }
+      String[] script = {"load " + input.getPath() + " a", "blur a d", "compress 90 d e",
+          "compress 90 d d"};
+
+      for (String command : script) {
+        controller.processCommand(command);
+      }
+      controller.processCommand("save " + outputs[0].getPath() + " e");
+      controller.processCommand("save " + outputs[1].getPath() + " d");
+      ImageController lazy = new ImageController();
+      lazy.setDeferred(true);
+      ImageController streaming = new ImageController();
+      streaming.setStreaming(true);
+      for (String command : script) {
+        lazy.processCommand(command);
+        streaming.processCommand(command);
+      }
+      lazy.processCommand("save " + outputs[2].getPath() + " d");
+      lazy.processCommand("flush");
+      streaming.processCommand("save " + outputs[3].getPath() + " d");
+      streaming.processCommand("flush");
+
+      byte[] expected = Files.readAllBytes(outputs[0].toPath());
+      for (int i = 1; i < outputs.length; i++) {
+        assertArrayEquals("output " + i, expected, Files.readAllBytes(outputs[i].toPath()));
+      }
+    } finally {
+      input.delete();
+      for (File output : outputs) {
+        if (output != null) {
+          output.delete();
+        }
+      }
+    }
+  }
 }
@@ -1,9 +1,26 @@
 import static org.junit.Assert.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import model.ImgModel;
+import model.ParallelExecutor;
+import model.filter.Kernel;
+import model.image.GreyImage;
 import model.image.Image;
 import model.ImageModel;
+import model.image.MappedImage;
+import model.image.PackedImage;
+import model.image.Pixels;
+import model.image.Region;
 import model.image.SimpleImage;
+import model.image.TiledImage;
+import model.image.ViewImage;
+import model.pipeline.PointOp;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -228,4 +245,348 @@ public class ImageModelTest {
     });
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testPackedImagePixelRoundTrip() {
+    PackedImage packed = new PackedImage(3, 2);
+    packed.setPixel(1, 2, new int[]{12, 34, 56});
+    assertArrayEquals(new int[]{12, 34, 56}, packed.getPixel(1, 2));
+    assertArrayEquals(new int[]{0, 0, 0}, packed.getPixel(0, 0));
+    assertEquals(0x0C2238, packed.getRGB(1, 2));
+  }
+
+  @Test
+  public void testPackedImageOutOfBounds() {
+    PackedImage packed = new PackedImage(2, 2);
+    assertThrows(IndexOutOfBoundsException.class, () -> {
+      packed.getPixel(0, 2); // Column past the end must not wrap onto the next row
+    });
+  }
+
+  @Test
+  public void testOperationsProducePackedImages() {
+    assertTrue(imageModel.brighten(testImage, 10) instanceof PackedImage);
+    assertTrue(imageModel.blur(testImage) instanceof PackedImage);
+  }
+
+  @Test
+  public void testBulkRegionAccess() {
+    int[] region = new int[4];
+    testImage.getRegion(0, 0, 2, 2, region, 0);
+    assertArrayEquals(new int[]{0xFF0000, 0x00FF00, 0x0000FF, 0xFFFF00}, region);
+
+    PackedImage packed = new PackedImage(2, 2);
+    packed.setRegion(0, 0, 2, 2, region, 0);
+    int[] row = new int[2];
+    packed.getRow(1, row);
+    assertArrayEquals(new int[]{0x0000FF, 0xFFFF00}, row);
+    assertArrayEquals(new int[]{255, 255, 0}, packed.getPixel(1, 1));
+  }
+
+  @Test
+  public void testOperationsOnMappedImage() {
+    ImageModel mappedModel = new ImageModel(MappedImage::new);
+    MappedImage mapped = new MappedImage(2, 2);
+    int[] region = new int[4];
+    testImage.getRegion(0, 0, 2, 2, region, 0);
+    mapped.setRegion(0, 0, 2, 2, region, 0);
+
+    Image blurred = mappedModel.blur(mapped);
+    assertTrue(blurred instanceof MappedImage);
+    assertArrayEquals(new int[]{141, 85, 56}, blurred.getPixel(0, 0));
+    assertArrayEquals(new int[]{141, 170, 56}, blurred.getPixel(1, 1));
+    assertArrayEquals(new int[]{255, 50, 50}, mappedModel.brighten(mapped, 50).getPixel(0, 0));
+    mapped.close();
+    ((MappedImage) blurred).close();
+  }
+
+  @Test
+  public void testFlipTwiceReadsOriginal() {
+    Image flipped = imageModel.flipHorizontal(imageModel.flipHorizontal(testImage));
+    assertArrayEquals(new int[]{255, 0, 0}, flipped.getPixel(0, 0));
+    assertArrayEquals(new int[]{255, 255, 0}, flipped.getPixel(1, 1));
+  }
+
+  @Test
+  public void testWritingViewLeavesSourceUnchanged() {
+    Image flipped = imageModel.flipVertical(testImage);
+    flipped.setPixel(0, 0, new int[]{1, 2, 3});
+    assertArrayEquals(new int[]{1, 2, 3}, flipped.getPixel(0, 0));
+    assertArrayEquals(new int[]{255, 255, 0}, flipped.getPixel(0, 1));
+    assertArrayEquals(new int[]{0, 0, 255}, testImage.getPixel(1, 0));
+  }
+
+  @Test
+  public void testCropOfFlippedComponent() {
+    Image crop = imageModel.crop(imageModel.redComponent(imageModel.flipHorizontal(testImage)),
+        1, 0, 1, 2);
+    assertEquals(2, crop.getWidth());
+    assertEquals(1, crop.getHeight());
+    assertArrayEquals(new int[]{255, 255, 255}, crop.getPixel(0, 0));
+    assertArrayEquals(new int[]{0, 0, 0}, crop.getPixel(0, 1));
+  }
+
+  @Test
+  public void testCropOutsideImage() {
+    assertThrows(IllegalArgumentException.class, () -> {
+      imageModel.crop(testImage, 1, 1, 2, 2);
+    });
+  }
+
+  @Test
+  public void testTiledImageSpillsAndMatchesPacked() {
+    PackedImage packed = new PackedImage(7, 5);
+    TiledImage tiled = new TiledImage(7, 5, 2, 3);
+    int[] line = new int[7];
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 7; col++) {
+        line[col] = (row * 7 + col) * 0x050301;
+      }
+      packed.setRow(row, line);
+      tiled.setRow(row, line);
+    }
+    assertTrue(tiled.getSpills() > 0);
+
+    ImageModel tiledModel = new ImageModel((width, height) -> new TiledImage(width, height, 2, 3));
+    Image expected = imageModel.sharpen(imageModel.blur(packed));
+    Image actual = tiledModel.sharpen(tiledModel.blur(tiled));
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 7; col++) {
+        assertArrayEquals(expected.getPixel(row, col), actual.getPixel(row, col));
+      }
+    }
+    assertTrue(tiled.getReloads() > 0);
+    assertTrue(tiled.getCacheHits() > 0);
+    tiled.close();
+  }
+
+  @Test
+  public void testParallelBandsOnTiledImageMatchPacked() {
+    PackedImage packed = TestImages.random(61, 47, 5);
+    TiledImage tiled = new TiledImage(61, 47, 8, 2);
+    int[] line = new int[61];
+    for (int row = 0; row < 47; row++) {
+      packed.getRow(row, line);
+      tiled.setRow(row, line);
+    }
+    ImageModel tiledModel = new ImageModel((width, height) -> new TiledImage(width, height, 8, 2),
+        new ParallelExecutor(4).withThreshold(0));
+    int[] expected = new int[61 * 47];
+    int[] actual = new int[61 * 47];
+    imageModel.sharpen(imageModel.blur(packed)).getRegion(0, 0, 47, 61, expected, 0);
+    tiledModel.sharpen(tiledModel.blur(tiled)).getRegion(0, 0, 47, 61, actual, 0);
+    assertArrayEquals(expected, actual);
+    assertTrue(tiled.getReloads() > 0);
+    tiled.close();
+  }
+
+  @Test
+  public void testParallelMatchesSequential() {
+    PackedImage large = TestImages.random(301, 287, 7);
+    ImageModel sequential = new ImageModel(PackedImage::new, new ParallelExecutor(1));
+    ImageModel parallel = new ImageModel(PackedImage::new,
+        new ParallelExecutor(4).withThreshold(0));
+    List<Function<ImgModel, Image>> operations = Arrays.asList(
+        model -> model.brighten(large, 23),
+        model -> model.toGreyscale(large),
+        model -> model.sepia(large),
+        model -> model.luma(large),
+        model -> model.value(large),
+        model -> model.intensity(large),
+        model -> model.blur(large),
+        model -> model.sharpen(large),
+        model -> model.combineImage(large, model.flipVertical(large), large));
+    int[] expected = new int[301 * 287];
+    int[] actual = new int[301 * 287];
+    for (Function<ImgModel, Image> operation : operations) {
+      operation.apply(sequential).getRegion(0, 0, 287, 301, expected, 0);
+      operation.apply(parallel).getRegion(0, 0, 287, 301, actual, 0);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testInPlaceMatchesNewImage() {
+    PackedImage large = TestImages.random(157, 611, 3);
+    Kernel direct = Kernel.of(new double[][]{{0.5, -1.5, 2.25}, {0, 1.1, 0}, {-0.3, 0.7, 0.1},
+        {0.2, 0.2, 0.2}, {-0.1, 0.4, 0}});
+    List<BiFunction<ImgModel, Image, Image>> newImage = Arrays.asList(
+        (model, img) -> model.brighten(img, -37),
+        (model, img) -> model.sepia(img),
+        (model, img) -> model.greenComponent(img),
+        (model, img) -> model.flipHorizontal(img),
+        (model, img) -> model.flipVertical(img),
+        (model, img) -> model.blur(img),
+        (model, img) -> model.sharpen(img),
+        (model, img) -> model.convolve(img, Kernel.box(9)),
+        (model, img) -> model.convolve(img, direct));
+    List<BiFunction<ImgModel, Image, Image>> inPlace = Arrays.asList(
+        (model, img) -> model.brighten(img, -37, img),
+        (model, img) -> model.sepia(img, img),
+        (model, img) -> model.greenComponent(img, img),
+        (model, img) -> model.flipHorizontal(img, img),
+        (model, img) -> model.flipVertical(img, img),
+        (model, img) -> model.blur(img, img),
+        (model, img) -> model.sharpen(img, img),
+        (model, img) -> model.convolve(img, Kernel.box(9), img),
+        (model, img) -> model.convolve(img, direct, img));
+    ImageModel sequential = new ImageModel(PackedImage::new, new ParallelExecutor(1));
+    ImageModel parallel = new ImageModel(PackedImage::new,
+        new ParallelExecutor(4).withThreshold(0));
+    int[] expected = new int[157 * 611];
+    int[] actual = new int[157 * 611];
+    for (int i = 0; i < newImage.size(); i++) {
+      newImage.get(i).apply(sequential, large).getRegion(0, 0, 611, 157, expected, 0);
+      for (ImageModel model : Arrays.asList(sequential, parallel)) {
+        PackedImage copy = new PackedImage(157, 611);
+        large.getRegion(0, 0, 611, 157, actual, 0);
+        copy.setRegion(0, 0, 611, 157, actual, 0);
+        assertTrue(inPlace.get(i).apply(model, copy) == copy);
+        copy.getRegion(0, 0, 611, 157, actual, 0);
+        assertArrayEquals(expected, actual, "operation " + i);
+      }
+    }
+  }
+
+  @Test
+  public void testDestinationReadThroughViewOfItself() {
+    PackedImage copy = new PackedImage(2, 2);
+    int[] region = new int[4];
+    testImage.getRegion(0, 0, 2, 2, region, 0);
+    copy.setRegion(0, 0, 2, 2, region, 0);
+    Image expected = imageModel.blur(imageModel.flipHorizontal(testImage));
+    imageModel.blur(imageModel.flipHorizontal(copy), copy);
+    for (int row = 0; row < 2; row++) {
+      for (int col = 0; col < 2; col++) {
+        assertArrayEquals(expected.getPixel(row, col), copy.getPixel(row, col));
+      }
+    }
+    assertThrows(IllegalArgumentException.class, () -> {
+      imageModel.blur(testImage, new PackedImage(3, 2));
+    });
+  }
+
+  @Test
+  public void testSplitChannelsAndCombine() {
+    PackedImage image = TestImages.random(41, 23, 9);
+    Image[] channels = imageModel.splitChannels(image);
+    Image[] components = {imageModel.redComponent(image), imageModel.greenComponent(image),
+        imageModel.blueComponent(image)};
+    int[] expected = new int[41 * 23];
+    int[] actual = new int[41 * 23];
+    for (int c = 0; c < 3; c++) {
+      assertTrue(channels[c] instanceof GreyImage);
+      components[c].getRegion(0, 0, 23, 41, expected, 0);
+      channels[c].getRegion(0, 0, 23, 41, actual, 0);
+      assertArrayEquals(expected, actual);
+    }
+    image.getRegion(0, 0, 23, 41, expected, 0);
+    imageModel.combineImage(channels[0], channels[1], channels[2])
+        .getRegion(0, 0, 23, 41, actual, 0);
+    assertArrayEquals(expected, actual);
+
+    // Splitting into the image itself keeps the red channel there.
+    components[0].getRegion(0, 0, 23, 41, expected, 0);
+    imageModel.splitChannels(image, image, new GreyImage(41, 23), new GreyImage(41, 23));
+    image.getRegion(0, 0, 23, 41, actual, 0);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void testGreyImageRejectsColour() {
+    GreyImage grey = new GreyImage(2, 2);
+    grey.setPixel(0, 1, new int[]{7, 7, 7});
+    assertArrayEquals(new int[]{7, 7, 7}, grey.getPixel(0, 1));
+    assertEquals(7, grey.getLevel(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> {
+      grey.setPixel(1, 1, new int[]{1, 2, 3});
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      imageModel.sepia(testImage, grey);
+    });
+    imageModel.blur(grey, grey);
+    assertArrayEquals(new int[]{1, 1, 1}, grey.getPixel(0, 0));
+  }
+
+  @Test
+  public void testApplyToRegionMatchesWholeImageInside() {
+    PackedImage image = TestImages.random(47, 31, 13);
+    Region[] regions = {Region.of(5, 7, 11, 13), Region.of(0, 0, 4, 47),
+        Region.of(20, 40, 30, 30)};
+    List<Function<Image, Image>> operations = Arrays.asList(imageModel::blur,
+        imageModel::sharpen, imageModel::sepia, img -> imageModel.brighten(img, 20));
+    int[] halos = {1, 2, 0, 0};
+    for (Region region : regions) {
+      for (int i = 0; i < operations.size(); i++) {
+        Function<Image, Image> op = operations.get(i);
+        Image whole = op.apply(image);
+        Image limited = imageModel.applyToRegion(image, region, halos[i], op::apply);
+        PackedImage copy = new PackedImage(47, 31);
+        imageModel.apply(image, PointOp.identity(), copy);
+        imageModel.applyToRegion(copy, region, halos[i], op::apply, copy);
+        for (int row = 0; row < 31; row++) {
+          for (int col = 0; col < 47; col++) {
+            int[] expected = (region.contains(row, col) ? whole : image).getPixel(row, col);
+            assertArrayEquals(expected, limited.getPixel(row, col));
+            assertArrayEquals(expected, copy.getPixel(row, col));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testApplyToMaskedRegion() {
+    PackedImage image = new PackedImage(4, 3);
+    PackedImage mask = new PackedImage(4, 3);
+    for (int i = 0; i < 12; i++) {
+      image.setRGB(i / 4, i % 4, 0x101010 * i);
+    }
+    mask.setRGB(1, 1, 0xFFFFFF);
+    mask.setRGB(2, 3, 0x800000);
+    mask.setRGB(0, 3, 0x7F7F7F);
+    Region region = Region.of(mask);
+    Image inverted = imageModel.applyToRegion(image, region, 0,
+        img -> imageModel.apply(img, PointOp.invert()));
+
+    assertEquals(1, region.getRow());
+    assertEquals(1, region.getCol());
+    assertEquals(2, region.getHeight());
+    assertEquals(3, region.getWidth());
+    assertTrue(region.isMasked());
+    for (int i = 0; i < 12; i++) {
+      int expected = i == 5 || i == 11 ? 0xFFFFFF - 0x101010 * i : 0x101010 * i;
+      assertEquals(expected, Pixels.pack(inverted.getPixel(i / 4, i % 4)[0],
+          inverted.getPixel(i / 4, i % 4)[1], inverted.getPixel(i / 4, i % 4)[2]));
+    }
+    assertTrue(((ViewImage) inverted).dependsOn(image));
+    assertThrows(IllegalArgumentException.class,
+        () -> imageModel.applyToRegion(image, region, 0, img -> imageModel.crop(img, 0, 0, 1, 1)));
+  }
+
+  @Test
+  public void testCompressWithoutDroppingRestoresImage() {
+    PackedImage image = TestImages.random(7, 5, 8);
+    Image result = imageModel.compress(image, 0);
+    for (int i = 0; i < 35; i++) {
+      assertArrayEquals(image.getPixel(i / 7, i % 7), result.getPixel(i / 7, i % 7));
+    }
+  }
+
+  @Test
+  public void testCompressDropsSmallCoefficients() {
+    PackedImage image = new PackedImage(8, 4);
+    for (int i = 0; i < 32; i++) {
+      image.setRGB(i / 8, i % 8, 0x404040 + (i % 2) * 0x020202);
+    }
+    // 15 of the 96 coefficients are not zero, and the 3 averages are the largest; keeping only
+    // those leaves a flat image of the mean.
+    Image flat = imageModel.compress(image, 97);
+    for (int i = 0; i < 32; i++) {
+      assertArrayEquals(new int[]{65, 65, 65}, flat.getPixel(i / 8, i % 8));
+    }
+    Image black = imageModel.compress(image, 100);
+    assertArrayEquals(new int[]{0, 0, 0}, black.getPixel(3, 7));
+    assertThrows(IllegalArgumentException.class, () -> imageModel.compress(image, 101));
+    assertThrows(IllegalArgumentException.class, () -> imageModel.compress(null, 10));
+  }
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import model.ImageModel;
+import model.image.Image;
+import model.image.PackedImage;
+import model.pipeline.PointOp;
+import model.pipeline.PointOpView;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * PointOp test. Composed operations must give exactly what the separate model operations give.
+ */
+public class PointOpTest {
+
+  private ImageModel model;
+  private PackedImage image;
+
+  /**
+   * Setup method run before each test.
+   */
+  @BeforeEach
+  public void setUp() {
+    model = new ImageModel();
+    image = TestImages.random(31, 19, 5);
+  }
+
+  @Test
+  public void testChainMatchesSeparateOperations() {
+    Image expected = model.luma(model.sepia(model.brighten(model.brighten(image, 30), 20)));
+    PointOp chain = PointOp.chain(PointOp.brighten(30), PointOp.brighten(20), PointOp.sepia(),
+        PointOp.luma());
+    assertSameImage(expected, model.apply(image, chain));
+  }
+
+  @Test
+  public void testFusedChannelAndGreyOperations() {
+    Image expected = model.intensity(model.value(model.redComponent(model.sepia(image))));
+    PointOp chain = PointOp.sepia().then(PointOp.channel(0)).then(PointOp.value())
+        .then(PointOp.intensity());
+    assertSameImage(expected, model.apply(image, chain));
+    expected = model.greenComponent(model.toGreyscale(model.brighten(image, -40)));
+    chain = PointOp.chain(PointOp.brighten(-40), PointOp.greyscale(), PointOp.channel(1));
+    assertSameImage(expected, model.apply(image, chain));
+  }
+
+  @Test
+  public void testOffsetsOfOppositeSignAreNotMerged() {
+    Image expected = model.brighten(model.brighten(image, -100), 100);
+    assertSameImage(expected, model.apply(image, PointOp.brighten(-100)
+        .then(PointOp.brighten(100))));
+  }
+
+  @Test
+  public void testStackedViewsComposeOntoSource() {
+    PointOpView first = PointOpView.of(image, PointOp.brighten(10), PackedImage::new);
+    PointOpView second = PointOpView.of(first, PointOp.sepia(), PackedImage::new);
+    PointOpView third = PointOpView.of(second, PointOp.channel(2), PackedImage::new);
+    assertSame(image, third.getSource());
+    assertSameImage(model.blueComponent(model.sepia(model.brighten(image, 10))), third);
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> PointOp.channel(3));
+    assertThrows(IllegalArgumentException.class, () -> PointOp.matrix(new double[2][3]));
+    assertThrows(IllegalArgumentException.class, () -> model.apply(null, PointOp.sepia()));
+    assertThrows(IllegalArgumentException.class,
+        () -> PointOpView.of(null, PointOp.sepia(), PackedImage::new));
+  }
+
+  private static void assertSameImage(Image expected, Image actual) {
+    int width = expected.getWidth();
+    int[] expectedRow = new int[width];
+    int[] actualRow = new int[width];
+    for (int row = 0; row < expected.getHeight(); row++) {
+      expected.getRow(row, expectedRow);
+      actual.getRow(row, actualRow);
+      assertArrayEquals(expectedRow, actualRow, "row " + row);
+    }
+  }
+
+  @Test
+  public void testLookupTableOperations() {
+    int[] pixel = new int[1];
+    image.getRegion(3, 4, 1, 1, pixel, 0);
+    int rgb = pixel[0];
+    assertEquals(rgb ^ 0xFFFFFF, PointOp.invert().apply(rgb));
+    assertEquals(rgb, PointOp.invert().then(PointOp.invert()).apply(rgb));
+    assertEquals(rgb, PointOp.gamma(1).apply(rgb));
+    assertEquals(0xFF0000, PointOp.threshold(128).apply(0x80_7F_00));
+    assertEquals(0x00_80_FF, PointOp.levels(64, 128, 1).apply(0x10_60_C0));
+    PointOp curve = PointOp.curves(new int[][]{{50, 0}, {150, 200}});
+    assertEquals(0x00_64_C8, curve.apply(0x20_64_FF));
+  }
+
+  @Test
+  public void testComposedLookupTablesMatchSeparateOperations() {
+    PointOp[] ops = {PointOp.brighten(70), PointOp.gamma(2.2), PointOp.invert(),
+        PointOp.levels(10, 240, 0.8), PointOp.threshold(90), PointOp.brighten(-30)};
+    Image expected = image;
+    for (PointOp op : ops) {
+      expected = model.apply(expected, op);
+    }
+    assertSameImage(expected, model.apply(image, PointOp.chain(ops)));
+  }
+
+  @Test
+  public void testInvalidLookupTables() {
+    assertThrows(IllegalArgumentException.class, () -> PointOp.gamma(0));
+    assertThrows(IllegalArgumentException.class, () -> PointOp.levels(200, 100, 1));
+    assertThrows(IllegalArgumentException.class,
+        () -> PointOp.curves(new int[][]{{10, 0}, {10, 255}}));
+    assertThrows(IllegalArgumentException.class, () -> PointOp.lut(new int[255]));
+  }
+}
@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import model.ImageModel;
+import model.ParallelExecutor;
+import model.filter.Pyramid;
+import model.filter.Resampler;
+import model.image.Image;
+import model.image.PackedImage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Resampler and Pyramid test. Area averaging is checked against a direct sum over every pair of
+ * source and destination pixels.
+ */
+public class ResamplerTest {
+
+  private ImageModel model;
+  private PackedImage image;
+
+  /**
+   * Setup method run before each test.
+   */
+  @BeforeEach
+  public void setUp() {
+    model = new ImageModel(PackedImage::new, new ParallelExecutor(3).withThreshold(0));
+    image = TestImages.random(37, 29, 17);
+  }
+
+  @Test
+  public void testAreaMatchesDirectSum() {
+    int[][] sizes = {{18, 14}, {10, 7}, {37, 29}, {1, 1}, {50, 40}, {37, 5}};
+    for (int[] size : sizes) {
+      Image result = model.resize(image, size[0], size[1], Resampler.AREA);
+      assertEquals(size[0], result.getWidth());
+      assertEquals(size[1], result.getHeight());
+      for (int row = 0; row < size[1]; row++) {
+        for (int col = 0; col < size[0]; col++) {
+          assertArrayEquals(areaPixel(image, size[0], size[1], row, col),
+              result.getPixel(row, col), size[0] + "x" + size[1] + " at " + row + "," + col);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHalvingAveragesBlocks() {
+    PackedImage small = new PackedImage(2, 2);
+    small.setRow(0, new int[]{0x000000, 0x010203});
+    small.setRow(1, new int[]{0x0A0B0C, 0xFFFFFF});
+    Image half = model.resize(small, 1, 1, Resampler.AREA);
+
+    assertArrayEquals(new int[]{67, 67, 68}, half.getPixel(0, 0));
+  }
+
+  @Test
+  public void testBilinear() {
+    PackedImage small = new PackedImage(2, 1);
+    small.setRow(0, new int[]{0x000000, 0x804020});
+    Image wide = model.resize(small, 4, 1, Resampler.BILINEAR);
+
+    assertArrayEquals(new int[]{0, 0, 0}, wide.getPixel(0, 0));
+    assertArrayEquals(new int[]{32, 16, 8}, wide.getPixel(0, 1));
+    assertArrayEquals(new int[]{96, 48, 24}, wide.getPixel(0, 2));
+    assertArrayEquals(new int[]{128, 64, 32}, wide.getPixel(0, 3));
+    Image same = model.resize(image, 37, 29, Resampler.BILINEAR);
+    for (int row = 0; row < 29; row++) {
+      for (int col = 0; col < 37; col++) {
+        assertArrayEquals(image.getPixel(row, col), same.getPixel(row, col));
+      }
+    }
+  }
+
+  @Test
+  public void testPyramidLevels() {
+    Pyramid pyramid = model.pyramid(image);
+
+    assertEquals(6, pyramid.getLevelCount());
+    assertSame(image, pyramid.getLevel(0));
+    Image level2 = pyramid.getLevel(2);
+    assertEquals(9, level2.getWidth());
+    assertEquals(7, level2.getHeight());
+    assertEquals(1, pyramid.getLevel(5).getWidth());
+    assertEquals(1, pyramid.getLevel(5).getHeight());
+    assertSame(level2, pyramid.getLevel(2));
+    Image half = model.resize(model.resize(image, 18, 14, Resampler.AREA), 9, 7, Resampler.AREA);
+    assertSamePixels(half, level2);
+    assertThrows(IllegalArgumentException.class, () -> pyramid.getLevel(6));
+  }
+
+  @Test
+  public void testPyramidResizesFromNearestLevel() {
+    Pyramid pyramid = model.pyramid(image);
+    Image thumbnail = pyramid.resize(8, 6);
+
+    assertSamePixels(model.resize(pyramid.getLevel(2), 8, 6, Resampler.AREA), thumbnail);
+    assertSamePixels(model.resize(image, 20, 20, Resampler.AREA), pyramid.resize(20, 20));
+  }
+
+  private static int[] areaPixel(Image img, int width, int height, int row, int col) {
+    long[] sums = new long[3];
+    for (int r = 0; r < img.getHeight(); r++) {
+      long rowWeight = overlap(r, img.getHeight(), row, height);
+      for (int c = 0; c < img.getWidth() && rowWeight > 0; c++) {
+        long weight = rowWeight * overlap(c, img.getWidth(), col, width);
+        int[] rgb = img.getPixel(r, c);
+        for (int i = 0; i < 3; i++) {
+          sums[i] += weight * rgb[i];
+        }
+      }
+    }
+    long total = (long) img.getWidth() * img.getHeight();
+    int[] rgb = new int[3];
+    for (int i = 0; i < 3; i++) {
+      rgb[i] = (int) ((sums[i] + total / 2) / total);
+    }
+    return rgb;
+  }
+
+  private static long overlap(int src, int srcSize, int dest, int size) {
+    long start = Math.max((long) src * size, (long) dest * srcSize);
+    long end = Math.min((long) (src + 1) * size, (long) (dest + 1) * srcSize);
+    return Math.max(0, end - start);
+  }
+
+  private static void assertSamePixels(Image expected, Image actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int row = 0; row < expected.getHeight(); row++) {
+      for (int col = 0; col < expected.getWidth(); col++) {
+        assertArrayEquals(expected.getPixel(row, col), actual.getPixel(row, col));
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import model.ImageModel;
+import model.ParallelExecutor;
+import model.filter.Convolver;
+import model.filter.Kernel;
+import model.image.Image;
+import model.image.PackedImage;
+import model.pipeline.PointOp;
+import model.stream.ConvolutionStage;
+import model.stream.RowSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import utils.ImageIOHelper;
+import utils.ScanlineReader;
+
+/**
+ * Streaming test. Streamed operations are checked against the same operations on whole images,
+ * and the PNG rows against ImageIO.
+ */
+public class StreamTest {
+
+  private ImageModel model;
+  private PackedImage image;
+
+  /**
+   * Setup method run before each test.
+   */
+  @BeforeEach
+  public void setUp() {
+    model = new ImageModel(PackedImage::new, new ParallelExecutor(3).withThreshold(0));
+    image = TestImages.random(23, 41, 5);
+  }
+
+  @Test
+  public void testConvolutionStageMatchesWholeImage() {
+    Kernel[] kernels = {Kernel.box(1), Kernel.gaussian(2), Kernel.box(4),
+        Kernel.of(new double[][]{{1, 2, 1}}, 4), Kernel.of(new double[][]{{-1}, {3}, {-1}})};
+    int[] bands = {1, 2, 5, 64};
+    for (Kernel kernel : kernels) {
+      Image expected = model.convolve(image, kernel);
+      for (int band : bands) {
+        RowSource rows = new ConvolutionStage(RowSource.of(image), new Convolver(kernel),
+            new ParallelExecutor(2), band);
+        assertSameRows(expected, rows);
+      }
+    }
+  }
+
+  @Test
+  public void testConvolutionStageOnImagesShorterThanKernel() {
+    for (int height = 1; height <= 3; height++) {
+      PackedImage small = TestImages.random(7, height, height);
+      assertSameRows(model.convolve(small, Kernel.box(3)),
+          model.convolveRows(RowSource.of(small), Kernel.box(3)));
+    }
+  }
+
+  @Test
+  public void testChainedStagesMatchWholeImage() {
+    PointOp op = PointOp.brighten(20).then(PointOp.sepia());
+    Image expected = model.sharpen(model.blur(model.apply(image, op)));
+    assertSameRows(expected,
+        model.sharpenRows(model.blurRows(model.applyRows(RowSource.of(image), op))));
+  }
+
+  @Test
+  public void testReadingPastTheLastRow() {
+    RowSource rows = model.blurRows(RowSource.of(TestImages.random(4, 2, 1)));
+    int[] row = new int[4];
+    rows.readRow(row);
+    rows.readRow(row);
+    assertThrows(IllegalStateException.class, () -> rows.readRow(row));
+  }
+
+  @Test
+  public void testPngRowsMatchImageIo() throws IOException {
+    int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED,
+        BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_BINARY};
+    Random random = new Random(3);
+    for (int type : types) {
+      BufferedImage buffered = new BufferedImage(19, 11, type);
+      for (int row = 0; row < 11; row++) {
+        for (int col = 0; col < 19; col++) {
+          buffered.setRGB(col, row, random.nextInt());
+        }
+      }
+      File file = File.createTempFile("rows", ".png");
+      try {
+        ImageIO.write(buffered, "png", file);
+        BufferedImage decoded = ImageIO.read(file);
+        Image loaded = ImageIOHelper.loadImage(file.getPath());
+        try (ScanlineReader reader = ImageIOHelper.openReader(file.getPath())) {
+          int[] row = new int[19];
+          for (int i = 0; i < 11; i++) {
+            reader.readRow(row);
+            for (int j = 0; j < 19; j++) {
+              // ImageIO converts grey from a linear colour space; PNG stores display values.
+              int rgb = type == BufferedImage.TYPE_BYTE_GRAY
+                  ? decoded.getRaster().getSample(j, i, 0) * 0x010101
+                  : decoded.getRGB(j, i) & 0xFFFFFF;
+              assertEquals(rgb, row[j], "type " + type + " at " + i + "," + j);
+              assertEquals(rgb, ((PackedImage) loaded).getRGB(i, j));
+            }
+          }
+        }
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  @Test
+  public void testPngWriterRoundTrips() throws IOException {
+    File file = File.createTempFile("rows", ".png");
+    try {
+      ImageIOHelper.saveImage(file.getPath(), image);
+      BufferedImage decoded = ImageIO.read(file);
+      for (int row = 0; row < image.getHeight(); row++) {
+        for (int col = 0; col < image.getWidth(); col++) {
+          assertEquals(image.getRGB(row, col), decoded.getRGB(col, row) & 0xFFFFFF);
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testPngNameOnOtherFormatFallsBackToImageIo() throws IOException {
+    BufferedImage buffered = new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB);
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 7; col++) {
+        buffered.setRGB(col, row, image.getRGB(row, col));
+      }
+    }
+    File file = File.createTempFile("misnamed", ".png");
+    try {
+      ImageIO.write(buffered, "bmp", file);
+      Image loaded = ImageIOHelper.loadImage(file.getPath());
+      assertEquals(7, loaded.getWidth());
+      assertEquals(5, loaded.getHeight());
+      try (ScanlineReader reader = ImageIOHelper.openReader(file.getPath())) {
+        int[] row = new int[7];
+        for (int i = 0; i < 5; i++) {
+          reader.readRow(row);
+          for (int j = 0; j < 7; j++) {
+            assertEquals(image.getRGB(i, j), row[j]);
+            assertEquals(image.getRGB(i, j), ((PackedImage) loaded).getRGB(i, j));
+          }
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testSaveRowsStreamsBetweenFormats() throws IOException {
+    File input = File.createTempFile("rows", ".ppm");
+    File output = File.createTempFile("rows", ".png");
+    try {
+      ImageIOHelper.saveImage(input.getPath(), image);
+      try (ScanlineReader reader = ImageIOHelper.openReader(input.getPath())) {
+        ImageIOHelper.saveRows(output.getPath(), model.blurRows(reader));
+      }
+      Image expected = model.blur(image);
+      assertSameRows(expected, RowSource.of(ImageIOHelper.loadImage(output.getPath())));
+    } finally {
+      input.delete();
+      output.delete();
+    }
+  }
+
+  private static void assertSameRows(Image expected, RowSource rows) {
+    assertEquals(expected.getWidth(), rows.getWidth());
+    assertEquals(expected.getHeight(), rows.getHeight());
+    int[] want = new int[rows.getWidth()];
+    int[] row = new int[rows.getWidth()];
+    for (int i = 0; i < rows.getHeight(); i++) {
+      expected.getRow(i, want);
+      rows.readRow(row);
+      assertArrayEquals(want, row, "row " + i);
+    }
+  }
+}
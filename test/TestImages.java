@@ -0,0 +1,33 @@
+import java.util.Random;
+import model.image.PackedImage;
+
+/**
+ * Images shared by the tests.
+ */
+final class TestImages {
+
+  private TestImages() {
+  }
+
+  /**
+   * Return an image of random colours. The same seed always gives the same pixels, filled row by
+   * row from the top left.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param seed the seed of the random colours
+   * @return the image
+   */
+  static PackedImage random(int width, int height, long seed) {
+    Random random = new Random(seed);
+    PackedImage image = new PackedImage(width, height);
+    int[] line = new int[width];
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        line[col] = random.nextInt(0x1000000);
+      }
+      image.setRow(row, line);
+    }
+    return image;
+  }
+}
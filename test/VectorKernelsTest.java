@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import model.ImageModel;
+import model.image.Image;
+import model.image.PackedImage;
+import model.pipeline.PointOp;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Vector kernel test. Every one of the 2^24 colours is run through the bulk path of each colour
+ * operation and compared with the per-pixel double arithmetic the model has always used. When the
+ * JVM runs without jdk.incubator.vector the scalar fallback is checked instead.
+ */
+public class VectorKernelsTest {
+
+  private static final int COLOURS = 1 << 24;
+
+  @Test
+  public void testSepia() {
+    assertAllColours(PointOp.sepia(), rgb -> {
+      int red = (rgb >> 16) & 0xFF;
+      int green = (rgb >> 8) & 0xFF;
+      int blue = rgb & 0xFF;
+      int newR = (int) Math.min((0.393 * red + 0.769 * green + 0.189 * blue), 255);
+      int newG = (int) Math.min((0.349 * red + 0.686 * green + 0.168 * blue), 255);
+      int newB = (int) Math.min((0.272 * red + 0.534 * green + 0.131 * blue), 255);
+      return (newR << 16) | (newG << 8) | newB;
+    });
+  }
+
+  @Test
+  public void testLuma() {
+    assertAllColours(PointOp.luma(), rgb -> {
+      int luma = (int) (0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF)
+          + 0.114 * (rgb & 0xFF));
+      return luma * 0x010101;
+    });
+  }
+
+  @Test
+  public void testValue() {
+    assertAllColours(PointOp.value(), rgb -> Math.max((rgb >> 16) & 0xFF,
+        Math.max((rgb >> 8) & 0xFF, rgb & 0xFF)) * 0x010101);
+  }
+
+  @Test
+  public void testIntensity() {
+    assertAllColours(PointOp.intensity(), rgb -> (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF)
+        + (rgb & 0xFF)) / 3 * 0x010101);
+  }
+
+  @Test
+  public void testMatrixWithNegativeWeights() {
+    PointOp op = PointOp.matrix(new double[][]{{1.5, -0.25, 0}, {-1, 2, -1}, {0.125, 0.5, 0.375}});
+    assertAllColours(op, op::apply);
+  }
+
+  @Test
+  public void testModelOperationsOnOddWidth() {
+    ImageModel model = new ImageModel();
+    PackedImage image = new PackedImage(37, 5);
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 37; col++) {
+        image.setRGB(row, col, (row * 37 + col) * 90001);
+      }
+    }
+    Image sepia = model.sepia(image);
+    Image grey = model.toGreyscale(image);
+    PointOp sepiaOp = PointOp.sepia();
+    PointOp greyOp = PointOp.greyscale();
+    int[] pixel = new int[1];
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 37; col++) {
+        int rgb = image.getRGB(row, col);
+        sepia.getRegion(row, col, 1, 1, pixel, 0);
+        assertEquals(sepiaOp.apply(rgb), pixel[0]);
+        grey.getRegion(row, col, 1, 1, pixel, 0);
+        assertEquals(greyOp.apply(rgb), pixel[0]);
+      }
+    }
+  }
+
+  /**
+   * Reference per-pixel formula.
+   */
+  private interface Formula {
+
+    int apply(int rgb);
+  }
+
+  private static void assertAllColours(PointOp op, Formula formula) {
+    int[] pixels = new int[COLOURS];
+    for (int rgb = 0; rgb < COLOURS; rgb++) {
+      pixels[rgb] = rgb;
+    }
+    op.apply(pixels, 0, COLOURS);
+    for (int rgb = 0; rgb < COLOURS; rgb++) {
+      if (pixels[rgb] != formula.apply(rgb)) {
+        assertEquals(formula.apply(rgb), pixels[rgb], "colour " + Integer.toHexString(rgb));
+      }
+    }
+  }
+}
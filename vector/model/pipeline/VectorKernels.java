@@ -0,0 +1,118 @@
+package model.pipeline;
+
+import java.util.function.IntUnaryOperator;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PixelKernels on the Java Vector API. Each vector holds as many packed pixels as the preferred
+ * species has int lanes; channels are unpacked with shifts and masks, weighted in integer
+ * arithmetic and packed again, so no per-pixel double arithmetic is done.
+ *
+ * <p>Loaded reflectively by PixelKernels so that the rest of the model works without the
+ * incubator module. This class lives in its own source root, vector, which is compiled with
+ * --add-modules jdk.incubator.vector onto the classes of src; src itself compiles without it.
+ */
+final class VectorKernels implements PixelKernels {
+
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  // 2^23 as a float has a unit last place of one, so integers added to its bit pattern or to the
+  // float itself land exactly in the mantissa.
+  private static final int FLOAT_EXPONENT = 0x4B000000;
+  private static final int FLOAT_BIAS = 1 << 22;
+  private static final float FLOAT_OFFSET = (1 << 23) + (1 << 22);
+  private static final float ROUNDING = (1 << 23) + (1 << 22);
+  private static final int MANTISSA = 0x7FFFFF;
+
+  @Override
+  public void matrix(int[][] weights, int scale, int[] pixels, int offset, int length,
+      IntUnaryOperator exact) {
+    float reciprocal = 1f / scale;
+    int end = offset + length;
+    int bound = offset + SPECIES.loopBound(length);
+    int i = offset;
+    for (; i < bound; i += SPECIES.length()) {
+      IntVector in = IntVector.fromArray(SPECIES, pixels, i);
+      IntVector red = in.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+      IntVector green = in.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+      IntVector blue = in.and(0xFF);
+      VectorMask<Integer> undecided = SPECIES.maskAll(false);
+      IntVector out = IntVector.zero(SPECIES);
+      for (int[] row : weights) {
+        IntVector sum = red.mul(row[0]).add(green.mul(row[1])).add(blue.mul(row[2]));
+        IntVector quotient = divide(sum, scale, reciprocal);
+        undecided = undecided.or(sum.compare(VectorOperators.EQ, quotient.mul(scale)));
+        out = out.lanewise(VectorOperators.LSHL, 8).or(quotient.max(0).min(255));
+      }
+      if (weights.length == 1) {
+        out = out.mul(0x010101);
+      }
+      out.intoArray(pixels, i);
+      if (undecided.anyTrue()) {
+        for (int lane = 0; lane < SPECIES.length(); lane++) {
+          if (undecided.laneIsSet(lane)) {
+            pixels[i + lane] = exact.applyAsInt(in.lane(lane));
+          }
+        }
+      }
+    }
+    for (; i < end; i++) {
+      pixels[i] = exact.applyAsInt(pixels[i]);
+    }
+  }
+
+  /**
+   * Return floor(sum / scale) for sums of magnitude below 2^22. The sum is turned into a float
+   * through its bit pattern, which is exact in that range, and the rounded float quotient is off
+   * by at most one, which the integer remainder then corrects.
+   */
+  private static IntVector divide(IntVector sum, int scale, float reciprocal) {
+    FloatVector exact = sum.add(FLOAT_BIAS).or(FLOAT_EXPONENT).reinterpretAsFloats()
+        .sub(FLOAT_OFFSET);
+    IntVector rounded = exact.mul(reciprocal).add(ROUNDING).reinterpretAsInts()
+        .and(MANTISSA).sub(1 << 22);
+    IntVector remainder = sum.sub(rounded.mul(scale));
+    return rounded.sub(1, remainder.compare(VectorOperators.LT, 0))
+        .add(1, remainder.compare(VectorOperators.GE, scale));
+  }
+
+  @Override
+  public void value(int[] pixels, int offset, int length) {
+    int end = offset + length;
+    int bound = offset + SPECIES.loopBound(length);
+    int i = offset;
+    for (; i < bound; i += SPECIES.length()) {
+      IntVector in = IntVector.fromArray(SPECIES, pixels, i);
+      IntVector max = in.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+          .max(in.lanewise(VectorOperators.LSHR, 8).and(0xFF)).max(in.and(0xFF));
+      max.mul(0x010101).intoArray(pixels, i);
+    }
+    for (; i < end; i++) {
+      int rgb = pixels[i];
+      pixels[i] = Math.max((rgb >> 16) & 0xFF, Math.max((rgb >> 8) & 0xFF, rgb & 0xFF))
+          * 0x010101;
+    }
+  }
+
+  @Override
+  public void intensity(int[] pixels, int offset, int length) {
+    int end = offset + length;
+    int bound = offset + SPECIES.loopBound(length);
+    int i = offset;
+    for (; i < bound; i += SPECIES.length()) {
+      IntVector in = IntVector.fromArray(SPECIES, pixels, i);
+      IntVector sum = in.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+          .add(in.lanewise(VectorOperators.LSHR, 8).and(0xFF)).add(in.and(0xFF));
+      // sum * 43691 >> 17 equals sum / 3 for every sum up to 765
+      sum.mul(43691).lanewise(VectorOperators.LSHR, 17).mul(0x010101).intoArray(pixels, i);
+    }
+    for (; i < end; i++) {
+      int rgb = pixels[i];
+      pixels[i] = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3 * 0x010101;
+    }
+  }
+}